@@ -45,6 +45,7 @@ statement
 | ifStatement
 | whileStatement
 | guard
+| bench
 | display ';'
 | defCall ';'
 ;
@@ -78,6 +79,10 @@ guard: GUARD '('paramList ')' '{' statementList '}' ;
 
 paramList: condition (',' condition)* ;
 
+// bench is not reserved, so older programs can still use it as a name.
+bench: {_input.LT(1).getText().equalsIgnoreCase("bench")}?
+       IDENTIFIER '(' stringConstant ',' expression ')' '{' (statementList)? '}' ;
+
 
 
 // Definition Calls and Definitions
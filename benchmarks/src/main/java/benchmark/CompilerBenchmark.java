@@ -0,0 +1,86 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import backend.compiler.Compiler;
+import frontend.Semantics;
+import intermediate.ast.Program;
+import intermediate.symtab.SymtabEntry;
+import intermediate.util.CompilerOptions;
+
+import static intermediate.util.BackendMode.COMPILER;
+
+/**
+ * <h1>CompilerBenchmark</h1>
+ *
+ * <p>The time of Compiler.visit() over a program that was checked and
+ * lowered beforehand: the optimizers' analyses, the code generation, and the
+ * peephole optimization of each method, with and without -noopt, and
+ * with the definitions compiled in parallel. The object files are written
+ * into a temporary directory.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompilerBenchmark
+{
+    @Param({"", "-noopt", "-parallel"})
+    public String flags;
+
+    private Program program;
+    private SymtabEntry programId;
+    private CompilerOptions options;
+    private File directory;
+
+    /**
+     * Parse and check the source.
+     * @param corpus the source.
+     * @throws IOException if the temporary directory cannot be created.
+     */
+    @Setup(Level.Trial)
+    public void analyze(Corpus corpus) throws IOException
+    {
+        Semantics pass2 = new Semantics(COMPILER);
+        pass2.visit(corpus.parse());
+        program   = pass2.getProgram();
+        programId = pass2.getProgramId();
+
+        directory = Files.createTempDirectory("aka-bench").toFile();
+        options = new CompilerOptions();
+        options.parse("-d", directory.getPath());
+        if (!flags.isEmpty()) options.parse(flags);
+    }
+
+    /**
+     * Delete the object files.
+     */
+    @TearDown(Level.Trial)
+    public void delete()
+    {
+        File files[] = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+
+        directory.delete();
+    }
+
+    /**
+     * Compile the program.
+     * @return the compiler.
+     */
+    @Benchmark
+    public Compiler compile()
+    {
+        Compiler pass3 = new Compiler(programId, options);
+        pass3.visit(program);
+
+        return pass3;
+    }
+}
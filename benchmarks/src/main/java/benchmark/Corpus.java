@@ -0,0 +1,96 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Level;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+
+/**
+ * <h1>Corpus</h1>
+ *
+ * <p>The source program that a benchmark runs over: either one of the
+ * checked-in test programs, found in the directory that the aka.root
+ * system property names or else in the current directory or its parent,
+ * or a synthetic program of "synthetic-N" definitions with the
+ * generator's default seed and shape.</p>
+ */
+@State(Scope.Benchmark)
+public class Corpus
+{
+    private static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    @Param({"Test1.AKA", "Test2.AKA", "Test3.AKA", "Test4.aka",
+            "synthetic-10", "synthetic-100", "synthetic-1000"})
+    public String source;
+
+    public String text;  // the source program
+
+    /**
+     * Load or generate the source program.
+     * @throws IOException if a test program cannot be read.
+     */
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        if (source.startsWith(SYNTHETIC_PREFIX))
+        {
+            SyntheticProgram program = new SyntheticProgram();
+            program.parse("-defs", source.substring(SYNTHETIC_PREFIX.length()));
+            text = program.generate();
+        }
+        else
+        {
+            text = new String(Files.readAllBytes(find(source).toPath()),
+                              StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Parse the source program.
+     * @return a new parse tree.
+     */
+    public ParseTree parse()
+    {
+        AKALexer lexer = new AKALexer(CharStreams.fromString(text));
+        lexer.removeErrorListeners();
+
+        AKAParser parser = new AKAParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+
+        return parser.program();
+    }
+
+    /**
+     * Find a checked-in test program.
+     * @param fileName the name of its file.
+     * @return the file.
+     * @throws IOException if it is not found.
+     */
+    private static File find(String fileName) throws IOException
+    {
+        String root = System.getProperty("aka.root");
+        String directories[] = root != null ? new String[] {root}
+                                            : new String[] {".", ".."};
+
+        for (String directory : directories)
+        {
+            File file = new File(directory, fileName);
+            if (file.isFile()) return file;
+        }
+
+        throw new IOException("Test program " + fileName + " not found; "
+                              + "set -Daka.root to the repository's directory.");
+    }
+}
@@ -0,0 +1,98 @@
+package benchmark;
+
+/**
+ * <h1>JavaKernels</h1>
+ *
+ * <p>Hand-written Java versions of the AKA kernels in the kernels
+ * resource folder. Each method computes the same value with the same
+ * float operations in the same order as the AKA definition named
+ * "kernel", and prints the same output, so the two can be compared
+ * result for result.</p>
+ */
+public class JavaKernels
+{
+    public static float loops(float n)
+    {
+        float r = 0;
+
+        for (float i = 0; i < n; i = i + 1)
+        {
+            for (float j = 0; j < n; j = j + 1)
+            {
+                r = r + i*j - j/2;
+            }
+        }
+
+        return r;
+    }
+
+    public static float recursion(float n)
+    {
+        return fibonacci(n);
+    }
+
+    private static float fibonacci(float n)
+    {
+        return n > 1 ? fibonacci(n - 1) + fibonacci(n - 2) : n;
+    }
+
+    public static String strings(float n)
+    {
+        String r = "";
+
+        for (float i = 0; i < n; i = i + 1) r = r + "ab" + i;
+
+        return r;
+    }
+
+    public static float guards(float n)
+    {
+        float r = 0;
+
+        for (float i = 0; i < n; i = i + 1)
+        {
+            // A guard tests its conditions again before each statement.
+            if ((i > 2) && (i < n - 2))
+            {
+                r = r + i;
+                if ((i > 2) && (i < n - 2)) r = r - 1;
+            }
+        }
+
+        return r;
+    }
+
+    public static float dispatch(float n)
+    {
+        float r = 0;
+        float k = 0;
+
+        for (float i = 0; i < n; i = i + 1)
+        {
+            if      (k == 0) r = r + 1;
+            else if (k == 1) r = r*2;
+            else if (k == 2) r = r - 3;
+            else if (k == 3) r = r/2;
+            else             r = r + i;
+
+            k = k + 1;
+            if (k == 5) k = 0;
+        }
+
+        return r;
+    }
+
+    public static float output(float n)
+    {
+        float r = 0;
+
+        for (float i = 0; i < n; i = i + 1)
+        {
+            System.out.printf("%f\n", i);
+            System.out.printf("%s\n", "line " + i);
+            r = r + i;
+        }
+
+        return r;
+    }
+}
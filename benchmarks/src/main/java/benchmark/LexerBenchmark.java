@@ -0,0 +1,55 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.*;
+
+import antlr4.AKALexer;
+
+/**
+ * <h1>LexerBenchmark</h1>
+ *
+ * <p>The throughput of AKALexer. The tokens counter reports the tokens
+ * scanned per second beside the sources scanned per second.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark
+{
+    /**
+     * The count of the tokens scanned in an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens
+    {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() { tokens = 0; }
+    }
+
+    /**
+     * Scan a source into tokens.
+     * @param corpus the source.
+     * @param counter the token counter.
+     * @return the token stream.
+     */
+    @Benchmark
+    public CommonTokenStream lex(Corpus corpus, Tokens counter)
+    {
+        AKALexer lexer = new AKALexer(CharStreams.fromString(corpus.text));
+        lexer.removeErrorListeners();
+
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        tokens.fill();
+        counter.tokens += tokens.size();
+
+        return tokens;
+    }
+}
@@ -0,0 +1,376 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+import backend.assembler.AssemblingClassLoader;
+import backend.compiler.Compiler;
+import frontend.Semantics;
+import intermediate.util.CompilerOptions;
+
+import static intermediate.util.BackendMode.COMPILER;
+
+/**
+ * <h1>OutputCheck</h1>
+ *
+ * <p>A regression check of the optimizations: a program must print the
+ * same output whether it is compiled with the default optimizations,
+ * with -heapstack, or with -noopt. Each program is compiled each way,
+ * assembled in memory by backend.assembler, and run, and the outputs
+ * are compared with that of -noopt. The
+ * lines with the execution time are ignored, and so is a blank line at
+ * the start or the end. A program that fails to compile, load, or run
+ * prints the exception instead of its output.</p>
+ *
+ * <p>The programs are the Test*.AKA programs, found in the directory that
+ * the aka.root system property names or else in the current directory
+ * or its parent, whose outputs must also match the "$ Output:" comments
+ * at their ends; the programs in the checks resource folder, each of
+ * which an optimization once miscompiled; and synthetic programs with
+ * the seeds 1 to n and the generator's default shape.</p>
+ *
+ * <p>From the command line:</p>
+ *
+ * <pre>    java -cp target/benchmarks.jar benchmark.OutputCheck [-seeds n]</pre>
+ *
+ * <p>The exit status is 1 if any program fails the check.</p>
+ */
+public class OutputCheck
+{
+    private static final String CHECKS[] = {"deadhoist.aka", "guardcalls.aka",
+                                             "stackedloop.aka", "stackedbench.aka"};
+    private static final String FLAGS[]  = {null, "-heapstack"};  // checked against -noopt
+    private static final String ERRORS = "*** The program has errors.";
+
+    private static final Pattern EXPECTED =
+            Pattern.compile("^\\$\\s*Output:[ \\t]*\\R(.*?)^\\$\\s*$",
+                            Pattern.MULTILINE | Pattern.DOTALL);
+
+    private int seeds = 30;  // of the synthetic programs
+    private int checked;     // programs checked
+    private int failed;      // of them, the ones that failed
+
+    /**
+     * Set a parameter from a command-line flag and its value.
+     * @param flag the flag.
+     * @param value the value.
+     * @return true if the flag is valid, else false.
+     */
+    public boolean parse(String flag, String value)
+    {
+        if (flag.equals("-seeds")) seeds = Integer.parseInt(value);
+        else return false;
+
+        return true;
+    }
+
+    /**
+     * Print the valid flags.
+     */
+    public static void printUsage()
+    {
+        System.out.println("USAGE: OutputCheck [-help] [flags]");
+        System.out.println("   flags:  -seeds n  the synthetic programs, with seeds 1 to n (30)");
+    }
+
+    /**
+     * Check all the programs and print the results.
+     * @return true if every program passes, else false.
+     * @throws IOException if a program cannot be read.
+     */
+    public boolean run() throws IOException
+    {
+        for (File file : testPrograms())
+        {
+            String text = new String(Files.readAllBytes(file.toPath()),
+                                     StandardCharsets.UTF_8);
+            Matcher matcher = EXPECTED.matcher(text);
+
+            check(file.getName(), text, matcher.find() ? matcher.group(1) : null);
+        }
+
+        for (String fileName : CHECKS)
+        {
+            check(fileName, read(fileName), null);
+        }
+
+        for (int seed = 1; seed <= seeds; seed++)
+        {
+            SyntheticProgram program = new SyntheticProgram();
+            program.parse("-seed", Integer.toString(seed));
+
+            check("synthetic -seed " + seed, program.generate(), null);
+        }
+
+        System.out.printf("\n%d programs checked, %d failed.\n", checked, failed);
+        return failed == 0;
+    }
+
+    /**
+     * Check a program.
+     * @param name the name to print.
+     * @param text the source text.
+     * @param expected the expected output, or null if not known.
+     */
+    private void check(String name, String text, String expected)
+    {
+        String unoptimized = normalize(run(text, "-noopt"));
+        String problem = null;
+
+        if (unoptimized.equals(ERRORS))
+        {
+            problem = "the program has errors";
+        }
+        else if ((expected != null) && !unoptimized.equals(normalize(expected)))
+        {
+            problem = difference("output", unoptimized, "expected", normalize(expected));
+        }
+
+        for (int i = 0; (i < FLAGS.length) && (problem == null); i++)
+        {
+            String optimized = normalize(run(text, FLAGS[i]));
+
+            if (!optimized.equals(unoptimized))
+            {
+                problem = difference(FLAGS[i] != null ? FLAGS[i] : "optimized",
+                                     optimized, "-noopt", unoptimized);
+            }
+        }
+
+        ++checked;
+        if (problem == null)
+        {
+            System.out.printf("ok   %s\n", name);
+        }
+        else
+        {
+            ++failed;
+            System.out.printf("*** %s: %s\n", name, problem);
+        }
+    }
+
+    /**
+     * Compile a program into a temporary directory, load it, and run it.
+     * @param text the source text.
+     * @param flag a compiler flag, or null.
+     * @return what the program printed, or the exception that stopped it.
+     */
+    private static String run(String text, String flag)
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream standardOut = System.out;
+        InputStream standardIn  = System.in;
+        File directory = null;
+
+        try
+        {
+            AKALexer lexer = new AKALexer(CharStreams.fromString(text));
+            lexer.removeErrorListeners();
+            AKAParser parser = new AKAParser(new CommonTokenStream(lexer));
+            parser.removeErrorListeners();
+
+            Semantics pass2 = new Semantics(COMPILER);
+            pass2.visit(parser.program());
+
+            if ((parser.getNumberOfSyntaxErrors() > 0) || (pass2.getErrorCount() > 0))
+            {
+                return ERRORS;
+            }
+
+            // Generate the object files into a temporary directory,
+            // and assemble them in memory.
+            directory = Files.createTempDirectory("aka-check").toFile();
+            CompilerOptions options = new CompilerOptions();
+            options.parse("-d", directory.getPath());
+            if (flag != null) options.parse(flag);
+
+            Compiler pass3 = new Compiler(pass2.getProgramId(), options);
+            pass3.visit(pass2.getProgram());
+
+            AssemblingClassLoader loader =
+                    new AssemblingClassLoader(OutputCheck.class.getClassLoader());
+            String className = null;
+
+            for (File file : directory.listFiles())
+            {
+                String source = new String(Files.readAllBytes(file.toPath()),
+                                           StandardCharsets.UTF_8);
+                String loaded = loader.add(source);
+
+                if (file.getName().equals(pass2.getProgramId().getName() + ".j"))
+                {
+                    className = loaded;
+                }
+            }
+
+            Class<?> programClass = loader.loadClass(className);
+
+            System.setOut(new PrintStream(output, true, "UTF-8"));
+            System.setIn(new ByteArrayInputStream(new byte[0]));
+            programClass.getMethod("main", String[].class)
+                        .invoke(null, (Object) new String[0]);
+        }
+        catch (InvocationTargetException ex)
+        {
+            return output + "\n*** " + ex.getCause();
+        }
+        catch (Throwable ex)
+        {
+            return output + "\n*** " + ex;
+        }
+        finally
+        {
+            System.setOut(standardOut);
+            System.setIn(standardIn);
+
+            if (directory != null)
+            {
+                File files[] = directory.listFiles();
+                if (files != null) for (File file : files) file.delete();
+
+                directory.delete();
+            }
+        }
+
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drop the lines with the execution time, the carriage returns,
+     * and the blank lines at the start and the end.
+     * @param output the output.
+     * @return the normalized output.
+     */
+    private static String normalize(String output)
+    {
+        ArrayList<String> lines = new ArrayList<String>();
+
+        for (String line : output.replace("\r", "").split("\n", -1))
+        {
+            if (!line.contains("execution time")) lines.add(line);
+        }
+
+        while (!lines.isEmpty() && lines.get(0).trim().isEmpty()) lines.remove(0);
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).trim().isEmpty())
+        {
+            lines.remove(lines.size() - 1);
+        }
+
+        return String.join("\n", lines);
+    }
+
+    /**
+     * Describe the first line where two outputs differ.
+     * @param name1 the name of the first output.
+     * @param output1 the first output.
+     * @param name2 the name of the second output.
+     * @param output2 the second output.
+     * @return the description.
+     */
+    private static String difference(String name1, String output1,
+                                     String name2, String output2)
+    {
+        String lines1[] = output1.split("\n", -1);
+        String lines2[] = output2.split("\n", -1);
+        int i = 0;
+
+        while ((i < lines1.length) && (i < lines2.length) && lines1[i].equals(lines2[i])) i++;
+
+        return String.format("line %d: %s \"%s\", %s \"%s\"", i + 1,
+                             name1, i < lines1.length ? lines1[i] : "(end)",
+                             name2, i < lines2.length ? lines2[i] : "(end)");
+    }
+
+    /**
+     * Find the Test*.AKA programs.
+     * @return their files, sorted by name.
+     * @throws IOException if they are not found.
+     */
+    private static File[] testPrograms() throws IOException
+    {
+        String root = System.getProperty("aka.root");
+        String directories[] = root != null ? new String[] {root}
+                                            : new String[] {".", ".."};
+
+        for (String directory : directories)
+        {
+            File files[] = new File(directory).listFiles(
+                    file ->    file.isFile() && file.getName().startsWith("Test")
+                            && file.getName().toLowerCase().endsWith(".aka"));
+
+            if ((files != null) && (files.length > 0))
+            {
+                Arrays.sort(files);
+                return files;
+            }
+        }
+
+        throw new IOException("The Test*.AKA programs were not found; "
+                              + "set -Daka.root to the repository's directory.");
+    }
+
+    /**
+     * Read a program of the checks resource folder.
+     * @param fileName the name of its file.
+     * @return the source text.
+     * @throws IOException if it cannot be read.
+     */
+    private static String read(String fileName) throws IOException
+    {
+        InputStream in = OutputCheck.class.getResourceAsStream("/checks/" + fileName);
+        if (in == null) throw new IOException("Check " + fileName + " not found.");
+
+        try
+        {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Run the check from the command line.
+     * @param args the flags and their values.
+     * @throws IOException if a program cannot be read.
+     */
+    public static void main(String args[]) throws IOException
+    {
+        OutputCheck check = new OutputCheck();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-help"))
+            {
+                printUsage();
+                return;
+            }
+            else if ((i + 1 < args.length) && check.parse(args[i], args[i + 1])) ++i;
+            else
+            {
+                System.out.printf("ERROR: Invalid flag %s.\n", args[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (!check.run()) System.exit(1);
+    }
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+
+import frontend.ParallelParser;
+
+/**
+ * <h1>ParserBenchmark</h1>
+ *
+ * <p>The time of AKAParser.program() over tokens that were scanned
+ * beforehand, so that the time of the lexer is not included, and the
+ * time of ParallelParser.parse() over the source, which lexes each
+ * definition as it parses it, as with -parallel.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark
+{
+    private List<? extends Token> tokens;
+
+    /**
+     * Scan the source.
+     * @param corpus the source.
+     */
+    @Setup(Level.Trial)
+    public void scan(Corpus corpus)
+    {
+        AKALexer lexer = new AKALexer(CharStreams.fromString(corpus.text));
+        lexer.removeErrorListeners();
+
+        CommonTokenStream stream = new CommonTokenStream(lexer);
+        stream.fill();
+        tokens = stream.getTokens();
+    }
+
+    /**
+     * Parse the tokens.
+     * @return the parse tree.
+     */
+    @Benchmark
+    public ParseTree parse()
+    {
+        AKAParser parser = new AKAParser(
+                new CommonTokenStream(new ListTokenSource(tokens)));
+        parser.removeErrorListeners();
+
+        return parser.program();
+    }
+
+    /**
+     * Lex and parse the source's definitions on the common fork/join pool.
+     * @return the parse tree.
+     */
+    @Benchmark
+    public ParseTree parseInParallel(Corpus corpus)
+    {
+        return new ParallelParser(corpus.text).parse();
+    }
+}
@@ -0,0 +1,249 @@
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+import backend.assembler.AssemblingClassLoader;
+import backend.compiler.Compiler;
+import frontend.Semantics;
+import intermediate.util.CompilerOptions;
+
+import static intermediate.util.BackendMode.COMPILER;
+
+/**
+ * <h1>RuntimeBenchmark</h1>
+ *
+ * <p>The throughput of the code that the compiler generates. Each
+ * kernel is an AKA program in the kernels resource folder whose
+ * definition "kernel" is called with the kernel's input. The program
+ * is compiled with and without -noopt, assembled in memory, and loaded
+ * without writing a class file. The hand-written Java version in
+ * JavaKernels is the baseline. The trial setup checks that the two
+ * return the same value and print the same output, and then the
+ * output goes to a null stream.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuntimeBenchmark
+{
+    private static final HashMap<String, Float> INPUTS = new HashMap<String, Float>();
+    static {
+        INPUTS.put("loops",     100f);
+        INPUTS.put("recursion",  20f);
+        INPUTS.put("strings",   200f);
+        INPUTS.put("guards",   1000f);
+        INPUTS.put("dispatch", 1000f);
+        INPUTS.put("output",    100f);
+    }
+
+    private static final MethodType KERNEL_TYPE =
+            MethodType.methodType(Object.class, float.class);
+
+    @Param({"loops", "recursion", "strings", "guards", "dispatch", "output"})
+    public String kernel;
+
+    @Param({"aka", "aka-noopt", "java"})
+    public String implementation;
+
+    private MethodHandle handle;  // the kernel, returning Object
+    private float input;
+    private PrintStream systemOut;
+
+    /**
+     * Load the kernel and check it against the Java version.
+     * @throws Throwable if it cannot be compiled or loaded,
+     *                   or if it does not match.
+     */
+    @Setup(Level.Trial)
+    public void load() throws Throwable
+    {
+        input     = INPUTS.get(kernel);
+        systemOut = System.out;
+
+        MethodHandle baseline = javaKernel(kernel);
+        handle =   implementation.equals("java")      ? baseline
+                 : implementation.equals("aka-noopt") ? akaKernel(kernel, "-noopt")
+                 :                                      akaKernel(kernel, null);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual   = new ByteArrayOutputStream();
+        Object expectedValue = run(baseline, expected);
+        Object actualValue   = run(handle, actual);
+
+        if (   !Objects.equals(expectedValue, actualValue)
+            || !expected.toString().equals(actual.toString()))
+        {
+            throw new IllegalStateException(String.format(
+                    "Kernel %s returned %s, but the Java version returned %s.",
+                    kernel, actualValue, expectedValue));
+        }
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Restore the standard output.
+     */
+    @TearDown(Level.Trial)
+    public void restore()
+    {
+        System.setOut(systemOut);
+    }
+
+    /**
+     * Call the kernel.
+     * @return its value.
+     * @throws Throwable if the kernel failed.
+     */
+    @Benchmark
+    public Object call() throws Throwable
+    {
+        return (Object) handle.invokeExact(input);
+    }
+
+    private Object run(MethodHandle kernelHandle, ByteArrayOutputStream output)
+        throws Throwable
+    {
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+
+        try
+        {
+            return (Object) kernelHandle.invokeExact(input);
+        }
+        finally
+        {
+            System.setOut(systemOut);
+        }
+    }
+
+    /**
+     * Get the Java version of a kernel.
+     * @param name the kernel's name.
+     * @return its method handle.
+     * @throws ReflectiveOperationException if there is no such method.
+     */
+    private static MethodHandle javaKernel(String name)
+        throws ReflectiveOperationException
+    {
+        for (Method method : JavaKernels.class.getMethods())
+        {
+            if (method.getName().equals(name))
+            {
+                return MethodHandles.lookup().unreflect(method).asType(KERNEL_TYPE);
+            }
+        }
+
+        throw new NoSuchMethodException("JavaKernels." + name);
+    }
+
+    /**
+     * Compile an AKA kernel and load its class.
+     * @param name the kernel's name.
+     * @param flag a compiler flag, or null.
+     * @return the method handle of its definition "kernel".
+     * @throws Exception if it cannot be compiled or loaded.
+     */
+    private static MethodHandle akaKernel(String name, String flag) throws Exception
+    {
+        String fileName = name + ".aka";
+        AKAParser parser = new AKAParser(new CommonTokenStream(
+                new AKALexer(CharStreams.fromString(read(fileName), fileName))));
+        ParseTree tree = parser.program();
+
+        Semantics pass2 = new Semantics(COMPILER);
+        pass2.visit(tree);
+
+        if ((parser.getNumberOfSyntaxErrors() > 0) || (pass2.getErrorCount() > 0))
+        {
+            throw new IllegalStateException("Kernel " + fileName + " has errors.");
+        }
+
+        // Generate the object files into a temporary directory,
+        // and assemble them in memory.
+        File directory = Files.createTempDirectory("aka-kernel").toFile();
+        AssemblingClassLoader loader =
+                new AssemblingClassLoader(RuntimeBenchmark.class.getClassLoader());
+        String className = null;
+
+        try
+        {
+            CompilerOptions options = new CompilerOptions();
+            options.parse("-d", directory.getPath());
+            if (flag != null) options.parse(flag);
+
+            Compiler pass3 = new Compiler(pass2.getProgramId(), options);
+            pass3.setSourceFileName(fileName);
+            pass3.visit(pass2.getProgram());
+
+            for (File file : directory.listFiles())
+            {
+                String source = new String(Files.readAllBytes(file.toPath()),
+                                           StandardCharsets.UTF_8);
+                String loaded = loader.add(source);
+
+                if (file.getName().equals(pass2.getProgramId().getName() + ".j"))
+                {
+                    className = loaded;
+                }
+            }
+        }
+        finally
+        {
+            for (File file : directory.listFiles()) file.delete();
+            directory.delete();
+        }
+
+        Class<?> programClass = loader.loadClass(className);
+        MethodHandles.Lookup lookup =
+                MethodHandles.privateLookupIn(programClass, MethodHandles.lookup());
+
+        for (Method method : programClass.getDeclaredMethods())
+        {
+            if (method.getName().equals("kernel"))
+            {
+                return lookup.unreflect(method).asType(KERNEL_TYPE);
+            }
+        }
+
+        throw new NoSuchMethodException(fileName + ": kernel");
+    }
+
+    private static String read(String fileName) throws IOException
+    {
+        InputStream in = RuntimeBenchmark.class.getResourceAsStream("/kernels/" + fileName);
+        if (in == null) throw new IOException("Kernel " + fileName + " not found.");
+
+        try
+        {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+import backend.compiler.Compiler;
+import frontend.Semantics;
+import intermediate.util.CompilerOptions;
+
+import static intermediate.util.BackendMode.COMPILER;
+
+/**
+ * <h1>ScalingCheck</h1>
+ *
+ * <p>A regression check that the compile time of a program grows about
+ * linearly with its length. It compiles synthetic programs whose main
+ * blocks have n, 2n, 4n, and 8n statements, where a long main block is
+ * one long method for the dataflow analyses and the peephole optimizer.
+ * Each program is parsed, checked, and compiled with the default
+ * optimizations several times, and the fastest time counts. The check
+ * fails if doubling the length multiplies the time by more than the
+ * limit: 2 is linear and 4 is quadratic.</p>
+ *
+ * <p>From the command line:</p>
+ *
+ * <pre>    java -cp target/benchmarks.jar benchmark.ScalingCheck [-main n] [-limit r] [-runs n]</pre>
+ *
+ * <p>The exit status is 1 if the check fails.</p>
+ */
+public class ScalingCheck
+{
+    private static final int SIZES = 4;  // programs, each twice the last
+
+    private int mainStatements = 1000;   // of the smallest program
+    private double limit       = 3.0;    // the most time ratio of a doubling
+    private int runs           = 3;      // compilations of each program
+
+    /**
+     * Set a parameter from a command-line flag and its value.
+     * @param flag the flag.
+     * @param value the value.
+     * @return true if the flag is valid, else false.
+     */
+    public boolean parse(String flag, String value)
+    {
+        if      (flag.equals("-main"))  mainStatements = Integer.parseInt(value);
+        else if (flag.equals("-limit")) limit          = Double.parseDouble(value);
+        else if (flag.equals("-runs"))  runs           = Math.max(1, Integer.parseInt(value));
+        else return false;
+
+        return true;
+    }
+
+    /**
+     * Print the valid flags.
+     */
+    public static void printUsage()
+    {
+        System.out.println("USAGE: ScalingCheck [-help] [flags]");
+        System.out.println("   flags:  -main n   the main statements of the smallest program (1000)");
+        System.out.println("           -limit r  the most time ratio of a doubled program (3.0)");
+        System.out.println("           -runs n   the compilations of each program (3)");
+    }
+
+    /**
+     * Run the check and print the times.
+     * @return true if it passes, else false.
+     * @throws IOException if the temporary directory cannot be used.
+     */
+    public boolean run() throws IOException
+    {
+        // Warm up the compiler's code with the smallest program.
+        String warmup = generate(mainStatements);
+        for (int i = 0; i < runs; i++) compile(warmup);
+
+        System.out.printf("%10s %10s %12s %8s\n", "Statements", "Lines", "Time (ms)", "Ratio");
+        System.out.printf("%10s %10s %12s %8s\n", "----------", "-----", "---------", "-----");
+
+        boolean passed = true;
+        double previous = 0;
+
+        for (int size = 0, n = mainStatements; size < SIZES; size++, n *= 2)
+        {
+            String text = generate(n);
+            long lines = text.chars().filter(c -> c == '\n').count();
+            double best = Double.MAX_VALUE;
+
+            for (int i = 0; i < runs; i++) best = Math.min(best, compile(text));
+
+            if (previous > 0)
+            {
+                double ratio = best/previous;
+                boolean fast = ratio <= limit;
+
+                System.out.printf("%,10d %,10d %12.1f %8.2f%s\n", n, lines, best,
+                                  ratio, fast ? "" : "  *** too slow");
+                passed &= fast;
+            }
+            else
+            {
+                System.out.printf("%,10d %,10d %12.1f\n", n, lines, best);
+            }
+
+            previous = best;
+        }
+
+        System.out.println(passed ? "\nThe compile time scales linearly."
+                                  : "\n*** The compile time does not scale linearly.");
+        return passed;
+    }
+
+    /**
+     * Generate a synthetic program with the default seed and shape.
+     * @param statements the number of statements of the main block.
+     * @return the source text.
+     */
+    private static String generate(int statements)
+    {
+        SyntheticProgram program = new SyntheticProgram();
+        program.parse("-main", Integer.toString(statements));
+
+        // The programs are compiled but never loaded, so the main
+        // method may be longer than a class file allows.
+        program.parse("-maxlength", "0");
+
+        return program.generate();
+    }
+
+    /**
+     * Parse, check, and compile a program into a temporary directory.
+     * @param text the source text.
+     * @return the time in milliseconds.
+     * @throws IOException if the temporary directory cannot be used.
+     */
+    private static double compile(String text) throws IOException
+    {
+        File directory = Files.createTempDirectory("aka-scaling").toFile();
+
+        try
+        {
+            long start = System.nanoTime();
+
+            AKALexer lexer = new AKALexer(CharStreams.fromString(text));
+            lexer.removeErrorListeners();
+            AKAParser parser = new AKAParser(new CommonTokenStream(lexer));
+            parser.removeErrorListeners();
+
+            Semantics pass2 = new Semantics(COMPILER);
+            pass2.visit(parser.program());
+
+            if ((parser.getNumberOfSyntaxErrors() > 0) || (pass2.getErrorCount() > 0))
+            {
+                throw new IllegalStateException("The synthetic program has errors.");
+            }
+
+            CompilerOptions options = new CompilerOptions();
+            options.parse("-d", directory.getPath());
+
+            Compiler pass3 = new Compiler(pass2.getProgramId(), options);
+            pass3.visit(pass2.getProgram());
+
+            return (System.nanoTime() - start)/1e6;
+        }
+        finally
+        {
+            File files[] = directory.listFiles();
+            if (files != null) for (File file : files) file.delete();
+
+            directory.delete();
+        }
+    }
+
+    /**
+     * Run the check from the command line.
+     * @param args the flags and their values.
+     * @throws IOException if the temporary directory cannot be used.
+     */
+    public static void main(String args[]) throws IOException
+    {
+        ScalingCheck check = new ScalingCheck();
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-help"))
+            {
+                printUsage();
+                return;
+            }
+            else if ((i + 1 < args.length) && check.parse(args[i], args[i + 1])) ++i;
+            else
+            {
+                System.out.printf("ERROR: Invalid flag %s.\n", args[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (!check.run()) System.exit(1);
+    }
+}
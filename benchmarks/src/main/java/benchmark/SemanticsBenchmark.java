@@ -0,0 +1,58 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import frontend.Semantics;
+import intermediate.symtab.SymtabEntry;
+
+import static intermediate.util.BackendMode.COMPILER;
+
+/**
+ * <h1>SemanticsBenchmark</h1>
+ *
+ * <p>The time of Semantics.visit() over a parse tree that was parsed
+ * beforehand. Each visit builds new symbol tables and overwrites the
+ * tree's annotations, so the tree can be visited again. The definition
+ * bodies are checked one after another or, as with -parallel, on the
+ * common fork/join pool.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SemanticsBenchmark
+{
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private ParseTree tree;
+
+    /**
+     * Parse the source.
+     * @param corpus the source.
+     */
+    @Setup(Level.Trial)
+    public void parse(Corpus corpus)
+    {
+        tree = corpus.parse();
+    }
+
+    /**
+     * Check the parse tree and create its symbol tables.
+     * @return the symbol table entry of the program name.
+     */
+    @Benchmark
+    public SymtabEntry analyze()
+    {
+        Semantics pass2 = new Semantics(COMPILER);
+        pass2.setParallel(parallel);
+        pass2.visit(tree);
+
+        return pass2.getProgramId();
+    }
+}
@@ -0,0 +1,767 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * <h1>SyntheticProgram</h1>
+ *
+ * <p>A generator of large AKA programs that are valid both by the grammar
+ * and by the semantic checks, for scale and stress testing. The same seed
+ * and parameters always generate the same program, and each definition is
+ * generated from a seed of its own, so that any one of them can be
+ * generated again without the others.</p>
+ *
+ * <p>Each generated program terminates. Every WHILE loop counts a counter
+ * that nothing else assigns up to a small limit, and the call graph is
+ * layered: the definitions are split into bands in order, and those of a
+ * band call only those of the band before it, so that no call chain is
+ * longer than the number of bands. The arguments of a call contain
+ * calls only to a small depth, and once a body is longer than a limit,
+ * each of its blocks ends after its first statement, so that each
+ * method fits in the JVM's 64 KB of code. A definition is written out
+ * as soon as it is generated, so a program of millions of lines takes
+ * no more memory than one of its definitions.</p>
+ *
+ * <p>From the command line:</p>
+ *
+ * <pre>    java -cp target/benchmarks.jar benchmark.SyntheticProgram [flags] [file.aka]</pre>
+ */
+public class SyntheticProgram
+{
+    private static final char NUMBER = 'n';
+    private static final char STRING = 's';
+    private static final char BOOL   = 'b';
+
+    private static final String REL_OPERATORS[] = {"==", "~", "<", "<=", ">", ">="};
+
+    private static final double BOOL_RATIO       = 0.1;  // of bool variables
+    private static final double NO_RETURN_RATIO  = 0.2;  // of definitions
+    private static final double COMPOUND_RATIO   = 0.3;  // of statements
+    private static final double DISPLAY_RATIO    = 0.05; // of statements
+    private static final int    MAX_PARAMETERS   = 3;
+    private static final int    MAX_BLOCK_SIZE   = 3;    // nested statements
+    private static final int    MAX_ELSEIFS      = 2;
+    private static final int    MAX_CALL_DEPTH   = 2;    // calls within arguments
+
+    private long seed           = 1;
+    private int  definitions    = 10;   // number of definitions
+    private int  statements     = 8;    // per definition body
+    private int  mainStatements = 10;   // of the main block
+    private int  depth          = 2;    // nesting of if, while, and guard
+    private int  width          = 3;    // the most operands of an expression
+    private double stringRatio  = 0.25; // of string variables and definitions
+    private double callDensity  = 0.2;  // chance that an operand is a call
+    private int  bands          = 4;    // of the layered call graph
+    private int  trips          = 3;    // the most iterations of a loop
+    private int  maxLength      = 30000;  // characters of a body, or 0
+
+    // The signatures of the definitions: the return type or 0 if none,
+    // and the parameter types.
+    private char returnTypes[];
+    private String parameterTypes[];
+
+    // The state of the body being generated.
+    private Random random;
+    private int callee;         // the end of the callable definitions,
+    private int firstCallee;    //   which start here
+    private ArrayList<Variable> scope;
+    private int nextName;
+    private int callDepth;      // of the call whose arguments are generated
+    private long lineCount;
+
+    /**
+     * A variable in scope.
+     */
+    private static class Variable
+    {
+        String name;
+        char type;
+        boolean assignable;  // false for a loop counter
+
+        Variable(String name, char type, boolean assignable)
+        {
+            this.name       = name;
+            this.type       = type;
+            this.assignable = assignable;
+        }
+    }
+
+    /**
+     * Set a parameter from a command-line flag and its value.
+     * @param flag the flag.
+     * @param value the value.
+     * @return true if the flag is valid, else false.
+     */
+    public boolean parse(String flag, String value)
+    {
+        if      (flag.equals("-seed"))       seed           = Long.parseLong(value);
+        else if (flag.equals("-defs"))       definitions    = Integer.parseInt(value);
+        else if (flag.equals("-statements")) statements     = Integer.parseInt(value);
+        else if (flag.equals("-main"))       mainStatements = Integer.parseInt(value);
+        else if (flag.equals("-depth"))      depth          = Integer.parseInt(value);
+        else if (flag.equals("-width"))      width          = Math.max(1, Integer.parseInt(value));
+        else if (flag.equals("-strings"))    stringRatio    = Double.parseDouble(value);
+        else if (flag.equals("-calls"))      callDensity    = Double.parseDouble(value);
+        else if (flag.equals("-bands"))      bands          = Math.max(1, Integer.parseInt(value));
+        else if (flag.equals("-trips"))      trips          = Math.max(1, Integer.parseInt(value));
+        else if (flag.equals("-maxlength"))  maxLength      = Math.max(0, Integer.parseInt(value));
+        else return false;
+
+        return true;
+    }
+
+    /**
+     * Print the valid flags.
+     */
+    public static void printUsage()
+    {
+        System.out.println("USAGE: SyntheticProgram [-help] [flags] [file.aka]");
+        System.out.println("   flags:  -seed n        the random seed (1)");
+        System.out.println("           -defs n        the number of definitions (10)");
+        System.out.println("           -statements n  the top-level statements of a definition (8)");
+        System.out.println("           -main n        the top-level statements of the main block (10)");
+        System.out.println("           -depth n       the nesting depth of if, while, and guard (2)");
+        System.out.println("           -width n       the most operands of an expression (3)");
+        System.out.println("           -strings r     the ratio of string variables and definitions (0.25)");
+        System.out.println("           -calls r       the chance that an operand is a call (0.2)");
+        System.out.println("           -bands n       the bands of the layered call graph (4)");
+        System.out.println("           -trips n       the most iterations of a loop (3)");
+        System.out.println("           -maxlength n   the most characters of a body, or 0 for no limit (30000)");
+    }
+
+    /**
+     * Generate the program into a string.
+     * @return the source text.
+     */
+    public String generate()
+    {
+        StringWriter out = new StringWriter();
+
+        try
+        {
+            write(out);
+        }
+        catch (IOException ignored) {}
+
+        return out.toString();
+    }
+
+    /**
+     * Generate the program, one definition at a time.
+     * @param out where to write the source text.
+     * @return the number of lines written.
+     * @throws IOException if the text cannot be written.
+     */
+    public long write(Writer out) throws IOException
+    {
+        lineCount = 0;
+        generateSignatures();
+
+        write(out, "synthetic {\n");
+
+        for (int i = 0; i < definitions; i++)
+        {
+            write(out, generateDefinition(i));
+        }
+
+        write(out, generateMain());
+        write(out, "}\n");
+        out.flush();
+
+        return lineCount;
+    }
+
+    /**
+     * Generate the return and parameter types of all the definitions.
+     */
+    private void generateSignatures()
+    {
+        random = new Random(seed);
+        returnTypes    = new char[definitions];
+        parameterTypes = new String[definitions];
+
+        for (int i = 0; i < definitions; i++)
+        {
+            // A definition cannot return a bool.
+            char returnType = randomType();
+            returnTypes[i] =    (random.nextDouble() < NO_RETURN_RATIO)
+                             || (returnType == BOOL) ? 0 : returnType;
+
+            StringBuilder types = new StringBuilder();
+            int count = random.nextInt(MAX_PARAMETERS + 1);
+            for (int j = 0; j < count; j++) types.append(randomType());
+
+            parameterTypes[i] = types.toString();
+        }
+    }
+
+    /**
+     * Generate a definition.
+     * @param index the index of the definition.
+     * @return the source text.
+     */
+    private String generateDefinition(int index)
+    {
+        random = new Random(seed*31 + index + 1);
+        scope  = new ArrayList<Variable>();
+        nextName = 0;
+
+        // The definitions of the band before this one's.
+        int band = (int) ((long) index*bands/definitions);
+        firstCallee = band > 0 ? bandStart(band - 1) : 0;
+        callee      = band > 0 ? bandStart(band)     : 0;
+
+        StringBuilder buffer = new StringBuilder();
+        String types = parameterTypes[index];
+
+        buffer.append("    def f").append(index).append('(');
+
+        for (int i = 0; i < types.length(); i++)
+        {
+            String name = "p" + i;
+            if (i > 0) buffer.append(", ");
+            buffer.append(typeName(types.charAt(i))).append(' ').append(name);
+            scope.add(new Variable(name, types.charAt(i), true));
+        }
+
+        char returnType = returnTypes[index];
+        if (returnType != 0)
+        {
+            buffer.append(types.isEmpty() ? ": " : " : ")
+                  .append(typeName(returnType)).append(" r");
+        }
+
+        buffer.append(") {\n");
+
+        // Initialize the return variable before it is in scope.
+        if (returnType != 0)
+        {
+            indent(buffer, 2).append("r = ").append(expression(returnType, width))
+                             .append(";\n");
+            scope.add(new Variable("r", returnType, true));
+        }
+
+        generateStatements(buffer, statements, 0, 2);
+        buffer.append("    }\n");
+
+        return buffer.toString();
+    }
+
+    /**
+     * Generate the main block, which may call any definition.
+     * @return the source text.
+     */
+    private String generateMain()
+    {
+        random = new Random(seed*31);
+        scope  = new ArrayList<Variable>();
+        nextName = 0;
+        firstCallee = 0;
+        callee      = definitions;
+
+        StringBuilder buffer = new StringBuilder();
+
+        buffer.append("    main {\n");
+        generateStatements(buffer, mainStatements, 0, 2);
+
+        // Display everything so that no result is dead.
+        for (Variable variable : scope)
+        {
+            indent(buffer, 2).append("display(").append(variable.name).append(");\n");
+        }
+
+        buffer.append("    }\n");
+
+        return buffer.toString();
+    }
+
+    /**
+     * Generate a list of statements. The variables that they declare
+     * go out of scope after the last one.
+     * @param buffer where to append the statements.
+     * @param count the number of statements.
+     * @param level the nesting level.
+     * @param indentation the indentation level.
+     */
+    private void generateStatements(StringBuilder buffer, int count,
+                                    int level, int indentation)
+    {
+        int scopeSize = scope.size();
+
+        for (int i = 0; i < count; i++)
+        {
+            // A block needs at least one statement.
+            if ((i > 0) && (maxLength > 0) && (buffer.length() > maxLength)) break;
+
+            generateStatement(buffer, level, indentation);
+        }
+
+        if (level > 0) scope.subList(scopeSize, scope.size()).clear();
+    }
+
+    /**
+     * Generate a statement.
+     * @param buffer where to append the statement.
+     * @param level the nesting level.
+     * @param indentation the indentation level.
+     */
+    private void generateStatement(StringBuilder buffer, int level, int indentation)
+    {
+        double choice = random.nextDouble();
+        int index;
+
+        if ((level < depth) && (choice < COMPOUND_RATIO))
+        {
+            switch (random.nextInt(3))
+            {
+                case 0:  generateIf(buffer, level, indentation);    break;
+                case 1:  generateWhile(buffer, level, indentation); break;
+                default: generateGuard(buffer, level, indentation); break;
+            }
+        }
+        else if (choice < COMPOUND_RATIO + DISPLAY_RATIO)
+        {
+            indent(buffer, indentation).append("display(")
+                  .append(expression(randomType(), width)).append(");\n");
+        }
+        else if (   (choice < COMPOUND_RATIO + DISPLAY_RATIO + callDensity)
+                 && ((index = randomCallee((char) 0)) >= 0))
+        {
+            indent(buffer, indentation).append(call(index)).append(";\n");
+        }
+        else
+        {
+            Variable target = randomVariable(randomType(), true);
+
+            if ((target == null) || random.nextBoolean())
+            {
+                char type = randomType();
+                String name = "v" + nextName++;
+                indent(buffer, indentation).append(typeName(type)).append(' ')
+                      .append(name).append(" = ").append(expression(type, width))
+                      .append(";\n");
+                scope.add(new Variable(name, type, true));
+            }
+            else
+            {
+                indent(buffer, indentation).append(target.name).append(" = ")
+                      .append(expression(target.type, width)).append(";\n");
+            }
+        }
+    }
+
+    /**
+     * Generate an IF statement with any ELSEIF and ELSE blocks.
+     * @param buffer where to append the statement.
+     * @param level the nesting level.
+     * @param indentation the indentation level.
+     */
+    private void generateIf(StringBuilder buffer, int level, int indentation)
+    {
+        indent(buffer, indentation).append("if (").append(expression(BOOL, width))
+                                   .append(") {\n");
+        generateBlock(buffer, level, indentation);
+
+        int elseifs = random.nextInt(MAX_ELSEIFS + 1);
+        for (int i = 0; i < elseifs; i++)
+        {
+            indent(buffer, indentation).append("elseif (")
+                  .append(expression(BOOL, width)).append(") {\n");
+            generateBlock(buffer, level, indentation);
+        }
+
+        if (random.nextBoolean())
+        {
+            indent(buffer, indentation).append("else {\n");
+            generateBlock(buffer, level, indentation);
+        }
+    }
+
+    /**
+     * Generate a counted WHILE loop.
+     * @param buffer where to append the statement.
+     * @param level the nesting level.
+     * @param indentation the indentation level.
+     */
+    private void generateWhile(StringBuilder buffer, int level, int indentation)
+    {
+        String counter = "i" + nextName++;
+
+        indent(buffer, indentation).append("number ").append(counter)
+                                   .append(" = 0;\n");
+        indent(buffer, indentation).append("while (").append(counter).append(" < ")
+              .append(1 + random.nextInt(trips)).append(") {\n");
+
+        scope.add(new Variable(counter, NUMBER, false));
+        generateStatements(buffer, 1 + random.nextInt(MAX_BLOCK_SIZE),
+                           level + 1, indentation + 1);
+        indent(buffer, indentation + 1).append(counter).append(" = ")
+                                       .append(counter).append(" + 1;\n");
+        indent(buffer, indentation).append("}\n");
+    }
+
+    /**
+     * Generate a guard statement.
+     * @param buffer where to append the statement.
+     * @param level the nesting level.
+     * @param indentation the indentation level.
+     */
+    private void generateGuard(StringBuilder buffer, int level, int indentation)
+    {
+        indent(buffer, indentation).append("guard(").append(expression(BOOL, width));
+        if (random.nextBoolean()) buffer.append(", ").append(expression(BOOL, width));
+        buffer.append(") {\n");
+
+        generateBlock(buffer, level, indentation);
+    }
+
+    /**
+     * Generate the statements and closing brace of a nested block.
+     * @param buffer where to append the block.
+     * @param level the nesting level of the statement that owns the block.
+     * @param indentation the indentation level of that statement.
+     */
+    private void generateBlock(StringBuilder buffer, int level, int indentation)
+    {
+        generateStatements(buffer, 1 + random.nextInt(MAX_BLOCK_SIZE),
+                           level + 1, indentation + 1);
+        indent(buffer, indentation).append("}\n");
+    }
+
+    /**
+     * Generate an expression.
+     * @param type the type of its value.
+     * @param maxOperands the most operands.
+     * @return the source text.
+     */
+    private String expression(char type, int maxOperands)
+    {
+        int operands = 1 + random.nextInt(maxOperands);
+
+        switch (type)
+        {
+            case NUMBER: return numberExpression(operands);
+            case STRING: return stringExpression(operands);
+            default:     return boolExpression(operands);
+        }
+    }
+
+    /**
+     * Generate a number expression of terms and factors.
+     * @param operands the number of operands.
+     * @return the source text.
+     */
+    private String numberExpression(int operands)
+    {
+        StringBuilder buffer = new StringBuilder(numberFactor(operands));
+
+        for (int i = 1; i < operands; i++)
+        {
+            buffer.append(' ').append("+-*/".charAt(random.nextInt(4))).append(' ')
+                  .append(numberFactor(operands));
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Generate a number operand.
+     * @param operands the number of operands of its expression.
+     * @return the source text.
+     */
+    private String numberFactor(int operands)
+    {
+        String factor = operand(NUMBER);
+        if (factor != null) return factor;
+
+        if ((operands > 1) && (random.nextInt(4) == 0))
+        {
+            return "(" + numberExpression(operands/2) + ")";
+        }
+        else if (random.nextInt(4) == 0)
+        {
+            return random.nextInt(100) + "." + random.nextInt(10);
+        }
+        else return Integer.toString(random.nextInt(100));
+    }
+
+    /**
+     * Generate a string expression: a string operand followed by
+     * string and number operands that are concatenated to it.
+     * @param operands the number of operands.
+     * @return the source text.
+     */
+    private String stringExpression(int operands)
+    {
+        StringBuilder buffer = new StringBuilder(stringFactor());
+
+        for (int i = 1; i < operands; i++)
+        {
+            buffer.append(" + ").append(random.nextBoolean() ? stringFactor()
+                                                             : numberFactor(1));
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Generate a string operand.
+     * @return the source text.
+     */
+    private String stringFactor()
+    {
+        String factor = operand(STRING);
+        return factor != null ? factor : "\"w" + random.nextInt(1000) + "\"";
+    }
+
+    /**
+     * Generate a bool expression: a comparison, or comparisons joined
+     * by AND and OR.
+     * @param operands the number of operands.
+     * @return the source text.
+     */
+    private String boolExpression(int operands)
+    {
+        if (operands == 1) return boolFactor();
+
+        int comparisons = Math.min(1 + random.nextInt(operands/2 + 1), 3);
+        StringBuilder buffer = new StringBuilder(comparison(operands/comparisons));
+
+        for (int i = 1; i < comparisons; i++)
+        {
+            buffer.insert(0, '(').append(") ").append(random.nextBoolean() ? "and" : "or")
+                  .append(" (").append(comparison(operands/comparisons)).append(')');
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Generate a bool operand.
+     * @return the source text.
+     */
+    private String boolFactor()
+    {
+        String factor = operand(BOOL);
+        if (factor != null) return random.nextInt(4) == 0 ? "not " + factor : factor;
+
+        return random.nextBoolean() ? "true" : "false";
+    }
+
+    /**
+     * Generate a comparison of numbers or strings.
+     * @param operands the number of operands of each side.
+     * @return the source text.
+     */
+    private String comparison(int operands)
+    {
+        operands = Math.max(1, operands);
+
+        if (random.nextInt(4) == 0)
+        {
+            return stringFactor() + (random.nextBoolean() ? " == " : " ~ ")
+                   + stringFactor();
+        }
+
+        return numberExpression(operands) + " "
+               + REL_OPERATORS[random.nextInt(REL_OPERATORS.length)] + " "
+               + numberExpression(operands);
+    }
+
+    /**
+     * Generate a variable or a call operand, or choose a constant.
+     * @param type the type of the operand.
+     * @return the source text, or null for a constant.
+     */
+    private String operand(char type)
+    {
+        if ((random.nextDouble() < callDensity) && (callDepth < MAX_CALL_DEPTH))
+        {
+            int index = randomCallee(type);
+            if (index >= 0) return call(index);
+        }
+
+        if (random.nextInt(4) != 0)
+        {
+            Variable variable = randomVariable(type, false);
+            if (variable != null) return variable.name;
+        }
+
+        return null;
+    }
+
+    /**
+     * Generate a call with arguments of one operand each.
+     * @param index the index of the definition to call.
+     * @return the source text.
+     */
+    private String call(int index)
+    {
+        String types = parameterTypes[index];
+        StringBuilder buffer = new StringBuilder("f").append(index).append('(');
+
+        ++callDepth;
+        for (int i = 0; i < types.length(); i++)
+        {
+            if (i > 0) buffer.append(", ");
+            buffer.append(expression(types.charAt(i), 1));
+        }
+        --callDepth;
+
+        return buffer.append(')').toString();
+    }
+
+    /**
+     * Choose a definition of the band that may be called.
+     * @param type the return type, or 0 for a definition without one.
+     * @return its index, or -1 if there is none of the type.
+     */
+    private int randomCallee(char type)
+    {
+        if (callee <= firstCallee) return -1;
+
+        // Probe a few, so that each choice takes bounded time.
+        for (int i = 0; i < 8; i++)
+        {
+            int index = firstCallee + random.nextInt(callee - firstCallee);
+            if (returnTypes[index] == type) return index;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Choose a variable in scope.
+     * @param type the type of the variable.
+     * @param assignable true if it will be assigned.
+     * @return the variable, or null if there is none.
+     */
+    private Variable randomVariable(char type, boolean assignable)
+    {
+        if (scope.isEmpty()) return null;
+
+        for (int i = 0; i < 8; i++)
+        {
+            Variable variable = scope.get(random.nextInt(scope.size()));
+            if ((variable.type == type) && (variable.assignable || !assignable))
+            {
+                return variable;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Choose a variable type by the string ratio.
+     * @return the type.
+     */
+    private char randomType()
+    {
+        double choice = random.nextDouble();
+
+        return   choice < stringRatio              ? STRING
+               : choice < stringRatio + BOOL_RATIO ? BOOL
+               :                                     NUMBER;
+    }
+
+    /**
+     * Get the index of the first definition of a band.
+     * @param band the band.
+     * @return the index.
+     */
+    private int bandStart(int band)
+    {
+        return (int) (((long) band*definitions + bands - 1)/bands);
+    }
+
+    /**
+     * Get the name of a type.
+     * @param type the type.
+     * @return the name.
+     */
+    private static String typeName(char type)
+    {
+        switch (type)
+        {
+            case NUMBER: return "number";
+            case STRING: return "string";
+            default:     return "bool";
+        }
+    }
+
+    /**
+     * Append an indentation.
+     * @param buffer where to append it.
+     * @param indentation the indentation level.
+     * @return the buffer.
+     */
+    private static StringBuilder indent(StringBuilder buffer, int indentation)
+    {
+        for (int i = 0; i < indentation; i++) buffer.append("    ");
+        return buffer;
+    }
+
+    /**
+     * Write text and count its lines.
+     * @param out where to write it.
+     * @param text the text.
+     * @throws IOException if it cannot be written.
+     */
+    private void write(Writer out, String text) throws IOException
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (text.charAt(i) == '\n') ++lineCount;
+        }
+
+        out.write(text);
+    }
+
+    /**
+     * Generate a program from the command line.
+     * @param args the flags and their values, then the file name, or
+     *             none to write to the standard output.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void main(String args[]) throws IOException
+    {
+        SyntheticProgram program = new SyntheticProgram();
+        String fileName = null;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-help"))
+            {
+                printUsage();
+                return;
+            }
+            else if ((i + 1 < args.length) && program.parse(args[i], args[i + 1])) ++i;
+            else if ((i == args.length - 1) && !args[i].startsWith("-")) fileName = args[i];
+            else
+            {
+                System.out.printf("ERROR: Invalid flag %s.\n", args[i]);
+                printUsage();
+                return;
+            }
+        }
+
+        Writer out = new BufferedWriter(fileName != null
+                                            ? new FileWriter(fileName)
+                                            : new OutputStreamWriter(System.out));
+        long lines = program.write(out);
+        out.close();
+
+        if (fileName != null)
+        {
+            System.out.printf("%,d lines written to %s.\n", lines, fileName);
+        }
+    }
+}
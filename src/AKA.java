@@ -1,17 +1,34 @@
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import antlr4.*;
 
 import frontend.*;
+import intermediate.ast.Definition;
+import intermediate.ast.Program;
 import intermediate.symtab.*;
 import intermediate.util.BackendMode;
+import intermediate.util.CompilerOptions;
+import intermediate.util.CrossReferencer;
+import intermediate.util.PhaseStatistics;
+import intermediate.util.CompilerEvents.*;
 //import backend.converter.Converter;
 //import backend.interpreter.Executor;
+import backend.compiler.CodeGenerator;
 import backend.compiler.Compiler;
+import backend.compiler.DefinitionCache;
 
 import static intermediate.util.BackendMode.*;
 
@@ -19,15 +36,32 @@ public class AKA
 {
     public static void main(String[] args) throws Exception 
     {
-        if (args.length != 2)
+        if (args.length < 2)
         {
-            System.out.println("USAGE: PascalJava option sourceFileName");
+            System.out.println("USAGE: PascalJava option [flags] sourceFileName");
             System.out.println("   option: -convert, -execute, or -compile");
+            CompilerOptions.printUsage();
             return;
         }
         
         String option = args[0];
-        String sourceFileName = args[1];
+        String sourceFileName = args[args.length - 1];
+        CompilerOptions options = new CompilerOptions();
+        
+        for (int i = 1; i < args.length - 1; i++)
+        {
+            boolean valid = 
+                  CompilerOptions.hasValue(args[i]) && (i + 1 < args.length - 1)
+                ? options.parse(args[i], args[++i])
+                : options.parse(args[i]);
+            
+            if (!valid)
+            {
+                System.out.printf("ERROR: Invalid flag %s.\n", args[i]);
+                CompilerOptions.printUsage();
+                return;
+            }
+        }
 
         BackendMode mode = EXECUTOR;
         
@@ -40,39 +74,70 @@ public class AKA
             System.out.println("   Valid options: -convert, -execute, or -compile");
         }
         
-        // Generate a source file listing.
-        new Listing(sourceFileName);
+        String conflict = options.conflictingFlag();
+        if (conflict != null)
+        {
+            System.out.printf("ERROR: Flag %s cannot be used with %s.\n", conflict,
+                              options.isIncremental() ? "-incremental" : "-stream");
+            return;
+        }
         
-        // Create the input stream.
-        InputStream source = new FileInputStream(sourceFileName);
+        String problem = options.objectDirectoryProblem();
+        if (problem != null)
+        {
+            System.out.printf("*** Object directory \"%s\" %s.\n", 
+                              options.getObjectDirectory(), problem);
+            return;
+        }
         
-        // Create the character stream from the input stream.
-        CharStream cs = CharStreams.fromStream(source);
+        PhaseStatistics statistics = new PhaseStatistics(options.isParallel());
         
-        // Custom syntax error handler.
-        SyntaxErrorHandler syntaxErrorHandler = new SyntaxErrorHandler();
+        // Generate a source file listing.
+        ListingEvent listingEvent = new ListingEvent();
+        PhaseStatistics.Phase phase = statistics.begin("Listing", listingEvent);
+        Listing listing = new Listing(sourceFileName);
+        listingEvent.sourceFile = sourceFileName;
+        listingEvent.lineCount  = listing.getLineCount();
+        statistics.end(phase);
         
-        // Create a lexer which scans the character stream
-        // to create a token stream.
-        AKALexer lexer = new AKALexer(cs);
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(syntaxErrorHandler);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        if (options.isStreaming())
+        {
+            try
+            {
+                compileStreaming(sourceFileName, mode, options, statistics);
+            }
+            catch (UncheckedIOException ex)
+            {
+                printFileError(ex);
+            }
+            return;
+        }
         
-        // Create a parser which parses the token stream.
-        AKAParser parser = new AKAParser(tokens);
+        // Pass 1: Check syntax and create the parse tree. With -parallel,
+        // the definitions are lexed and parsed on all cores, unless the
+        // source has syntax errors, which the parse of the whole source
+        // then reports.
+        ParsingEvent parsingEvent = new ParsingEvent();
+        ParseTree tree = null;
         
-        // Pass 1: Check syntax and create the parse tree.
-        System.out.printf("\nPASS 1 Syntax: ");
-        parser.removeErrorListeners();
-        parser.addErrorListener(syntaxErrorHandler);
-        ParseTree tree = parser.program();
+        if (options.isParallel())
+        {
+            tree = parseInParallel(sourceFileName, parsingEvent, statistics);
+        }
+        if (tree == null)
+        {
+            parsingEvent = new ParsingEvent();
+            tree = parse(sourceFileName, parsingEvent, statistics);
+        }
+        
+        int nodeCount = parsingEvent.nodeCount;
+        int errorCount = parsingEvent.errorCount;
         
-        int errorCount = syntaxErrorHandler.getCount();
         if (errorCount > 0) 
         {
             System.out.printf("\nThere were %d syntax errors.\n", errorCount);
             System.out.println("Object file not created or modified.");
+            if (options.isStats()) statistics.print();
             return;
         }
         else
@@ -82,17 +147,39 @@ public class AKA
         
         // Pass 2: Semantic operations.
         System.out.printf("\nPASS 2 Semantics:\n");
+        SemanticsEvent semanticsEvent = new SemanticsEvent();
+        phase = statistics.begin("Semantic analysis", semanticsEvent);
         Semantics pass2 = new Semantics(mode);
+        pass2.setParallel(options.isParallel());
         pass2.visit(tree);
         
+        int symbolCount = PhaseStatistics.countSymbols(pass2.getProgramId());
         errorCount = pass2.getErrorCount();
+        semanticsEvent.nodeCount   = nodeCount;
+        semanticsEvent.symbolCount = symbolCount;
+        semanticsEvent.errorCount  = errorCount;
+        statistics.end(phase);
+        
+        // Print the cross-reference table.
+        CrossReferenceEvent crossReferenceEvent = new CrossReferenceEvent();
+        phase = statistics.begin("Cross-reference", crossReferenceEvent);
+        new CrossReferencer().print(pass2.getSymtabStack());
+        crossReferenceEvent.symbolCount = symbolCount;
+        statistics.end(phase);
+        
         if (errorCount > 0)
         {
             System.out.printf("\nThere were %d semantic errors.\n", errorCount);
             System.out.println("Object file not created or modified.");
+            if (options.isStats()) statistics.print();
             return;
         }
 
+        // The backend compiles the lowered program, so the parse tree
+        // and the parser's tokens can be garbage collected.
+        Program program = pass2.getProgram();
+        tree = null;
+        
         // Pass 3: Translation.
         switch (mode)
         {
@@ -122,14 +209,369 @@ public class AKA
             {
                 // Pass 3: Compile the Pascal program.
                 System.out.printf("\nPASS 3 Compilation: ");
+                CodeGenerationEvent codeEvent = new CodeGenerationEvent();
+                phase = statistics.begin("Code generation", codeEvent);
+                int startCount = CodeGenerator.getCount();
+                
                 SymtabEntry programId = pass2.getProgramId();
-                Compiler pass3 = new Compiler(programId);
-                pass3.visit(tree);
+                Compiler pass3;
+                
+                try
+                {
+                    pass3 = new Compiler(programId, options);
+                    pass3.setSourceFileName(new File(sourceFileName).getName());
+                    pass3.setStatistics(statistics);
+                    pass3.visit(program);
+                }
+                catch (UncheckedIOException ex)
+                {
+                    printFileError(ex);
+                    return;
+                }
+                
+                codeEvent.definition       = "";
+                codeEvent.nodeCount        = nodeCount;
+                codeEvent.instructionCount = CodeGenerator.getCount() - startCount;
+                statistics.end(phase);
                 
                 System.out.printf("Object file \"%s\" created.\n",
                                   pass3.getObjectFileName());
+                
+                if (options.isReporting() && options.isOptimizing()) 
+                {
+                    printReports(pass3);
+                }
+                
+                if (options.isStats()) statistics.print();
                 break;
             }
         }
     }
+    
+    /**
+     * Print why a file of the compiler could not be written or read.
+     * @param ex the exception.
+     */
+    private static void printFileError(UncheckedIOException ex)
+    {
+        System.out.printf("\n*** %s: %s\n", ex.getMessage(), 
+                          ex.getCause().getMessage());
+    }
+    
+    /**
+     * Lex and parse the whole source file.
+     * @param sourceFileName the name of the source file.
+     * @param parsingEvent the event of the parsing phase, whose counts
+     *                     are set.
+     * @param statistics the time and memory of each phase.
+     * @return the parse tree.
+     * @throws IOException if the source file cannot be read.
+     */
+    private static ParseTree parse(String sourceFileName, ParsingEvent parsingEvent,
+                                   PhaseStatistics statistics)
+        throws IOException
+    {
+        // Create the input stream.
+        InputStream source = new FileInputStream(sourceFileName);
+        
+        // Create the character stream from the input stream.
+        CharStream cs = CharStreams.fromStream(source);
+        
+        // Custom syntax error handler.
+        SyntaxErrorHandler syntaxErrorHandler = new SyntaxErrorHandler();
+        
+        // Create a lexer which scans the character stream
+        // to create a token stream.
+        AKALexer lexer = new AKALexer(cs);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(syntaxErrorHandler);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        
+        // Scan all the tokens before parsing, to time the two apart.
+        LexingEvent lexingEvent = new LexingEvent();
+        PhaseStatistics.Phase phase = statistics.begin("Lexing", lexingEvent);
+        tokens.fill();
+        lexingEvent.sourceSize = new File(sourceFileName).length();
+        lexingEvent.tokenCount = tokens.size();
+        statistics.end(phase);
+        
+        // Create a parser which parses the token stream.
+        AKAParser parser = new AKAParser(tokens);
+        
+        System.out.printf("\nPASS 1 Syntax: ");
+        phase = statistics.begin("Parsing", parsingEvent);
+        parser.removeErrorListeners();
+        parser.addErrorListener(syntaxErrorHandler);
+        ParseTree tree = parser.program();
+        
+        parsingEvent.tokenCount = tokens.size();
+        parsingEvent.nodeCount  = PhaseStatistics.countNodes(tree);
+        parsingEvent.errorCount = syntaxErrorHandler.getCount();
+        statistics.end(phase);
+        
+        return tree;
+    }
+    
+    /**
+     * Lex and parse the definitions of the source file on all cores.
+     * @param sourceFileName the name of the source file.
+     * @param parsingEvent the event of the parsing phase, whose counts
+     *                     are set.
+     * @param statistics the time and memory of each phase.
+     * @return the parse tree, or null if the source has syntax errors.
+     * @throws IOException if the source file cannot be read.
+     */
+    private static ParseTree parseInParallel(String sourceFileName,
+                                             ParsingEvent parsingEvent,
+                                             PhaseStatistics statistics)
+        throws IOException
+    {
+        PhaseStatistics.Phase phase = statistics.begin("Parallel parsing", 
+                                                       parsingEvent);
+        String source = new String(Files.readAllBytes(Paths.get(sourceFileName)),
+                                   StandardCharsets.UTF_8);
+        ParallelParser parser = new ParallelParser(source);
+        ParseTree tree = parser.parse();
+        
+        if (tree != null)
+        {
+            parsingEvent.tokenCount = parser.getTokenCount();
+            parsingEvent.nodeCount  = PhaseStatistics.countNodes(tree);
+        }
+        statistics.end(phase);
+        
+        if (tree != null) System.out.printf("\nPASS 1 Syntax: ");
+        return tree;
+    }
+    
+    /**
+     * Compile a program one definition at a time. The first pass reads
+     * the whole source for the program name and the signatures of the
+     * definitions. Then each definition, and last the main block, is
+     * parsed, checked, and compiled, and its parse tree is released
+     * before the next one is read. The compiler's memory grows with the
+     * largest definition rather than with the whole program. With
+     * -incremental, a definition that has not changed since the last
+     * compilation is neither parsed nor checked, and its method is
+     * copied from the definition cache.
+     * @param sourceFileName the name of the source file.
+     * @param mode the backend mode.
+     * @param options the command-line options.
+     * @param statistics the time and memory of each phase.
+     * @throws IOException if the source file cannot be read.
+     */
+    private static void compileStreaming(String sourceFileName, BackendMode mode,
+                                         CompilerOptions options,
+                                         PhaseStatistics statistics)
+        throws IOException
+    {
+        SyntaxErrorHandler syntaxErrorHandler = new SyntaxErrorHandler();
+        Semantics pass2 = new Semantics(mode);
+        HashMap<String, String> signatureHashes = new HashMap<String, String>();
+        
+        // Pass 1: Enter the program name and the signatures of the
+        // definitions, so that a call can come before its definition.
+        System.out.printf("\nPASS 1 Signatures: ");
+        LexingEvent lexingEvent = new LexingEvent();
+        PhaseStatistics.Phase phase = statistics.begin("Signatures", lexingEvent);
+        DefinitionStream signatures = 
+                new DefinitionStream(sourceFileName, syntaxErrorHandler, true);
+        
+        for (DefinitionStream.Part part = signatures.next(); 
+             part != null; 
+             part = signatures.next())
+        {
+            ParserRuleContext tree = signatures.parse(part);
+            if (syntaxErrorHandler.getCount() > 0) continue;
+            
+            if (part.kind == DefinitionStream.Kind.PROGRAM)
+            {
+                pass2.declareProgram((AKAParser.ProgramIdentifierContext) tree);
+            }
+            else if (part.kind == DefinitionStream.Kind.DEFINITION)
+            {
+                pass2.declareDefinitions((AKAParser.DefListContext) tree);
+                if (options.isIncremental()) 
+                {
+                    signatureHashes.put(part.getName(), part.hashHead());
+                }
+            }
+        }
+        
+        lexingEvent.sourceSize = new File(sourceFileName).length();
+        lexingEvent.tokenCount = signatures.getTokenCount();
+        statistics.end(phase);
+        
+        int errorCount = syntaxErrorHandler.getCount();
+        if (errorCount > 0) 
+        {
+            System.out.printf("\nThere were %d syntax errors.\n", errorCount);
+            System.out.println("Object file not created or modified.");
+            if (options.isStats()) statistics.print();
+            return;
+        }
+        else
+        {
+            System.out.println("There were no syntax errors in the signatures.");
+        }
+        
+        // Pass 2: Parse, check, and compile each definition and then
+        // the main block. The methods go to a temporary file.
+        System.out.printf("\nPASS 2 Definitions:\n");
+        CodeGenerationEvent codeEvent = new CodeGenerationEvent();
+        phase = statistics.begin("Definitions", codeEvent);
+        int startCount = CodeGenerator.getCount();
+        int nodeCount = 0;
+        
+        SymtabEntry programId = pass2.getProgramId();
+        Compiler pass3 = new Compiler(programId, options);
+        pass3.setSourceFileName(new File(sourceFileName).getName());
+        pass3.setStatistics(statistics);
+        
+        // An incremental compilation reuses the method of each definition
+        // that has not changed, and neither have the signatures that it
+        // uses. Such a definition is neither parsed nor checked.
+        DefinitionCache cache = null;
+        if (options.isIncremental())
+        {
+            cache = new DefinitionCache(
+                        new File(options.getObjectDirectory(), 
+                                 programId.getName() + ".cache"),
+                        options.getCodeFlags());
+            
+            for (Map.Entry<String, String> signature : signatureHashes.entrySet())
+            {
+                cache.declare(signature.getKey(), signature.getValue());
+            }
+        }
+        
+        DefinitionStream definitions = 
+                new DefinitionStream(sourceFileName, syntaxErrorHandler, false);
+        
+        for (DefinitionStream.Part part = definitions.next(); 
+             part != null; 
+             part = definitions.next())
+        {
+            if (   (part.kind == DefinitionStream.Kind.PROGRAM)
+                || (part.kind == DefinitionStream.Kind.END)) continue;
+            
+            String hash = null;
+            if ((cache != null) && (part.kind == DefinitionStream.Kind.DEFINITION))
+            {
+                hash = part.hash();
+                String method = cache.lookup(part.getName(), hash, part.getLine());
+                
+                if (method != null)
+                {
+                    pass3.emitCachedDefinition(part.getName(), part.getLine(), 
+                                               part.getEndLine(), method);
+                    continue;
+                }
+            }
+            
+            ParserRuleContext tree = definitions.parse(part);
+            nodeCount += PhaseStatistics.countNodes(tree);
+            
+            // After a syntax error, only parse.
+            if (syntaxErrorHandler.getCount() == 0) pass2.visit(tree);
+            boolean valid =    (syntaxErrorHandler.getCount() == 0) 
+                            && (pass2.getErrorCount() == 0);
+            
+            if (part.kind == DefinitionStream.Kind.DEFINITION)
+            {
+                ArrayList<Definition> lowered = pass2.takeDefinitions();
+                if (valid && (cache != null))
+                {
+                    for (Definition definition : lowered)
+                    {
+                        String method = pass3.compileDefinition(definition);
+                        cache.store(definition.name, hash, definition.line, 
+                                    method, part.getIdentifiers());
+                    }
+                }
+                else if (valid) pass3.compileDefinitions(lowered);
+                
+                // Release the lowered bodies.
+                for (Definition definition : lowered)
+                {
+                    definition.routineId.setExecutable(null);
+                }
+            }
+            else if (valid)
+            {
+                pass3.compileMain(pass2.getMain());
+            }
+        }
+        
+        codeEvent.definition       = "";
+        codeEvent.nodeCount        = nodeCount;
+        codeEvent.instructionCount = CodeGenerator.getCount() - startCount;
+        statistics.end(phase);
+        
+        errorCount = syntaxErrorHandler.getCount();
+        if (errorCount > 0) 
+        {
+            pass3.discardStreamedProgram();
+            System.out.printf("\nThere were %d syntax errors.\n", errorCount);
+            System.out.println("Object file not created or modified.");
+            if (options.isStats()) statistics.print();
+            return;
+        }
+        
+        // Print the cross-reference table.
+        CrossReferenceEvent crossReferenceEvent = new CrossReferenceEvent();
+        phase = statistics.begin("Cross-reference", crossReferenceEvent);
+        new CrossReferencer().print(pass2.getSymtabStack());
+        crossReferenceEvent.symbolCount = PhaseStatistics.countSymbols(programId);
+        statistics.end(phase);
+        
+        errorCount = pass2.getErrorCount();
+        if (errorCount > 0)
+        {
+            pass3.discardStreamedProgram();
+            System.out.printf("\nThere were %d semantic errors.\n", errorCount);
+            System.out.println("Object file not created or modified.");
+            if (options.isStats()) statistics.print();
+            return;
+        }
+        
+        // Pass 3: Write the object file.
+        System.out.printf("\nPASS 3 Compilation: ");
+        pass3.emitStreamedProgram();
+        System.out.printf("Object file \"%s\" created.\n",
+                          pass3.getObjectFileName());
+        
+        if (cache != null)
+        {
+            cache.save();
+            System.out.printf("Reused %d of %d definitions from \"%s\".\n",
+                              cache.getReuseCount(), cache.getDefinitionCount(),
+                              cache.getFile().getName());
+        }
+        
+        if (options.isReporting() && options.isOptimizing()) printReports(pass3);
+        if (options.isStats()) statistics.print();
+    }
+    
+    /**
+     * Print the reports of the optimization passes.
+     * @param pass3 the compiler.
+     */
+    private static void printReports(Compiler pass3)
+    {
+        if (pass3.getInliner() != null) pass3.getInliner().printStatistics();
+        pass3.getLoopInvariantAnalyzer().printStatistics();
+        pass3.getLoopUnroller().printStatistics();
+        pass3.getConstantPropagator().printStatistics();
+        pass3.getDeadCodeEliminator().printReport();
+        pass3.getCommonSubexpressionEliminator().printStatistics();
+        pass3.getAlgebraicSimplifier().printStatistics();
+        
+        if (pass3.getProfileData() != null)
+        {
+            pass3.getProfileData().printStatistics();
+        }
+        
+        pass3.getPeepholeOptimizer().printStatistics();
+    }
 }
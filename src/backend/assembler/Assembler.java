@@ -0,0 +1,327 @@
+package backend.assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <h1>Assembler</h1>
+ *
+ * <p>Assemble the Jasmin subset emitted by the code generators into
+ * class file bytes, so that generated programs can be loaded and run
+ * in memory without an external assembler.</p>
+ */
+public class Assembler
+{
+    private static final int MAJOR_VERSION = 49;  // no StackMapTable needed
+
+    private ConstantPool pool;
+    private String className;
+    private String superName;
+    private String sourceName;
+    private ArrayList<byte[]> fields;
+    private ArrayList<byte[]> methods;
+    private MethodAssembler method;
+    private int lineNumber;
+
+    /**
+     * Assemble Jasmin source text.
+     * @param source the source text.
+     * @return the class file bytes.
+     */
+    public byte[] assemble(String source)
+    {
+        pool       = new ConstantPool();
+        fields     = new ArrayList<byte[]>();
+        methods    = new ArrayList<byte[]>();
+        className  = null;
+        superName  = "java/lang/Object";
+        sourceName = null;
+        method     = null;
+        lineNumber = 0;
+
+        for (String line : source.split("\n"))
+        {
+            ++lineNumber;
+            List<String> tokens = tokenize(line);
+            if (tokens.isEmpty()) continue;
+
+            try
+            {
+                if (tokens.get(0).startsWith(".")) assembleDirective(tokens);
+                else if (method == null)
+                {
+                    throw new AssemblerException("instruction outside method");
+                }
+                else method.assembleLine(tokens);
+            }
+            catch (AssemblerException ex)
+            {
+                throw new AssemblerException(String.format(
+                        "line %d: %s: %s", lineNumber, ex.getMessage(), line));
+            }
+        }
+
+        return classBytes();
+    }
+
+    /**
+     * Get the name of the most recently assembled class.
+     * @return the name, with '/' separators.
+     */
+    public String getClassName() { return className; }
+
+    /**
+     * Assemble a directive line.
+     * @param tokens the tokens of the line.
+     */
+    private void assembleDirective(List<String> tokens)
+    {
+        String directive = tokens.get(0);
+
+        switch (directive)
+        {
+            case ".class":
+            {
+                className = tokens.get(tokens.size() - 1);
+                break;
+            }
+            case ".super":
+            {
+                superName = tokens.get(1);
+                break;
+            }
+            case ".source":
+            {
+                sourceName = tokens.get(1);
+                break;
+            }
+            case ".field":
+            {
+                int i = 1;
+                int access = 0;
+                while (AccessFlags.isFlag(tokens.get(i)))
+                {
+                    access |= AccessFlags.value(tokens.get(i++));
+                }
+                fields.add(fieldBytes(access, tokens.get(i), tokens.get(i + 1)));
+                break;
+            }
+            case ".method":
+            {
+                int i = 1;
+                int access = 0;
+                while (AccessFlags.isFlag(tokens.get(i)))
+                {
+                    access |= AccessFlags.value(tokens.get(i++));
+                }
+                String signature = tokens.get(i);
+                int paren = signature.indexOf('(');
+                method = new MethodAssembler(pool, access,
+                                             signature.substring(0, paren),
+                                             signature.substring(paren));
+                break;
+            }
+            case ".limit":
+            {
+                requireMethod();
+                int value = Integer.parseInt(tokens.get(2));
+                if (tokens.get(1).equals("stack")) method.setMaxStack(value);
+                else                               method.setMaxLocals(value);
+                break;
+            }
+            case ".var":
+            {
+                requireMethod();
+                // .var slot is name descriptor [from label to label]
+                int slot = Integer.parseInt(tokens.get(1));
+                String from = tokens.size() > 6 ? tokens.get(6) : null;
+                String to   = tokens.size() > 8 ? tokens.get(8) : null;
+                method.addLocalVariable(slot, tokens.get(3), tokens.get(4),
+                                        from, to);
+                break;
+            }
+            case ".line":
+            {
+                requireMethod();
+                method.addLineNumber(Integer.parseInt(tokens.get(1)));
+                break;
+            }
+            case ".end":
+            {
+                if (tokens.get(1).equals("method"))
+                {
+                    requireMethod();
+                    methods.add(method.methodBytes());
+                    method = null;
+                }
+                break;
+            }
+            default:
+                throw new AssemblerException("unknown directive " + directive);
+        }
+    }
+
+    /**
+     * Verify that a method is being assembled.
+     */
+    private void requireMethod()
+    {
+        if (method == null)
+        {
+            throw new AssemblerException("directive outside method");
+        }
+    }
+
+    /**
+     * Create the bytes of a field_info structure.
+     */
+    private byte[] fieldBytes(int access, String name, String descriptor)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try
+        {
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(0);
+        }
+        catch (IOException ex)
+        {
+            throw new AssemblerException(ex.getMessage());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Create the bytes of the whole class file.
+     */
+    private byte[] classBytes()
+    {
+        if (className == null) throw new AssemblerException("missing .class");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try
+        {
+            int thisIndex   = pool.classRef(className);
+            int superIndex  = pool.classRef(superName);
+            int sourceIndex = sourceName != null ? pool.utf8(sourceName) : 0;
+            int sourceAttr  = sourceName != null ? pool.utf8("SourceFile") : 0;
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            pool.write(out);
+            out.writeShort(AccessFlags.value("public")
+                           | AccessFlags.value("super"));
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0);  // interfaces
+
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+
+            out.writeShort(methods.size());
+            for (byte[] m : methods) out.write(m);
+
+            if (sourceName != null)
+            {
+                out.writeShort(1);
+                out.writeShort(sourceAttr);
+                out.writeInt(2);
+                out.writeShort(sourceIndex);
+            }
+            else out.writeShort(0);
+        }
+        catch (IOException ex)
+        {
+            throw new AssemblerException(ex.getMessage());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Split a source line into tokens. A semicolon that starts a token
+     * begins a comment. Quoted strings are single tokens that keep
+     * their quotes.
+     * @param line the source line.
+     * @return the list of tokens.
+     */
+    static List<String> tokenize(String line)
+    {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int length = line.length();
+
+        while (i < length)
+        {
+            char ch = line.charAt(i);
+
+            if (Character.isWhitespace(ch)) { ++i; continue; }
+            if (ch == ';') break;
+
+            int start = i;
+            if (ch == '"')
+            {
+                for (++i; i < length; ++i)
+                {
+                    char c = line.charAt(i);
+                    if (c == '\\') ++i;
+                    else if (c == '"') { ++i; break; }
+                }
+            }
+            else
+            {
+                while ((i < length) && !Character.isWhitespace(line.charAt(i)))
+                {
+                    ++i;
+                }
+            }
+
+            tokens.add(line.substring(start, Math.min(i, length)));
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Unchecked exception for malformed assembly source.
+     */
+    public static class AssemblerException extends RuntimeException
+    {
+        private static final long serialVersionUID = 0L;
+
+        public AssemblerException(String message) { super(message); }
+    }
+
+    /**
+     * Class, field and method access flags.
+     */
+    static class AccessFlags
+    {
+        private static final HashMap<String, Integer> FLAGS = new HashMap<String, Integer>();
+        static {
+            FLAGS.put("public",       0x0001);
+            FLAGS.put("private",      0x0002);
+            FLAGS.put("protected",    0x0004);
+            FLAGS.put("static",       0x0008);
+            FLAGS.put("final",        0x0010);
+            FLAGS.put("super",        0x0020);
+            FLAGS.put("synchronized", 0x0020);
+            FLAGS.put("volatile",     0x0040);
+            FLAGS.put("transient",    0x0080);
+        }
+
+        static boolean isFlag(String token) { return FLAGS.containsKey(token); }
+        static int value(String token)      { return FLAGS.get(token); }
+    }
+}
@@ -0,0 +1,55 @@
+package backend.assembler;
+
+import java.util.HashMap;
+
+/**
+ * <h1>AssemblingClassLoader</h1>
+ *
+ * <p>Load classes from Jasmin source that was assembled in memory,
+ * such as the object files of a compiled AKA program. The classes
+ * are defined when they are first loaded.</p>
+ */
+public class AssemblingClassLoader extends ClassLoader
+{
+    private HashMap<String, byte[]> classes;  // class name to class file bytes
+
+    /**
+     * Constructor.
+     * @param parent the loader of the classes that the assembled ones use.
+     */
+    public AssemblingClassLoader(ClassLoader parent)
+    {
+        super(parent);
+        this.classes = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Assemble a class.
+     * @param source the Jasmin source text.
+     * @return the name of the class, with '.' separators.
+     */
+    public String add(String source)
+    {
+        Assembler assembler = new Assembler();
+        byte[] bytes = assembler.assemble(source);
+        String name = assembler.getClassName().replace('/', '.');
+
+        classes.put(name, bytes);
+        return name;
+    }
+
+    /**
+     * Define an assembled class.
+     * @param name the name of the class.
+     * @return the class.
+     * @throws ClassNotFoundException if it was not assembled.
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException
+    {
+        byte[] bytes = classes.remove(name);
+        if (bytes == null) throw new ClassNotFoundException(name);
+
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+}
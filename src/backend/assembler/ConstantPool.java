@@ -0,0 +1,120 @@
+package backend.assembler;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * <h1>ConstantPool</h1>
+ *
+ * <p>The constant pool of a class file being assembled.
+ * Equal constants share a single entry.</p>
+ */
+class ConstantPool
+{
+    private static final int UTF8         = 1;
+    private static final int INTEGER      = 3;
+    private static final int FLOAT        = 4;
+    private static final int CLASS        = 7;
+    private static final int STRING       = 8;
+    private static final int FIELDREF     = 9;
+    private static final int METHODREF    = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private ArrayList<Object[]> entries;        // tag followed by operands
+    private HashMap<String, Integer> indexes;   // entry key to pool index
+
+    /**
+     * Constructor.
+     */
+    ConstantPool()
+    {
+        entries = new ArrayList<Object[]>();
+        indexes = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Find or add an entry.
+     * @param key the unique key of the entry.
+     * @param entry the tag and operands of the entry.
+     * @return the pool index.
+     */
+    private int add(String key, Object... entry)
+    {
+        Integer index = indexes.get(key);
+
+        if (index == null)
+        {
+            entries.add(entry);
+            index = entries.size();  // pool indexes start at 1
+            indexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    int utf8(String text)    { return add("U" + text, UTF8, text); }
+    int integer(int value)   { return add("I" + value, INTEGER, value); }
+    int string(String text)  { return add("S" + text, STRING, utf8(text)); }
+
+    int floatValue(float value)
+    {
+        return add("F" + Float.floatToRawIntBits(value), FLOAT, value);
+    }
+
+    int classRef(String name)
+    {
+        return add("C" + name, CLASS, utf8(name));
+    }
+
+    int nameAndType(String name, String descriptor)
+    {
+        return add("N" + name + " " + descriptor, NAME_AND_TYPE,
+                   utf8(name), utf8(descriptor));
+    }
+
+    int fieldRef(String owner, String name, String descriptor)
+    {
+        return add("R" + owner + "." + name + " " + descriptor, FIELDREF,
+                   classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor)
+    {
+        return add("M" + owner + "." + name + descriptor, METHODREF,
+                   classRef(owner), nameAndType(name, descriptor));
+    }
+
+    /**
+     * Write the constant pool count and entries.
+     * @param out the output stream.
+     * @throws IOException if an I/O error occurred.
+     */
+    void write(DataOutputStream out) throws IOException
+    {
+        out.writeShort(entries.size() + 1);
+
+        for (Object[] entry : entries)
+        {
+            int tag = (Integer) entry[0];
+            out.writeByte(tag);
+
+            switch (tag)
+            {
+                case UTF8:    out.writeUTF((String) entry[1]);  break;
+                case INTEGER: out.writeInt((Integer) entry[1]); break;
+                case FLOAT:   out.writeFloat((Float) entry[1]); break;
+
+                case CLASS:
+                case STRING:
+                    out.writeShort((Integer) entry[1]);
+                    break;
+
+                default:
+                    out.writeShort((Integer) entry[1]);
+                    out.writeShort((Integer) entry[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package backend.assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import backend.assembler.Assembler.AssemblerException;
+
+/**
+ * <h1>MethodAssembler</h1>
+ *
+ * <p>Assemble the instructions of one method into a method_info
+ * structure with its Code attribute.</p>
+ */
+class MethodAssembler
+{
+    /**
+     * Kinds of instruction operands.
+     */
+    private enum Operand
+    {
+        NONE, BYTE, SHORT, LOCAL, IINC, LDC, FIELD, METHOD, CLASS,
+        NEWARRAY, BRANCH
+    }
+
+    private static final HashMap<String, Integer> OPCODES  = new HashMap<String, Integer>();
+    private static final HashMap<String, Operand> OPERANDS = new HashMap<String, Operand>();
+
+    private static void op(int code, Operand operand, String... names)
+    {
+        for (String name : names)
+        {
+            OPCODES.put(name, code++);
+            OPERANDS.put(name, operand);
+        }
+    }
+
+    static {
+        op(0x00, Operand.NONE, "nop", "aconst_null", "iconst_m1", "iconst_0",
+           "iconst_1", "iconst_2", "iconst_3", "iconst_4", "iconst_5",
+           "lconst_0", "lconst_1", "fconst_0", "fconst_1", "fconst_2",
+           "dconst_0", "dconst_1");
+        op(0x10, Operand.BYTE,   "bipush");
+        op(0x11, Operand.SHORT,  "sipush");
+        op(0x12, Operand.LDC,    "ldc");
+        op(0x15, Operand.LOCAL,  "iload", "lload", "fload", "dload", "aload");
+        op(0x1a, Operand.NONE,   "iload_0", "iload_1", "iload_2", "iload_3",
+           "lload_0", "lload_1", "lload_2", "lload_3",
+           "fload_0", "fload_1", "fload_2", "fload_3",
+           "dload_0", "dload_1", "dload_2", "dload_3",
+           "aload_0", "aload_1", "aload_2", "aload_3",
+           "iaload", "laload", "faload", "daload", "aaload", "baload",
+           "caload", "saload");
+        op(0x36, Operand.LOCAL,  "istore", "lstore", "fstore", "dstore",
+           "astore");
+        op(0x3b, Operand.NONE,   "istore_0", "istore_1", "istore_2", "istore_3",
+           "lstore_0", "lstore_1", "lstore_2", "lstore_3",
+           "fstore_0", "fstore_1", "fstore_2", "fstore_3",
+           "dstore_0", "dstore_1", "dstore_2", "dstore_3",
+           "astore_0", "astore_1", "astore_2", "astore_3",
+           "iastore", "lastore", "fastore", "dastore", "aastore", "bastore",
+           "castore", "sastore",
+           "pop", "pop2", "dup", "dup_x1", "dup_x2", "dup2", "dup2_x1",
+           "dup2_x2", "swap",
+           "iadd", "ladd", "fadd", "dadd", "isub", "lsub", "fsub", "dsub",
+           "imul", "lmul", "fmul", "dmul", "idiv", "ldiv", "fdiv", "ddiv",
+           "irem", "lrem", "frem", "drem", "ineg", "lneg", "fneg", "dneg",
+           "ishl", "lshl", "ishr", "lshr", "iushr", "lushr",
+           "iand", "land", "ior", "lor", "ixor", "lxor");
+        op(0x84, Operand.IINC,   "iinc");
+        op(0x85, Operand.NONE,   "i2l", "i2f", "i2d", "l2i", "l2f", "l2d",
+           "f2i", "f2l", "f2d", "d2i", "d2l", "d2f", "i2b", "i2c", "i2s",
+           "lcmp", "fcmpl", "fcmpg", "dcmpl", "dcmpg");
+        op(0x99, Operand.BRANCH, "ifeq", "ifne", "iflt", "ifge", "ifgt", "ifle",
+           "if_icmpeq", "if_icmpne", "if_icmplt", "if_icmpge", "if_icmpgt",
+           "if_icmple", "if_acmpeq", "if_acmpne", "goto");
+        op(0xac, Operand.NONE,   "ireturn", "lreturn", "freturn", "dreturn",
+           "areturn", "return");
+        op(0xb2, Operand.FIELD,  "getstatic", "putstatic", "getfield",
+           "putfield");
+        op(0xb6, Operand.METHOD, "invokevirtual", "invokespecial",
+           "invokestatic");
+        op(0xbb, Operand.CLASS,  "new");
+        op(0xbc, Operand.NEWARRAY, "newarray");
+        op(0xbd, Operand.CLASS,  "anewarray");
+        op(0xbe, Operand.NONE,   "arraylength", "athrow");
+        op(0xc0, Operand.CLASS,  "checkcast", "instanceof");
+        op(0xc6, Operand.BRANCH, "ifnull", "ifnonnull");
+
+        // Jasmin synonym.
+        OPCODES.put("invokenonvirtual", 0xb7);
+        OPERANDS.put("invokenonvirtual", Operand.METHOD);
+    }
+
+    private static final HashMap<String, Integer> ARRAY_TYPES = new HashMap<String, Integer>();
+    static {
+        ARRAY_TYPES.put("boolean", 4);
+        ARRAY_TYPES.put("char",    5);
+        ARRAY_TYPES.put("float",   6);
+        ARRAY_TYPES.put("double",  7);
+        ARRAY_TYPES.put("byte",    8);
+        ARRAY_TYPES.put("short",   9);
+        ARRAY_TYPES.put("int",    10);
+        ARRAY_TYPES.put("long",   11);
+    }
+
+    private ConstantPool pool;
+    private int access;
+    private String name;
+    private String descriptor;
+    private int maxStack;
+    private int maxLocals;
+
+    private ByteArrayOutputStream code;
+    private HashMap<String, Integer> labels;       // label name to offset
+    private ArrayList<int[]> branchFixups;         // instruction pc, operand pc
+    private ArrayList<String> branchTargets;       // parallel to branchFixups
+    private ArrayList<int[]> lineNumbers;          // start pc, line
+    private ArrayList<Object[]> localVariables;    // slot, name, desc, from, to
+
+    /**
+     * Constructor.
+     * @param pool the class's constant pool.
+     * @param access the access flags.
+     * @param name the method name.
+     * @param descriptor the method descriptor.
+     */
+    MethodAssembler(ConstantPool pool, int access,
+                    String name, String descriptor)
+    {
+        this.pool       = pool;
+        this.access     = access;
+        this.name       = name;
+        this.descriptor = descriptor;
+        this.maxStack   = 1;
+        this.maxLocals  = 1;
+
+        code           = new ByteArrayOutputStream();
+        labels         = new HashMap<String, Integer>();
+        branchFixups   = new ArrayList<int[]>();
+        branchTargets  = new ArrayList<String>();
+        lineNumbers    = new ArrayList<int[]>();
+        localVariables = new ArrayList<Object[]>();
+    }
+
+    void setMaxStack(int maxStack)   { this.maxStack = maxStack; }
+    void setMaxLocals(int maxLocals) { this.maxLocals = maxLocals; }
+
+    /**
+     * Record a source line number starting at the current offset.
+     * @param line the line number.
+     */
+    void addLineNumber(int line)
+    {
+        lineNumbers.add(new int[] { code.size(), line });
+    }
+
+    /**
+     * Record a local variable table entry.
+     * @param slot the slot number.
+     * @param varName the variable name.
+     * @param varDescriptor the type descriptor.
+     * @param from the start label or null for the method start.
+     * @param to the end label or null for the method end.
+     */
+    void addLocalVariable(int slot, String varName, String varDescriptor,
+                          String from, String to)
+    {
+        localVariables.add(new Object[] { slot, varName, varDescriptor,
+                                          from, to });
+    }
+
+    /**
+     * Assemble a label or an instruction line.
+     * @param tokens the tokens of the line.
+     */
+    void assembleLine(List<String> tokens)
+    {
+        String first = tokens.get(0);
+
+        if (first.endsWith(":"))
+        {
+            labels.put(first.substring(0, first.length() - 1), code.size());
+            if (tokens.size() > 1) assembleLine(tokens.subList(1, tokens.size()));
+            return;
+        }
+
+        String mnemonic = first.toLowerCase();
+        Integer opcode = OPCODES.get(mnemonic);
+        if (opcode == null)
+        {
+            throw new AssemblerException("unknown instruction " + first);
+        }
+
+        int pc = code.size();
+
+        switch (OPERANDS.get(mnemonic))
+        {
+            case NONE:
+                code.write(opcode);
+                break;
+
+            case BYTE:
+                code.write(opcode);
+                code.write(Integer.parseInt(tokens.get(1)));
+                break;
+
+            case SHORT:
+                code.write(opcode);
+                writeShort(Integer.parseInt(tokens.get(1)));
+                break;
+
+            case LOCAL:
+            {
+                int slot = Integer.parseInt(tokens.get(1));
+                if (slot > 255)
+                {
+                    code.write(0xc4);  // wide
+                    code.write(opcode);
+                    writeShort(slot);
+                }
+                else
+                {
+                    code.write(opcode);
+                    code.write(slot);
+                }
+                break;
+            }
+
+            case IINC:
+            {
+                int slot  = Integer.parseInt(tokens.get(1));
+                int delta = Integer.parseInt(tokens.get(2));
+                if ((slot > 255) || (delta < -128) || (delta > 127))
+                {
+                    code.write(0xc4);
+                    code.write(opcode);
+                    writeShort(slot);
+                    writeShort(delta);
+                }
+                else
+                {
+                    code.write(opcode);
+                    code.write(slot);
+                    code.write(delta);
+                }
+                break;
+            }
+
+            case LDC:
+            {
+                int index = constantIndex(tokens.get(1));
+                if (index > 255)
+                {
+                    code.write(0x13);  // ldc_w
+                    writeShort(index);
+                }
+                else
+                {
+                    code.write(opcode);
+                    code.write(index);
+                }
+                break;
+            }
+
+            case FIELD:
+            {
+                // owner/name descriptor
+                String spec = tokens.get(1);
+                int slash = spec.lastIndexOf('/');
+                code.write(opcode);
+                writeShort(pool.fieldRef(spec.substring(0, slash),
+                                         spec.substring(slash + 1),
+                                         tokens.get(2)));
+                break;
+            }
+
+            case METHOD:
+            {
+                // owner/name(descriptor) or owner.name(descriptor)
+                String spec = tokens.get(1);
+                int paren = spec.indexOf('(');
+                String path = spec.substring(0, paren);
+                int split = Math.max(path.lastIndexOf('/'), path.lastIndexOf('.'));
+                code.write(opcode);
+                writeShort(pool.methodRef(path.substring(0, split),
+                                          path.substring(split + 1),
+                                          spec.substring(paren)));
+                break;
+            }
+
+            case CLASS:
+                code.write(opcode);
+                writeShort(pool.classRef(tokens.get(1)));
+                break;
+
+            case NEWARRAY:
+                code.write(opcode);
+                code.write(ARRAY_TYPES.get(tokens.get(1)));
+                break;
+
+            case BRANCH:
+                code.write(opcode);
+                branchFixups.add(new int[] { pc, code.size() });
+                branchTargets.add(tokens.get(1));
+                writeShort(0);
+                break;
+        }
+    }
+
+    /**
+     * Return the pool index of an LDC operand.
+     * @param operand the operand text.
+     * @return the index.
+     */
+    private int constantIndex(String operand)
+    {
+        if (operand.startsWith("\""))
+        {
+            return pool.string(unescape(operand.substring(1,
+                                                   operand.length() - 1)));
+        }
+
+        try
+        {
+            return pool.integer(Integer.parseInt(operand));
+        }
+        catch (NumberFormatException ex)
+        {
+            return pool.floatValue(Float.parseFloat(operand));
+        }
+    }
+
+    /**
+     * Replace backslash escapes in a string constant.
+     * @param text the escaped text.
+     * @return the unescaped text.
+     */
+    private static String unescape(String text)
+    {
+        StringBuilder buffer = new StringBuilder();
+
+        for (int i = 0; i < text.length(); ++i)
+        {
+            char ch = text.charAt(i);
+
+            if ((ch == '\\') && (i + 1 < text.length()))
+            {
+                char next = text.charAt(++i);
+                switch (next)
+                {
+                    case 'n':  buffer.append('\n'); break;
+                    case 't':  buffer.append('\t'); break;
+                    case 'r':  buffer.append('\r'); break;
+                    default:   buffer.append(next);
+                }
+            }
+            else buffer.append(ch);
+        }
+
+        return buffer.toString();
+    }
+
+    private void writeShort(int value)
+    {
+        code.write((value >> 8) & 0xff);
+        code.write(value & 0xff);
+    }
+
+    /**
+     * Resolve the branch offsets and create the method_info bytes.
+     * @return the bytes.
+     */
+    byte[] methodBytes()
+    {
+        byte[] bytecode = code.toByteArray();
+
+        for (int i = 0; i < branchFixups.size(); ++i)
+        {
+            int[] fixup = branchFixups.get(i);
+            Integer target = labels.get(branchTargets.get(i));
+            if (target == null)
+            {
+                throw new AssemblerException(
+                        "undefined label " + branchTargets.get(i) + " in " + name);
+            }
+
+            int offset = target - fixup[0];
+            if ((offset < Short.MIN_VALUE) || (offset > Short.MAX_VALUE))
+            {
+                throw new AssemblerException("branch too far in " + name);
+            }
+            bytecode[fixup[1]]     = (byte) (offset >> 8);
+            bytecode[fixup[1] + 1] = (byte) offset;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try
+        {
+            byte[] attributes = codeAttributes(bytecode.length);
+
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(10 + bytecode.length + attributes.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0);  // exception table
+            out.write(attributes);
+        }
+        catch (IOException ex)
+        {
+            throw new AssemblerException(ex.getMessage());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Create the attributes of the Code attribute: the attribute count
+     * followed by any LineNumberTable and LocalVariableTable.
+     * @param codeLength the length of the bytecode.
+     * @return the bytes.
+     */
+    private byte[] codeAttributes(int codeLength) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = (lineNumbers.isEmpty() ? 0 : 1)
+                  + (localVariables.isEmpty() ? 0 : 1);
+
+        out.writeShort(count);
+
+        if (!lineNumbers.isEmpty())
+        {
+            out.writeShort(pool.utf8("LineNumberTable"));
+            out.writeInt(2 + 4*lineNumbers.size());
+            out.writeShort(lineNumbers.size());
+            for (int[] entry : lineNumbers)
+            {
+                out.writeShort(entry[0]);
+                out.writeShort(entry[1]);
+            }
+        }
+
+        if (!localVariables.isEmpty())
+        {
+            out.writeShort(pool.utf8("LocalVariableTable"));
+            out.writeInt(2 + 10*localVariables.size());
+            out.writeShort(localVariables.size());
+            for (Object[] entry : localVariables)
+            {
+                int start = labelOffset((String) entry[3], 0);
+                int end   = labelOffset((String) entry[4], codeLength);
+                out.writeShort(start);
+                out.writeShort(Math.max(0, end - start));
+                out.writeShort(pool.utf8((String) entry[1]));
+                out.writeShort(pool.utf8((String) entry[2]));
+                out.writeShort((Integer) entry[0]);
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private int labelOffset(String label, int defaultOffset)
+    {
+        if (label == null) return defaultOffset;
+
+        Integer offset = labels.get(label);
+        if (offset == null) throw new AssemblerException("undefined label " + label);
+
+        return offset;
+    }
+}
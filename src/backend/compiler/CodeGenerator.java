@@ -1,10 +1,17 @@
 package backend.compiler;
 
+import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 
-import antlr4.AKAParser;
+import backend.optimizer.CommonSubexpressionEliminator;
 
+import intermediate.ast.Node;
 import intermediate.symtab.*;
 import intermediate.symtab.SymtabEntry.Kind;
 import intermediate.type.*;
@@ -13,18 +20,18 @@ import intermediate.type.Typespec.Form;
 import static intermediate.symtab.SymtabEntry.Kind.*;
 import static intermediate.type.Typespec.Form.*;
 import static backend.compiler.Instruction.*;
+import static backend.compiler.InstructionList.Kind.*;
 
 public class CodeGenerator
 {    
     protected PrintWriter objectFile;
+    protected InstructionList instructions;
     protected String programName;
     protected LocalVariables localVariables;
     protected LocalStack localStack;
     protected Compiler compiler;
     
     protected String objectFileName;
-        
-    protected static int count = 0;
     
     /**
      * Constructor.
@@ -33,6 +40,18 @@ public class CodeGenerator
      * @param compiler the compiler to use.
      */
     CodeGenerator(String programName, String suffix, Compiler compiler)
+    {
+        this(programName, objectFile(programName, suffix, compiler), compiler);
+    }
+    
+    /**
+     * Constructor for code that goes to a given file.
+     * @param programName the name of the program.
+     * @param file the file.
+     * @param compiler the compiler to use.
+     * @throws UncheckedIOException if the file cannot be created.
+     */
+    CodeGenerator(String programName, File file, Compiler compiler)
     {
         this.programName    = programName;
         this.localVariables = null;
@@ -42,13 +61,50 @@ public class CodeGenerator
         // Create the Jasmin object file.
         try 
         {
-            objectFileName = programName + "." + suffix;
+            objectFileName = file.getPath();
             objectFile = new PrintWriter(new FileWriter(objectFileName));
         }
-        catch (Exception ex) 
+        catch (IOException ex) 
         {
-            ex.printStackTrace();
+            throw new UncheckedIOException("Object file \"" + objectFileName 
+                                           + "\" not created", ex);
         }
+        
+        instructions = new InstructionList(objectFile, 
+                                           compiler.getPeepholeOptimizer());
+    }
+    
+    /**
+     * Constructor for code that goes to a buffer, such as the code of
+     * a definition that is compiled in parallel with the others.
+     * @param programName the name of the program.
+     * @param buffer the buffer.
+     * @param compiler the compiler to use.
+     */
+    CodeGenerator(String programName, StringWriter buffer, Compiler compiler)
+    {
+        this.programName    = programName;
+        this.localVariables = null;
+        this.localStack     = null;
+        this.compiler       = compiler;
+        this.objectFile     = new PrintWriter(buffer);
+        
+        instructions = new InstructionList(objectFile, 
+                                           compiler.getPeepholeOptimizer());
+    }
+    
+    /**
+     * Get the object file of a program or record.
+     * @param programName the name of the program or record type.
+     * @param suffix the suffix for the object file name.
+     * @param compiler the compiler to use.
+     * @return the file, in the object directory if there is one.
+     */
+    private static File objectFile(String programName, String suffix, 
+                                   Compiler compiler)
+    {
+        String directory = compiler.getOptions().getObjectDirectory();
+        return new File(directory, programName + "." + suffix);
     }
     
     /**
@@ -60,6 +116,7 @@ public class CodeGenerator
     {
         this.compiler       = compiler;
         this.objectFile     = parent.objectFile;
+        this.instructions   = parent.instructions;
         this.objectFileName = parent.objectFileName;
         this.programName    = parent.programName;
         this.localVariables = parent.localVariables;
@@ -73,9 +130,50 @@ public class CodeGenerator
     public String getObjectFileName() { return objectFileName; }
     
     /**
-     * Close the object file.
+     * Get the number of instructions and directives emitted so far,
+     * before peephole optimization, by all the code generators.
+     * @return the number.
      */
-    public void close() { objectFile.close(); }
+    public static int getCount() { return InstructionList.getTotalCount(); }
+    
+    /**
+     * Write any pending code and close the object file.
+     */
+    public void close()
+    {
+        instructions.flush();
+        objectFile.close();
+    }
+    
+    /**
+     * Copy code that was written to another file into the object file.
+     * @param file the file.
+     * @throws UncheckedIOException if the file cannot be read.
+     */
+    protected void emitFile(File file)
+    {
+        instructions.flush();
+        
+        try (FileReader reader = new FileReader(file))
+        {
+            reader.transferTo(objectFile);
+        }
+        catch (IOException ex) 
+        {
+            throw new UncheckedIOException("Methods file \"" + file.getPath() 
+                                           + "\" not read", ex);
+        }
+    }
+    
+    /**
+     * Copy code that was written to a buffer into the object file.
+     * @param text the code.
+     */
+    protected void emitText(String text)
+    {
+        instructions.flush();
+        objectFile.print(text);
+    }
     
     /**
      * Get the local variables.
@@ -98,8 +196,7 @@ public class CodeGenerator
      */
     public void emitLine()
     {
-        objectFile.println();
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(BLANK));
     }
     
     /**
@@ -108,33 +205,53 @@ public class CodeGenerator
      */
     public void emitComment(String text)
     {
-        objectFile.println(";");
-        objectFile.println("; " + text);
-        objectFile.println(";");
-        objectFile.flush();
+        InstructionList.Item item = new InstructionList.Item(COMMENT);
+        item.operand = text;
+        instructions.add(item);
     }
 
     /**
-     * Emit a statement comment.
-     * @param ctx the StatementContext.
+     * Emit a label.
+     * @param label the label.
      */
-    public void emitComment(AKAParser.StatementContext ctx)
+    public void emitLabel(Label label)
     {
-        String text = String.format("%03d %s", ctx.getStart().getLine(), 
-                                               ctx.getText());
+        emitExpressionLabel(label);
         
-        if (text.length() <= 72) emitComment(text);
-        else                     emitComment(text.substring(0, 72) + " ...");
+        // Control flow can join here.
+        CommonSubexpressionEliminator cse = 
+                                compiler.getCommonSubexpressionEliminator();
+        if (cse != null)
+        {
+            cse.invalidateAll();
+            releaseTemporaries(cse);
+        }
     }
-
+    
     /**
-     * Emit a label.
+     * Emit a label that only branches within the same expression jump to.
+     * They come from the code just before the label, which leaves the
+     * saved subexpression values valid.
      * @param label the label.
      */
-    public void emitLabel(Label label)
+    public void emitExpressionLabel(Label label)
     {
-        objectFile.println(label + ":");
-        objectFile.flush();
+        InstructionList.Item item = new InstructionList.Item(LABEL);
+        item.label = label;
+        instructions.add(item);
+    }
+    
+    /**
+     * Release the local variables of the saved subexpression values
+     * that are no longer valid.
+     * @param cse the common subexpression eliminator.
+     */
+    protected void releaseTemporaries(CommonSubexpressionEliminator cse)
+    {
+        for (int slot : cse.takeReleasedSlots())
+        {
+            if (localVariables != null) localVariables.release(slot);
+        }
     }
 
     /**
@@ -143,8 +260,7 @@ public class CodeGenerator
      */
     public void emitLabel(int value, Label label)
     {
-        objectFile.println("\t  " + value + ": " + label);
-        objectFile.flush();
+        emitLabel(Integer.toString(value), label);
     }
 
     /**
@@ -153,8 +269,10 @@ public class CodeGenerator
      */
     public void emitLabel(String value, Label label)
     {
-        objectFile.println("\t  " + value + ": " + label);
-        objectFile.flush();
+        InstructionList.Item item = new InstructionList.Item(SWITCH_ENTRY);
+        item.operand = value;
+        item.label = label;
+        instructions.add(item);
     }
 
     /**
@@ -163,9 +281,7 @@ public class CodeGenerator
      */
     public void emitDirective(Directive directive)
     {
-        objectFile.println(directive.toString());
-        objectFile.flush();
-        ++count;
+        emitDirectiveText(directive, null);
     }
 
     /**
@@ -175,9 +291,7 @@ public class CodeGenerator
      */
     public void emitDirective(Directive directive, String operand)
     {
-        objectFile.println(directive.toString() + " " + operand);
-        objectFile.flush();
-        ++count;
+        emitDirectiveText(directive, operand);
     }
 
     /**
@@ -187,9 +301,7 @@ public class CodeGenerator
      */
     public void emitDirective(Directive directive, int operand)
     {
-        objectFile.println(directive.toString() + " " + 16);
-        objectFile.flush();
-        ++count;
+        emitDirectiveText(directive, Integer.toString(operand));
     }
 
     /**
@@ -200,10 +312,7 @@ public class CodeGenerator
     public void emitDirective(Directive directive,
                               String operand1, String operand2)
     {
-        objectFile.println(directive.toString() + " " + operand1 +
-                                                    " " + operand2);
-        objectFile.flush();
-        ++count;
+        emitDirectiveText(directive, operand1 + " " + operand2);
     }
 
     /**
@@ -215,11 +324,82 @@ public class CodeGenerator
                                String operand1, String operand2,
                                String operand3)
     {
-        objectFile.println(directive.toString() + " " + operand1 
-                                                + " " + operand2
-                                                + " " + operand3);
-        objectFile.flush();
-        ++count;
+        emitDirectiveText(directive, operand1 + " " + operand2
+                                              + " " + operand3);
+    }
+
+    /**
+     * Emit a .var directive for a local variable's entry in the
+     * local variable table.
+     * @param slot the variable's slot number.
+     * @param name the variable's name.
+     * @param descriptor the variable's type descriptor.
+     * @param start the label where the variable's range starts.
+     * @param end the label where it ends.
+     */
+    public void emitLocalVariable(int slot, String name, String descriptor,
+                                  Label start, Label end)
+    {
+        InstructionList.Item item = new InstructionList.Item(DIRECTIVE);
+        item.directive = Directive.VAR;
+        item.operand   = slot + " is " + name + " " + descriptor;
+        item.label     = start;
+        item.endLabel  = end;
+        instructions.add(item);
+    }
+
+    /**
+     * Emit a .line directive for the line number table, so that the
+     * code that follows is attributed to the source line of a construct.
+     * @param node the construct.
+     */
+    public void emitLineNumber(Node node)
+    {
+        ArrayList<InstructionList.Item> items = instructions.getItems();
+        String line = Integer.toString(node.line);
+        int i = items.size() - 1;
+        
+        // A statement that emitted no code has no line.
+        InstructionList.Item pending = null;
+        if ((i >= 0) && isLineNumber(items.get(i))) pending = items.get(i--);
+        
+        // Nor does code that continues the line before it, such as 
+        // the second test of a guard's conditions.
+        while ((i >= 0) && !isLineNumber(items.get(i))) i--;
+        
+        if ((i >= 0) && items.get(i).operand.equals(line))
+        {
+            if (pending != null) items.remove(items.size() - 1);
+        }
+        else if (pending != null) pending.operand = line;
+        else emitDirective(Directive.LINE, node.line);
+    }
+    
+    /**
+     * Determine whether an item is a .line directive.
+     * @param item the item.
+     * @return true if it is, else false.
+     */
+    private static boolean isLineNumber(InstructionList.Item item)
+    {
+        return (item.kind == DIRECTIVE) && (item.directive == Directive.LINE);
+    }
+
+    /**
+     * Append a directive to the instruction list. The end of a method
+     * writes the method's optimized code to the object file.
+     * @param directive the directive code.
+     * @param operand the operand text, or null.
+     */
+    private void emitDirectiveText(Directive directive, String operand)
+    {
+        InstructionList.Item item = new InstructionList.Item(DIRECTIVE);
+        item.directive = directive;
+        item.operand = operand;
+        instructions.add(item);
+        instructions.countEmitted();
+
+        if (directive == Directive.END_METHOD) instructions.flush();
     }
 
     /**
@@ -228,11 +408,10 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction)
     {
-        objectFile.println("\t" + instruction.toString());
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction, null, null));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     /**
@@ -242,11 +421,10 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction, String operand)
     {
-        objectFile.println("\t" + instruction.toString() + "\t" + operand);
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction, operand, null));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     /**
@@ -256,11 +434,11 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction, int operand)
     {
-        objectFile.println("\t" + instruction.toString() + "\t" + operand);
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction,
+                                 Integer.toString(operand), null));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     /**
@@ -270,11 +448,11 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction, double operand)
     {
-        objectFile.println("\t" + instruction.toString() + "\t" + operand);
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction,
+                                 Double.toString(operand), null));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     /**
@@ -284,11 +462,10 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction, Label label)
     {
-        objectFile.println("\t" + instruction.toString() + "\t" + label);
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction, null, label));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     /**
@@ -299,12 +476,11 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction, int operand1, int operand2)
     {
-        objectFile.println("\t" + instruction.toString() +
-                           "\t" + operand1 + " " + operand2);
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction,
+                                 operand1 + " " + operand2, null));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     /**
@@ -315,12 +491,11 @@ public class CodeGenerator
      */
     public void emit(Instruction instruction, String operand1, String operand2)
     {
-        objectFile.println("\t" + instruction.toString() +
-                           "\t" + operand1 + " " + operand2);
-        objectFile.flush();
+        instructions.add(new InstructionList.Item(instruction,
+                                 operand1 + " " + operand2, null));
         
         localStack.increase(instruction.stackUse);
-        ++count;
+        instructions.countEmitted();
     }
 
     // =====
@@ -424,7 +599,7 @@ public class CodeGenerator
         // Local variable.
         else 
         {
-            int slot =  variableId.getSlotNumber();
+            int slot = localVariables.slotOf(variableId);
             emitLoadLocal(type, slot);
         }
     }
@@ -492,6 +667,14 @@ public class CodeGenerator
      */
     public void emitStoreValue(SymtabEntry targetId, Typespec targetType)
     {
+        CommonSubexpressionEliminator cse = 
+                                compiler.getCommonSubexpressionEliminator();
+        if ((cse != null) && (targetId != null))
+        {
+            cse.invalidate(targetId);
+            releaseTemporaries(cse);
+        }
+        
         if (targetId == null)
         {
             emitStoreToArrayElement(targetType);
@@ -515,7 +698,6 @@ public class CodeGenerator
                                                Typespec targetType)
     {
         int nestingLevel = targetId.getSymtab().getNestingLevel();
-        int slot = targetId.getSlotNumber();
         
         // Program variable.
         if (nestingLevel == 1) 
@@ -530,6 +712,8 @@ public class CodeGenerator
         // Local variable.
         else 
         {
+            int slot = localVariables.slotOf(targetId);
+            
             emitRangeCheck(targetType);
             emitStoreLocal(targetType.baseType(), slot);
         }
@@ -624,6 +808,35 @@ public class CodeGenerator
         emit(PUTFIELD, fieldPath, typeDescriptor(fieldType));
     }
 
+    // =========
+    // Coercions
+    // =========
+
+    /**
+     * Emit code to convert the value on top of the operand stack between
+     * number and boolean, without branches. A number is true if it is not
+     * zero: FCMPL against zero gives -1, 0, or 1, whose low bit is the
+     * boolean. NaN compares as -1, so it is true.
+     * @param fromType the datatype of the value.
+     * @param toType the datatype to convert it to.
+     */
+    public void emitCoercion(Typespec fromType, Typespec toType)
+    {
+        if (   (fromType == Predefined.numberType) 
+            && (toType   == Predefined.booleanType))
+        {
+            emit(FCONST_0);
+            emit(FCMPL);
+            emit(ICONST_1);
+            emit(IAND);
+        }
+        else if (   (fromType == Predefined.booleanType) 
+                 && (toType   == Predefined.numberType))
+        {
+            emit(I2F);
+        }
+    }
+
     // ======================
     // Miscellaneous emitters
     // ======================
@@ -684,6 +897,26 @@ public class CodeGenerator
         else                                  emit(ARETURN);
     }
 
+    /**
+     * Emit a coverage probe, which increments its element of the count
+     * array, if the program is compiled with coverage probes.
+     * @param node the statement or branch body that owns the probe.
+     */
+    public void emitProbe(Node node)
+    {
+        CoverageProbes probes = compiler.getCoverageProbes();
+        int index = probes != null ? probes.indexOf(node) : -1;
+        if (index < 0) return;
+        
+        emit(GETSTATIC, programName + "/" + CoverageProbes.FIELD_NAME, "[J");
+        emitLoadConstant(index);
+        emit(DUP2);
+        emit(LALOAD);
+        emit(LCONST_1);
+        emit(LADD);
+        emit(LASTORE);
+    }
+
     /**
      * Emit code to perform a runtime range check before an assignment.
      * @param targetType the type of the assignment target.
@@ -1,33 +1,140 @@
 package backend.compiler;
 
-import antlr4.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 
+import intermediate.ast.*;
 import intermediate.symtab.*;
 import intermediate.symtab.Predefined;
+import intermediate.util.CompilerOptions;
+import intermediate.util.PhaseStatistics;
+import backend.optimizer.AlgebraicSimplifier;
+import backend.optimizer.CommonSubexpressionEliminator;
+import backend.optimizer.ConstantPropagator;
+import backend.optimizer.DeadCodeEliminator;
+import backend.optimizer.Inliner;
+import backend.optimizer.LoopInvariantAnalyzer;
+import backend.optimizer.LoopUnroller;
+import backend.optimizer.PeepholeOptimizer;
+import backend.optimizer.ProfileData;
+import backend.optimizer.PurityAnalyzer;
+import runtime.Coverage;
 
 /**
  * Compile Pascal to Jasmin assembly language.
  */
-public class Compiler extends AKABaseVisitor<Object>
+public class Compiler implements Visitor<Object>
 {
     private SymtabEntry programId;  // symbol table entry of the program name
     private String programName;     // the program name
+    private String sourceFileName;  // for the .source directive, or null
+    
+    private CompilerOptions options;          // command-line options
+    private PeepholeOptimizer peephole;       // null if not optimizing
+    private Inliner inliner;                  // null if not optimizing
+    private PurityAnalyzer purity;            // null if neither optimizing
+                                              //   nor memoizing
+    private LoopInvariantAnalyzer licm;       // null if not optimizing
+    private LoopUnroller unroller;            // null if not optimizing
+    private ConstantPropagator propagator;    // null if not optimizing
+    private DeadCodeEliminator eliminator;    // null if not optimizing
+    private CommonSubexpressionEliminator cse;  // null if not optimizing
+    private AlgebraicSimplifier simplifier;   // null if not optimizing
+    private CoverageProbes probes;            // null if no coverage
+    private ProfileData profile;              // null if no profile data
+    private PhaseStatistics statistics;       // the time of each phase
+    private File methodsFile;                 // of a streamed program, else null
+    private StringBuilder ranges;             // of a streamed program's routines,
+                                              //   for the profiler
+    private StringWriter buffer;              // of a definition compiled in
+                                              //   parallel, else null
     
     private CodeGenerator       code;            // base code generator
     private ProgramGenerator    programCode;     // program code generator
     private StatementGenerator  statementCode;   // statement code generator
     private ExpressionGenerator expressionCode;  // expression code generator
+    private RecursionGenerator  recursionCode;   // self-call code generator
     
     /**
      * Constructor for the base compiler.
      * @param programId the symtab entry for the program name.
      */
     public Compiler(SymtabEntry programId)
+    {
+        this(programId, new CompilerOptions());
+    }
+    
+    /**
+     * Constructor for the base compiler.
+     * @param programId the symtab entry for the program name.
+     * @param options the command-line options.
+     * @throws UncheckedIOException if the object file or the temporary
+     *                              methods file cannot be created.
+     */
+    public Compiler(SymtabEntry programId, CompilerOptions options)
     {
         this.programId = programId;        
+        this.options   = options;
+        this.statistics = new PhaseStatistics();
         programName = programId.getName();
+        peephole = options.isOptimizing() ? new PeepholeOptimizer() : null;
         
-        code = new CodeGenerator(programName, "j", this);
+        // A streamed program's definitions are not all known at once,
+        // so none is inlined or known to be pure.
+        if (options.isStreaming())
+        {
+            inliner = null;
+            purity  = options.isOptimizing() ? new PurityAnalyzer() : null;
+        }
+        else
+        {
+            inliner = options.isOptimizing() ? new Inliner(programId) : null;
+            purity  = options.isOptimizing() || options.isMemoizing()
+                                             ? new PurityAnalyzer(programId) : null;
+        }
+        
+        unroller = options.isOptimizing() ? new LoopUnroller(purity) : null;
+        
+        if (options.isOptimizing())
+        {
+            propagator = new ConstantPropagator();
+            eliminator = new DeadCodeEliminator(propagator);
+            licm       = new LoopInvariantAnalyzer(purity, eliminator);
+            cse        = new CommonSubexpressionEliminator(purity, propagator);
+            simplifier = new AlgebraicSimplifier(options.isFastMath(), propagator);
+            
+            ArrayList<SymtabEntry> routineIds = programId.getSubroutines();
+            if ((routineIds != null) && !options.isStreaming())
+            {
+                for (SymtabEntry routineId : routineIds) analyze(routineId);
+            }
+        }
+        
+        // A streamed program's methods go to a temporary file
+        // until its class header is known.
+        if (options.isStreaming())
+        {
+            try
+            {
+                methodsFile = File.createTempFile("aka-" + programName, ".j");
+                methodsFile.deleteOnExit();
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException("Temporary methods file not created", ex);
+            }
+            
+            code = new CodeGenerator(programName, methodsFile, this);
+            createNewGenerators(code);
+            ranges = new StringBuilder();
+        }
+        else
+        {
+            code = new CodeGenerator(programName, "j", this);
+        }
     }
     
     /**
@@ -40,6 +147,56 @@ public class Compiler extends AKABaseVisitor<Object>
         this.programCode = parent.programCode;
         this.programId   = parent.programId;
         this.programName = parent.programName;
+        this.sourceFileName = parent.sourceFileName;
+        this.options     = parent.options;
+        this.peephole    = parent.peephole;
+        this.inliner     = parent.inliner;
+        this.purity      = parent.purity;
+        this.licm        = parent.licm;
+        this.unroller    = parent.unroller;
+        this.propagator  = parent.propagator;
+        this.eliminator  = parent.eliminator;
+        this.cse         = parent.cse;
+        this.simplifier  = parent.simplifier;
+        this.probes      = parent.probes;
+        this.profile     = parent.profile;
+        this.statistics  = parent.statistics;
+    }
+    
+    /**
+     * Constructor for the compiler of a definition that is compiled on
+     * a thread of its own, in parallel with the others. Its optimizers
+     * share the analyses of the parent's, which no longer change, but
+     * keep their own state and counts, and its code goes to a buffer.
+     * @param parent the parent compiler.
+     * @param buffer the buffer.
+     */
+    private Compiler(Compiler parent, StringWriter buffer)
+    {
+        this.programId   = parent.programId;
+        this.programName = parent.programName;
+        this.sourceFileName = parent.sourceFileName;
+        this.options     = parent.options;
+        this.inliner     = parent.inliner;
+        this.purity      = parent.purity;
+        this.probes      = parent.probes;
+        this.profile     = parent.profile;
+        this.statistics  = new PhaseStatistics();
+        this.buffer      = buffer;
+        
+        if (options.isOptimizing())
+        {
+            peephole   = new PeepholeOptimizer();
+            unroller   = new LoopUnroller(parent.unroller);
+            propagator = new ConstantPropagator(parent.propagator);
+            eliminator = new DeadCodeEliminator(parent.eliminator, propagator);
+            licm       = new LoopInvariantAnalyzer(purity, eliminator);
+            cse        = new CommonSubexpressionEliminator(parent.cse, propagator);
+            simplifier = new AlgebraicSimplifier(options.isFastMath(), propagator);
+        }
+        
+        code = new CodeGenerator(programName, buffer, this);
+        createNewGenerators(code);
     }
     
     /**
@@ -49,6 +206,20 @@ public class Compiler extends AKABaseVisitor<Object>
      */
     public Compiler(Compiler parent, SymtabEntry recordId)
     {        
+        this.options  = parent.options;
+        this.peephole = parent.peephole;
+        this.inliner  = parent.inliner;
+        this.purity   = parent.purity;
+        this.licm     = parent.licm;
+        this.unroller = parent.unroller;
+        this.propagator = parent.propagator;
+        this.eliminator = parent.eliminator;
+        this.cse        = parent.cse;
+        this.simplifier = parent.simplifier;
+        this.probes     = parent.probes;
+        this.profile    = parent.profile;
+        this.statistics = parent.statistics;
+        
         String recordTypePath = recordId.getType().getRecordTypePath();
         code = new CodeGenerator(recordTypePath, "j", this);
         createNewGenerators(code);
@@ -73,216 +244,577 @@ public class Compiler extends AKABaseVisitor<Object>
      */
     public String getObjectFileName() { return code.getObjectFileName(); }
     
+    /**
+     * Get the symbol table entry of the program name.
+     * @return the entry.
+     */
+    public SymtabEntry getProgramId() { return programId; }
+    
+    /**
+     * Get the command-line options.
+     * @return the options.
+     */
+    public CompilerOptions getOptions() { return options; }
+    
+    /**
+     * Get the peephole optimizer.
+     * @return the optimizer, or null if not optimizing.
+     */
+    public PeepholeOptimizer getPeepholeOptimizer() { return peephole; }
+    
+    /**
+     * Get the inliner.
+     * @return the inliner, or null if not optimizing.
+     */
+    public Inliner getInliner() { return inliner; }
+    
+    /**
+     * Get the loop-invariant code motion analyzer.
+     * @return the analyzer, or null if not optimizing.
+     */
+    public LoopInvariantAnalyzer getLoopInvariantAnalyzer() { return licm; }
+    
+    /**
+     * Get the loop unroller.
+     * @return the unroller, or null if not optimizing.
+     */
+    public LoopUnroller getLoopUnroller() { return unroller; }
+    
+    /**
+     * Get the constant and copy propagator.
+     * @return the propagator, or null if not optimizing.
+     */
+    public ConstantPropagator getConstantPropagator() { return propagator; }
+    
+    /**
+     * Get the dead code eliminator.
+     * @return the eliminator, or null if not optimizing.
+     */
+    public DeadCodeEliminator getDeadCodeEliminator() { return eliminator; }
+    
+    /**
+     * Get the common subexpression eliminator.
+     * @return the eliminator, or null if not optimizing.
+     */
+    public CommonSubexpressionEliminator getCommonSubexpressionEliminator() 
+    { 
+        return cse; 
+    }
+    
+    /**
+     * Get the algebraic simplifier.
+     * @return the simplifier, or null if not optimizing.
+     */
+    public AlgebraicSimplifier getAlgebraicSimplifier() { return simplifier; }
+    
+    /**
+     * Get the coverage probes.
+     * @return the probes, or null if not compiled with coverage.
+     */
+    public CoverageProbes getCoverageProbes() { return probes; }
+    
+    /**
+     * Get the counts of the training run.
+     * @return the profile data, or null if none or not optimizing.
+     */
+    public ProfileData getProfileData() { return profile; }
+
+    /**
+     * Set the statistics that the phases of code generation are added to.
+     * @param statistics the statistics of the compilation.
+     */
+    public void setStatistics(PhaseStatistics statistics)
+    {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Get the statistics of the phases of code generation.
+     * @return the statistics.
+     */
+    public PhaseStatistics getStatistics() { return statistics; }
+    
+    /**
+     * Run the dataflow analyses of a definition's body.
+     * @param routineId the symbol table entry of the definition's name.
+     */
+    private void analyze(SymtabEntry routineId)
+    {
+        Definition definition = (Definition) routineId.getExecutable();
+        
+        propagator.analyze(definition.body);
+        eliminator.analyze(definition.body, definition.returnId);
+        cse.analyze(definition.body);
+        unroller.analyze(definition.body);
+    }
+    
+    /**
+     * Run the dataflow analyses of the main block.
+     * @param main the main block.
+     */
+    private void analyze(Main main)
+    {
+        propagator.analyze(main.body);
+        eliminator.analyze(main.body, null);
+        cse.analyze(main.body);
+        unroller.analyze(main.body);
+    }
+    
+    /**
+     * Compile a definition on the current thread, in parallel with 
+     * the program's other definitions, with a compiler of its own.
+     * @param definition the definition.
+     * @return the definition's compiler, whose code and reports
+     *         are then added to this compiler's by merge().
+     */
+    Compiler compileApart(Definition definition)
+    {
+        Compiler worker = new Compiler(this, new StringWriter());
+        
+        worker.programCode.emitSubroutine(definition);
+        worker.code.close();
+        
+        return worker;
+    }
+    
+    /**
+     * Get the code of a definition that was compiled in parallel.
+     * @return the Jasmin code.
+     */
+    String getBufferedCode() { return buffer.toString(); }
+    
+    /**
+     * Add the optimization reports and the phases of a definition
+     * that was compiled in parallel to this compiler's.
+     * @param worker the definition's compiler.
+     */
+    void merge(Compiler worker)
+    {
+        if (propagator != null)
+        {
+            peephole.merge(worker.peephole);
+            propagator.merge(worker.propagator);
+            eliminator.merge(worker.eliminator);
+            cse.merge(worker.cse);
+            licm.merge(worker.licm);
+            unroller.merge(worker.unroller);
+            simplifier.merge(worker.simplifier);
+        }
+        
+        statistics.add(worker.statistics);
+    }
+    
+    /**
+     * Forget the analyses of code that has been compiled.
+     */
+    private void forget()
+    {
+        if (propagator == null) return;
+        
+        propagator.forget();
+        eliminator.forget();
+        cse.forget();
+        licm.forget();
+        unroller.forget();
+    }
+    
+    /**
+     * Compile definitions of a streamed program, one at a time, after
+     * they were checked. Their methods go to the temporary file.
+     * @param definitions the definitions in source order.
+     */
+    public void compileDefinitions(ArrayList<Definition> definitions)
+    {
+        if (propagator != null)
+        {
+            for (Definition definition : definitions) analyze(definition.routineId);
+        }
+        
+        programCode.emitDefinitions(definitions);
+        ProgramGenerator.appendRanges(ranges, definitions);
+        forget();
+    }
+    
+    /**
+     * Compile a definition of a streamed program after it was checked,
+     * as compileDefinitions() does, and keep its method for the cache
+     * of an incremental compilation.
+     * @param definition the definition.
+     * @return the Jasmin code of its method.
+     */
+    public String compileDefinition(Definition definition)
+    {
+        if (propagator != null) analyze(definition.routineId);
+        
+        Compiler worker = compileApart(definition);
+        String method = worker.getBufferedCode();
+        
+        code.emitText(method);
+        merge(worker);
+        ProgramGenerator.appendRange(ranges, definition.name, 
+                                     definition.line, definition.endLine);
+        forget();
+        
+        return method;
+    }
+    
+    /**
+     * Emit the method of a definition of a streamed program that has
+     * not changed since the last incremental compilation.
+     * @param name the definition's name, as spelled in the source.
+     * @param line the definition's first source line.
+     * @param endLine the definition's last source line.
+     * @param method the method from the cache.
+     */
+    public void emitCachedDefinition(String name, int line, int endLine, String method)
+    {
+        code.emitText(method);
+        ProgramGenerator.appendRange(ranges, name, line, endLine);
+    }
+    
+    /**
+     * Compile the main block of a streamed program after it was checked.
+     * Its method goes to the temporary file.
+     * @param main the main block.
+     */
+    public void compileMain(Main main)
+    {
+        if (propagator != null) analyze(main);
+        
+        ProgramGenerator.appendRange(ranges, "main", main.line, main.endLine);
+        programCode.emitMainMethod(main, ranges.toString());
+        forget();
+    }
+    
+    /**
+     * Emit the object file of a streamed program: its class header,
+     * which needs the program variables, and then its methods from
+     * the temporary file.
+     */
+    public void emitStreamedProgram()
+    {
+        code.close();
+        
+        code = new CodeGenerator(programName, "j", this);
+        createNewGenerators(code);
+        programCode.emitStreamedProgram(programId, methodsFile);
+        
+        methodsFile.delete();
+    }
+    
+    /**
+     * Discard the methods of a streamed program that has errors.
+     */
+    public void discardStreamedProgram()
+    {
+        code.close();
+        methodsFile.delete();
+    }
+    
+    /**
+     * Determine whether or not the results of a definition are cached.
+     * With profile data, only the definitions that ran hot are.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return true if they are, else false.
+     */
+    public boolean isMemoized(SymtabEntry routineId)
+    {
+        return    options.isMemoizing() 
+               && (routineId.getKind() == SymtabEntry.Kind.DEFINITION)
+               && purity.isPure(routineId)
+               && MemoGenerator.isCacheable(routineId)
+               && ((profile == null) || profile.isHot(profile.entriesOf(routineId)));
+    }
+    
+    /**
+     * Set the name of the source file, which the generated class
+     * records for stack traces and profilers.
+     * @param sourceFileName the file name without its directory.
+     */
+    public void setSourceFileName(String sourceFileName)
+    {
+        this.sourceFileName = sourceFileName;
+    }
+    
+    /**
+     * Get the name of the source file.
+     * @return the name, or null if not set.
+     */
+    public String getSourceFileName() { return sourceFileName; }
+    
+    /**
+     * Set the local variables array of the method being compiled
+     * for the statement and expression code generators.
+     * @param localVariables the local variables array.
+     */
+    public void setLocalVariables(LocalVariables localVariables)
+    {
+        statementCode.localVariables  = localVariables;
+        expressionCode.localVariables = localVariables;
+        
+        if (cse != null) cse.startMethod();
+    }
+    
+    /**
+     * Emit the cold branch bodies of the method being compiled,
+     * after its return.
+     */
+    public void emitColdBlocks()
+    {
+        statementCode.emitColdBlocks();
+    }
+    
+    /**
+     * Set the self-call code generator of the definition being compiled.
+     * @param recursionCode the generator.
+     */
+    public void setRecursionCode(RecursionGenerator recursionCode)
+    {
+        this.recursionCode = recursionCode;
+    }
+    
+    /**
+     * Determine whether or not the definition being compiled has 
+     * self-calls that resume from the heap stack.
+     * @return true if it does, else false.
+     */
+    public boolean hasStackedCalls()
+    {
+        return (recursionCode != null) && recursionCode.hasStackedCalls();
+    }
+    
+    /**
+     * Load the counts of a training run that was compiled with coverage
+     * probes from the same source.
+     * @param program the program.
+     * @param fileName the name of the coverage file.
+     * @return the profile data, or null if it cannot be used.
+     */
+    private ProfileData loadProfileData(Program program, String fileName)
+    {
+        CoverageProbes trainingProbes = new CoverageProbes(program);
+        
+        try
+        {
+            Coverage coverage = Coverage.read(fileName);
+            
+            if (!coverage.getTable().equals(trainingProbes.getTable()))
+            {
+                System.out.printf("\n*** Profile data \"%s\" is not from this " +
+                                  "source and is ignored.\n", fileName);
+                return null;
+            }
+            
+            return new ProfileData(trainingProbes.countsOf(coverage.getCounts()),
+                                   program);
+        }
+        catch (IOException ex)
+        {
+            System.out.printf("\n*** Profile data \"%s\" is ignored: %s\n", 
+                              fileName, ex.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Visit a node of the abstract syntax tree.
+     * @param node the node.
+     * @return the visitor's result.
+     */
+    public Object visit(Node node)
+    {
+        return node.accept(this);
+    }
+    
     @Override 
-    public Object visitProgram(AKAParser.ProgramContext ctx) { 
-    	createNewGenerators(code);
-        programCode.emitProgram(ctx);
+    public Object visitProgram(Program node)
+    {
+        if (propagator != null) analyze(node.main);
+        if (options.isCoverage()) probes = new CoverageProbes(node);
+        if (options.isOptimizing() && (options.getProfileDataFileName() != null))
+        {
+            profile = loadProfileData(node, options.getProfileDataFileName());
+        }
+        
+        createNewGenerators(code);
+        programCode.emitProgram(node);
+        return null; 
+    }
+    
+    @Override 
+    public Object visitDefinition(Definition node)
+    {
+        createNewGenerators(programCode);
+        programCode.emitDefinition(node);
         return null; 
     }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitProgramIdentifier(AKAParser.ProgramIdentifierContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitDefList(AKAParser.DefListContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitFuncblock(AKAParser.FuncblockContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitMainblock(AKAParser.MainblockContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override 
-	public Object visitStatement(AKAParser.StatementContext ctx) { 
-		
-		return visitChildren(ctx); 
-	}
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override 
-	public Object visitAssignment(AKAParser.AssignmentContext ctx) {
-		statementCode.emitAssignment(ctx);
+    
+    @Override 
+    public Object visitMain(Main node)
+    {
+        return visit(node.body);
+    }
+    
+    @Override 
+    public Object visitBlock(Block node)
+    {
+        for (Statement stmt : node.statements) visitStatement(stmt);
         return null;
-	}
-	
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitLhs(AKAParser.LhsContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitRhs(AKAParser.RhsContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitVarType(AKAParser.VarTypeContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override public Object visitDeclaration(AKAParser.DeclarationContext ctx) { return visitChildren(ctx); }
-	
-	
-	@Override 
-	public Object visitIfStatement(AKAParser.IfStatementContext ctx) { 
-		statementCode.emitIf(ctx);
+    }
+    
+    /**
+     * Visit a statement of a block: mark its line and its coverage
+     * probe, and then compile it.
+     * @param stmt the statement.
+     */
+    public void visitStatement(Statement stmt)
+    {
+        statementCode.emitLineNumber(stmt);
+        statementCode.emitProbe(stmt);
+        if ((recursionCode != null) && recursionCode.emitSelfCall(stmt)) return;
+        
+        visit(stmt);
+    }
+    
+    @Override 
+    public Object visitAssignment(Assignment node)
+    {
+        statementCode.emitAssignment(node);
+        return null;
+    }
+    
+    @Override 
+    public Object visitIfStatement(IfStatement node)
+    {
+        statementCode.emitIf(node);
         return null; 
-	}
-
-	
-	@Override public Object visitCondition(AKAParser.ConditionContext ctx) { return visitChildren(ctx); }
-	/**
-	 * {@inheritDoc}
-	 *
-	 * <p>The default implementation returns the result of calling
-	 * {@link #visitChildren} on {@code ctx}.</p>
-	 */
-	@Override 
-	public Object visitWhileStatement(AKAParser.WhileStatementContext ctx) { 
-		statementCode.emitWhile(ctx);
+    }
+    
+    @Override 
+    public Object visitBranch(Branch node)
+    {
+        visit(node.condition);
+        return visit(node.body);
+    }
+    
+    @Override 
+    public Object visitWhileStatement(WhileStatement node)
+    {
+        statementCode.emitWhile(node);
         return null;
-	}
-
-	
-	@Override 
-	public Object visitDisplay(AKAParser.DisplayContext ctx) { 
-		statementCode.emitWrite(ctx);
+    }
+    
+    @Override 
+    public Object visitDisplay(Display node)
+    {
+        statementCode.emitWrite(node);
         return null;
-	}
-
-	
-	@Override 
-	public Object visitGuard(AKAParser.GuardContext ctx) { 
-		statementCode.emitGuard(ctx);
+    }
+    
+    @Override 
+    public Object visitGuard(Guard node)
+    {
+        statementCode.emitGuard(node);
         return null; 
-	}
-
-
-	
-	@Override 
-	public Object visitDefCall(AKAParser.DefCallContext ctx) {
-		statementCode.emitProcedureCall(ctx);
-		return visitChildren(ctx); 
-	}
-
-
-	
-	@Override 
-	public Object visitDefinition(AKAParser.DefinitionContext ctx) { 
-		createNewGenerators(programCode);
-        programCode.emitDefinition(ctx);
+    }
+    
+    @Override 
+    public Object visitBench(Bench node)
+    {
+        statementCode.emitBench(node);
         return null; 
-	}
-
-	
-	@Override 
-	public Object visitDefinitionnoreturn(AKAParser.DefinitionnoreturnContext ctx) { 
-		createNewGenerators(programCode);
-        programCode.emitDefinitionNoReturn(ctx);
+    }
+    
+    @Override 
+    public Object visitDefCallStatement(DefCallStatement node)
+    {
+        statementCode.emitProcedureCall(node.call);
         return null; 
-	}
-
-	
-	@Override public Object visitExpression(AKAParser.ExpressionContext ctx) { 
-		expressionCode.emitExpression(ctx);
+    }
+    
+    @Override 
+    public Object visitExpression(Expression node)
+    { 
+        expressionCode.emitExpression(node);
         return null;
-	}
-
-	
-	@Override 
-	public Object visitVariableFactor(AKAParser.VariableFactorContext ctx) { 
-		expressionCode.emitLoadValue(ctx.variable());
+    }
+    
+    @Override 
+    public Object visitSimpleExpression(SimpleExpression node)
+    { 
+        expressionCode.emitSimpleExpression(node);
         return null;
-	}
-
-	
-	@Override 
-	public Object visitNumberFactor(AKAParser.NumberFactorContext ctx) { 
-		expressionCode.emitLoadNumberConstant(ctx.numberConstant());
-		return null;
-	}
-
-	
-	@Override 
-	public Object visitStringFactor(AKAParser.StringFactorContext ctx) { 
-		String unquoted = ctx.getText().substring(1, ctx.getText().length()-1);
-		expressionCode.emitLoadConstant(unquoted);
+    }
+    
+    @Override 
+    public Object visitTerm(Term node)
+    { 
+        expressionCode.emitTerm(node);
+        return null;
+    }
+    
+    @Override 
+    public Object visitVariableFactor(VariableFactor node)
+    {
+        Object value = propagator != null ? propagator.valueOf(node) : null;
+        if (value != null)
+        {
+            expressionCode.emitLoadKnownValue(value);
+            propagator.countReplaced(value);
+            return null;
+        }
         
+        expressionCode.emitLoadValue(node);
         return null;
-	}
-	
-	
-	
-	@Override 
-	public Object visitBooleanFactor(AKAParser.BooleanFactorContext ctx) { 
-		expressionCode.emitLoadBooleanConstant(ctx.booleanConstant());
-		return null;
-	}
-
-	
-	
-	@Override public Object visitDefCallFactor(AKAParser.DefCallFactorContext ctx) { 
-		statementCode.emitFunctionCall(ctx.defCall());
+    }
+    
+    @Override 
+    public Object visitNumberFactor(NumberFactor node)
+    {
+        expressionCode.emitLoadNumberConstant(node);
+        return null;
+    }
+    
+    @Override 
+    public Object visitStringFactor(StringFactor node)
+    {
+        expressionCode.emitLoadConstant(node.value);
+        return null;
+    }
+    
+    @Override 
+    public Object visitBooleanFactor(BooleanFactor node)
+    {
+        expressionCode.emitLoadBooleanConstant(node);
+        return null;
+    }
+    
+    @Override 
+    public Object visitDefCall(DefCall node)
+    {
+        if ((recursionCode != null) && recursionCode.emitResumedCall(node)) return null;
+        if (expressionCode.emitHoisted(node)) return null;
+        if (expressionCode.emitAvailable(node)) return null;
+        
+        statementCode.emitFunctionCall(node);
+        expressionCode.emitSaved(node, node.type);
         return null; 
-	}
-	
-	
-	
-	@Override 
-	public Object visitNotFactor(AKAParser.NotFactorContext ctx) { 
-		expressionCode.emitNotFactor(ctx);
+    }
+    
+    @Override 
+    public Object visitNotFactor(NotFactor node)
+    {
+        if (expressionCode.emitHoisted(node)) return null;
+        if (expressionCode.emitAvailable(node)) return null;
+        
+        expressionCode.emitNotFactor(node);
+        expressionCode.emitSaved(node, Predefined.booleanType);
         return null; 
-	}
-
-	
-	
-	
-	@Override 
-	public Object visitParenthesizedFactor(AKAParser.ParenthesizedFactorContext ctx) { 
-		return visit(ctx.expression()); 
-	}
-
-	
-	@Override 
-	public Object visitVariable(AKAParser.VariableContext ctx) { 
-		expressionCode.emitLoadVariable(ctx);        
-        return null;
-	}
+    }
+    
+    @Override 
+    public Object visitParenthesizedFactor(ParenthesizedFactor node)
+    {
+        return visit(node.expression); 
+    }
 }
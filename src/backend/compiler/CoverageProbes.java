@@ -0,0 +1,156 @@
+package backend.compiler;
+
+import java.util.HashMap;
+
+import intermediate.ast.*;
+
+/**
+ * <h1>CoverageProbes</h1>
+ *
+ * <p>The coverage probes of a program compiled with -coverage. Each probe
+ * is an element of the class's static long array that the code at the
+ * probe's point increments. There is a probe at the start of each
+ * statement and at the entry of each branch body: the IF, ELSEIF, and
+ * ELSE blocks and the WHILE body. As in JaCoCo, the outcomes without
+ * a probe of their own are derived from the others when the counts are
+ * reported: a condition's false count is the count of the entries that
+ * reached it minus its true count, a loop exits once per entry, and a
+ * guard check fails as often as the statement before it ran without
+ * the statement after it running.</p>
+ *
+ * <p>The probe table that is passed to the runtime with the counts has
+ * one "kind line parent" entry per probe, separated by semicolons, where
+ * the parent is the probe of the statement that owns a branch or guarded
+ * statement, or -1.</p>
+ */
+public class CoverageProbes
+{
+    public static final String FIELD_NAME = "_coverage";  // the count array
+
+    public static final char STATEMENT = 'S';  // a statement
+    public static final char GUARDED   = 'G';  // a statement of a guard body
+    public static final char BRANCH    = 'B';  // an IF or ELSEIF block
+    public static final char ELSE      = 'E';  // an ELSE block
+    public static final char LOOP      = 'L';  // a WHILE body
+
+    private HashMap<Node, Integer> indexes;
+    private StringBuilder table;
+
+    /**
+     * Constructor.
+     * @param program the program.
+     */
+    public CoverageProbes(Program program)
+    {
+        indexes = new HashMap<Node, Integer>();
+        table   = new StringBuilder();
+
+        for (Definition definition : program.definitions) assign(definition.body, null);
+        assign(program.main.body, null);
+    }
+
+    /**
+     * Get the probe of a statement or branch body.
+     * @param node a statement, an IF or ELSEIF branch, an ELSE block,
+     *             or a WHILE body.
+     * @return the probe's index, or -1 if none.
+     */
+    public int indexOf(Node node)
+    {
+        Integer index = indexes.get(node);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Get the number of probes.
+     * @return the number.
+     */
+    public int count() { return indexes.size(); }
+
+    /**
+     * Get the probe table.
+     * @return the table.
+     */
+    public String getTable() { return table.toString(); }
+
+    /**
+     * Map the statements and branch bodies to their counts.
+     * @param counts the probe counts of a run.
+     * @return the map.
+     */
+    public HashMap<Node, Long> countsOf(long counts[])
+    {
+        HashMap<Node, Long> map = new HashMap<Node, Long>();
+
+        for (Node node : indexes.keySet())
+        {
+            map.put(node, counts[indexes.get(node)]);
+        }
+
+        return map;
+    }
+
+    /**
+     * Assign the probes of a block in source order. A statement's
+     * probe is assigned before the probes of its branches.
+     * @param block the block.
+     * @param guard the guard whose body the block is, or null.
+     */
+    private void assign(Block block, Guard guard)
+    {
+        for (Statement stmt : block.statements)
+        {
+            if (guard != null) add(stmt, GUARDED, stmt.line, guard);
+            else               add(stmt, STATEMENT, stmt.line, null);
+
+            if (stmt instanceof IfStatement)
+            {
+                IfStatement ifStmt = (IfStatement) stmt;
+
+                for (Branch branch : ifStmt.branches)
+                {
+                    add(branch, BRANCH, branch.line, ifStmt);
+                    assign(branch.body, null);
+                }
+
+                if (ifStmt.elseBlock != null)
+                {
+                    add(ifStmt.elseBlock, ELSE, ifStmt.elseBlock.line, ifStmt);
+                    assign(ifStmt.elseBlock, null);
+                }
+            }
+            else if (stmt instanceof WhileStatement)
+            {
+                WhileStatement loop = (WhileStatement) stmt;
+
+                add(loop.body, LOOP, loop.line, loop);
+                assign(loop.body, null);
+            }
+            else if (stmt instanceof Guard)
+            {
+                assign(((Guard) stmt).body, (Guard) stmt);
+            }
+            else if (stmt instanceof Bench)
+            {
+                assign(((Bench) stmt).body, null);
+            }
+        }
+    }
+
+    /**
+     * Add a probe.
+     * @param node the statement or branch body.
+     * @param kind the kind of probe.
+     * @param line the source line of the probe.
+     * @param parentNode the statement that owns the probe, or null if none.
+     */
+    private void add(Node node, char kind, int line, Statement parentNode)
+    {
+        int parent = parentNode != null ? indexOf(parentNode) : -1;
+
+        if (table.length() > 0) table.append(';');
+        table.append(kind).append(' ').append(line).append(' ').append(parent);
+
+        indexes.put(node, indexes.size());
+    }
+}
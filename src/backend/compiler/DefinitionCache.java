@@ -0,0 +1,300 @@
+package backend.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <h1>DefinitionCache</h1>
+ *
+ * <p>The methods of a program's definitions as an incremental
+ * compilation compiled them, kept in the file &lt;program&gt;.cache
+ * beside the object file for the next compilation. A definition's
+ * method is reused if the hash of the definition's tokens is the same
+ * and so is the hash of the signature of each definition whose name
+ * it uses. The method is then the same as if the definition were
+ * checked and compiled again, since a streamed program's definitions
+ * are compiled without inlining, and each method numbers its labels
+ * from zero. The source lines of a method are kept relative to the
+ * definition's first line, so a definition that moved is reused too.</p>
+ *
+ * <p>The file is binary: a magic number, a version, the flags that the
+ * methods were compiled with, the number of definitions, and for each
+ * definition its name, its hash, the names and signature hashes of the
+ * definitions that it uses, and its method. A file that cannot be read,
+ * or whose methods were compiled with other flags, is ignored.</p>
+ */
+public class DefinitionCache
+{
+    private static final int MAGIC   = 0x414B4144;  // "AKAD"
+    private static final int VERSION = 1;
+
+    /**
+     * The method of a definition as it was compiled.
+     */
+    private static class Entry
+    {
+        String hash;                       // of the definition's tokens
+        TreeMap<String, String> callees;   // signature hashes of the
+                                           //   definitions it uses
+        String method;                     // with relative source lines
+    }
+
+    private File file;
+    private String flags;                          // the methods were compiled with
+    private HashMap<String, String> signatures;    // hash of each signature
+    private HashMap<String, Entry> previous;       // of the last compilation
+    private LinkedHashMap<String, Entry> current;  // of this one, in source order
+    private int reuseCount;
+
+    /**
+     * Constructor. Read the methods of the last compilation.
+     * @param file the cache file.
+     * @param flags the flags that the methods are compiled with.
+     */
+    public DefinitionCache(File file, String flags)
+    {
+        this.file       = file;
+        this.flags      = flags;
+        this.signatures = new HashMap<String, String>();
+        this.previous   = new HashMap<String, Entry>();
+        this.current    = new LinkedHashMap<String, Entry>();
+
+        if (file.exists())
+        {
+            try
+            {
+                read();
+            }
+            catch (IOException ex)
+            {
+                previous.clear();
+            }
+        }
+    }
+
+    /**
+     * Getter.
+     * @return the cache file.
+     */
+    public File getFile() { return file; }
+
+    /**
+     * Getter.
+     * @return the number of definitions whose methods were reused.
+     */
+    public int getReuseCount() { return reuseCount; }
+
+    /**
+     * Getter.
+     * @return the number of definitions of this compilation.
+     */
+    public int getDefinitionCount() { return current.size(); }
+
+    /**
+     * Enter the signature of a definition of this compilation.
+     * @param name the definition's name.
+     * @param hash the hash of its signature.
+     */
+    public void declare(String name, String hash)
+    {
+        signatures.put(name.toLowerCase(), hash);
+    }
+
+    /**
+     * Get the method of a definition that has not changed since the last
+     * compilation, and neither have the signatures of the definitions
+     * that it uses.
+     * @param name the definition's name.
+     * @param hash the hash of its tokens.
+     * @param line the source line of its first token.
+     * @return the method, or null if it must be compiled again.
+     */
+    public String lookup(String name, String hash, int line)
+    {
+        name = name.toLowerCase();
+        Entry entry = previous.get(name);
+
+        if ((entry == null) || !entry.hash.equals(hash)) return null;
+
+        for (Map.Entry<String, String> callee : entry.callees.entrySet())
+        {
+            String signature = signatures.get(callee.getKey());
+            if (!callee.getValue().equals(signature)) return null;
+        }
+
+        current.put(name, entry);
+        reuseCount++;
+
+        return relocate(entry.method, line);
+    }
+
+    /**
+     * Enter the method of a definition that was compiled.
+     * @param name the definition's name.
+     * @param hash the hash of its tokens.
+     * @param line the source line of its first token.
+     * @param method the method.
+     * @param identifiers the identifiers that the definition uses,
+     *                    in lower case.
+     */
+    public void store(String name, String hash, int line, String method,
+                      Set<String> identifiers)
+    {
+        name = name.toLowerCase();
+        Entry entry = new Entry();
+        entry.hash    = hash;
+        entry.callees = new TreeMap<String, String>();
+        entry.method  = relocate(method, -line);
+
+        for (String identifier : identifiers)
+        {
+            String signature = signatures.get(identifier);
+            if (signature != null) entry.callees.put(identifier, signature);
+        }
+
+        current.put(name, entry);
+    }
+
+    /**
+     * Write the methods of this compilation to the cache file. The
+     * methods of definitions that were removed are dropped.
+     */
+    public void save()
+    {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(flags);
+            out.writeInt(current.size());
+
+            for (Map.Entry<String, Entry> named : current.entrySet())
+            {
+                Entry entry = named.getValue();
+
+                out.writeUTF(named.getKey());
+                out.writeUTF(entry.hash);
+                out.writeInt(entry.callees.size());
+
+                for (Map.Entry<String, String> callee : entry.callees.entrySet())
+                {
+                    out.writeUTF(callee.getKey());
+                    out.writeUTF(callee.getValue());
+                }
+
+                // A method can be longer than writeUTF() allows.
+                byte method[] = entry.method.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(method.length);
+                out.write(method);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.printf("*** Definition cache \"%s\" not written: %s\n",
+                              file.getPath(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Read the methods of the last compilation.
+     * @throws IOException if not a readable cache file.
+     */
+    private void read() throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(file))))
+        {
+            if ((in.readInt() != MAGIC) || (in.readShort() != VERSION))
+            {
+                throw new IOException(file.getPath() + " is not a definition cache");
+            }
+
+            // Methods compiled with other flags are of no use.
+            if (!in.readUTF().equals(flags)) return;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                String name = in.readUTF();
+                Entry entry = new Entry();
+                entry.hash    = in.readUTF();
+                entry.callees = new TreeMap<String, String>();
+
+                int calleeCount = in.readInt();
+                for (int j = 0; j < calleeCount; j++)
+                {
+                    entry.callees.put(in.readUTF(), in.readUTF());
+                }
+
+                int length = in.readInt();
+                if ((length < 0) || (length > file.length()))
+                {
+                    throw new IOException(file.getPath() + " is damaged");
+                }
+
+                byte method[] = new byte[length];
+                in.readFully(method);
+                entry.method = new String(method, StandardCharsets.UTF_8);
+
+                previous.put(name, entry);
+            }
+        }
+    }
+
+    /**
+     * Move the source lines of a method.
+     * @param method the method.
+     * @param offset the number of lines to add to each .line directive.
+     * @return the moved method.
+     */
+    private static String relocate(String method, int offset)
+    {
+        String directive = Directive.LINE.toString() + " ";
+        StringBuilder moved = new StringBuilder(method.length());
+        int start = 0;
+
+        while (start < method.length())
+        {
+            int end = method.indexOf('\n', start);
+            end = end < 0 ? method.length() : end + 1;
+
+            if (method.startsWith(directive, start))
+            {
+                int first = start + directive.length();
+                int last = first;
+
+                while (   (last < end)
+                       && (   Character.isDigit(method.charAt(last))
+                           || ((last == first) && (method.charAt(last) == '-'))))
+                {
+                    last++;
+                }
+
+                int number = Integer.parseInt(method.substring(first, last));
+                moved.append(directive).append(number + offset)
+                     .append(method, last, end);
+            }
+            else
+            {
+                moved.append(method, start, end);
+            }
+
+            start = end;
+        }
+
+        return moved.toString();
+    }
+}
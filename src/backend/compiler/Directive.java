@@ -23,7 +23,8 @@ public enum Directive
     LIMIT_LOCALS(".limit locals"),
     LIMIT_STACK(".limit stack"),
     VAR(".var"),
-    LINE(".line");
+    LINE(".line"),
+    SOURCE(".source");
 
     private String text;
 
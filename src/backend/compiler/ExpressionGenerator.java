@@ -1,10 +1,14 @@
 package backend.compiler;
 
-import antlr4.AKAParser;
-
+import intermediate.ast.*;
 import intermediate.symtab.*;
 import intermediate.type.*;
 import intermediate.type.Typespec.Form;
+import backend.optimizer.AlgebraicSimplifier;
+import backend.optimizer.AlgebraicSimplifier.Rewrite;
+import backend.optimizer.CommonSubexpressionEliminator;
+import backend.optimizer.LoopInvariantAnalyzer;
+import backend.optimizer.LoopInvariantAnalyzer.Invariant;
 
 import static intermediate.type.Typespec.Form.*;
 import static backend.compiler.Instruction.*;
@@ -30,100 +34,161 @@ public class ExpressionGenerator extends CodeGenerator
     
     /**
      * Emit code for an expression.
-     * @param ctx the ExpressionContext.
+     * @param ctx the expression.
      */
-    public void emitExpression(AKAParser.ExpressionContext ctx)
+    public void emitExpression(Expression ctx)
     {
-        AKAParser.SimpleExpressionContext simpleCtx1 = 
-                                                ctx.simpleExpression().get(0);
-        AKAParser.RelOperatorContext relOpCtx = ctx.relOperator();
+        if (emitHoisted(ctx) || emitAvailable(ctx)) return;
+        
+        SimpleExpression simpleCtx1 = ctx.left;
         Typespec type1 = simpleCtx1.type;
         emitSimpleExpression(simpleCtx1);
         
         // More than one simple expression?
-        if (relOpCtx != null)
+        if (ctx.isComparison())
         {
-            String op = relOpCtx.getText();
-            AKAParser.SimpleExpressionContext simpleCtx2 = 
-                                                ctx.simpleExpression().get(1);
+            String op = ctx.op.text;
+            SimpleExpression simpleCtx2 = ctx.right;
             Typespec type2 = simpleCtx2.type;
 
-
-            boolean numberMode      = false;
-            boolean booleanMode		= false;
-
+            boolean numberMode  = false;
+            boolean booleanMode = false;
 
             if (   (type1 == Predefined.numberType)
                 && (type2 == Predefined.numberType)) 
             {
                 numberMode = true;
             }
+            else if (   (type1 == Predefined.booleanType)
+                     || (type2 == Predefined.booleanType))
+            {
+                booleanMode = true;
+            }
             
-
-            Label trueLabel = new Label();
-  
-            Label exitLabel = new Label();
-
-            if (numberMode)
+            // Booleans compare without branches.
+            if (booleanMode)
             {
+                emitCoercion(type1, Predefined.booleanType);
                 emitSimpleExpression(simpleCtx2);
-                
-                emit(FCMPG);
-
-                if      (op.equals("==" )) emit(IFEQ, trueLabel);
-                else if (op.equals("<>")) emit(IFNE, trueLabel);
-                else if (op.equals("<" )) emit(IFLT, trueLabel);
-                else if (op.equals("<=")) emit(IFLE, trueLabel);
-                else if (op.equals(">" )) emit(IFGT, trueLabel);
-                else if (op.equals(">=")) emit(IFGE, trueLabel);
+                emitCoercion(type2, Predefined.booleanType);
+                emitBooleanComparison(op);
             }
-            else  // stringMode
+            else
             {
-                emitSimpleExpression(simpleCtx2);
-                emit(INVOKEVIRTUAL,
-                     "java/lang/String.compareTo(Ljava/lang/String;)I");
-                localStack.decrease(1);
-                
-                if      (op.equals("==" )) emit(IFEQ, trueLabel);
-                else if (op.equals("<>")) emit(IFNE, trueLabel);
+                Label trueLabel = new Label();
+                Label exitLabel = new Label();
+
+                if (numberMode)
+                {
+                    emitSimpleExpression(simpleCtx2);
+                    emit(FCMPG);
+                }
+                else  // stringMode
+                {
+                    emitSimpleExpression(simpleCtx2);
+                    emit(INVOKEVIRTUAL,
+                         "java/lang/String.compareTo(Ljava/lang/String;)I");
+                    localStack.decrease(1);
+                }
+
+                if      (op.equals("==")) emit(IFEQ, trueLabel);
+                else if (op.equals("~" )) emit(IFNE, trueLabel);
                 else if (op.equals("<" )) emit(IFLT, trueLabel);
                 else if (op.equals("<=")) emit(IFLE, trueLabel);
                 else if (op.equals(">" )) emit(IFGT, trueLabel);
                 else if (op.equals(">=")) emit(IFGE, trueLabel);
-            }
 
-            emit(ICONST_0); // false
-            emit(GOTO, exitLabel);
-            emitLabel(trueLabel);
-            emit(ICONST_1); // true
-            emitLabel(exitLabel);
+                emit(ICONST_0); // false
+                emit(GOTO, exitLabel);
+                emitExpressionLabel(trueLabel);
+                emit(ICONST_1); // true
+                emitExpressionLabel(exitLabel);
+                
+                localStack.decrease(1);  // only one branch will be taken
+            }
+        }
+        
+        emitSaved(ctx, ctx.type);
+    }
+    
+    /**
+     * Emit code to compare two booleans that are on the operand stack.
+     * Each is 0 or 1, so bitwise operations compute the result.
+     * @param op the relational operator.
+     */
+    private void emitBooleanComparison(String op)
+    {
+        switch (op)
+        {
+            case "==" : emit(IXOR); emit(ICONST_1); emit(IXOR); break;
+            case "~"  : emit(IXOR); break;
+            
+            // a < b is !a & b, and a <= b is !a | b.
+            case "<"  : emit(SWAP); emit(ICONST_1); emit(IXOR); emit(IAND); break;
+            case "<=" : emit(SWAP); emit(ICONST_1); emit(IXOR); emit(IOR);  break;
             
-            localStack.decrease(1);  // only one branch will be taken
+            // a > b is a & !b, and a >= b is a | !b.
+            case ">"  : emit(ICONST_1); emit(IXOR); emit(IAND); break;
+            case ">=" : emit(ICONST_1); emit(IXOR); emit(IOR);  break;
         }
     }
     
     /**
      * Emit code for a simple expression.
-     * @param ctx the SimpleExpressionContext.
+     * @param ctx the simple expression.
      */
-    public void emitSimpleExpression(AKAParser.SimpleExpressionContext ctx)
+    public void emitSimpleExpression(SimpleExpression ctx)
     {
-        int count = ctx.term().size();
-        Boolean negate =    (ctx.sign() != null) 
-                         && ctx.sign().getText().equals("-");
+        if (emitAvailable(ctx)) return;
         
-        // First term.
-        AKAParser.TermContext termCtx1 = ctx.term().get(0);
-        Typespec type1 = termCtx1.type;
-        emitTerm(termCtx1);
+        emitSimpleExpression(ctx, ctx.terms.length);
+        emitSaved(ctx, ctx.type);
+    }
+    
+    /**
+     * Emit code for the leading terms of a simple expression.
+     * @param ctx the simple expression.
+     * @param count the count of terms.
+     */
+    public void emitSimpleExpression(SimpleExpression ctx, int count)
+    {
+        Boolean negate = ctx.sign == Operator.MINUS;
+        Invariant invariant = getHoisted(ctx);
+        Typespec type1;
+        int first = 1;
         
-        if (negate) emit(FNEG);
+        // Hoisted leading terms.
+        if ((invariant != null) && (invariant.length <= count))
+        {
+            emitLoadLocal(invariant.type, invariant.slot);
+            type1 = invariant.type;
+            first = invariant.length;
+        }
+        
+        // First term, or the second one if the first is a constant
+        // that an algebraic identity removes.
+        else
+        {
+            Term termCtx1 = ctx.terms[0];
+            type1 = termCtx1.type;
+            
+            if (!negate && (count > 1) && emitSimplifiedLeft(
+                    ctx.ops[0].text, termCtx1, ctx.terms[1]))
+            {
+                first = 2;
+            }
+            else
+            {
+                emitTerm(termCtx1);
+                if (negate) emit(FNEG);
+            }
+        }
         
         // Loop over the subsequent terms.
-        for (int i = 1; i < count; i++)
+        for (int i = first; i < count; i++)
         {
-            String op = ctx.addOperator().get(i-1).getText().toLowerCase();
-            AKAParser.TermContext termCtx2 = ctx.term().get(i);
+            String op = ctx.ops[i-1].text;
+            Term termCtx2 = ctx.terms[i];
             Typespec type2 = termCtx2.type;
 
             boolean numberMode    = false;
@@ -143,46 +208,21 @@ public class ExpressionGenerator extends CodeGenerator
                             
             if (numberMode)
             {
+                if (emitSimplifiedRight(op, termCtx2)) continue;
+                
                 emitTerm(termCtx2);
                 
                 if (op.equals("+")) emit(FADD);
                 else                emit(FSUB);
             }
-            else if (booleanMode && ((type1 == Predefined.booleanType) && (type2 == Predefined.booleanType)))
+            else if (booleanMode)
             {
+                emitCoercion(type1, Predefined.booleanType);
                 emitTerm(termCtx2);
+                emitCoercion(type2, Predefined.booleanType);
                 emit(IOR);
-
-            }
-            else if (booleanMode && ((type1 == Predefined.booleanType) && (type2 == Predefined.numberType)))
-            {
-            	Label falseLabel = new Label();
-            	Label skipLabel = new Label();
-            	emitTerm(termCtx2);
-            	emit(F2I);
-            	emit(IFEQ, falseLabel);
-            	emitLoadConstant(1);
-            	emit(GOTO, skipLabel);
-            	emitLabel(falseLabel);
-            	emitLoadConstant(0);
-            	emitLabel(skipLabel);
-            	emit(IOR);
-            	localStack.decrease(1);
-            }
-            else if (booleanMode && ((type1 == Predefined.numberType) && (type2 == Predefined.booleanType)))
-            {
-            	Label falseLabel = new Label();
-            	Label skipLabel = new Label();
-            	emit(F2I);
-            	emit(IFEQ, falseLabel);
-            	emitLoadConstant(1);
-            	emit(GOTO, skipLabel);
-            	emitLabel(falseLabel);
-            	emitLoadConstant(0);
-            	emitLabel(skipLabel);
-            	emitTerm(termCtx2);
-            	emit(IOR);
-            	localStack.decrease(1);
+                
+                type1 = Predefined.booleanType;
             }
             else if ((type1 == Predefined.stringType) && (type2 == Predefined.numberType)) {
             	emit(NEW, "java/lang/StringBuilder");
@@ -244,22 +284,55 @@ public class ExpressionGenerator extends CodeGenerator
     
     /**
      * Emit code for a term.
-     * @param ctx the TermContext.
+     * @param ctx the term.
      */
-    public void emitTerm(AKAParser.TermContext ctx)
+    public void emitTerm(Term ctx)
     {
-        int count = ctx.factor().size();
+        if (emitAvailable(ctx)) return;
         
-        // First factor.
-        AKAParser.FactorContext factorCtx1 = ctx.factor().get(0);
-        Typespec type1 = factorCtx1.type;
-        compiler.visit(factorCtx1);
+        emitTerm(ctx, ctx.factors.length);
+        emitSaved(ctx, ctx.type);
+    }
+    
+    /**
+     * Emit code for the leading factors of a term.
+     * @param ctx the term.
+     * @param count the count of factors.
+     */
+    public void emitTerm(Term ctx, int count)
+    {
+        Invariant invariant = getHoisted(ctx);
+        Typespec type1;
+        int first = 1;
+        
+        // Hoisted leading factors.
+        if ((invariant != null) && (invariant.length <= count))
+        {
+            emitLoadLocal(invariant.type, invariant.slot);
+            type1 = invariant.type;
+            first = invariant.length;
+        }
+        
+        // First factor, or the second one if the first is a constant
+        // that an algebraic identity removes.
+        else
+        {
+            Factor factorCtx1 = ctx.factors[0];
+            type1 = factorCtx1.type;
+            
+            if ((count > 1) && emitSimplifiedLeft(
+                    ctx.ops[0].text, factorCtx1, ctx.factors[1]))
+            {
+                first = 2;
+            }
+            else compiler.visit(factorCtx1);
+        }
         
         // Loop over the subsequent factors.
-        for (int i = 1; i < count; i++)
+        for (int i = first; i < count; i++)
         {
-            String op = ctx.mulOperator().get(i-1).getText().toLowerCase();
-            AKAParser.FactorContext factorCtx2 = ctx.factor().get(i);
+            String op = ctx.ops[i-1].text;
+            Factor factorCtx2 = ctx.factors[i];
             Typespec type2 = factorCtx2.type;
 
             boolean numberMode    = false;
@@ -273,56 +346,201 @@ public class ExpressionGenerator extends CodeGenerator
                 
             if (numberMode)
             {
+                if (emitSimplifiedRight(op, factorCtx2)) continue;
+                
                 compiler.visit(factorCtx2); 
                 
                 if      (op.equals("*")) emit(FMUL);
                 else if (op.equals("/")) emit(FDIV);
             }
-            else if ((type1 == Predefined.numberType) && (type2 == Predefined.booleanType)) 
-            {
-            	Label falseLabel = new Label();
-            	Label skipLabel = new Label();
-            	emit(F2I);
-            	emit(IFEQ, falseLabel);
-            	emitLoadConstant(1);
-            	emit(GOTO, skipLabel);
-            	emitLabel(falseLabel);
-            	emitLoadConstant(0);
-            	emitLabel(skipLabel);
-            	compiler.visit(factorCtx2);  
-            	emit(IAND);
-            	localStack.decrease(1);
-            }
-            else if ((type1 == Predefined.booleanType) && (type2 == Predefined.numberType))
-            {
-            	Label falseLabel = new Label();
-            	Label skipLabel = new Label();
-            	compiler.visit(factorCtx2);  
-            	emit(F2I);
-            	emit(IFEQ, falseLabel);
-            	emitLoadConstant(1);
-            	emit(GOTO, skipLabel);
-            	emitLabel(falseLabel);
-            	emitLoadConstant(0);
-            	emitLabel(skipLabel);
-            	emit(IAND);
-            	localStack.decrease(1);
-            } 
             else 
             {
-            	compiler.visit(factorCtx2);                 
-            	emit(IAND);
+                emitCoercion(type1, Predefined.booleanType);
+                compiler.visit(factorCtx2);
+                emitCoercion(type2, Predefined.booleanType);
+                emit(IAND);
+                
+                type1 = Predefined.booleanType;
             }
         }
     }
     
+    /**
+     * Emit code to load the value that constant and copy propagation
+     * found for a variable read.
+     * @param value a Float, Boolean, or String constant, or the 
+     *              symbol table entry of the variable to load instead.
+     */
+    public void emitLoadKnownValue(Object value)
+    {
+        if      (value instanceof Float)   emitLoadConstant((Float) value);
+        else if (value instanceof Boolean) emitLoadConstant((Boolean) value ? 1 : 0);
+        else if (value instanceof String)  emitLoadConstant((String) value);
+        else                               emitLoadValue((SymtabEntry) value);
+    }
+    
+    /**
+     * Emit code to compute a loop-invariant value 
+     * and store it into its local variable.
+     * @param invariant the invariant.
+     */
+    public void emitInvariant(Invariant invariant)
+    {
+        Node ctx = invariant.ctx;
+        
+        if (ctx instanceof SimpleExpression)
+        {
+            emitSimpleExpression((SimpleExpression) ctx, invariant.length);
+        }
+        else if (ctx instanceof Term)
+        {
+            emitTerm((Term) ctx, invariant.length);
+        }
+        else compiler.visit(ctx);
+        
+        emitStoreLocal(invariant.type, invariant.slot);
+    }
+    
+    /**
+     * Emit a load of a hoisted loop-invariant value.
+     * @param ctx the expression or factor.
+     * @return true if it was hoisted, else false.
+     */
+    public boolean emitHoisted(Node ctx)
+    {
+        Invariant invariant = getHoisted(ctx);
+        if (invariant == null) return false;
+        
+        emitLoadLocal(invariant.type, invariant.slot);
+        return true;
+    }
+    
+    private Invariant getHoisted(Node ctx)
+    {
+        LoopInvariantAnalyzer licm = compiler.getLoopInvariantAnalyzer();
+        return licm != null ? licm.getHoisted(ctx) : null;
+    }
+    
+    /**
+     * Emit code for a number operation whose right operand is a constant
+     * that an algebraic identity removes. The left operand is on the stack.
+     * @param op the operator.
+     * @param operandCtx the right operand's term or factor.
+     * @return true if emitted, else false.
+     */
+    private boolean emitSimplifiedRight(String op, Node operandCtx)
+    {
+        AlgebraicSimplifier simplifier = compiler.getAlgebraicSimplifier();
+        Float c = simplifier != null ? simplifier.numberOf(operandCtx) : null;
+        Rewrite rewrite = c != null ? simplifier.rightOperand(op, c) : null;
+        if (rewrite == null) return false;
+        
+        emitRewrite(rewrite);
+        return true;
+    }
+    
+    /**
+     * Emit code for a number operation whose left operand is a constant
+     * that an algebraic identity removes.
+     * @param op the operator.
+     * @param constantCtx the left operand's term or factor.
+     * @param operandCtx the right operand's term or factor.
+     * @return true if emitted, else false.
+     */
+    private boolean emitSimplifiedLeft(String op, Node constantCtx, Node operandCtx)
+    {
+        AlgebraicSimplifier simplifier = compiler.getAlgebraicSimplifier();
+        if (   (simplifier == null) 
+            || (typeOf(constantCtx) != Predefined.numberType)
+            || (typeOf(operandCtx)  != Predefined.numberType)) return false;
+        
+        Float c = simplifier.numberOf(constantCtx);
+        Rewrite rewrite = c != null ? simplifier.leftOperand(op, c) : null;
+        if (rewrite == null) return false;
+        
+        if (operandCtx instanceof Term)
+        {
+            emitTerm((Term) operandCtx);
+        }
+        else compiler.visit(operandCtx);
+        
+        emitRewrite(rewrite);
+        return true;
+    }
+    
+    private void emitRewrite(Rewrite rewrite)
+    {
+        switch (rewrite.kind)
+        {
+            case IDENTITY : break;
+            case NEGATE   : emit(FNEG); break;
+            case DOUBLE   : emit(DUP);  emit(FADD); break;
+            case ZERO     : emit(POP);  emit(FCONST_0); break;
+            
+            case MULTIPLY :
+                emitLoadConstant(rewrite.operand);
+                emit(FMUL);
+                break;
+        }
+    }
+    
+    /**
+     * Emit a load of a subexpression's value if an earlier evaluation
+     * saved it in a temporary that is still valid.
+     * @param ctx the subexpression.
+     * @return true if it was loaded, else false.
+     */
+    public boolean emitAvailable(Node ctx)
+    {
+        CommonSubexpressionEliminator cse = 
+                                compiler.getCommonSubexpressionEliminator();
+        int slot = cse != null ? cse.availableSlot(ctx) : -1;
+        if (slot < 0) return false;
+        
+        emitLoadLocal(typeOf(ctx), slot);
+        return true;
+    }
+    
+    /**
+     * Save the value of a subexpression that is on top of the operand 
+     * stack in a new temporary if it is evaluated again later.
+     * @param ctx the subexpression.
+     * @param type the value's datatype.
+     */
+    public void emitSaved(Node ctx, Typespec type)
+    {
+        CommonSubexpressionEliminator cse = 
+                                compiler.getCommonSubexpressionEliminator();
+        if ((cse == null) || !cse.isSaved(ctx)) return;
+        
+        int slot = localVariables.reserve();
+        
+        emit(DUP);
+        emitStoreLocal(type, slot);
+        cse.save(ctx, slot);
+    }
+    
+    private static Typespec typeOf(Node ctx)
+    {
+        if      (ctx instanceof Expression) 
+            return ((Expression) ctx).type;
+        else if (ctx instanceof SimpleExpression) 
+            return ((SimpleExpression) ctx).type;
+        else if (ctx instanceof Term) 
+            return ((Term) ctx).type;
+        else if (ctx instanceof NotFactor) 
+            return Predefined.booleanType;
+        else
+            return ((Factor) ctx).type;
+    }
+
     /**
      * Emit code for NOT.
-     * @param ctx the NotFactorContext.
+     * @param ctx the NOT factor.
      */
-    public void emitNotFactor(AKAParser.NotFactorContext ctx)
+    public void emitNotFactor(NotFactor ctx)
     {
-        compiler.visit(ctx.factor());
+        compiler.visit(ctx.factor);
         emit(ICONST_1);
         emit(IXOR);
     }
@@ -330,9 +548,9 @@ public class ExpressionGenerator extends CodeGenerator
     /**
      * Emit code to load a scalar variable's value 
      * or a structured variable's address.
-     * @param ctx the VariableContext.
+     * @param varCtx the variable read.
      */
-    public void emitLoadValue(AKAParser.VariableContext varCtx)
+    public void emitLoadValue(VariableFactor varCtx)
     {
         // Load the scalar value or structure address.
         Typespec variableType = emitLoadVariable(varCtx);
@@ -358,10 +576,10 @@ public class ExpressionGenerator extends CodeGenerator
     /**
      * Emit code to load a scalar variable's value 
      * or a structured variable's address.
-     * @param variableNode the variable node.
+     * @param varCtx the variable read.
      * @return the datatype of the variable.
      */
-    public Typespec emitLoadVariable(AKAParser.VariableContext varCtx)
+    public Typespec emitLoadVariable(VariableFactor varCtx)
     {
         SymtabEntry variableId = varCtx.entry;
         Typespec variableType = varCtx.type;
@@ -369,7 +587,6 @@ public class ExpressionGenerator extends CodeGenerator
         
         
         int nestingLevel = variableId.getSymtab().getNestingLevel();
-		int slot = variableId.getSlotNumber();
 		
 		// Program variable.
 		if (nestingLevel == 1) 
@@ -384,6 +601,8 @@ public class ExpressionGenerator extends CodeGenerator
 		// Local variable.
 		else 
 		{
+		int slot = localVariables.slotOf(variableId);
+		
 		emitRangeCheck(variableType);
 		emitLoadLocal(variableType.baseType(), slot);
 		}
@@ -511,10 +730,10 @@ public class ExpressionGenerator extends CodeGenerator
 
     /**
      * Emit code to load a boolean constant
-     * @param boolCtx the BooleanConstantContext
+     * @param boolCtx the boolean constant.
      */
-    public void emitLoadBooleanConstant(AKAParser.BooleanConstantContext boolCtx) {
-    	if (boolCtx.TRUE() != null) {
+    public void emitLoadBooleanConstant(BooleanFactor boolCtx) {
+    	if (boolCtx.value) {
     		emitLoadConstant(1);
     	} else {
     		emitLoadConstant(0);
@@ -523,12 +742,11 @@ public class ExpressionGenerator extends CodeGenerator
     
     /**
      * Emit code to load real constant.
-     * @parm intCtx the IntegerConstantContext.
+     * @parm numCtx the number constant.
      */
-    public void emitLoadNumberConstant(AKAParser.NumberConstantContext numCtx)
+    public void emitLoadNumberConstant(NumberFactor numCtx)
     {
-        float value = Float.parseFloat(numCtx.getText());
-        emitLoadConstant(value);
+        emitLoadConstant(numCtx.value);
     }
     public void emitLoadNumberConstant(float num)
     {
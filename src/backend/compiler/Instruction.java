@@ -13,7 +13,7 @@ public enum Instruction
     // Load constant
     ICONST_0(1), ICONST_1(1), ICONST_2(1), ICONST_3(1), 
     ICONST_4(1), ICONST_5(1), ICONST_M1(1),
-    FCONST_0(1), FCONST_1(1), FCONST_2(1), ACONST_NULL(1),
+    FCONST_0(1), FCONST_1(1), FCONST_2(1), ACONST_NULL(1), LCONST_1(2),
     BIPUSH(1), SIPUSH(1), LDC(1),
 
     // Load value or address
@@ -33,27 +33,27 @@ public enum Instruction
     PUTSTATIC(-1), PUTFIELD(-2),
 
     // Operand stack
-    POP(-1), SWAP(0), DUP(1), DUP_X1(1), DUP_X2(1),
+    POP(-1), SWAP(0), DUP(1), DUP_X1(1), DUP_X2(1), DUP2(2),
 
     // Arithmetic and logical
-    IADD(-1), FADD(-1), ISUB(-1), FSUB(-1), IMUL(-1), FMUL(-1),
+    IADD(-1), FADD(-1), LADD(-2), ISUB(-1), FSUB(-1), LSUB(-2), IMUL(-1), FMUL(-1),
     IDIV(-1), FDIV(-1), IREM(-1), FREM(-1), INEG(0),  FNEG(0),
-    IINC(0),  IAND(-1), IOR(-1),  IXOR(-1),
+    IINC(0),  IAND(-1), IOR(-1),  IXOR(-1), IUSHR(-1),
 
     // Type conversion and checking
     I2F(0), I2C(0), I2D(0), F2I(0), F2D(0), D2F(0),
     CHECKCAST(0),
 
     // Objects and arrays
-    NEW(1), NEWARRAY(0), ANEWARRAY(0), MULTIANEWARRAY(0),
-    IALOAD(-1), FALOAD(-1), BALOAD(-1), CALOAD(-1), AALOAD(-1),
-    IASTORE(-3), FASTORE(-3), BASTORE(-3), CASTORE(-3), AASTORE(-3),
+    NEW(1), NEWARRAY(0), ANEWARRAY(0), MULTIANEWARRAY(0), ARRAYLENGTH(0),
+    IALOAD(-1), FALOAD(-1), BALOAD(-1), CALOAD(-1), AALOAD(-1), LALOAD(0),
+    IASTORE(-3), FASTORE(-3), BASTORE(-3), CASTORE(-3), AASTORE(-3), LASTORE(-4),
 
     // Compare and branch
     IFEQ(-1), IFNE(-1), IFLT(-1), IFLE(-1), IFGT(-1), IFGE(-1),
     IF_ICMPEQ(-2), IF_ICMPNE(-2), IF_ICMPLT(-2), 
     IF_ICMPLE(-2), IF_ICMPGT(-2), IF_ICMPGE(-2),
-    FCMPG(-1), GOTO(0), LOOKUPSWITCH(-1),
+    FCMPG(-1), FCMPL(-1), GOTO(0), LOOKUPSWITCH(-1),
 
     // Call and return
     INVOKESTATIC(0), INVOKESPECIAL(0), 
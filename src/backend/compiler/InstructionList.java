@@ -0,0 +1,293 @@
+package backend.compiler;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import backend.optimizer.PeepholeOptimizer;
+
+/**
+ * <h1>InstructionList</h1>
+ *
+ * <p>The intermediate list of emitted Jasmin code. The code generators
+ * append to it, and each method's code is optimized and written
+ * to the object file when the method ends.</p>
+ */
+public class InstructionList
+{
+    /**
+     * Kinds of emitted code items.
+     */
+    public enum Kind
+    {
+        INSTRUCTION, LABEL, DIRECTIVE, COMMENT, BLANK, SWITCH_ENTRY
+    }
+
+    /**
+     * An emitted code item.
+     */
+    public static class Item
+    {
+        public Kind kind;                 // kind of item
+        public Instruction instruction;   // for INSTRUCTION
+        public Directive directive;       // for DIRECTIVE
+        public String operand;            // operand text, if any
+        public Label label;               // label defined or referenced
+        public Label endLabel;            // end of a .var range, if any
+
+        public Item(Kind kind) { this.kind = kind; }
+
+        /**
+         * Create an instruction item.
+         * @param instruction the operation code.
+         * @param operand the operand text, or null.
+         * @param label the label operand, or null.
+         */
+        public Item(Instruction instruction, String operand, Label label)
+        {
+            this.kind        = Kind.INSTRUCTION;
+            this.instruction = instruction;
+            this.operand     = operand;
+            this.label       = label;
+        }
+
+        /**
+         * Return whether this item is a given instruction.
+         * @param instruction the operation code.
+         * @return true if it is, else false.
+         */
+        public boolean is(Instruction instruction)
+        {
+            return (kind == Kind.INSTRUCTION) && (this.instruction == instruction);
+        }
+
+        /**
+         * Generate the text that is written to the object file.
+         * @return the text.
+         */
+        public String toString()
+        {
+            switch (kind)
+            {
+                case INSTRUCTION:
+                {
+                    String text = "\t" + instruction.toString();
+                    if      (label   != null) text += "\t" + label;
+                    else if (operand != null) text += "\t" + operand;
+                    return text;
+                }
+
+                case LABEL:        return label + ":";
+                case COMMENT:      return ";\n; " + operand + "\n;";
+                case BLANK:        return "";
+                case SWITCH_ENTRY: return "\t  " + operand + ": " + label;
+
+                default:
+                {
+                    String text = operand != null ? directive.toString() + " " + operand
+                                                  : directive.toString();
+                    if (label != null) text += " from " + label + " to " + endLabel;
+                    return text;
+                }
+            }
+        }
+    }
+
+    // Instructions and directives emitted into all the lists, which
+    // may be filled on several threads, as of their last flush.
+    private static final AtomicInteger totalCount = new AtomicInteger();
+
+    private ArrayList<Item> items;         // items not yet written
+    private PrintWriter objectFile;        // the object file
+    private PeepholeOptimizer optimizer;   // null if not optimizing
+    private int count;                     // instructions and directives emitted
+    private int flushedCount;              // of them, already in the total
+
+    /**
+     * Constructor.
+     * @param objectFile the object file to write to.
+     * @param optimizer the peephole optimizer, or null.
+     */
+    public InstructionList(PrintWriter objectFile, PeepholeOptimizer optimizer)
+    {
+        this.items      = new ArrayList<Item>();
+        this.objectFile = objectFile;
+        this.optimizer  = optimizer;
+    }
+
+    /**
+     * Append an item.
+     * @param item the item to append.
+     */
+    public void add(Item item) { items.add(item); }
+
+    /**
+     * Count an emitted instruction or directive.
+     */
+    public void countEmitted() { ++count; }
+
+    /**
+     * Get the number of instructions and directives emitted into this
+     * list so far, before peephole optimization.
+     * @return the number.
+     */
+    public int getCount() { return count; }
+
+    /**
+     * Get the number of instructions and directives emitted into all
+     * the lists and flushed, before peephole optimization.
+     * @return the number.
+     */
+    public static int getTotalCount() { return totalCount.get(); }
+
+    /**
+     * Get the items that have not yet been written.
+     * @return the list of items.
+     */
+    public ArrayList<Item> getItems() { return items; }
+
+    /**
+     * Optimize the pending items and write them to the object file.
+     */
+    public void flush()
+    {
+        if (optimizer != null) optimizer.optimize(items);
+        
+        // Set the stack limit from the final code.
+        for (Item item : items)
+        {
+            if ((item.kind == Kind.DIRECTIVE) 
+                    && (item.directive == Directive.LIMIT_STACK))
+            {
+                item.operand = Integer.toString(maxStackDepth());
+            }
+        }
+
+        for (Item item : items) objectFile.println(item);
+
+        objectFile.flush();
+        items.clear();
+        
+        totalCount.addAndGet(count - flushedCount);
+        flushedCount = count;
+    }
+
+    /**
+     * Compute the maximum operand stack depth of the pending instructions.
+     * Each label takes the depth of the branches to it, or of the
+     * instruction that falls through to it.
+     * @return the maximum depth.
+     */
+    private int maxStackDepth()
+    {
+        HashMap<Label, Integer> labelDepths = new HashMap<Label, Integer>();
+        int depth = 0;
+        int maxDepth = 0;
+        boolean reachable = true;
+        
+        for (Item item : items)
+        {
+            if (item.kind == Kind.LABEL)
+            {
+                Integer branchDepth = labelDepths.get(item.label);
+                if (!reachable) depth = branchDepth != null ? branchDepth : 0;
+                reachable = true;
+            }
+            else if (item.kind == Kind.INSTRUCTION)
+            {
+                depth += stackEffect(item);
+                maxDepth = Math.max(maxDepth, depth);
+                
+                if (item.label != null) labelDepths.put(item.label, depth);
+                
+                Instruction instruction = item.instruction;
+                reachable =    (instruction != Instruction.GOTO)
+                            && (instruction != Instruction.RETURN)
+                            && (instruction != Instruction.IRETURN)
+                            && (instruction != Instruction.FRETURN)
+                            && (instruction != Instruction.ARETURN);
+            }
+        }
+        
+        return maxDepth;
+    }
+
+    /**
+     * Return the change in operand stack depth caused by an instruction.
+     * @param item the instruction item.
+     * @return the change.
+     */
+    private static int stackEffect(Item item)
+    {
+        switch (item.instruction)
+        {
+            case GETSTATIC: return  descriptorSize(item.operand);
+            case PUTSTATIC: return -descriptorSize(item.operand);
+            
+            case INVOKESTATIC:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKENONVIRTUAL:
+            {
+                String signature = item.operand;
+                int open  = signature.indexOf('(');
+                int close = signature.indexOf(')');
+                int effect = descriptorSize(signature.substring(close + 1))
+                           - argumentsSize(signature.substring(open + 1, close));
+                
+                return item.instruction == Instruction.INVOKESTATIC 
+                                         ? effect : effect - 1;
+            }
+            
+            default: return item.instruction.stackUse;
+        }
+    }
+
+    /**
+     * Return the number of stack words of the type descriptor 
+     * at the end of an operand.
+     */
+    private static int descriptorSize(String operand)
+    {
+        String descriptor = operand.substring(operand.lastIndexOf(' ') + 1);
+        
+        switch (descriptor.charAt(0))
+        {
+            case 'V':           return 0;
+            case 'J': case 'D': return 2;
+            default:            return 1;
+        }
+    }
+
+    /**
+     * Return the number of stack words of a list of argument descriptors.
+     */
+    private static int argumentsSize(String descriptors)
+    {
+        int size = 0;
+        int i = 0;
+        
+        while (i < descriptors.length())
+        {
+            char ch = descriptors.charAt(i);
+            
+            if (ch == '[')
+            {
+                while (descriptors.charAt(i) == '[') i++;
+                if (descriptors.charAt(i) == 'L') i = descriptors.indexOf(';', i);
+                size += 1;
+            }
+            else if (ch == 'L')
+            {
+                i = descriptors.indexOf(';', i);
+                size += 1;
+            }
+            else size += ((ch == 'J') || (ch == 'D')) ? 2 : 1;
+            
+            i++;
+        }
+        
+        return size;
+    }
+}
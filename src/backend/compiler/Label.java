@@ -10,13 +10,25 @@ package backend.compiler;
  */
 public class Label
 {
-    private static int index = 0;  // index for generating label strings
-    private String label;          // the label string
+    // Index for generating label strings. Each thread has its own,
+    // since definitions can be compiled on several threads at once.
+    private static final ThreadLocal<int[]> index = 
+                                        ThreadLocal.withInitial(() -> new int[1]);
+    
+    private String label;  // the label string
 
     /**
      * Constructor.
      */
-    public Label() { this.label = "L" + String.format("%03d", ++index); }
+    public Label() { this.label = "L" + String.format("%03d", ++index.get()[0]); }
+
+    /**
+     * Restart the label strings of the current thread at the start of a
+     * definition or of the main method. Labels are local to their method,
+     * so each definition has the same labels however the definitions
+     * are compiled, one after another or in parallel.
+     */
+    public static void resetIndex() { index.get()[0] = 0; }
 
     /**
      * Generate the label string. 
@@ -1,6 +1,9 @@
 package backend.compiler;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+
+import intermediate.symtab.SymtabEntry;
 
 /**
  * <h1>LocalVariables</h1>
@@ -17,6 +20,10 @@ public class LocalVariables
     // The final size of the list is the total number of local variables
     // used by the method.
     private ArrayList<Boolean> reserved;
+    
+    // Slots of the variables of inlined routines, which are moved
+    // out of their own slots into slots reserved in this method.
+    private HashMap<SymtabEntry, Integer> renamed;
 
     /**
      * Constructor.
@@ -25,6 +32,7 @@ public class LocalVariables
     public LocalVariables(int index)
     {
         reserved = new ArrayList<Boolean>();
+        renamed  = new HashMap<SymtabEntry, Integer>();
 
         for (int i = 0; i <= index; ++i) reserved.add(true);
     }
@@ -57,9 +65,70 @@ public class LocalVariables
      */
     public void release(int index) { reserved.set(index, false); }
 
+    /**
+     * Return the local variables that are reserved.
+     * @return the list of their indexes.
+     */
+    public ArrayList<Integer> reservedSlots()
+    {
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+
+        for (int i = 0; i < reserved.size(); ++i)
+        {
+            if (reserved.get(i)) indexes.add(i);
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Reserve the given local variables that are not already reserved.
+     * @param indexes the indexes of the variables.
+     * @return the indexes of the variables that were newly reserved.
+     */
+    public ArrayList<Integer> reserveAll(ArrayList<Integer> indexes)
+    {
+        ArrayList<Integer> newlyReserved = new ArrayList<Integer>();
+
+        for (int index : indexes)
+        {
+            if (!reserved.get(index))
+            {
+                reserved.set(index, true);
+                newlyReserved.add(index);
+            }
+        }
+
+        return newlyReserved;
+    }
+
     /**
      * Return the count of local variables needed by the method.
      * @return the count.
      */
     public int count() { return reserved.size(); }
+
+    /**
+     * Move a variable into another slot.
+     * @param id the variable's symbol table entry.
+     * @param index the index of the slot.
+     */
+    public void rename(SymtabEntry id, int index) { renamed.put(id, index); }
+
+    /**
+     * Move a variable back into its own slot.
+     * @param id the variable's symbol table entry.
+     */
+    public void unrename(SymtabEntry id) { renamed.remove(id); }
+
+    /**
+     * Return the slot that a local variable currently occupies.
+     * @param id the variable's symbol table entry.
+     * @return the index of the slot.
+     */
+    public int slotOf(SymtabEntry id)
+    {
+        Integer index = renamed.get(id);
+        return index != null ? index : id.getSlotNumber();
+    }
 }
@@ -0,0 +1,324 @@
+package backend.compiler;
+
+import java.util.ArrayList;
+
+import intermediate.symtab.*;
+import intermediate.type.*;
+
+import static backend.compiler.Directive.*;
+import static backend.compiler.Instruction.*;
+
+/**
+ * <h1>MemoGenerator</h1>
+ *
+ * <p>Emit the result cache of a memoized definition. The cache is a
+ * direct-mapped table of static arrays: one array per parameter holds
+ * the argument keys (float bits, bool ints, or strings), one holds the
+ * results, and one marks the used entries. The hash of the arguments
+ * selects a single entry, so a new result evicts the old one there.
+ * Calls go to a wrapper method with the definition's own name, which
+ * calls the compiled body only when the cache misses.</p>
+ */
+public class MemoGenerator extends CodeGenerator
+{
+    public static final String BODY_SUFFIX = "$body";  // body method name
+    public static final int CACHE_BITS = 10;           // 1024 entries
+
+    private static final int GOLDEN_RATIO = 0x9E3779B9;  // hash multiplier
+
+    /**
+     * Constructor.
+     * @param parent the parent generator.
+     * @param compiler the compiler to use.
+     */
+    public MemoGenerator(CodeGenerator parent, Compiler compiler)
+    {
+        super(parent, compiler);
+    }
+
+    /**
+     * Determine whether or not a definition's parameters and result
+     * can be cache keys and values.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return true if they can, else false.
+     */
+    public static boolean isCacheable(SymtabEntry routineId)
+    {
+        ArrayList<SymtabEntry> parmIds = routineId.getRoutineParameters();
+
+        if (!isCacheable(routineId.getType())) return false;
+        if (parmIds == null) return true;
+
+        for (SymtabEntry parmId : parmIds)
+        {
+            if (!isCacheable(parmId.getType())) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Emit the field directives of a definition's cache.
+     * @param routineId the symbol table entry of the definition's name.
+     */
+    public void emitFields(SymtabEntry routineId)
+    {
+        ArrayList<SymtabEntry> parmIds = parameters(routineId);
+
+        emitDirective(FIELD_PRIVATE_STATIC, fieldName(routineId, "used"), "[Z");
+        emitDirective(FIELD_PRIVATE_STATIC, fieldName(routineId, "value"),
+                      arrayDescriptor(routineId.getType()));
+
+        for (int i = 0; i < parmIds.size(); i++)
+        {
+            emitDirective(FIELD_PRIVATE_STATIC, fieldName(routineId, "key" + i),
+                          keyDescriptor(parmIds.get(i).getType()));
+        }
+    }
+
+    /**
+     * Emit code to allocate a definition's cache.
+     * @param routineId the symbol table entry of the definition's name.
+     */
+    public void emitAllocation(SymtabEntry routineId)
+    {
+        ArrayList<SymtabEntry> parmIds = parameters(routineId);
+
+        emitAllocateArray(fieldName(routineId, "used"), "[Z", "boolean");
+        emitAllocateArray(fieldName(routineId, "value"),
+                          arrayDescriptor(routineId.getType()),
+                          elementName(routineId.getType()));
+
+        for (int i = 0; i < parmIds.size(); i++)
+        {
+            Typespec type = parmIds.get(i).getType();
+            emitAllocateArray(fieldName(routineId, "key" + i),
+                              keyDescriptor(type), keyElementName(type));
+        }
+    }
+
+    /**
+     * Emit the wrapper method of a memoized definition.
+     * @param routineId the symbol table entry of the definition's name.
+     * @param descriptor the method's parameter and return type descriptor.
+     */
+    public void emitWrapper(SymtabEntry routineId, String descriptor)
+    {
+        ArrayList<SymtabEntry> parmIds = parameters(routineId);
+        Typespec resultType = routineId.getType();
+        int indexSlot  = parmIds.size();
+        int resultSlot = indexSlot + 1;
+        Label missLabel = new Label();
+
+        emitLine();
+        emitComment("MEMOIZED " + routineId.getName());
+        emitDirective(METHOD_PRIVATE_STATIC, routineId.getName() + descriptor);
+        emitLine();
+
+        // Hash the arguments into a cache index.
+        for (int i = 0; i < parmIds.size(); i++)
+        {
+            if (i > 0)
+            {
+                emitLoadConstant(31);
+                emit(IMUL);
+            }
+
+            emitLoadHash(parmIds.get(i).getType(), i);
+            if (i > 0) emit(IADD);
+        }
+        if (parmIds.isEmpty()) emit(ICONST_0);
+
+        emitLoadConstant(GOLDEN_RATIO);
+        emit(IMUL);
+        emitLoadConstant(32 - CACHE_BITS);
+        emit(IUSHR);
+        emit(ISTORE, indexSlot);
+
+        // Hit: the entry is used and every key equals its argument.
+        emitLoadElement(routineId, "used", "[Z", BALOAD, indexSlot);
+        emit(IFEQ, missLabel);
+
+        for (int i = 0; i < parmIds.size(); i++)
+        {
+            Typespec type = parmIds.get(i).getType();
+            String field = "key" + i;
+
+            if (type == Predefined.stringType)
+            {
+                emitLoadElement(routineId, field, keyDescriptor(type), AALOAD, indexSlot);
+                emitLoadLocal(type, i);
+                emit(INVOKEVIRTUAL, "java/lang/String/equals(Ljava/lang/Object;)Z");
+                emit(IFEQ, missLabel);
+            }
+            else
+            {
+                emitLoadElement(routineId, field, keyDescriptor(type), IALOAD, indexSlot);
+                emitLoadKey(type, i);
+                emit(IF_ICMPNE, missLabel);
+            }
+        }
+
+        emitLoadElement(routineId, "value", arrayDescriptor(resultType),
+                        loadInstruction(resultType), indexSlot);
+        emitReturnValue(resultType);
+
+        // Miss: call the body and fill the entry.
+        emitLabel(missLabel);
+        for (int i = 0; i < parmIds.size(); i++)
+        {
+            emitLoadLocal(parmIds.get(i).getType(), i);
+        }
+        emit(INVOKESTATIC, programName + "/" + routineId.getName()
+                           + BODY_SUFFIX + descriptor);
+        emitStoreLocal(resultType, resultSlot);
+
+        emitGetField(routineId, "used", "[Z");
+        emit(ILOAD, indexSlot);
+        emit(ICONST_1);
+        emit(BASTORE);
+
+        for (int i = 0; i < parmIds.size(); i++)
+        {
+            Typespec type = parmIds.get(i).getType();
+
+            emitGetField(routineId, "key" + i, keyDescriptor(type));
+            emit(ILOAD, indexSlot);
+            emitLoadKey(type, i);
+            emit(type == Predefined.stringType ? AASTORE : IASTORE);
+        }
+
+        emitGetField(routineId, "value", arrayDescriptor(resultType));
+        emit(ILOAD, indexSlot);
+        emitLoadLocal(resultType, resultSlot);
+        emit(storeInstruction(resultType));
+
+        emitLoadLocal(resultType, resultSlot);
+        emitReturnValue(resultType);
+
+        emitLine();
+        emitDirective(LIMIT_LOCALS, resultSlot + 1);
+        emitDirective(LIMIT_STACK,  localStack.capacity());
+        emitDirective(END_METHOD);
+    }
+
+    /**
+     * Emit code to load the hash of an argument.
+     * @param type the argument type.
+     * @param slot the argument's slot.
+     */
+    private void emitLoadHash(Typespec type, int slot)
+    {
+        if (type == Predefined.stringType)
+        {
+            emitLoadLocal(type, slot);
+            emit(INVOKEVIRTUAL, "java/lang/String/hashCode()I");
+        }
+        else emitLoadKey(type, slot);
+    }
+
+    /**
+     * Emit code to load the integer key of a number or bool argument,
+     * or a string argument itself.
+     * @param type the argument type.
+     * @param slot the argument's slot.
+     */
+    private void emitLoadKey(Typespec type, int slot)
+    {
+        emitLoadLocal(type, slot);
+
+        if (type == Predefined.numberType)
+        {
+            emit(INVOKESTATIC, "java/lang/Float/floatToRawIntBits(F)I");
+        }
+    }
+
+    /**
+     * Emit code to load an element of a cache array.
+     */
+    private void emitLoadElement(SymtabEntry routineId, String suffix,
+                                 String descriptor, Instruction load,
+                                 int indexSlot)
+    {
+        emitGetField(routineId, suffix, descriptor);
+        emit(ILOAD, indexSlot);
+        emit(load);
+    }
+
+    /**
+     * Emit code to load a cache array.
+     */
+    private void emitGetField(SymtabEntry routineId, String suffix,
+                              String descriptor)
+    {
+        emit(GETSTATIC, programName + "/" + fieldName(routineId, suffix),
+             descriptor);
+    }
+
+    /**
+     * Emit code to allocate a cache array.
+     */
+    private void emitAllocateArray(String name, String descriptor,
+                                   String elementName)
+    {
+        emitLoadConstant(1 << CACHE_BITS);
+        emit(elementName.indexOf('/') < 0 ? NEWARRAY : ANEWARRAY, elementName);
+        emit(PUTSTATIC, programName + "/" + name, descriptor);
+    }
+
+    private static boolean isCacheable(Typespec type)
+    {
+        return    (type == Predefined.numberType)
+               || (type == Predefined.booleanType)
+               || (type == Predefined.stringType);
+    }
+
+    private static ArrayList<SymtabEntry> parameters(SymtabEntry routineId)
+    {
+        ArrayList<SymtabEntry> parmIds = routineId.getRoutineParameters();
+        return parmIds != null ? parmIds : new ArrayList<SymtabEntry>();
+    }
+
+    private static String fieldName(SymtabEntry routineId, String suffix)
+    {
+        return "_memo_" + routineId.getName() + "_" + suffix;
+    }
+
+    private static String arrayDescriptor(Typespec type)
+    {
+        return   type == Predefined.numberType  ? "[F"
+               : type == Predefined.booleanType ? "[Z"
+               :                                  "[Ljava/lang/String;";
+    }
+
+    private static String elementName(Typespec type)
+    {
+        return   type == Predefined.numberType  ? "float"
+               : type == Predefined.booleanType ? "boolean"
+               :                                  "java/lang/String";
+    }
+
+    private static String keyDescriptor(Typespec type)
+    {
+        return type == Predefined.stringType ? "[Ljava/lang/String;" : "[I";
+    }
+
+    private static String keyElementName(Typespec type)
+    {
+        return type == Predefined.stringType ? "java/lang/String" : "int";
+    }
+
+    private static Instruction loadInstruction(Typespec type)
+    {
+        return   type == Predefined.numberType  ? FALOAD
+               : type == Predefined.booleanType ? BALOAD
+               :                                  AALOAD;
+    }
+
+    private static Instruction storeInstruction(Typespec type)
+    {
+        return   type == Predefined.numberType  ? FASTORE
+               : type == Predefined.booleanType ? BASTORE
+               :                                  AASTORE;
+    }
+}
@@ -1,12 +1,21 @@
 package backend.compiler;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
-import antlr4.AKAParser;
+import intermediate.ast.Definition;
+import intermediate.ast.Main;
+import intermediate.ast.Program;
 import intermediate.symtab.Symtab;
 import intermediate.symtab.SymtabEntry;
 import intermediate.symtab.SymtabEntry.Kind;
 import intermediate.type.Typespec;
+import intermediate.util.ParallelTasks;
+import intermediate.util.PhaseStatistics;
+import intermediate.util.CompilerEvents.CodeGenerationEvent;
 
 import static intermediate.symtab.SymtabEntry.Kind.*;
 import static intermediate.type.Typespec.Form.*;
@@ -17,6 +26,8 @@ public class ProgramGenerator extends CodeGenerator
 {
     private SymtabEntry programId;   // symbol table entry of the program name
     private int programLocalsCount;  // count of program local variables
+    private Label bodyStart;         // start of the current method's code
+    private Label bodyEnd;           // end of the current method's code
 
     /**
      * Constructor.
@@ -28,32 +39,63 @@ public class ProgramGenerator extends CodeGenerator
         super(parent, compiler);
         
         localStack = new LocalStack();
-        programLocalsCount = 5;  // +1 because _elapsed is long
+        programLocalsCount = 5;  // +2 because _start and _elapsed are long
     }
     
     /**
      * Emit code for a program.
-     * @param ctx the ProgramContext.
+     * @param program the program.
      */
-    public void emitProgram(AKAParser.ProgramContext ctx)
+    public void emitProgram(Program program)
     {
-        programId = ctx.programIdentifier().entry;
-        Symtab programSymtab = programId.getRoutineSymtab();
+        programId = program.programId;
         
-        localVariables = new LocalVariables(programLocalsCount);
+        emitClassHeader();
+//        emitSubroutines(ctx.block().declarations().routinesPart());
+        emitDefinitions(Arrays.asList(program.definitions));
+        
+        String ranges = compiler.getOptions().isProfiling() ? profilerRanges(program) 
+                                                            : null;
+        emitMainMethod(program.main, ranges);
+        
+        close();  // the object file
+    }
+    
+    /**
+     * Emit the class of a program that was compiled one definition at
+     * a time, whose methods were written to another file.
+     * @param programId the symbol table entry of the program name.
+     * @param methodsFile the file of the methods.
+     */
+    public void emitStreamedProgram(SymtabEntry programId, File methodsFile)
+    {
+        this.programId = programId;
+        
+        emitClassHeader();
+        emitFile(methodsFile);
+        
+        close();  // the object file
+    }
+    
+    /**
+     * Emit the class directives, the fields, the static initializer,
+     * and the constructor.
+     */
+    private void emitClassHeader()
+    {
+        Symtab programSymtab = programId.getRoutineSymtab();
         
         emitRecords(programSymtab);
         
+        String sourceFileName = compiler.getSourceFileName();
+        if (sourceFileName != null) emitDirective(SOURCE, sourceFileName);
+        
         emitDirective(CLASS_PUBLIC, programName);
         emitDirective(SUPER, "java/lang/Object");
 
         emitProgramVariables();
         emitInputScanner();
         emitConstructor();
-//        emitSubroutines(ctx.block().declarations().routinesPart());
-        emitSubroutines(ctx.funcblock());
-        
-        emitMainMethod(ctx);
     }
     
     /**
@@ -122,6 +164,18 @@ public class ProgramGenerator extends CodeGenerator
                               typeDescriptor(id));
             }
         }
+        
+        // Result caches of memoized definitions.
+        for (SymtabEntry routineId : memoizedRoutines())
+        {
+            new MemoGenerator(this, compiler).emitFields(routineId);
+        }
+        
+        // Coverage counts.
+        if (compiler.getCoverageProbes() != null)
+        {
+            emitDirective(FIELD_PRIVATE_STATIC, CoverageProbes.FIELD_NAME, "[J");
+        }
     }
     
     /**
@@ -139,16 +193,66 @@ public class ProgramGenerator extends CodeGenerator
         emit(GETSTATIC, "java/lang/System/in Ljava/io/InputStream;");
         emit(INVOKESPECIAL, "java/util/Scanner/<init>(Ljava/io/InputStream;)V");
         emit(PUTSTATIC, programName + "/_sysin Ljava/util/Scanner;");
+        
+        for (SymtabEntry routineId : memoizedRoutines())
+        {
+            new MemoGenerator(this, compiler).emitAllocation(routineId);
+        }
+        
+        CoverageProbes probes = compiler.getCoverageProbes();
+        if (probes != null) emitCoverageAllocation(probes);
+        
         emit(RETURN);
         
         emitLine();
         emitDirective(LIMIT_LOCALS, 0);
-        emitDirective(LIMIT_STACK,  3);
+        emitDirective(LIMIT_STACK,  probes != null ? 4 : 3);
         emitDirective(END_METHOD);
         
         localStack.reset();
     }
 
+    /**
+     * Emit code to allocate the coverage counts and register them
+     * with the runtime, which writes them to a file at exit.
+     * @param probes the coverage probes.
+     */
+    private void emitCoverageAllocation(CoverageProbes probes)
+    {
+        String sourceFileName = compiler.getSourceFileName();
+        
+        emitLoadConstant(probes.count());
+        emit(NEWARRAY, "long");
+        emit(PUTSTATIC, programName + "/" + CoverageProbes.FIELD_NAME, "[J");
+        
+        emitLoadConstant(programName);
+        emitLoadConstant(sourceFileName != null ? sourceFileName : "");
+        emitLoadConstant(probes.getTable());
+        emit(GETSTATIC, programName + "/" + CoverageProbes.FIELD_NAME, "[J");
+        emit(INVOKESTATIC, "runtime/Coverage/register(Ljava/lang/String;" +
+                           "Ljava/lang/String;Ljava/lang/String;[J)V");
+        localStack.decrease(4);
+    }
+
+    /**
+     * Return the program's definitions whose results are cached.
+     * @return the list of their symbol table entries.
+     */
+    private ArrayList<SymtabEntry> memoizedRoutines()
+    {
+        ArrayList<SymtabEntry> routineIds = new ArrayList<SymtabEntry>();
+        
+        if (programId.getSubroutines() != null)
+        {
+            for (SymtabEntry routineId : programId.getSubroutines())
+            {
+                if (compiler.isMemoized(routineId)) routineIds.add(routineId);
+            }
+        }
+        
+        return routineIds;
+    }
+
     /**
      * Emit code for the main program constructor.
      */
@@ -173,37 +277,101 @@ public class ProgramGenerator extends CodeGenerator
     }
 
     /**
-     * Emit code for any nested procedures and functions.
+     * Emit code for a list of procedures and functions: the definitions
+     * that return a value, and then the others.
+     * @param definitions the definitions in source order.
      */
-    private void emitSubroutines(AKAParser.FuncblockContext ctx)
+    public void emitDefinitions(List<Definition> definitions)
     {
-        if (ctx != null)
+        if (compiler.getOptions().isParallel())
         {
-            for (AKAParser.DefinitionContext defnCtx : ctx.defList().definition())
-            {
-                compiler = new Compiler(compiler);
-                compiler.visit(defnCtx);
-            }
-            for (AKAParser.DefinitionnoreturnContext defnCtx : ctx.defList().definitionnoreturn())
-            {
-                compiler = new Compiler(compiler);
-                compiler.visit(defnCtx);
-            }
-        }     
+            emitDefinitionsInParallel(definitions);
+            return;
+        }
+        
+        for (Definition definition : definitions)
+        {
+            if (definition.hasReturn()) emitSubroutine(definition);
+        }
+        for (Definition definition : definitions)
+        {
+            if (!definition.hasReturn()) emitSubroutine(definition);
+        }
+    }
+
+    /**
+     * Emit code for a list of procedures and functions, each compiled
+     * into a buffer of its own on a thread of its own. The buffers are
+     * written in the order of emitDefinitions(), so the object file is
+     * the same as when the definitions are compiled one after another.
+     * @param definitions the definitions in source order.
+     */
+    private void emitDefinitionsInParallel(List<Definition> definitions)
+    {
+        ArrayList<Callable<Compiler>> tasks = new ArrayList<Callable<Compiler>>();
+        
+        for (Definition definition : definitions)
+        {
+            if (definition.hasReturn()) tasks.add(() -> compiler.compileApart(definition));
+        }
+        for (Definition definition : definitions)
+        {
+            if (!definition.hasReturn()) tasks.add(() -> compiler.compileApart(definition));
+        }
+        
+        for (Compiler worker : ParallelTasks.invokeAll(tasks))
+        {
+            emitText(worker.getBufferedCode());
+            compiler.merge(worker);
+        }
+    }
+
+    /**
+     * Emit code for a procedure or function as a phase of its own.
+     * @param definition the definition.
+     */
+    void emitSubroutine(Definition definition)
+    {
+        PhaseStatistics statistics = compiler.getStatistics();
+        CodeGenerationEvent event = new CodeGenerationEvent();
+        PhaseStatistics.Phase phase = statistics.begin("def " + definition.name, event);
+        int startCount = instructions.getCount();
+        
+        Label.resetIndex();
+        new Compiler(compiler).visit(definition);
+        
+        event.definition       = definition.name;
+        event.nodeCount        = PhaseStatistics.countNodes(definition);
+        event.instructionCount = instructions.getCount() - startCount;
+        statistics.end(phase);
     }
 
     /**
      * Emit code for the program body as the main method.
-     * @param ctx the ProgramContext.
+     * @param main the main block.
+     * @param ranges the profiler's table of the source line ranges of the
+     *               definitions and of main, or null if not profiling.
      */
-    private void emitMainMethod(AKAParser.ProgramContext ctx)
+    public void emitMainMethod(Main main, String ranges)
     {
+        PhaseStatistics statistics = compiler.getStatistics();
+        CodeGenerationEvent event = new CodeGenerationEvent();
+        PhaseStatistics.Phase phase = statistics.begin("main", event);
+        int startCount = instructions.getCount();
+        
+        Label.resetIndex();
+        programId = compiler.getProgramId();
+        localVariables = new LocalVariables(programLocalsCount);
+        compiler.setLocalVariables(localVariables);
+        
         emitLine();
         emitComment("MAIN");
         emitDirective(METHOD_PUBLIC_STATIC, 
                                   "main([Ljava/lang/String;)V");
 
         emitMainPrologue(programId);
+        
+        if (compiler.getOptions().isProfiling()) emitProfilerStart(ranges);
 
         // Emit code to allocate any arrays, records, and strings.
         StructuredDataGenerator structureCode = 
@@ -212,9 +380,14 @@ public class ProgramGenerator extends CodeGenerator
 
         // Emit code for the compound statement.
         emitLine();
-        compiler.visit(ctx.mainblock());
+        compiler.visit(main);
         
         emitMainEpilogue();
+        
+        event.definition       = "main";
+        event.nodeCount        = PhaseStatistics.countNodes(main);
+        event.instructionCount = instructions.getCount() - startCount;
+        statistics.end(phase);
     }
 
     /**
@@ -223,16 +396,93 @@ public class ProgramGenerator extends CodeGenerator
      */
     private void emitMainPrologue(SymtabEntry programId)
     {
-        emitDirective(VAR, "0 is args [Ljava/lang/String;");
-        emitDirective(VAR, "1 is _start Ljava/time/Instant;");
-        emitDirective(VAR, "2 is _end Ljava/time/Instant;");
-        emitDirective(VAR, "3 is _elapsed J");
+        bodyStart = new Label();
+        bodyEnd   = new Label();
+        
+        emitLocalVariable(0, "args", "[Ljava/lang/String;", bodyStart, bodyEnd);
+        emitLocalVariable(1, "_start", "J", bodyStart, bodyEnd);
+        emitLocalVariable(3, "_elapsed", "J", bodyStart, bodyEnd);
+        emitLabel(bodyStart);
         
-        // Runtime timer.
+        // Runtime timer, in nanoseconds.
+        emitLine();
+        emit(INVOKESTATIC, "java/lang/System/nanoTime()J");
+        localStack.increase(2);
+        emit(LSTORE_1);
+    }
+
+    /**
+     * Emit code to start the sampling profiler, which maps the source
+     * lines of the sampled frames back to definitions with a side table
+     * of the line ranges of the definitions and of main.
+     * @param ranges the table.
+     */
+    private void emitProfilerStart(String ranges)
+    {
         emitLine();
-        emit(INVOKESTATIC, "java/time/Instant/now()Ljava/time/Instant;");
-        localStack.increase(1);
-        emit(ASTORE_1);
+        emitComment("Sampling profiler");
+        emit(LDC, "\"" + programName + "\"");
+        emit(LDC, "\"" + ranges + "\"");
+        localStack.increase(2);
+        emit(INVOKESTATIC, "runtime/Profiler/start(Ljava/lang/String;" +
+                           "Ljava/lang/String;)V");
+        localStack.decrease(2);
+    }
+    
+    /**
+     * Make the profiler's table of the source line ranges of a
+     * program's definitions and of main.
+     * @param program the program.
+     * @return the table.
+     */
+    private static String profilerRanges(Program program)
+    {
+        StringBuilder table = new StringBuilder();
+        appendRanges(table, Arrays.asList(program.definitions));
+        appendRange(table, "main", program.main.line, program.main.endLine);
+        
+        return table.toString();
+    }
+    
+    /**
+     * Append the source line ranges of definitions to the profiler's
+     * side table: the definitions that return a value, and then the
+     * others, in the order of their methods.
+     * @param table the table.
+     * @param definitions the definitions in source order.
+     */
+    public static void appendRanges(StringBuilder table, 
+                                    List<Definition> definitions)
+    {
+        for (Definition definition : definitions)
+        {
+            if (definition.hasReturn()) 
+            {
+                appendRange(table, definition.name, definition.line, definition.endLine);
+            }
+        }
+        for (Definition definition : definitions)
+        {
+            if (!definition.hasReturn()) 
+            {
+                appendRange(table, definition.name, definition.line, definition.endLine);
+            }
+        }
+    }
+    
+    /**
+     * Append a routine's source line range to the profiler's side table.
+     * @param table the table.
+     * @param name the routine's name.
+     * @param startLine the routine's first source line.
+     * @param endLine the routine's last source line.
+     */
+    public static void appendRange(StringBuilder table, String name, 
+                                   int startLine, int endLine)
+    {
+        if (table.length() > 0) table.append(';');
+        table.append(name).append(' ').append(startLine)
+             .append(' ').append(endLine);
     }
 
     /**
@@ -240,90 +490,87 @@ public class ProgramGenerator extends CodeGenerator
      */
     private void emitMainEpilogue()
     {
-        // Print the execution time.
+        // The profiler reports the execution time with its samples.
+        if (compiler.getOptions().isProfiling())
+        {
+            emitLine();
+            emit(INVOKESTATIC, "runtime/Profiler/stop()V");
+            
+            emitMainReturn();
+            return;
+        }
+        
+        // Print the execution time. The nanoseconds with a scale of 6
+        // are the exact milliseconds.
         emitLine();
-        emit(INVOKESTATIC, "java/time/Instant/now()Ljava/time/Instant;");
-        localStack.increase(1);
-        emit(ASTORE_2);           
-        emit(ALOAD_1);             
-        emit(ALOAD_2);             
-        emit(INVOKESTATIC, "java/time/Duration/between(Ljava/time/temporal/Temporal;" +
-                           "Ljava/time/temporal/Temporal;)Ljava/time/Duration;");
-        localStack.decrease(1);
-        emit(INVOKEVIRTUAL, "java/time/Duration/toMillis()J");
-        localStack.increase(1);
+        emit(INVOKESTATIC, "java/lang/System/nanoTime()J");
+        localStack.increase(2);
+        emit(LLOAD_1);
+        emit(LSUB);
         emit(LSTORE_3);              
         emit(GETSTATIC, "java/lang/System/out Ljava/io/PrintStream;");
-        emit(LDC, "\"\\n[%,d milliseconds execution time.]\\n\"");
+        emit(LDC, "\"\\n[%,.3f milliseconds execution time.]\\n\"");
         emit(ICONST_1);             
         emit(ANEWARRAY, "java/lang/Object");
         emit(DUP);                 
         emit(ICONST_0);         
         emit(LLOAD_3);             
-        emit(INVOKESTATIC, "java/lang/Long/valueOf(J)Ljava/lang/Long;");
+        emit(BIPUSH, 6);
+        emit(INVOKESTATIC, "java/math/BigDecimal/valueOf(JI)Ljava/math/BigDecimal;");
+        localStack.decrease(2);
         emit(AASTORE);        
         emit(INVOKEVIRTUAL, "java/io/PrintStream/printf(Ljava/lang/String;" +
                             "[Ljava/lang/Object;)Ljava/io/PrintStream;");
         localStack.decrease(2);
         emit(POP);          
 
+        emitMainReturn();
+    }
+    
+    /**
+     * Emit the main method's return and end.
+     */
+    private void emitMainReturn()
+    {
         emitLine();
         emit(RETURN);
+        compiler.emitColdBlocks();
+        emitLabel(bodyEnd);
         emitLine();
 
         emitDirective(LIMIT_LOCALS, localVariables.count());
         emitDirective(LIMIT_STACK,  localStack.capacity());
         emitDirective(END_METHOD);
-        
-        close();  // the object file
     }
     
     
-    public void emitDefinition(AKAParser.DefinitionContext ctx) {
-    	SymtabEntry routineId = ctx.defName().entry;
-    	Symtab routineSymtab = routineId.getRoutineSymtab();
-    	
-    	emitRoutineHeader(routineId);
-        emitRoutineLocals(routineId);
+    /**
+     * Emit code for a definition, with or without a return variable.
+     * @param definition the definition.
+     */
+    public void emitDefinition(Definition definition)
+    {
+        SymtabEntry routineId = definition.routineId;
+        Symtab routineSymtab = routineId.getRoutineSymtab();
         
-        StructuredDataGenerator structuredCode = new StructuredDataGenerator(this, compiler);
-        										structuredCode.emitData(routineId);
-
-		localVariables = new LocalVariables(routineSymtab.getMaxSlotNumber());
-		AKAParser.StatementListContext stmtCtx = 
-	            (AKAParser.StatementListContext) routineId.getExecutable();
-		if (stmtCtx != null) 
-		{
-			compiler.visit(stmtCtx);
-		}
-		
-		SymtabEntry returnId = ctx.variable().entry;
-		
-		
-	    emitRoutineReturn(routineId, returnId);
-        emitRoutineEpilogue();
-    }
-    
-    
-    public void emitDefinitionNoReturn(AKAParser.DefinitionnoreturnContext ctx) {
-    	SymtabEntry routineId = ctx.defName().entry;
-    	Symtab routineSymtab = routineId.getRoutineSymtab();
-    	
-    	emitRoutineHeader(routineId);
+        emitRoutineHeader(routineId);
         emitRoutineLocals(routineId);
         
         StructuredDataGenerator structuredCode = new StructuredDataGenerator(this, compiler);
-        										structuredCode.emitData(routineId);
-
-		localVariables = new LocalVariables(routineSymtab.getMaxSlotNumber());
-		AKAParser.StatementListContext stmtCtx = 
-	            (AKAParser.StatementListContext) routineId.getExecutable();
-		if (stmtCtx != null) 
-		{
-			compiler.visit(stmtCtx);
-		}
-		
-	    emitRoutineReturn(routineId, null);
+        structuredCode.emitData(routineId);
+
+        localVariables = new LocalVariables(routineSymtab.getMaxSlotNumber());
+        compiler.setLocalVariables(localVariables);
+        
+        RecursionGenerator recursionCode = 
+                new RecursionGenerator(this, compiler, routineId);
+        compiler.setRecursionCode(recursionCode);
+        recursionCode.emitPrologue();
+        
+        compiler.visit(definition.body);
+        recursionCode.emitEpilogue();
+        
+        emitRoutineReturn(routineId, definition.returnId);
         emitRoutineEpilogue();
     }
 
@@ -337,8 +584,6 @@ public class ProgramGenerator extends CodeGenerator
         ArrayList<SymtabEntry> parmIds = routineId.getRoutineParameters();
         StringBuilder buffer = new StringBuilder();
 
-        // Procedure or function name.
-        buffer.append(routineName);
         buffer.append("(");
 
         // Parameter and return type descriptors.
@@ -351,6 +596,14 @@ public class ProgramGenerator extends CodeGenerator
         }
         buffer.append(")");
         buffer.append(typeDescriptor(routineId));
+        
+        // A memoized definition's name is its wrapper's.
+        if (compiler.isMemoized(routineId))
+        {
+            new MemoGenerator(this, compiler).emitWrapper(routineId, 
+                                                          buffer.toString());
+            routineName += MemoGenerator.BODY_SUFFIX;
+        }
 
         emitLine();
         if (routineId.getKind() == DEFINITION) 
@@ -362,22 +615,32 @@ public class ProgramGenerator extends CodeGenerator
             emitComment("DEFINITION NO RETURN " + routineName);
         }
               
-        emitDirective(METHOD_PRIVATE_STATIC, buffer.toString());
+        emitDirective(METHOD_PRIVATE_STATIC, routineName + buffer.toString());
     }
 
     /**
-     * Emit directives for the local variables.
+     * Emit directives for the local variables. The range of each one is
+     * the whole method, since a variable is in scope from its declaration
+     * to the end of the definition, and not only in the block that
+     * declares it. A range that started at the declaration would put a
+     * label between statements, where the peephole rules could no longer
+     * match across it, and a declaration in a cold branch is emitted after
+     * the method's return, past the code that follows it in the source.
      * @param routineId the symbol table entry of the routine's name.
      */
     private void emitRoutineLocals(SymtabEntry routineId)
     {
         Symtab symtab = routineId.getRoutineSymtab();
         ArrayList<SymtabEntry> ids = symtab.sortedEntries();
+        
+        bodyStart = new Label();
+        bodyEnd   = new Label();
 
         emitLine();
 
         // Loop over all the routine's identifiers and
-        // emit a .var directive for each variable and formal parameter.
+        // emit a .var directive for each variable and formal parameter,
+        // whose range is the whole body.
         for (SymtabEntry id : ids) 
         {
             Kind kind = id.getKind();
@@ -385,11 +648,12 @@ public class ProgramGenerator extends CodeGenerator
             if ((kind == VARIABLE) || (kind == VALUE_PARAMETER)
                                    || (kind == REFERENCE_PARAMETER)) 
             {
-                int slot = id.getSlotNumber();
-                emitDirective(VAR, slot + " is " + id.getName(),
-                              typeDescriptor(id));
+                emitLocalVariable(id.getSlotNumber(), id.getName(),
+                                  typeDescriptor(id), bodyStart, bodyEnd);
             }
         }
+        
+        emitLabel(bodyStart);
     }
 
     /**
@@ -428,6 +692,8 @@ public class ProgramGenerator extends CodeGenerator
      */
     private void emitRoutineEpilogue()
     {
+        compiler.emitColdBlocks();
+        emitLabel(bodyEnd);
         emitLine();
         emitDirective(LIMIT_LOCALS, localVariables.count());
         emitDirective(LIMIT_STACK,  localStack.capacity());
@@ -0,0 +1,449 @@
+package backend.compiler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import intermediate.ast.*;
+import intermediate.symtab.*;
+import intermediate.type.*;
+import intermediate.util.CompilerOptions;
+
+import static intermediate.symtab.SymtabEntry.Kind.*;
+import static backend.compiler.Instruction.*;
+
+/**
+ * <h1>RecursionGenerator</h1>
+ *
+ * <p>Emit a definition's calls to itself without JVM method calls.
+ * A self-call in tail position reassigns the parameters and jumps back
+ * to the method entry. With the heap stack option, a statement whose
+ * only call is a self-call first pushes the caller's variables onto an
+ * array on the heap. When the body ends with frames on that stack, the
+ * method pops a frame and resumes the statement with the callee's
+ * result instead of returning.</p>
+ */
+public class RecursionGenerator extends CodeGenerator
+{
+    private static final int INITIAL_STACK_SIZE = 64;
+
+    private SymtabEntry routineId;     // the definition being compiled
+    private SymtabEntry returnId;      // its return variable, if any
+    private ArrayList<SymtabEntry> frameIds;  // variables saved in a frame
+
+    private HashSet<Statement> tailCalls;        // tail self-calls
+    private ArrayList<Statement> stackedCalls;   // the others
+    private ArrayList<Label> resumeLabels;  // where each stacked call resumes
+
+    private Label entryLabel;          // start of the body
+    private int stackSlot;             // the heap stack array
+    private int depthSlot;             // the heap stack depth
+    private int resultSlot;            // the value of a returning self-call
+    private int siteSlot;              // which stacked call to resume
+
+    private DefCall resumedCall;       // call being resumed
+
+    /**
+     * Constructor.
+     * @param parent the parent generator.
+     * @param compiler the compiler to use.
+     * @param routineId the symbol table entry of the definition's name.
+     */
+    public RecursionGenerator(CodeGenerator parent, Compiler compiler,
+                              SymtabEntry routineId)
+    {
+        super(parent, compiler);
+
+        this.routineId    = routineId;
+        this.tailCalls    = new HashSet<Statement>();
+        this.stackedCalls = new ArrayList<Statement>();
+        this.resumeLabels = new ArrayList<Label>();
+        this.entryLabel   = new Label();
+
+        Definition definition = (Definition) routineId.getExecutable();
+        if (definition.body.isEmpty()) return;
+
+        returnId = definition.returnId;
+
+        CompilerOptions options = compiler.getOptions();
+        if (options.isOptimizing()) findTailCalls(definition.body);
+        if (options.isHeapStack() && findFrameVariables())
+        {
+            findStackedCalls(definition.body);
+        }
+    }
+
+    /**
+     * Determine whether or not any self-calls resume from the heap stack.
+     * @return true if any do, else false.
+     */
+    public boolean hasStackedCalls() { return !stackedCalls.isEmpty(); }
+
+    /**
+     * Emit code at the start of the body. Allocate the heap stack,
+     * initialize the variables that a frame saves, and mark the entry.
+     */
+    public void emitPrologue()
+    {
+        if (!stackedCalls.isEmpty())
+        {
+            ArrayList<SymtabEntry> parmIds = routineId.getRoutineParameters();
+
+            stackSlot  = localVariables.reserve();
+            depthSlot  = localVariables.reserve();
+            resultSlot = localVariables.reserve();
+            siteSlot   = localVariables.reserve();
+
+            emitLoadConstant(INITIAL_STACK_SIZE);
+            emit(NEWARRAY, "float");
+            emit(ASTORE, stackSlot);
+            emit(ICONST_0);
+            emit(ISTORE, depthSlot);
+
+            // A frame can be pushed before a variable is first assigned.
+            for (SymtabEntry id : frameIds)
+            {
+                if ((parmIds == null) || !parmIds.contains(id))
+                {
+                    Typespec type = id.getType();
+
+                    emit(type == Predefined.booleanType ? ICONST_0 : FCONST_0);
+                    emitStoreLocal(type, localVariables.slotOf(id));
+                }
+            }
+        }
+
+        if (!tailCalls.isEmpty() || !stackedCalls.isEmpty())
+        {
+            emitLabel(entryLabel);
+        }
+    }
+
+    /**
+     * Emit code at the end of the body. While the heap stack has frames,
+     * pop one and resume its self-call.
+     */
+    public void emitEpilogue()
+    {
+        if (stackedCalls.isEmpty()) return;
+
+        Label doneLabel = new Label();
+
+        emit(ILOAD, depthSlot);
+        emit(IFEQ, doneLabel);
+
+        if (returnId != null)
+        {
+            Typespec type = returnId.getType();
+            emitLoadLocal(type, localVariables.slotOf(returnId));
+            emitStoreLocal(type, resultSlot);
+        }
+
+        emitPopValue();
+        emit(F2I);
+        emit(ISTORE, siteSlot);
+
+        for (int i = frameIds.size() - 1; i >= 0; i--)
+        {
+            SymtabEntry id = frameIds.get(i);
+            Typespec type = id.getType();
+
+            emitPopValue();
+            if (type == Predefined.booleanType) emit(F2I);
+            emitStoreLocal(type, localVariables.slotOf(id));
+        }
+
+        // Jump to where the popped frame's self-call resumes.
+        int last = resumeLabels.size() - 1;
+        for (int site = 0; site < last; site++)
+        {
+            emit(ILOAD, siteSlot);
+            emitLoadConstant(site);
+            emit(IF_ICMPEQ, resumeLabels.get(site));
+        }
+        emit(GOTO, resumeLabels.get(last));
+
+        emitLabel(doneLabel);
+    }
+
+    /**
+     * Emit code for a statement if it is a self-call.
+     * @param ctx the statement.
+     * @return true if code was emitted, false if the statement
+     *         must be compiled normally.
+     */
+    public boolean emitSelfCall(Statement ctx)
+    {
+        if (tailCalls.contains(ctx))
+        {
+            emitParameters(selfCall(ctx, true));
+            emit(GOTO, entryLabel);
+            return true;
+        }
+
+        int site = stackedCalls.indexOf(ctx);
+        if (site < 0) return false;
+
+        DefCall callCtx = selfCall(ctx, false);
+
+        emitPushFrame(site);
+        emitParameters(callCtx);
+        emit(GOTO, entryLabel);
+
+        // Finish the statement with the result of the call.
+        emitLabel(resumeLabels.get(site));
+        if (ctx instanceof Assignment)
+        {
+            resumedCall = callCtx;
+            compiler.visit(ctx);
+            resumedCall = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Emit the value of a call if it is the self-call being resumed.
+     * @param ctx the call.
+     * @return true if code was emitted, else false.
+     */
+    public boolean emitResumedCall(DefCall ctx)
+    {
+        if (ctx != resumedCall) return false;
+
+        emitLoadLocal(routineId.getType(), resultSlot);
+        return true;
+    }
+
+    /**
+     * Evaluate the arguments of a self-call and store them
+     * into the parameters.
+     * @param callCtx the call.
+     */
+    private void emitParameters(DefCall callCtx)
+    {
+        ArrayList<SymtabEntry> parmIds = routineId.getRoutineParameters();
+
+        if (callCtx.arguments.length == 0) return;
+
+        for (Expression argument : callCtx.arguments) compiler.visit(argument);
+
+        for (int i = parmIds.size() - 1; i >= 0; i--)
+        {
+            SymtabEntry parmId = parmIds.get(i);
+            emitStoreLocal(parmId.getType(), localVariables.slotOf(parmId));
+        }
+    }
+
+    /**
+     * Push the frame variables and the call site onto the heap stack,
+     * first doubling the stack if it is too small.
+     * @param site the index of the call site.
+     */
+    private void emitPushFrame(int site)
+    {
+        Label fitsLabel = new Label();
+        int frameSize = frameIds.size() + 1;
+
+        emit(ILOAD, depthSlot);
+        emitLoadConstant(frameSize);
+        emit(IADD);
+        emit(ALOAD, stackSlot);
+        emit(ARRAYLENGTH);
+        emit(IF_ICMPLE, fitsLabel);
+
+        emit(ALOAD, stackSlot);
+        emit(ALOAD, stackSlot);
+        emit(ARRAYLENGTH);
+        emit(ICONST_2);
+        emit(IMUL);
+        emitLoadConstant(frameSize);
+        emit(IADD);
+        emit(INVOKESTATIC, "java/util/Arrays/copyOf([FI)[F");
+        emit(ASTORE, stackSlot);
+        emitLabel(fitsLabel);
+
+        for (SymtabEntry id : frameIds)
+        {
+            Typespec type = id.getType();
+
+            emit(ALOAD, stackSlot);
+            emit(ILOAD, depthSlot);
+            emitLoadLocal(type, localVariables.slotOf(id));
+            if (type == Predefined.booleanType) emit(I2F);
+            emit(FASTORE);
+            emit(IINC, depthSlot, 1);
+        }
+
+        emit(ALOAD, stackSlot);
+        emit(ILOAD, depthSlot);
+        emitLoadConstant((double) site);
+        emit(FASTORE);
+        emit(IINC, depthSlot, 1);
+    }
+
+    /**
+     * Pop the top value of the heap stack onto the operand stack.
+     */
+    private void emitPopValue()
+    {
+        emit(IINC, depthSlot, -1);
+        emit(ALOAD, stackSlot);
+        emit(ILOAD, depthSlot);
+        emit(FALOAD);
+    }
+
+    /**
+     * Find the variables that a frame saves: the parameters, the return
+     * variable, and the local variables. They must all fit in a float.
+     * @return true if they do, else false.
+     */
+    private boolean findFrameVariables()
+    {
+        frameIds = new ArrayList<SymtabEntry>();
+
+        for (SymtabEntry id : routineId.getRoutineSymtab().sortedEntries())
+        {
+            SymtabEntry.Kind kind = id.getKind();
+            boolean associated =    (kind == VARIABLE)
+                                 && id.getName().equals(routineId.getName());
+
+            if (((kind == VARIABLE) || (kind == VALUE_PARAMETER)) && !associated)
+            {
+                Typespec type = id.getType();
+
+                if (   (type != Predefined.numberType)
+                    && (type != Predefined.booleanType)) return false;
+
+                frameIds.add(id);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the self-calls in tail position: the last statement of the
+     * body, or of a branch of an IF or a GUARD statement in tail position.
+     * @param block the block.
+     */
+    private void findTailCalls(Block block)
+    {
+        if (block == null || block.isEmpty()) return;
+
+        Statement last = block.statements[block.statements.length - 1];
+
+        if (selfCall(last, true) != null)
+        {
+            tailCalls.add(last);
+        }
+        else if (last instanceof IfStatement)
+        {
+            IfStatement ifStmt = (IfStatement) last;
+
+            for (Branch branch : ifStmt.branches) findTailCalls(branch.body);
+            findTailCalls(ifStmt.elseBlock);
+        }
+        else if (last instanceof Guard)
+        {
+            findTailCalls(((Guard) last).body);
+        }
+    }
+
+    /**
+     * Find the other statements whose only call is a self-call. Those
+     * within a BENCH statement are left as JVM calls, since the run's
+     * timer is in a temporary that a frame does not save.
+     * @param node the subtree to search.
+     */
+    private void findStackedCalls(Node node)
+    {
+        if (node instanceof Bench) return;
+
+        if (node instanceof Statement)
+        {
+            Statement stmt = (Statement) node;
+
+            if (!tailCalls.contains(stmt) && (selfCall(stmt, false) != null))
+            {
+                stackedCalls.add(stmt);
+                resumeLabels.add(new Label());
+                return;
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+        {
+            findStackedCalls(node.getChild(i));
+        }
+    }
+
+    /**
+     * Return the self-call of a call statement or an assignment.
+     * @param stmt the statement.
+     * @param tail true if the call must be the value of the
+     *             return variable or the entire statement.
+     * @return the call, or null if none.
+     */
+    private DefCall selfCall(Statement stmt, boolean tail)
+    {
+        DefCall call = null;
+
+        if (stmt instanceof DefCallStatement)
+        {
+            call = ((DefCallStatement) stmt).call;
+        }
+        else if (stmt instanceof Assignment)
+        {
+            Assignment assignment = (Assignment) stmt;
+
+            if (tail)
+            {
+                if (assignment.target != returnId) return null;
+                call = onlyFactorCall(assignment.value);
+            }
+            else
+            {
+                ArrayList<DefCall> calls = new ArrayList<DefCall>();
+
+                collectCalls(assignment, calls);
+                if (calls.size() == 1) call = calls.get(0);
+            }
+        }
+
+        return (call != null) && (call.routineId == routineId) ? call : null;
+    }
+
+    /**
+     * Return the call that is an entire expression.
+     * @param expr the expression.
+     * @return the call, or null if none.
+     */
+    private DefCall onlyFactorCall(Expression expr)
+    {
+        if (expr.op != null) return null;
+
+        SimpleExpression simple = expr.left;
+        if ((simple.sign != null) || (simple.terms.length != 1)) return null;
+
+        Term term = simple.terms[0];
+        if (term.factors.length != 1) return null;
+
+        Factor factor = term.factors[0];
+        return factor instanceof DefCall ? (DefCall) factor : null;
+    }
+
+    /**
+     * Collect the calls within a subtree.
+     * @param node the subtree.
+     * @param calls the list to append to.
+     */
+    private void collectCalls(Node node, ArrayList<DefCall> calls)
+    {
+        if (node instanceof DefCall) calls.add((DefCall) node);
+
+        for (int i = 0; i < node.getChildCount(); i++)
+        {
+            collectCalls(node.getChild(i), calls);
+        }
+    }
+}
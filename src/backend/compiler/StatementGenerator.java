@@ -2,6 +2,7 @@ package backend.compiler;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.TreeMap;
 import java.util.Set;
@@ -9,13 +10,19 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import antlr4.AKAParser;
-import antlr4.AKAParser.DefCallContext;
-import antlr4.AKAParser.VariableContext;
+import intermediate.ast.*;
 import intermediate.symtab.*;
 import intermediate.type.*;
 import intermediate.type.Typespec.Form;
+import backend.optimizer.CommonSubexpressionEliminator;
+import backend.optimizer.DeadCodeEliminator;
+import backend.optimizer.Inliner;
+import backend.optimizer.LoopInvariantAnalyzer;
+import backend.optimizer.LoopInvariantAnalyzer.Invariant;
+import backend.optimizer.LoopUnroller;
+import backend.optimizer.ProfileData;
 
+import static intermediate.symtab.SymtabEntry.Kind.*;
 import static intermediate.type.Typespec.Form.*;
 import static backend.compiler.Instruction.*;
 
@@ -29,6 +36,30 @@ import static backend.compiler.Instruction.*;
  */
 public class StatementGenerator extends CodeGenerator
 {
+    /**
+     * A rarely taken branch body that is emitted at the end of the method,
+     * out of the way of the code that usually runs.
+     */
+    private static class ColdBlock
+    {
+        Label label;                     // the body's start
+        Label nextLabel;                 // where it returns to
+        Branch branch;                   // the IF branch
+        ArrayList<Integer> liveSlots;    // locals in use at the IF
+
+        ColdBlock(Label label, Label nextLabel, Branch branch,
+                  ArrayList<Integer> liveSlots)
+        {
+            this.label     = label;
+            this.nextLabel = nextLabel;
+            this.branch    = branch;
+            this.liveSlots = liveSlots;
+        }
+    }
+
+    private ArrayList<ColdBlock> coldBlocks = new ArrayList<ColdBlock>();
+    private int inlineDepth = 0;  // nesting of inlined calls being emitted
+
     /**
      * Constructor.
      * @param parent the parent generator.
@@ -41,15 +72,21 @@ public class StatementGenerator extends CodeGenerator
 
     /**
      * Emit code for an assignment statement.
-     * @param ctx the AssignmentStatementContext.
+     * @param ctx the assignment.
      */
-    public void emitAssignment(AKAParser.AssignmentContext ctx)
+    public void emitAssignment(Assignment ctx)
     {
-        AKAParser.VariableContext   varCtx  = ctx.lhs().variable();
-        AKAParser.ExpressionContext exprCtx = ctx.rhs().declaration().expression();
-        SymtabEntry varId = varCtx.entry;
-        Typespec varType  = varCtx.type;
-        Typespec exprType = exprCtx.type;
+        Expression exprCtx = ctx.value;
+        SymtabEntry varId = ctx.target;
+        Typespec varType  = ctx.targetType;
+        
+        DeadCodeEliminator eliminator = compiler.getDeadCodeEliminator();
+        if ((eliminator != null) && eliminator.isDeadStore(ctx))
+        {
+            eliminator.countRemoved(ctx, "dead store to " + varId.getName());
+            return;
+        }
+        
         compiler.visit(exprCtx);
         emitStoreValue(varId,varType);
         
@@ -91,179 +128,624 @@ public class StatementGenerator extends CodeGenerator
 
     /**
      * Emit code for an IF statement.
-     * @param ctx the IfStatementContext.
+     * @param ctx the IF statement.
+     */
+    public void emitIf(IfStatement ctx)
+    {
+        if (   (compiler.getDeadCodeEliminator() != null) 
+            && hasConstantCondition(ctx))
+        {
+            emitPrunedIf(ctx);
+            return;
+        }
+        if (   (compiler.getProfileData() != null) 
+            && emitProfiledIf(ctx, compiler.getProfileData()))
+        {
+            return;
+        }
+        
+        Branch ifBranch = ctx.branches[0];
+        Label nextLabel = new Label();
+        
+        compiler.visit(ifBranch.condition);
+        
+        // No ELSEIF or ELSE.
+        if (ctx.branches.length == 1 && ctx.elseBlock == null)
+        {
+            emit(IFEQ, nextLabel); 
+            emitBranchBody(ifBranch, ifBranch.body);
+        }
+        
+        // Test each branch in turn, and fall through to the ELSE if any.
+        else
+        {
+            Label falseLabel = new Label();
+            emit(IFEQ, falseLabel);
+            emitBranchBody(ifBranch, ifBranch.body);
+            emit(GOTO, nextLabel);
+            
+            for (int i = 1; i < ctx.branches.length; i++)
+            {
+                Branch elseifBranch = ctx.branches[i];
+                
+                emitLabel(falseLabel);
+                compiler.visit(elseifBranch.condition);
+                falseLabel = new Label();
+                emit(IFEQ, falseLabel);
+                emitBranchBody(elseifBranch, elseifBranch.body);
+                emit(GOTO, nextLabel);
+            }
+            
+            emitLabel(falseLabel);
+            if (ctx.elseBlock != null) emitBranchBody(ctx.elseBlock, ctx.elseBlock);
+        }
+        
+        emitLabel(nextLabel);
+    }
+    
+    /**
+     * Emit code for an IF statement laid out for the counts of a training
+     * run. The arms of a chain whose conditions are exclusive are tested 
+     * in the order of how often they were taken. Of an IF and ELSE, the
+     * more often taken body falls through from the test. An IF body that
+     * is rarely taken is emitted at the end of the method.
+     * @param ctx the IF statement.
+     * @param profile the profile data.
+     * @return true if emitted, false if the source layout is kept.
+     */
+    private boolean emitProfiledIf(IfStatement ctx, ProfileData profile)
+    {
+        long entries = profile.countOf(ctx);
+        if (entries <= 0) return false;
+        
+        Branch ifBranch = ctx.branches[0];
+        Block elseBlock = ctx.elseBlock;
+        long taken = profile.countOf(ifBranch);
+        
+        if (ctx.branches.length > 1) return emitReorderedIf(ctx, profile);
+        
+        // Likely ELSE body: test for the IF body and fall through.
+        if ((elseBlock != null) && (profile.countOf(elseBlock) > taken))
+        {
+            Label thenLabel = new Label();
+            Label nextLabel = new Label();
+            
+            compiler.visit(ifBranch.condition);
+            emit(IFNE, thenLabel);
+            emitBranchBody(elseBlock, elseBlock);
+            emit(GOTO, nextLabel);
+            emitLabel(thenLabel);
+            emitBranchBody(ifBranch, ifBranch.body);
+            emitLabel(nextLabel);
+            
+            profile.countDecision("IF laid out for a likely ELSE");
+            return true;
+        }
+        
+        // Cold IF body without ELSE: move it to the end of the method.
+        // The body of an inlined call cannot move, since the callee's
+        // variables are in the caller's slots only where it is inlined,
+        // nor can a body that resumes stacked self-calls.
+        if (   (elseBlock == null) && profile.isCold(taken, entries) 
+            && (inlineDepth == 0) && !compiler.hasStackedCalls())
+        {
+            Label coldLabel = new Label();
+            Label nextLabel = new Label();
+            
+            compiler.visit(ifBranch.condition);
+            emit(IFNE, coldLabel);
+            emitLabel(nextLabel);
+            
+            coldBlocks.add(new ColdBlock(coldLabel, nextLabel, ifBranch,
+                                         localVariables.reservedSlots()));
+            profile.countDecision("cold IF body moved to method end");
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Emit code for an IF statement with ELSEIF arms whose conditions
+     * are exclusive, testing the most often taken arm first.
+     * @param ctx the IF statement.
+     * @param profile the profile data.
+     * @return true if emitted, false if the source order is kept.
+     */
+    private boolean emitReorderedIf(IfStatement ctx, ProfileData profile)
+    {
+        if (!ProfileData.areExclusive(ctx.branches)) return false;
+        
+        List<Branch> branches = Arrays.asList(ctx.branches);
+        ArrayList<Branch> ordered = new ArrayList<Branch>(branches);
+        Collections.sort(ordered, (a, b) -> 
+                         Long.compare(profile.countOf(b), profile.countOf(a)));
+        if (ordered.equals(branches)) return false;
+        
+        Label nextLabel = new Label();
+        
+        for (Branch branch : ordered)
+        {
+            Label falseLabel = new Label();
+            
+            compiler.visit(branch.condition);
+            emit(IFEQ, falseLabel);
+            emitBranchBody(branch, branch.body);
+            emit(GOTO, nextLabel);
+            emitLabel(falseLabel);
+        }
+        
+        if (ctx.elseBlock != null) emitBranchBody(ctx.elseBlock, ctx.elseBlock);
+        
+        emitLabel(nextLabel);
+        
+        profile.countDecision("ELSEIF arms reordered by frequency");
+        return true;
+    }
+    
+    /**
+     * Emit the cold IF bodies of the method after its return.
+     * Each one jumps back to the code after its IF statement. 
+     * The locals that were in use at the IF, such as loop invariants 
+     * and saved subexpressions, stay reserved while its body is emitted.
+     */
+    public void emitColdBlocks()
+    {
+        // A cold body can contain cold bodies of its own.
+        while (!coldBlocks.isEmpty())
+        {
+            ColdBlock block = coldBlocks.remove(0);
+            ArrayList<Integer> held = localVariables.reserveAll(block.liveSlots);
+            
+            emitLabel(block.label);
+            emitBranchBody(block.branch, block.branch.body);
+            emit(GOTO, block.nextLabel);
+            
+            for (int slot : held) localVariables.release(slot);
+        }
+    }
+    
+    /**
+     * Determine whether or not any condition of an IF statement is constant.
+     * @param ctx the IF statement.
+     * @return true if any is, else false.
+     */
+    private boolean hasConstantCondition(IfStatement ctx)
+    {
+        DeadCodeEliminator eliminator = compiler.getDeadCodeEliminator();
+        
+        for (Branch branch : ctx.branches)
+        {
+            if (eliminator.conditionValue(branch.condition) != null) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Emit code for an IF statement with constant conditions. A branch
+     * whose condition is false is unreachable. A branch whose condition 
+     * is true is taken without a test, and the branches after it are 
+     * unreachable.
+     * @param ctx the IF statement.
      */
-    public void emitIf(AKAParser.IfStatementContext ctx)
+    private void emitPrunedIf(IfStatement ctx)
     {
-        /***** Complete this method. *****/
-    	Label next_label = new Label();
-		compiler.visit(ctx.ifBlock().condition().expression());
-		if (ctx.elseBlock() == null && ctx.elseifBlock().size() == 0) {// No else
-			emit(IFEQ, next_label); 
-			compiler.visit(ctx.ifBlock().statementList());
-		} else if (ctx.elseifBlock().size() == 0){// Has else
-			Label false_label = new Label(); 
-			emit(IFEQ, false_label); 
-			compiler.visit(ctx.ifBlock().statementList()); 
-			emit(GOTO, next_label);
-			emitLabel(false_label);
-			compiler.visit(ctx.elseBlock().statementList());
-		} else if (ctx.elseBlock() == null && ctx.elseifBlock().size() > 0) {//No Else
-			Label elseif_label = new Label();
-			emit(IFEQ, elseif_label);
-			compiler.visit(ctx.ifBlock().statementList());
-			emit(GOTO, next_label);
-			
-			
-			for (AKAParser.ElseifBlockContext elseifCtx : ctx.elseifBlock()) {
-				emitLabel(elseif_label);
-				compiler.visit(elseifCtx.condition().expression());
-				elseif_label = new Label();
-				emit(IFEQ, elseif_label);
-				compiler.visit(elseifCtx.statementList());
-				emit(GOTO, next_label);
-			}
-			emitLabel(elseif_label);
-		} else {		// Has elseif and else
-			Label elseif_label = new Label();
-			emit(IFEQ, elseif_label);
-			compiler.visit(ctx.ifBlock().statementList());
-			emit(GOTO, next_label);
-			
-			
-			for (AKAParser.ElseifBlockContext elseifCtx : ctx.elseifBlock()) {
-				emitLabel(elseif_label);
-				compiler.visit(elseifCtx.condition().expression());
-				elseif_label = new Label();
-				emit(IFEQ, elseif_label);
-				compiler.visit(elseifCtx.statementList());
-				emit(GOTO, next_label);
-			}
-			emitLabel(elseif_label);
-			compiler.visit(ctx.elseBlock().statementList());
-		}
-		
-		
-		
-		
-		
-		
-		
-		
-		emitLabel(next_label); // next-label
+        DeadCodeEliminator eliminator = compiler.getDeadCodeEliminator();
+        Label nextLabel = new Label();
+        
+        for (int i = 0; i < ctx.branches.length; i++)
+        {
+            Branch branch = ctx.branches[i];
+            Expression exprCtx = branch.condition;
+            Boolean value = eliminator.conditionValue(exprCtx);
+            
+            // Unreachable branch.
+            if (Boolean.FALSE.equals(value))
+            {
+                eliminator.countRemoved(exprCtx, "branch with false condition " 
+                                                 + exprCtx);
+                continue;
+            }
+            
+            // Branch always taken.
+            if (Boolean.TRUE.equals(value))
+            {
+                emitBranchBody(branch, branch.body);
+                
+                if (i + 1 < ctx.branches.length || ctx.elseBlock != null)
+                {
+                    eliminator.countRemoved(ctx.branches[0], 
+                            "branches after true condition " + exprCtx);
+                }
+                
+                emitLabel(nextLabel);
+                return;
+            }
+            
+            Label falseLabel = new Label();
+            
+            compiler.visit(exprCtx);
+            emit(IFEQ, falseLabel);
+            emitBranchBody(branch, branch.body);
+            emit(GOTO, nextLabel);
+            emitLabel(falseLabel);
+        }
+        
+        if (ctx.elseBlock != null) emitBranchBody(ctx.elseBlock, ctx.elseBlock);
+        
+        emitLabel(nextLabel);
     }
     
-    public void emitGuard(AKAParser.GuardContext ctx)
+    /**
+     * Emit code for a GUARD statement. Its conditions are tested before
+     * each statement of its body, and the first that is false ends it.
+     * @param ctx the GUARD statement.
+     */
+    public void emitGuard(Guard ctx)
     {
-        Label guardStart = new Label();
         Label guardEnd = new Label();
         
-        List<AKAParser.ConditionContext> conditions = ctx.paramList().condition();
-        for (AKAParser.ConditionContext condition : conditions) {
-            compiler.visit(condition.expression());
+        Expression conditions[] = ctx.conditions;
+        
+        DeadCodeEliminator eliminator = compiler.getDeadCodeEliminator();
+        if (eliminator != null)
+        {
+            for (int i = 0; i < conditions.length; i++)
+            {
+                Expression exprCtx = conditions[i];
+                
+                if (Boolean.FALSE.equals(eliminator.conditionValue(exprCtx)))
+                {
+                    eliminator.countRemoved(ctx, "guard with false condition " 
+                                                 + exprCtx);
+                    
+                    // The conditions before it are still evaluated,
+                    // since they can call definitions.
+                    if (i > 0)
+                    {
+                        for (int j = 0; j < i; j++)
+                        {
+                            compiler.visit(conditions[j]);
+                            emit(IFEQ, guardEnd);
+                        }
+                        emitLabel(guardEnd);
+                    }
+                    
+                    return;
+                }
+            }
+        }
+        for (Expression condition : conditions) {
+            compiler.visit(condition);
             emit(IFEQ, guardEnd);
         }
 
-        emitLabel(guardStart);
-        for (AKAParser.StatementContext statement : ctx.statementList().statement()) {
-            for (AKAParser.ConditionContext condition : conditions) {
-                compiler.visit(condition.expression());
+        // No label here, so the values of the conditions saved
+        // above are reused by the first statement's checks.
+        for (Statement statement : ctx.body.statements) {
+            emitLineNumber(ctx);
+            for (Expression condition : conditions) {
+                compiler.visit(condition);
                 emit(IFEQ, guardEnd);
             }
-            compiler.visit(statement);
+            compiler.visitStatement(statement);
             
         }
         emitLabel(guardEnd);
     }
     
+    /**
+     * Emit code for a BENCH statement. The runtime.Bench object of the
+     * block runs the body for the warmup iterations and then for the
+     * measured ones, and times each measured iteration into an array
+     * that it allocated beforehand. The results are printed at exit.
+     * @param ctx the BENCH statement.
+     */
+    public void emitBench(Bench ctx)
+    {
+        Label loopTopLabel  = new Label();
+        Label loopExitLabel = new Label();
+        int slot = localVariables.reserve();
+        
+        emit(LDC, "\"" + ctx.name + "\"");
+        compiler.visit(ctx.iterations);
+        emit(F2I);
+        emit(INVOKESTATIC, "runtime/Bench/start(Ljava/lang/String;I)Lruntime/Bench;");
+        localStack.decrease(1);
+        emitStoreLocal(null, slot);
+        
+        emitLabel(loopTopLabel);
+        emitLoadLocal(null, slot);
+        emit(INVOKEVIRTUAL, "runtime/Bench/next()Z");
+        emit(IFEQ, loopExitLabel);
+        
+        compiler.visit(ctx.body);
+        
+        emitLoadLocal(null, slot);
+        emit(INVOKEVIRTUAL, "runtime/Bench/stop()V");
+        localStack.decrease(1);
+        emit(GOTO, loopTopLabel);
+        emitLabel(loopExitLabel);
+        
+        localVariables.release(slot);
+    }
+    
     /**
      * Emit code for a WHILE statement.
-     * @param ctx the WhileStatementContext.
+     * @param ctx the WHILE statement.
      */
-    public void emitWhile(AKAParser.WhileStatementContext ctx)
+    public void emitWhile(WhileStatement ctx)
     {
-        /***** Complete this method. *****/
+        if (compiler.getOptions().isOptimizing())
+        {
+            emitOptimizedWhile(ctx);
+            return;
+        }
          
          Label loopTopLabel  = new Label();
          Label loopExitLabel = new Label();
          
          emitLabel(loopTopLabel);
          
-         compiler.visit(ctx.condition().expression());
+         compiler.visit(ctx.condition);
 
          emit(IFEQ, loopExitLabel); 
          
-         compiler.visit(ctx.statementList());
+         emitBranchBody(ctx.body, ctx.body);
          
          emit(GOTO, loopTopLabel);
                     
          emitLabel(loopExitLabel);   
     }
     
+    /**
+     * Emit optimized code for a WHILE statement. The loop is rotated:
+     * the condition is tested once before the loop and then at the 
+     * bottom of the body, so each iteration takes one branch. The 
+     * condition's loop-invariant subexpressions are computed before 
+     * the loop, and the body's after the first test, so that they are 
+     * not computed if the body never runs. The body of a counting loop
+     * with a known trip count is unrolled.
+     * @param ctx the WHILE statement.
+     */
+    private void emitOptimizedWhile(WhileStatement ctx)
+    {
+        LoopInvariantAnalyzer licm = compiler.getLoopInvariantAnalyzer();
+        LoopUnroller unroller = compiler.getLoopUnroller();
+        DeadCodeEliminator eliminator = compiler.getDeadCodeEliminator();
+        ExpressionGenerator expressionCode = new ExpressionGenerator(this, compiler);
+        Expression condCtx = ctx.condition;
+        
+        if (Boolean.FALSE.equals(eliminator.conditionValue(condCtx)))
+        {
+            eliminator.countRemoved(ctx, "loop with false condition " + condCtx);
+            return;
+        }
+        
+        // A heap stack frame saves only the definition's variables, not
+        // the temporaries of hoisted invariants, and a body that resumes
+        // a stacked self-call cannot be copied.
+        ArrayList<Invariant> invariants = compiler.hasStackedCalls()
+                                        ? new ArrayList<Invariant>()
+                                        : licm.findInvariants(ctx);
+        
+        int trips = compiler.hasStackedCalls() ? -1 : unroller.tripCount(ctx);
+        unroller.countLoop(trips);
+        
+        // The condition has no side effects, so a loop that never
+        // runs needs no code.
+        if (trips == 0) return;
+        
+        Label loopBodyLabel = new Label();
+        Label loopExitLabel = new Label();
+        
+        for (Invariant invariant : invariants)
+        {
+            invariant.slot = localVariables.reserve();
+            
+            if (invariant.inCondition)
+            {
+                expressionCode.emitInvariant(invariant);
+                licm.hoist(invariant);
+            }
+        }
+        
+        if (trips < 0)
+        {
+            compiler.visit(ctx.condition);
+            emit(IFEQ, loopExitLabel);
+        }
+        
+        for (Invariant invariant : invariants)
+        {
+            if (!invariant.inCondition)
+            {
+                expressionCode.emitInvariant(invariant);
+                licm.hoist(invariant);
+            }
+        }
+        
+        // Fully unrolled: a copy of the body per trip.
+        if ((trips > 0) && (trips <= LoopUnroller.FULL_UNROLL_LIMIT))
+        {
+            for (int i = 0; i < trips; i++) emitBranchBody(ctx.body, ctx.body);
+        }
+        
+        // Partially unrolled: the leftover trips first, then the 
+        // condition is tested after each group of copies.
+        else if (trips > 0)
+        {
+            int factor = LoopUnroller.UNROLL_FACTOR;
+            
+            for (int i = 0; i < trips%factor; i++) emitBranchBody(ctx.body, ctx.body);
+            
+            emitLabel(loopBodyLabel);
+            for (int i = 0; i < factor; i++) emitBranchBody(ctx.body, ctx.body);
+            
+            emitLineNumber(ctx);
+            compiler.visit(ctx.condition);
+            emit(IFNE, loopBodyLabel);
+        }
+        
+        else
+        {
+            emitLabel(loopBodyLabel);
+            emitBranchBody(ctx.body, ctx.body);
+            
+            emitLineNumber(ctx);
+            compiler.visit(ctx.condition);
+            emit(IFNE, loopBodyLabel);
+        }
+        
+        emitLabel(loopExitLabel);
+        
+        for (Invariant invariant : invariants)
+        {
+            licm.unhoist(invariant);
+            localVariables.release(invariant.slot);
+        }
+    }
+    
+    /**
+     * Emit code for a branch body: its coverage probe, then its statements.
+     * @param probeNode the node of the probe: the IF or ELSEIF branch,
+     *                  or the ELSE block or WHILE body itself.
+     * @param body the body.
+     */
+    private void emitBranchBody(Node probeNode, Block body)
+    {
+        emitProbe(probeNode);
+        compiler.visit(body);
+    }
+    
     /**
      * Emit code for a procedure call statement.
-     * @param ctx the ProcedureCallStatementContext.
+     * @param ctx the call.
      */
-    public void emitProcedureCall(AKAParser.DefCallContext ctx)
+    public void emitProcedureCall(DefCall ctx)
     {
-        /***** Complete this method. *****/
-    	SymtabEntry procedureEntry = ctx.defName().entry;
+    	SymtabEntry procedureEntry = ctx.routineId;
         
-    	emitCall(procedureEntry, ctx.argumentList());
+    	emitCall(procedureEntry, ctx);
     }
     
     /**
      * Emit code for a function call statement.
-     * @param ctx the FunctionCallContext.
+     * @param ctx the call.
      */
-    public void emitFunctionCall(AKAParser.DefCallContext ctx)
+    public void emitFunctionCall(DefCall ctx)
     {
-        /***** Complete this method. *****/
-    	SymtabEntry functionEntry = ctx.defName().entry;
+    	SymtabEntry functionEntry = ctx.routineId;
         
-    	emitCall(functionEntry, ctx.argumentList());
+    	emitCall(functionEntry, ctx);
     }
     
     /**
      * Emit a call to a procedure or a function.
      * @param routineId the routine name's symbol table entry.
-     * @param argListCtx the ArgumentListContext.
+     * @param callCtx the call.
      */
-    private void emitCall(SymtabEntry routineId,
-                          AKAParser.ArgumentListContext argListCtx)
+    private void emitCall(SymtabEntry routineId, DefCall callCtx)
     {
-        /***** Complete this method. *****/
+        Inliner inliner = compiler.getInliner();
+        ProfileData profile = compiler.getProfileData();
+        
+        if (   (inliner != null) 
+            && (  profile != null ? inliner.isInlined(routineId, callCtx, profile)
+                                  : inliner.isInlined(routineId)))
+        {
+            emitInlinedCall(routineId, callCtx.arguments);
+            inliner.countInlined(routineId);
+            return;
+        }
+        
         String routineCall = programName + "/" + routineId.getName() + "(";
-        //the argument list may be null
-        if(argListCtx != null)
+        //visits all of the arguments to the routine
+        for (Expression expCtx : callCtx.arguments)
         {
-            ArrayList<SymtabEntry> routineParameters = routineId.getRoutineParameters();
-            
-            //visits all of the arguments to the routine
-            for(int i = 0; i < argListCtx.argument().size(); i++)
-            {
-                AKAParser.ExpressionContext expCtx = argListCtx.argument(i).expression();
-                compiler.visit(expCtx);
-                
-                Typespec expType = expCtx.type;
-                
-                routineCall += typeDescriptor(expType);
-            }
+            compiler.visit(expCtx);
+            routineCall += typeDescriptor(expCtx.type);
         }
         
         routineCall += ")";
         // adds return type to string
         routineCall += typeDescriptor(routineId);
         emit(INVOKESTATIC, routineCall);
-    }   
+    }
+    
+    /**
+     * Emit the body of a definition in place of a call to it.
+     * The definition's parameters and variables are moved into
+     * newly reserved slots of the calling method.
+     * @param routineId the routine name's symbol table entry.
+     * @param arguments the arguments.
+     */
+    private void emitInlinedCall(SymtabEntry routineId, Expression arguments[])
+    {
+        Symtab routineSymtab = routineId.getRoutineSymtab();
+        ArrayList<SymtabEntry> parmIds = routineId.getRoutineParameters();
+        ArrayList<SymtabEntry> localIds = new ArrayList<SymtabEntry>();
+        
+        // Evaluate the arguments before the routine's own variables
+        // are moved, since they may contain inlined calls.
+        for (Expression argument : arguments) compiler.visit(argument);
+        
+        CommonSubexpressionEliminator cse = 
+                                compiler.getCommonSubexpressionEliminator();
+        
+        for (SymtabEntry id : routineSymtab.sortedEntries())
+        {
+            SymtabEntry.Kind kind = id.getKind();
+            
+            if ((kind == VARIABLE) || (kind == VALUE_PARAMETER))
+            {
+                localIds.add(id);
+                localVariables.rename(id, localVariables.reserve());
+                
+                // Values saved by an earlier inlining read the old values.
+                if (cse != null) cse.invalidate(id);
+            }
+        }
+        if (cse != null) releaseTemporaries(cse);
+        
+        // Store the argument values into the parameters.
+        if (parmIds != null)
+        {
+            for (int i = parmIds.size() - 1; i >= 0; i--)
+            {
+                SymtabEntry parmId = parmIds.get(i);
+                emitStoreLocal(parmId.getType(), localVariables.slotOf(parmId));
+            }
+        }
+        
+        Definition definition = (Definition) routineId.getExecutable();
+        inlineDepth++;
+        compiler.visit(definition.body);
+        inlineDepth--;
+        
+        // Leave the value of the return variable on the stack.
+        if (definition.hasReturn())
+        {
+            SymtabEntry returnId = definition.returnId;
+            
+            emitLoadLocal(returnId.getType(), localVariables.slotOf(returnId));
+        }
+        
+        for (SymtabEntry id : localIds)
+        {
+            localVariables.release(localVariables.slotOf(id));
+            localVariables.unrename(id);
+        }
+    }
 
     /**
      * Emit code for a WRITE statement.
-     * @param ctx the WriteStatementContext.
+     * @param ctx the DISPLAY statement.
      */
-    public void emitWrite(AKAParser.DisplayContext ctx)
+    public void emitWrite(Display ctx)
     {
-        emitWrite(ctx.expression(), true);
+        emitWrite(ctx.value, true);
     }
 
     /**
@@ -280,8 +762,7 @@ public class StatementGenerator extends CodeGenerator
      * @param argsCtx the WriteArgumentsContext.
      * @param needLF true if need a line feed.
      */
-    private void emitWrite(AKAParser.ExpressionContext expressionCtx,
-                           boolean needLF)
+    private void emitWrite(Expression expressionCtx, boolean needLF)
     {
         emit(GETSTATIC, "java/lang/System/out", "Ljava/io/PrintStream;");
 
@@ -327,7 +808,7 @@ public class StatementGenerator extends CodeGenerator
      * @param format the format string to create.
      * @return the count of expression arguments.
      */
-    private int createWriteFormat(AKAParser.ExpressionContext expCtx,
+    private int createWriteFormat(Expression expCtx,
                                   StringBuffer format, boolean needLF)
     {
         int exprCount = 0;
@@ -335,16 +816,8 @@ public class StatementGenerator extends CodeGenerator
         
         
         Typespec type = expCtx.type;
-        String argText = expCtx.getText();
-        
-        // Append any literal strings.
-        if (argText.charAt(0) == '\'') 
-        {
-//            format.append(convertString(argText));
-        }
         
-        // For any other expressions, append a field specifier.
-        else
+        // Append a field specifier.
         {
             exprCount++;
             format.append("%");
@@ -428,8 +901,7 @@ public class StatementGenerator extends CodeGenerator
      * @param argsCtx
      * @param exprCount
      */
-    private void emitArgumentsArray(AKAParser.ExpressionContext expCtx,
-                                    int exprCount)
+    private void emitArgumentsArray(Expression expCtx, int exprCount)
     {
         // Create the arguments array.
         emitLoadConstant(exprCount);
@@ -437,13 +909,9 @@ public class StatementGenerator extends CodeGenerator
 
         int index = 0;
     
-        String argText = expCtx.getText();
-        AKAParser.ExpressionContext exprCtx = expCtx;
+        Expression exprCtx = expCtx;
         Typespec type = exprCtx.type.baseType();
         
-        // Skip string constants, which were made part of
-        // the format string.
-        if (argText.charAt(0) != '\'') 
         {
             emit(DUP);
             emitLoadConstant(index++);
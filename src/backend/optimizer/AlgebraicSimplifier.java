@@ -0,0 +1,216 @@
+package backend.optimizer;
+
+import java.util.TreeMap;
+
+import intermediate.ast.Factor;
+import intermediate.ast.Node;
+import intermediate.ast.Term;
+
+/**
+ * <h1>AlgebraicSimplifier</h1>
+ *
+ * <p>Find the number operators with a constant operand that an algebraic
+ * identity removes or replaces by a cheaper operation. In strict mode,
+ * only the identities that give the same float result for every operand
+ * are applied, including for NaN, the infinities, and negative zero:
+ * multiplying by 1 or dividing by 1, subtracting 0, multiplying or
+ * dividing by -1, multiplying by 2, and dividing by a power of two,
+ * which is multiplying by its exact reciprocal. Fast math also adds 0,
+ * multiplies by 0, and divides by any constant as a multiplication by
+ * its rounded reciprocal.</p>
+ */
+public class AlgebraicSimplifier
+{
+    /**
+     * The kinds of code that replace an operator and its constant operand.
+     */
+    public enum Kind
+    {
+        IDENTITY,   // nothing: the other operand is the value
+        NEGATE,     // FNEG
+        DOUBLE,     // DUP FADD
+        MULTIPLY,   // FMUL by another constant
+        ZERO        // POP FCONST_0
+    }
+
+    /**
+     * A replacement of an operator and its constant operand.
+     */
+    public static class Rewrite
+    {
+        public Kind kind;
+        public float operand;   // the constant of MULTIPLY
+
+        Rewrite(Kind kind, float operand)
+        {
+            this.kind    = kind;
+            this.operand = operand;
+        }
+    }
+
+    private boolean fastMath;                // also apply inexact identities
+    private ConstantPropagator propagator;   // the known values of reads
+
+    private TreeMap<String, Integer> counts; // applied identities
+
+    /**
+     * Constructor.
+     * @param fastMath true to also apply the identities that can change
+     *                 the results of NaN, infinite, or signed zero operands
+     *                 or round differently.
+     * @param propagator the constant and copy propagator.
+     */
+    public AlgebraicSimplifier(boolean fastMath, ConstantPropagator propagator)
+    {
+        this.fastMath   = fastMath;
+        this.propagator = propagator;
+        this.counts     = new TreeMap<String, Integer>();
+    }
+
+    /**
+     * Get the value of a term or factor that is a number constant.
+     * @param ctx the term or factor.
+     * @return the value, or null if not a number constant.
+     */
+    public Float numberOf(Node ctx)
+    {
+        Object value =   ctx instanceof Term
+                       ? propagator.constantOf((Term) ctx)
+                       : ctx instanceof Factor
+                       ? propagator.constantOf((Factor) ctx)
+                       : null;
+
+        return value instanceof Float ? (Float) value : null;
+    }
+
+    /**
+     * Find the replacement of `x op c`.
+     * @param op the operator +, -, *, or /.
+     * @param c the constant right operand.
+     * @return the replacement, or null if none.
+     */
+    public Rewrite rightOperand(String op, float c)
+    {
+        switch (op)
+        {
+            case "*" : return multiply(c, "x * ");
+
+            case "/" :
+            {
+                if (c ==  1) return count(Kind.IDENTITY, 0, "x / 1");
+                if (c == -1) return count(Kind.NEGATE,   0, "x / -1");
+
+                float reciprocal = 1/c;
+
+                if (isPowerOfTwo(c) && !Float.isInfinite(reciprocal))
+                {
+                    return reciprocal == 2
+                              ? count(Kind.DOUBLE, 0, "x / 0.5")
+                              : count(Kind.MULTIPLY, reciprocal, "x / 2^k");
+                }
+                if (fastMath && (c != 0) && !Float.isInfinite(reciprocal))
+                {
+                    return count(Kind.MULTIPLY, reciprocal, "x / c");
+                }
+
+                return null;
+            }
+
+            case "+" :
+                return fastMath && (c == 0) ? count(Kind.IDENTITY, 0, "x + 0") : null;
+
+            case "-" :
+                return c == 0 ? count(Kind.IDENTITY, 0, "x - 0") : null;
+
+            default : return null;
+        }
+    }
+
+    /**
+     * Find the replacement of `c op x` that is applied to x.
+     * @param op the operator +, -, *, or /.
+     * @param c the constant left operand.
+     * @return the replacement, or null if none.
+     */
+    public Rewrite leftOperand(String op, float c)
+    {
+        switch (op)
+        {
+            case "*" : return multiply(c, " * x");
+
+            case "+" :
+                return fastMath && (c == 0) ? count(Kind.IDENTITY, 0, "0 + x") : null;
+
+            case "-" :
+                return fastMath && (c == 0) ? count(Kind.NEGATE, 0, "0 - x") : null;
+
+            default : return null;
+        }
+    }
+
+    /**
+     * Add the counts of a simplifier of code that was compiled apart.
+     * @param other the other simplifier.
+     */
+    public void merge(AlgebraicSimplifier other)
+    {
+        for (String rule : other.counts.keySet())
+        {
+            Integer count = counts.get(rule);
+            int added = other.counts.get(rule);
+            counts.put(rule, count != null ? count + added : added);
+        }
+    }
+
+    /**
+     * Print the counts of the applied identities.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== ALGEBRAIC SIMPLIFICATION =====\n");
+        System.out.printf("Mode: %s\n\n", fastMath ? "fast math" : "strict");
+        System.out.println("Identity   Count");
+        System.out.println("--------   -----");
+
+        for (String rule : counts.keySet())
+        {
+            System.out.printf("%-9s  %5d\n", rule, counts.get(rule));
+        }
+    }
+
+    /**
+     * Find the replacement of a multiplication by a constant.
+     * @param c the constant.
+     * @param form the form of the operation for the report,
+     *             with the constant left out.
+     * @return the replacement, or null if none.
+     */
+    private Rewrite multiply(float c, String form)
+    {
+        String rule = form.startsWith("x") ? form + "%s" : "%s" + form;
+
+        if (c ==  1) return count(Kind.IDENTITY, 0, String.format(rule, "1"));
+        if (c == -1) return count(Kind.NEGATE,   0, String.format(rule, "-1"));
+        if (c ==  2) return count(Kind.DOUBLE,   0, String.format(rule, "2"));
+
+        if (fastMath && (c == 0)) return count(Kind.ZERO, 0, String.format(rule, "0"));
+
+        return null;
+    }
+
+    private boolean isPowerOfTwo(float c)
+    {
+        float magnitude = Math.abs(c);
+
+        return    (magnitude != 0) && !Float.isInfinite(magnitude)
+               && (magnitude == Math.scalb(1.0f, Math.getExponent(magnitude)));
+    }
+
+    private Rewrite count(Kind kind, float operand, String rule)
+    {
+        Integer count = counts.get(rule);
+        counts.put(rule, count != null ? count + 1 : 1);
+
+        return new Rewrite(kind, operand);
+    }
+}
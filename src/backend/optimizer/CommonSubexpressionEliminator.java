@@ -0,0 +1,427 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+import intermediate.ast.*;
+import intermediate.symtab.*;
+import intermediate.type.*;
+
+/**
+ * <h1>CommonSubexpressionEliminator</h1>
+ *
+ * <p>Value numbering of the subexpressions that the code generator emits
+ * in a straight line. Each comparison, simple expression of two or more
+ * terms, term of two or more factors, NOT, and call of a pure definition
+ * has a value number: a key built from its operators, the types, and the
+ * symbol table entries of the variables that it reads. Reads are keyed
+ * by the value that constant propagation found for them.</p>
+ *
+ * <p>The first evaluation of a subexpression whose key occurs more than
+ * once in a routine, or that is a guard condition, saves its value in a
+ * temporary local variable. Later evaluations with the same key load it
+ * until a store into one of its variables or a label, where control
+ * flow joins, makes it unavailable.</p>
+ */
+public class CommonSubexpressionEliminator
+{
+    /**
+     * A value saved in a temporary.
+     */
+    private static class Available
+    {
+        int slot;                    // the temporary
+        HashSet<SymtabEntry> reads;  // the variables that the value reads
+
+        Available(int slot, HashSet<SymtabEntry> reads)
+        {
+            this.slot  = slot;
+            this.reads = reads;
+        }
+    }
+
+    private PurityAnalyzer purity;           // which definitions are pure
+    private ConstantPropagator propagator;   // the known values of reads
+
+    private IdentityHashMap<SymtabEntry, Integer> numbers;    // variable numbers
+    private HashMap<Node, String> keys;          // value numbers
+    private HashMap<Node, HashSet<SymtabEntry>> reads;
+    private HashSet<Node> saved;       // values to save in temporaries
+
+    private HashMap<String, Available> available;  // at the current point
+    private ArrayList<Integer> releasedSlots;      // temporaries to release
+    private int reusedCount;                       // loads of saved values
+
+    /**
+     * Constructor.
+     * @param purity the purity analysis of the program's definitions.
+     * @param propagator the constant and copy propagator.
+     */
+    public CommonSubexpressionEliminator(PurityAnalyzer purity,
+                                         ConstantPropagator propagator)
+    {
+        this.purity        = purity;
+        this.propagator    = propagator;
+        this.numbers       = new IdentityHashMap<SymtabEntry, Integer>();
+        this.keys          = new HashMap<Node, String>();
+        this.reads         = new HashMap<Node, HashSet<SymtabEntry>>();
+        this.saved         = new HashSet<Node>();
+        this.available     = new HashMap<String, Available>();
+        this.releasedSlots = new ArrayList<Integer>();
+    }
+
+    /**
+     * Constructor for an eliminator of code that is compiled apart.
+     * It shares the value numbers of the eliminator that analyzed the
+     * code, and keeps its own available values.
+     * @param analyses the eliminator that analyzed the code.
+     * @param propagator the propagator of the code compiled apart.
+     */
+    public CommonSubexpressionEliminator(CommonSubexpressionEliminator analyses,
+                                         ConstantPropagator propagator)
+    {
+        this.purity        = analyses.purity;
+        this.propagator    = propagator;
+        this.numbers       = analyses.numbers;
+        this.keys          = analyses.keys;
+        this.reads         = analyses.reads;
+        this.saved         = analyses.saved;
+        this.available     = new HashMap<String, Available>();
+        this.releasedSlots = new ArrayList<Integer>();
+    }
+
+    /**
+     * Analyze a routine's statement list after constant propagation
+     * analyzed it.
+     * @param ctx the statement list.
+     */
+    public void analyze(Block ctx)
+    {
+        ArrayList<Node> candidates = new ArrayList<Node>();
+        HashSet<Expression> guardConditions = new HashSet<Expression>();
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+
+        collect(ctx, candidates, guardConditions);
+
+        for (Node candidate : candidates)
+        {
+            String key = keys.get(candidate);
+            Integer count = counts.get(key);
+
+            counts.put(key, count != null ? count + 1 : 1);
+        }
+
+        for (Node candidate : candidates)
+        {
+            if (   (counts.get(keys.get(candidate)) > 1)
+                || guardConditions.contains(candidate))
+            {
+                saved.add(candidate);
+            }
+        }
+    }
+
+    /**
+     * Get the temporary that holds a subexpression's value.
+     * @param ctx the subexpression.
+     * @return the slot of the temporary, or -1 if not available.
+     */
+    public int availableSlot(Node ctx)
+    {
+        String key = keys.get(ctx);
+        Available value = key != null ? available.get(key) : null;
+        if (value == null) return -1;
+
+        reusedCount++;
+        return value.slot;
+    }
+
+    /**
+     * Determine whether or not a subexpression's value should be saved.
+     * @param ctx the subexpression.
+     * @return true if it should, else false.
+     */
+    public boolean isSaved(Node ctx)
+    {
+        return saved.contains(ctx) && !available.containsKey(keys.get(ctx));
+    }
+
+    /**
+     * Make a saved subexpression's value available.
+     * @param ctx the subexpression.
+     * @param slot the temporary that holds the value.
+     */
+    public void save(Node ctx, int slot)
+    {
+        available.put(keys.get(ctx), new Available(slot, reads.get(ctx)));
+    }
+
+    /**
+     * Make the values that read a variable unavailable after a store into it.
+     * @param id the variable's symbol table entry.
+     */
+    public void invalidate(SymtabEntry id)
+    {
+        ArrayList<String> killed = new ArrayList<String>();
+
+        for (String key : available.keySet())
+        {
+            if (available.get(key).reads.contains(id)) killed.add(key);
+        }
+
+        for (String key : killed) releasedSlots.add(available.remove(key).slot);
+    }
+
+    /**
+     * Make all the values unavailable, such as at a label.
+     */
+    public void invalidateAll()
+    {
+        for (Available value : available.values()) releasedSlots.add(value.slot);
+        available.clear();
+    }
+
+    /**
+     * Start a new method. The values of the previous one are dropped.
+     */
+    public void startMethod()
+    {
+        available.clear();
+        releasedSlots.clear();
+    }
+
+    /**
+     * Return the temporaries that are no longer needed, and forget them.
+     * @return the list of slots.
+     */
+    public ArrayList<Integer> takeReleasedSlots()
+    {
+        ArrayList<Integer> slots = releasedSlots;
+        releasedSlots = new ArrayList<Integer>();
+
+        return slots;
+    }
+
+    /**
+     * Forget the value numbers of the code analyzed so far, after it
+     * has been compiled.
+     */
+    public void forget()
+    {
+        numbers.clear();
+        keys.clear();
+        reads.clear();
+        saved.clear();
+    }
+
+    /**
+     * Add the count of an eliminator of code that was compiled apart.
+     * @param other the other eliminator.
+     */
+    public void merge(CommonSubexpressionEliminator other)
+    {
+        reusedCount += other.reusedCount;
+    }
+
+    /**
+     * Print the count of reused values.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== COMMON SUBEXPRESSION ELIMINATION =====\n");
+        System.out.printf("Reused subexpression values: %d\n", reusedCount);
+    }
+
+    /**
+     * Collect the candidate subexpressions within a subtree
+     * and compute their keys.
+     * @param tree the subtree.
+     * @param candidates the list to append to.
+     * @param guardConditions the set to add the guard conditions to.
+     */
+    private void collect(Node tree, ArrayList<Node> candidates,
+                         HashSet<Expression> guardConditions)
+    {
+        if (tree instanceof Guard)
+        {
+            for (Expression condition : ((Guard) tree).conditions)
+            {
+                guardConditions.add(condition);
+            }
+        }
+
+        // The call of a call statement is not a subexpression.
+        if (tree instanceof DefCallStatement) tree = ((DefCallStatement) tree).call;
+        else if (isCandidate(tree))
+        {
+            Node ctx = tree;
+            HashSet<SymtabEntry> ids = new HashSet<SymtabEntry>();
+            String key = keyOf(ctx, ids);
+
+            if (key != null)
+            {
+                keys.put(ctx, key);
+                reads.put(ctx, ids);
+                candidates.add(ctx);
+            }
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            collect(tree.getChild(i), candidates, guardConditions);
+        }
+    }
+
+    private boolean isCandidate(Node tree)
+    {
+        if (tree instanceof Expression)
+        {
+            return ((Expression) tree).isComparison();
+        }
+        else if (tree instanceof SimpleExpression)
+        {
+            return ((SimpleExpression) tree).terms.length > 1;
+        }
+        else if (tree instanceof Term)
+        {
+            return ((Term) tree).factors.length > 1;
+        }
+
+        return (tree instanceof DefCall) || (tree instanceof NotFactor);
+    }
+
+    /**
+     * Compute the key of a subexpression.
+     * @param ctx the subexpression.
+     * @param ids the set to add the variables that it reads to.
+     * @return the key, or null if it calls an impure definition.
+     */
+    private String keyOf(Node ctx, HashSet<SymtabEntry> ids)
+    {
+        StringBuilder key = new StringBuilder();
+
+        if (ctx instanceof Expression)
+        {
+            Expression exprCtx = (Expression) ctx;
+
+            key.append(typeCode(exprCtx.type)).append('(');
+            if (!append(key, exprCtx.left, ids)) return null;
+
+            if (exprCtx.op != null)
+            {
+                key.append(exprCtx.op.text);
+                if (!append(key, exprCtx.right, ids)) return null;
+            }
+        }
+        else if (ctx instanceof SimpleExpression)
+        {
+            SimpleExpression simpleCtx = (SimpleExpression) ctx;
+
+            key.append(typeCode(simpleCtx.type)).append('(');
+            if (simpleCtx.sign != null) key.append(simpleCtx.sign.text);
+
+            for (int i = 0; i < simpleCtx.terms.length; i++)
+            {
+                if (i > 0) key.append(simpleCtx.ops[i - 1].text);
+                if (!append(key, simpleCtx.terms[i], ids)) return null;
+            }
+        }
+        else if (ctx instanceof Term)
+        {
+            Term termCtx = (Term) ctx;
+
+            key.append(typeCode(termCtx.type)).append('(');
+
+            for (int i = 0; i < termCtx.factors.length; i++)
+            {
+                if (i > 0) key.append(termCtx.ops[i - 1].text);
+                if (!append(key, termCtx.factors[i], ids)) return null;
+            }
+        }
+        else if (ctx instanceof VariableFactor)
+        {
+            VariableFactor varCtx = (VariableFactor) ctx;
+            Object value = propagator.valueOf(varCtx);
+            SymtabEntry id =   value == null                ? varCtx.entry
+                             : value instanceof SymtabEntry ? (SymtabEntry) value
+                             :                                null;
+
+            if (id != null)
+            {
+                ids.add(id);
+                return "v" + numberOf(id);
+            }
+
+            return typeCode(value) + value;
+        }
+        else if (ctx instanceof NumberFactor)
+        {
+            return "N" + ((NumberFactor) ctx).value;
+        }
+        else if (ctx instanceof BooleanFactor)
+        {
+            return "B" + ((BooleanFactor) ctx).value;
+        }
+        else if (ctx instanceof StringFactor)
+        {
+            return "S" + ctx;
+        }
+        else if (ctx instanceof DefCall)
+        {
+            DefCall callCtx = (DefCall) ctx;
+            SymtabEntry calleeId = callCtx.routineId;
+            if ((calleeId == null) || !purity.isPure(calleeId)) return null;
+
+            key.append("call").append(numberOf(calleeId)).append('(');
+
+            for (Expression argument : callCtx.arguments)
+            {
+                if (!append(key, argument, ids)) return null;
+                key.append(',');
+            }
+        }
+        else if (ctx instanceof NotFactor)
+        {
+            key.append("not(");
+            if (!append(key, ((NotFactor) ctx).factor, ids)) return null;
+        }
+        else if (ctx instanceof ParenthesizedFactor)
+        {
+            return keyOf(((ParenthesizedFactor) ctx).expression, ids);
+        }
+        else return null;
+
+        return key.append(')').toString();
+    }
+
+    private boolean append(StringBuilder key, Node ctx, HashSet<SymtabEntry> ids)
+    {
+        String operandKey = keyOf(ctx, ids);
+        if (operandKey == null) return false;
+
+        key.append(operandKey);
+        return true;
+    }
+
+    private int numberOf(SymtabEntry id)
+    {
+        Integer number = numbers.get(id);
+
+        if (number == null)
+        {
+            number = numbers.size();
+            numbers.put(id, number);
+        }
+
+        return number;
+    }
+
+    private static String typeCode(Object typeOrValue)
+    {
+        return   (typeOrValue == Predefined.numberType)  || (typeOrValue instanceof Float)   ? "N"
+               : (typeOrValue == Predefined.booleanType) || (typeOrValue instanceof Boolean) ? "B"
+               :                                                                                "S";
+    }
+}
@@ -0,0 +1,443 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import intermediate.ast.*;
+import intermediate.symtab.*;
+import intermediate.type.*;
+import backend.optimizer.ControlFlowGraph.Block;
+
+import static intermediate.symtab.SymtabEntry.Kind.*;
+
+/**
+ * <h1>ConstantPropagator</h1>
+ *
+ * <p>Forward dataflow analysis of the values of variables. At each point
+ * of a statement list, a variable may be known to hold a constant (a
+ * Float, Boolean, or String) or to be a copy of another variable. A fact
+ * holds after a join only if it holds on every incoming edge. Calls do
+ * not kill facts: a definition can only access its own variables, since
+ * the program variables are declared after the definitions. Each
+ * variable read is then recorded with the fact that holds there, for
+ * the code generator to load instead.</p>
+ */
+public class ConstantPropagator
+{
+    // The fact of a variable read in more than one place with different facts.
+    private static final Object CONFLICT = new Object();
+
+    private HashMap<VariableFactor, Object> facts;  // at each read
+    private int constantCount;                      // reads replaced by constants
+    private int copyCount;                          // reads replaced by copies
+
+    /**
+     * Constructor.
+     */
+    public ConstantPropagator()
+    {
+        this.facts = new HashMap<VariableFactor, Object>();
+    }
+
+    /**
+     * Constructor for a propagator of code that is compiled apart,
+     * such as a definition compiled in parallel with others. It shares
+     * the facts of the propagator that analyzed the code, and counts
+     * its own replaced reads.
+     * @param analyses the propagator that analyzed the code.
+     */
+    public ConstantPropagator(ConstantPropagator analyses)
+    {
+        this.facts = analyses.facts;
+    }
+
+    /**
+     * Analyze a statement list.
+     * @param ctx the statement list.
+     */
+    public void analyze(intermediate.ast.Block ctx)
+    {
+        ControlFlowGraph cfg = new ControlFlowGraph(ctx);
+        ArrayList<Block> blocks = cfg.getBlocks();
+        ArrayList<HashMap<SymtabEntry, Object>> outs =
+                new ArrayList<HashMap<SymtabEntry, Object>>();
+
+        for (int i = 0; i < blocks.size(); i++) outs.add(null);  // unreached
+
+        // Iterate to the fixed point.
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+
+            for (Block block : blocks)
+            {
+                HashMap<SymtabEntry, Object> state = in(block, cfg, outs);
+                if (state == null) continue;
+
+                for (Node node : block.nodes) transfer(node, state, false);
+
+                if (!state.equals(outs.get(block.index)))
+                {
+                    outs.set(block.index, state);
+                    changed = true;
+                }
+            }
+        }
+
+        // Record the facts at the reads.
+        for (Block block : blocks)
+        {
+            HashMap<SymtabEntry, Object> state = in(block, cfg, outs);
+            if (state == null) continue;
+
+            for (Node node : block.nodes) transfer(node, state, true);
+        }
+    }
+
+    /**
+     * Get the value known for a variable read.
+     * @param ctx the variable read.
+     * @return a Float, Boolean, or String constant, the SymtabEntry of
+     *         the variable that it is a copy of, or null if not known.
+     */
+    public Object valueOf(VariableFactor ctx)
+    {
+        Object fact = facts.get(ctx);
+        return fact != CONFLICT ? fact : null;
+    }
+
+    /**
+     * Fold an expression, such as a condition, with the facts
+     * recorded at its variable reads.
+     * @param ctx the expression.
+     * @return the Float, Boolean, or String constant value, 
+     *         or null if not constant.
+     */
+    public Object constantOf(Expression ctx)
+    {
+        Object value = constantOf(ctx.left, null);
+        if ((value == null) || (ctx.op == null)) return value;
+
+        Object operand = constantOf(ctx.right, null);
+        if (!(value instanceof Float) || !(operand instanceof Float)) return null;
+
+        float x = (Float) value;
+        float y = (Float) operand;
+
+        switch (ctx.op)
+        {
+            case EQ : return x == y;
+            case LT : return x <  y;
+            case LE : return x <= y;
+            case GT : return x >  y;
+            case GE : return x >= y;
+            default : return null;
+        }
+    }
+
+    /**
+     * Fold a term with the facts recorded at its variable reads.
+     * @param ctx the term.
+     * @return the Float, Boolean, or String constant value, 
+     *         or null if not constant.
+     */
+    public Object constantOf(Term ctx)
+    {
+        return constantOf(ctx, null);
+    }
+
+    /**
+     * Fold a factor with the facts recorded at its variable reads.
+     * @param ctx the factor.
+     * @return the Float, Boolean, or String constant value, 
+     *         or null if not constant.
+     */
+    public Object constantOf(Factor ctx)
+    {
+        return constantOf(ctx, null);
+    }
+
+    /**
+     * Forget the facts of the code analyzed so far, after it has been
+     * compiled.
+     */
+    public void forget() { facts.clear(); }
+
+    /**
+     * Record that a variable read was replaced.
+     * @param fact the value that replaced it.
+     */
+    public void countReplaced(Object fact)
+    {
+        if (fact instanceof SymtabEntry) copyCount++;
+        else                             constantCount++;
+    }
+
+    /**
+     * Add the counts of a propagator of code that was compiled apart.
+     * @param other the other propagator.
+     */
+    public void merge(ConstantPropagator other)
+    {
+        constantCount += other.constantCount;
+        copyCount     += other.copyCount;
+    }
+
+    /**
+     * Print the counts of replaced variable reads.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== CONSTANT AND COPY PROPAGATION =====\n");
+        System.out.printf("Reads replaced by constants: %d\n", constantCount);
+        System.out.printf("Reads replaced by copies:    %d\n", copyCount);
+    }
+
+    /**
+     * Compute the facts at the start of a block.
+     * @return the facts, or null if no predecessor has been reached.
+     */
+    private HashMap<SymtabEntry, Object> in(Block block, ControlFlowGraph cfg,
+                                            ArrayList<HashMap<SymtabEntry, Object>> outs)
+    {
+        if (block == cfg.getEntry()) return new HashMap<SymtabEntry, Object>();
+
+        HashMap<SymtabEntry, Object> state = null;
+
+        for (Block pred : block.predecessors)
+        {
+            HashMap<SymtabEntry, Object> out = outs.get(pred.index);
+            if (out == null) continue;
+
+            if (state == null) state = new HashMap<SymtabEntry, Object>(out);
+            else               state.entrySet().retainAll(out.entrySet());
+        }
+
+        return state;
+    }
+
+    /**
+     * Apply a node to the facts.
+     * @param node the statement or condition.
+     * @param state the facts, updated in place.
+     * @param record true to record the facts at the node's reads.
+     */
+    private void transfer(Node node, HashMap<SymtabEntry, Object> state,
+                          boolean record)
+    {
+        if (record) recordReads(node, state);
+
+        if (!(node instanceof Assignment)) return;
+
+        Assignment assignCtx = (Assignment) node;
+        SymtabEntry targetId = assignCtx.target;
+        Expression exprCtx = assignCtx.value;
+        Object fact = evaluate(exprCtx, state);
+
+        kill(targetId, state);
+
+        if (   (fact != null) && (fact != targetId)
+            && (exprCtx.type == targetId.getType()))
+        {
+            state.put(targetId, fact);
+        }
+    }
+
+    /**
+     * Remove the facts about a variable and the copies of it.
+     */
+    private void kill(SymtabEntry id, HashMap<SymtabEntry, Object> state)
+    {
+        state.remove(id);
+
+        Iterator<Object> it = state.values().iterator();
+        while (it.hasNext())
+        {
+            if (it.next() == id) it.remove();
+        }
+    }
+
+    /**
+     * Record the facts at the variable reads within a subtree.
+     */
+    private void recordReads(Node tree, HashMap<SymtabEntry, Object> state)
+    {
+        if (tree instanceof VariableFactor)
+        {
+            VariableFactor varCtx = (VariableFactor) tree;
+            Object fact = state.get(varCtx.entry);
+
+            if (!facts.containsKey(varCtx)) facts.put(varCtx, fact);
+            else if (   (fact == null) 
+                     || !fact.equals(facts.get(varCtx))) facts.put(varCtx, CONFLICT);
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            recordReads(tree.getChild(i), state);
+        }
+    }
+
+    /**
+     * Evaluate an expression with the facts.
+     * @param ctx the expression.
+     * @param state the facts.
+     * @return a constant, the SymtabEntry of a variable that the
+     *         expression is a copy of, or null if not known.
+     */
+    private Object evaluate(Expression ctx, HashMap<SymtabEntry, Object> state)
+    {
+        if (ctx.op != null) return null;
+
+        SimpleExpression simpleCtx = ctx.left;
+
+        // A copy.
+        if (   (simpleCtx.sign == null) && (simpleCtx.terms.length == 1)
+            && (simpleCtx.terms[0].factors.length == 1)
+            && (simpleCtx.terms[0].factors[0] instanceof VariableFactor))
+        {
+            SymtabEntry sourceId = ((VariableFactor) simpleCtx.terms[0].factors[0]).entry;
+            if (!isVariable(sourceId)) return null;
+
+            Object fact = state.get(sourceId);
+            return fact != null ? fact : sourceId;
+        }
+
+        return constantOf(simpleCtx, state);
+    }
+
+    /**
+     * Fold a simple expression of constants.
+     * @param ctx the simple expression.
+     * @param state the facts, or null to use the facts recorded at the reads.
+     * @return the constant, or null if not constant.
+     */
+    private Object constantOf(SimpleExpression ctx, HashMap<SymtabEntry, Object> state)
+    {
+        Object value = constantOf(ctx.terms[0], state);
+
+        if (ctx.sign == Operator.MINUS)
+        {
+            value = value instanceof Float ? (Object) (-(Float) value) : null;
+        }
+
+        for (int i = 1; (value != null) && (i < ctx.terms.length); i++)
+        {
+            Object operand = constantOf(ctx.terms[i], state);
+            Operator op = ctx.ops[i - 1];
+
+            if ((value instanceof Float) && (operand instanceof Float))
+            {
+                float x = (Float) value;
+                float y = (Float) operand;
+
+                value =   op == Operator.PLUS  ? (Object) (x + y)
+                        : op == Operator.MINUS ? (Object) (x - y) : null;
+            }
+            else if (   (value instanceof Boolean) && (operand instanceof Boolean)
+                     && (op == Operator.OR))
+            {
+                value = (Boolean) value || (Boolean) operand;
+            }
+            else value = null;
+        }
+
+        return checked(value);
+    }
+
+    /**
+     * Fold a term of constants.
+     * @return the constant, or null if not constant.
+     */
+    private Object constantOf(Term ctx, HashMap<SymtabEntry, Object> state)
+    {
+        Object value = constantOf(ctx.factors[0], state);
+
+        for (int i = 1; (value != null) && (i < ctx.factors.length); i++)
+        {
+            Object operand = constantOf(ctx.factors[i], state);
+            Operator op = ctx.ops[i - 1];
+
+            if ((value instanceof Float) && (operand instanceof Float))
+            {
+                float x = (Float) value;
+                float y = (Float) operand;
+
+                value =   op == Operator.MULTIPLY ? (Object) (x * y)
+                        : op == Operator.DIVIDE   ? (Object) (x / y) : null;
+            }
+            else if (   (value instanceof Boolean) && (operand instanceof Boolean)
+                     && (op == Operator.AND))
+            {
+                value = (Boolean) value && (Boolean) operand;
+            }
+            else value = null;
+        }
+
+        return checked(value);
+    }
+
+    /**
+     * Fold a factor.
+     * @return the constant, or null if not constant.
+     */
+    private Object constantOf(Factor ctx, HashMap<SymtabEntry, Object> state)
+    {
+        if (ctx instanceof NumberFactor)
+        {
+            return checked(((NumberFactor) ctx).value);
+        }
+        else if (ctx instanceof BooleanFactor)
+        {
+            return ((BooleanFactor) ctx).value;
+        }
+        else if (ctx instanceof StringFactor)
+        {
+            return ((StringFactor) ctx).value;
+        }
+        else if (ctx instanceof VariableFactor)
+        {
+            VariableFactor varCtx = (VariableFactor) ctx;
+            Object fact = state != null ? state.get(varCtx.entry) : valueOf(varCtx);
+
+            return fact instanceof SymtabEntry ? null : fact;
+        }
+        else if (ctx instanceof NotFactor)
+        {
+            Object value = constantOf(((NotFactor) ctx).factor, state);
+            return value instanceof Boolean ? (Object) !(Boolean) value : null;
+        }
+        else if (ctx instanceof ParenthesizedFactor)
+        {
+            Expression exprCtx = ((ParenthesizedFactor) ctx).expression;
+
+            return exprCtx.op == null ? constantOf(exprCtx.left, state) : null;
+        }
+
+        return null;
+    }
+
+    /**
+     * Keep only the number constants that the code generator can load
+     * exactly. It loads every zero as positive zero.
+     */
+    private Object checked(Object value)
+    {
+        if (value instanceof Float)
+        {
+            float x = (Float) value;
+            if (   Float.isNaN(x) || Float.isInfinite(x)
+                || ((x == 0.0f) && (1/x < 0))) return null;
+        }
+
+        return value;
+    }
+
+    private static boolean isVariable(SymtabEntry id)
+    {
+        return    (id != null)
+               && ((id.getKind() == VARIABLE) || (id.getKind() == VALUE_PARAMETER));
+    }
+}
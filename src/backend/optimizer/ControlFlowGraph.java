@@ -0,0 +1,252 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+
+import intermediate.ast.Bench;
+import intermediate.ast.Branch;
+import intermediate.ast.Expression;
+import intermediate.ast.Guard;
+import intermediate.ast.IfStatement;
+import intermediate.ast.Node;
+import intermediate.ast.Statement;
+import intermediate.ast.WhileStatement;
+
+/**
+ * <h1>ControlFlowGraph</h1>
+ *
+ * <p>The control flow graph of a statement list. Each basic block holds
+ * nodes that run one after the other: the simple statements, which are
+ * assignments, displays, and calls, the condition expressions of the
+ * IF, ELSEIF, WHILE, and GUARD statements, and the iteration counts of
+ * the BENCH statements. A block whose last node is a condition branches
+ * to its successors, and so does the empty header block of a BENCH
+ * statement. The entry block has no predecessors and the exit block has
+ * no nodes.</p>
+ */
+public class ControlFlowGraph
+{
+    /**
+     * A basic block.
+     */
+    public static class Block
+    {
+        public int index;                          // position in the graph
+        public ArrayList<Node> nodes;              // Statement or Expression
+        public ArrayList<Block> successors;
+        public ArrayList<Block> predecessors;
+
+        Block(int index)
+        {
+            this.index        = index;
+            this.nodes        = new ArrayList<Node>();
+            this.successors   = new ArrayList<Block>();
+            this.predecessors = new ArrayList<Block>();
+        }
+    }
+
+    private ArrayList<Block> blocks;   // in source order
+    private Block entry;
+    private Block exit;
+
+    /**
+     * Constructor.
+     * @param ctx the statement list.
+     */
+    public ControlFlowGraph(intermediate.ast.Block ctx)
+    {
+        blocks = new ArrayList<Block>();
+        entry  = newBlock();
+
+        Block last = addStatements(ctx, entry);
+
+        exit = newBlock();
+        link(last, exit);
+    }
+
+    /**
+     * Get the basic blocks.
+     * @return the list of blocks in source order.
+     */
+    public ArrayList<Block> getBlocks() { return blocks; }
+
+    /**
+     * Get the entry block.
+     * @return the block.
+     */
+    public Block getEntry() { return entry; }
+
+    /**
+     * Get the exit block.
+     * @return the block.
+     */
+    public Block getExit() { return exit; }
+
+    /**
+     * Determine whether or not a node is a condition.
+     * @param node the node.
+     * @return true if a condition expression, else false.
+     */
+    public static boolean isCondition(Node node)
+    {
+        return node instanceof Expression;
+    }
+
+    /**
+     * Add the statements of a list to the graph.
+     * @param ctx the statement list.
+     * @param current the block that the statements start in.
+     * @return the block that they end in.
+     */
+    private Block addStatements(intermediate.ast.Block ctx, Block current)
+    {
+        for (Statement stmtCtx : ctx.statements)
+        {
+            current = addStatement(stmtCtx, current);
+        }
+
+        return current;
+    }
+
+    /**
+     * Add a statement to the graph.
+     * @param ctx the statement.
+     * @param current the block that the statement starts in.
+     * @return the block that it ends in.
+     */
+    private Block addStatement(Statement ctx, Block current)
+    {
+        if      (ctx instanceof IfStatement)    return addIf((IfStatement) ctx, current);
+        else if (ctx instanceof WhileStatement) return addWhile((WhileStatement) ctx, current);
+        else if (ctx instanceof Guard)          return addGuard((Guard) ctx, current);
+        else if (ctx instanceof Bench)          return addBench((Bench) ctx, current);
+
+        current.nodes.add(ctx);
+        return current;
+    }
+
+    /**
+     * Add an IF statement: each condition branches to its statements
+     * or to the next condition, and all the branches join afterwards.
+     */
+    private Block addIf(IfStatement ctx, Block current)
+    {
+        Block join = new Block(-1);
+
+        for (Branch branch : ctx.branches)
+        {
+            current = addBranch(branch, current, join);
+        }
+
+        if (ctx.elseBlock != null)
+        {
+            Block elseStart = newBlock();
+            link(current, elseStart);
+            link(addStatements(ctx.elseBlock, elseStart), join);
+        }
+        else link(current, join);
+
+        return addBlock(join);
+    }
+
+    /**
+     * Add a condition and the statements that run if it is true.
+     * @return the new block of the false branch.
+     */
+    private Block addBranch(Branch branch, Block current, Block join)
+    {
+        current.nodes.add(branch.condition);
+
+        Block thenStart = newBlock();
+        link(current, thenStart);
+        link(addStatements(branch.body, thenStart), join);
+
+        Block next = newBlock();
+        link(current, next);
+
+        return next;
+    }
+
+    /**
+     * Add a WHILE statement: the condition has its own block, which
+     * the end of the body branches back to.
+     */
+    private Block addWhile(WhileStatement ctx, Block current)
+    {
+        Block header = newBlock();
+        link(current, header);
+        header.nodes.add(ctx.condition);
+
+        Block bodyStart = newBlock();
+        link(header, bodyStart);
+        link(addStatements(ctx.body, bodyStart), header);
+
+        Block next = newBlock();
+        link(header, next);
+
+        return next;
+    }
+
+    /**
+     * Add a GUARD statement: the conditions are tested before each
+     * statement of the body, and any false one leaves the guard.
+     */
+    private Block addGuard(Guard ctx, Block current)
+    {
+        Block join = new Block(-1);
+
+        for (Statement stmtCtx : ctx.body.statements)
+        {
+            Block check = newBlock();
+            link(current, check);
+            for (Expression condition : ctx.conditions)
+            {
+                check.nodes.add(condition);
+            }
+            link(check, join);
+
+            Block stmtStart = newBlock();
+            link(check, stmtStart);
+            current = addStatement(stmtCtx, stmtStart);
+        }
+
+        link(current, join);
+        return addBlock(join);
+    }
+
+    /**
+     * Add a BENCH statement: its iteration count is evaluated once, and
+     * then the body runs any number of times.
+     */
+    private Block addBench(Bench ctx, Block current)
+    {
+        current.nodes.add(ctx.iterations);
+
+        Block header = newBlock();
+        link(current, header);
+
+        Block bodyStart = newBlock();
+        link(header, bodyStart);
+        link(addStatements(ctx.body, bodyStart), header);
+
+        Block next = newBlock();
+        link(header, next);
+
+        return next;
+    }
+
+    private Block newBlock() { return addBlock(new Block(-1)); }
+
+    private Block addBlock(Block block)
+    {
+        block.index = blocks.size();
+        blocks.add(block);
+
+        return block;
+    }
+
+    private void link(Block from, Block to)
+    {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+}
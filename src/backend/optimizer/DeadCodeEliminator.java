@@ -0,0 +1,327 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+import intermediate.ast.*;
+import intermediate.symtab.*;
+import backend.optimizer.ControlFlowGraph.Block;
+
+/**
+ * <h1>DeadCodeEliminator</h1>
+ *
+ * <p>Find the code that need not be emitted. A store is dead if no path
+ * from it reads the variable before the next store into it. Liveness is
+ * a backward dataflow analysis over the control flow graph, where a read
+ * that constant propagation replaced by a constant reads nothing and a
+ * read replaced by a copy reads the copied variable. The right-hand side
+ * of a dead store is not emitted either, so a store whose right-hand
+ * side calls a definition is always kept, and so is a store within a
+ * BENCH statement, whose work is what it measures. A branch whose
+ * condition folds to false is unreachable.</p>
+ *
+ * <p>The sets of live variables are bit sets indexed by variable numbers,
+ * so that the analysis of a long routine with many variables stays fast.</p>
+ */
+public class DeadCodeEliminator
+{
+    private ConstantPropagator propagator;   // the known values of reads
+
+    private HashSet<Assignment> deadStores;
+    private HashSet<Assignment> benched;     // stores within BENCH statements
+    private IdentityHashMap<SymtabEntry, Integer> numbers;  // variable numbers
+    private LinkedHashMap<Node, String> removed;  // for the report
+    private TreeMap<Integer, ArrayList<String>> forgotten;  // removed code by line,
+                                                            //   after forget()
+
+    /**
+     * Constructor.
+     * @param propagator the constant and copy propagator.
+     */
+    public DeadCodeEliminator(ConstantPropagator propagator)
+    {
+        this.propagator = propagator;
+        this.deadStores = new HashSet<Assignment>();
+        this.benched    = new HashSet<Assignment>();
+        this.removed    = new LinkedHashMap<Node, String>();
+        this.forgotten  = new TreeMap<Integer, ArrayList<String>>();
+    }
+
+    /**
+     * Constructor for an eliminator of code that is compiled apart.
+     * It shares the dead stores found by the eliminator that analyzed
+     * the code, and records the code that it removes itself.
+     * @param analyses the eliminator that analyzed the code.
+     * @param propagator the propagator of the code compiled apart.
+     */
+    public DeadCodeEliminator(DeadCodeEliminator analyses,
+                              ConstantPropagator propagator)
+    {
+        this.propagator = propagator;
+        this.deadStores = analyses.deadStores;
+        this.benched    = analyses.benched;
+        this.removed    = new LinkedHashMap<Node, String>();
+        this.forgotten  = new TreeMap<Integer, ArrayList<String>>();
+    }
+
+    /**
+     * Analyze a statement list after constant propagation analyzed it.
+     * @param ctx the statement list.
+     * @param returnId the return variable, which is live at the end,
+     *                 or null if none.
+     */
+    public void analyze(intermediate.ast.Block ctx, SymtabEntry returnId)
+    {
+        benched.clear();
+        findBenched(ctx, false);
+        numbers = new IdentityHashMap<SymtabEntry, Integer>();
+
+        ControlFlowGraph cfg = new ControlFlowGraph(ctx);
+        ArrayList<Block> blocks = cfg.getBlocks();
+        ArrayList<BitSet> ins = new ArrayList<BitSet>();
+
+        for (int i = 0; i < blocks.size(); i++) ins.add(new BitSet());
+
+        // Iterate backwards to the fixed point.
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+
+            for (int i = blocks.size() - 1; i >= 0; i--)
+            {
+                Block block = blocks.get(i);
+                BitSet live = out(block, cfg, ins, returnId);
+
+                for (int j = block.nodes.size() - 1; j >= 0; j--)
+                {
+                    transfer(block.nodes.get(j), live, false);
+                }
+
+                if (!live.equals(ins.get(i)))
+                {
+                    ins.set(i, live);
+                    changed = true;
+                }
+            }
+        }
+
+        // Record the dead stores.
+        for (Block block : blocks)
+        {
+            BitSet live = out(block, cfg, ins, returnId);
+
+            for (int j = block.nodes.size() - 1; j >= 0; j--)
+            {
+                transfer(block.nodes.get(j), live, true);
+            }
+        }
+
+        numbers = null;
+    }
+
+    /**
+     * Determine whether or not an assignment is a dead store.
+     * @param ctx the assignment.
+     * @return true if dead, else false.
+     */
+    public boolean isDeadStore(Assignment ctx)
+    {
+        return deadStores.contains(ctx);
+    }
+
+    /**
+     * Get the value of a condition if it is constant.
+     * @param ctx the condition.
+     * @return TRUE or FALSE, or null if not constant.
+     */
+    public Boolean conditionValue(Expression ctx)
+    {
+        Object value = propagator.constantOf(ctx);
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+
+    /**
+     * Record code that was not emitted.
+     * @param ctx the node of the code.
+     * @param what a description of the code.
+     */
+    public void countRemoved(Node ctx, String what)
+    {
+        removed.put(ctx, what);
+    }
+
+    /**
+     * Forget the dead stores and the removed code of the code analyzed
+     * so far, after it has been compiled. The report keeps their lines.
+     */
+    public void forget()
+    {
+        addLines(forgotten);
+        
+        deadStores.clear();
+        removed.clear();
+    }
+
+    /**
+     * Add the removed code of an eliminator of code that was compiled
+     * apart, after the code removed so far.
+     * @param other the other eliminator.
+     */
+    public void merge(DeadCodeEliminator other)
+    {
+        removed.putAll(other.removed);
+    }
+
+    /**
+     * Print the code that was not emitted, by source line.
+     */
+    public void printReport()
+    {
+        TreeMap<Integer, ArrayList<String>> lines =
+                new TreeMap<Integer, ArrayList<String>>();
+        
+        for (Integer line : forgotten.keySet())
+        {
+            lines.put(line, new ArrayList<String>(forgotten.get(line)));
+        }
+        addLines(lines);
+
+        System.out.println("\n===== REMOVED CODE =====\n");
+        System.out.println("Line Removed");
+        System.out.println("---- -------");
+
+        for (Integer line : lines.keySet())
+        {
+            for (String what : lines.get(line))
+            {
+                System.out.printf("%03d  %s\n", line, what);
+            }
+        }
+    }
+
+    /**
+     * Add the removed code to a table by source line.
+     * @param lines the table.
+     */
+    private void addLines(TreeMap<Integer, ArrayList<String>> lines)
+    {
+        for (Node ctx : removed.keySet())
+        {
+            int line = ctx.line;
+            if (!lines.containsKey(line)) lines.put(line, new ArrayList<String>());
+            lines.get(line).add(removed.get(ctx));
+        }
+    }
+
+    /**
+     * Compute the variables live at the end of a block.
+     */
+    private BitSet out(Block block, ControlFlowGraph cfg, ArrayList<BitSet> ins,
+                       SymtabEntry returnId)
+    {
+        BitSet live = new BitSet();
+
+        if ((block == cfg.getExit()) && (returnId != null)) live.set(number(returnId));
+        for (Block succ : block.successors) live.or(ins.get(succ.index));
+
+        return live;
+    }
+
+    /**
+     * Get the number of a variable, and number it if it has none yet.
+     * @param id the variable's symbol table entry.
+     * @return the number.
+     */
+    private int number(SymtabEntry id)
+    {
+        Integer number = numbers.get(id);
+
+        if (number == null)
+        {
+            number = numbers.size();
+            numbers.put(id, number);
+        }
+
+        return number;
+    }
+
+    /**
+     * Apply a node backwards to the live variables.
+     * @param node the statement or condition.
+     * @param live the live variables, updated in place.
+     * @param record true to record the dead stores.
+     */
+    private void transfer(Node node, BitSet live, boolean record)
+    {
+        if (node instanceof Assignment)
+        {
+            Assignment assignCtx = (Assignment) node;
+            int target = number(assignCtx.target);
+            boolean dead =    !live.get(target) && !hasCall(assignCtx.value)
+                           && !benched.contains(assignCtx);
+
+            if (dead)
+            {
+                if (record) deadStores.add(assignCtx);
+                return;
+            }
+
+            live.clear(target);
+        }
+
+        addReads(node, live);
+    }
+
+    /**
+     * Add the variables read within a subtree to the live variables.
+     */
+    private void addReads(Node tree, BitSet live)
+    {
+        if (tree instanceof VariableFactor)
+        {
+            VariableFactor varCtx = (VariableFactor) tree;
+            Object value = propagator.valueOf(varCtx);
+
+            if      (value == null)               live.set(number(varCtx.entry));
+            else if (value instanceof SymtabEntry) live.set(number((SymtabEntry) value));
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            addReads(tree.getChild(i), live);
+        }
+    }
+
+    /**
+     * Find the assignments within BENCH statements.
+     * @param node the subtree to search.
+     * @param inBench true if the subtree is within a BENCH statement.
+     */
+    private void findBenched(Node node, boolean inBench)
+    {
+        if (node instanceof Bench) inBench = true;
+        if (inBench && (node instanceof Assignment)) benched.add((Assignment) node);
+
+        for (int i = 0; i < node.getChildCount(); i++)
+        {
+            findBenched(node.getChild(i), inBench);
+        }
+    }
+
+    private boolean hasCall(Node tree)
+    {
+        if (tree instanceof DefCall) return true;
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            if (hasCall(tree.getChild(i))) return true;
+        }
+
+        return false;
+    }
+}
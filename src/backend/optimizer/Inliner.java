@@ -0,0 +1,231 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+import intermediate.ast.DefCall;
+import intermediate.ast.Definition;
+import intermediate.ast.Node;
+import intermediate.symtab.SymtabEntry;
+
+/**
+ * <h1>Inliner</h1>
+ *
+ * <p>Decide which definitions are expanded in place at their call sites.
+ * A definition is inlined if it cannot reach itself through the call
+ * graph and its body, including the bodies of the definitions that it
+ * inlines in turn, is small.</p>
+ */
+public class Inliner
+{
+    // Maximum count of source tokens of an inlined body.
+    public static final int SIZE_LIMIT = 48;
+    
+    // Maximum count of source tokens of a body inlined at a hot call site.
+    public static final int HOT_SIZE_LIMIT = 4*SIZE_LIMIT;
+
+    // Calls made by each definition body, one entry per call site.
+    private HashMap<SymtabEntry, ArrayList<SymtabEntry>> calls;
+
+    private HashSet<SymtabEntry> recursive;      // definitions that recurse
+    private HashMap<SymtabEntry, Integer> sizes; // expanded body sizes
+
+    private TreeMap<String, Integer> inlinedCounts;  // inlined call sites
+
+    /**
+     * Constructor.
+     * @param programId the symbol table entry of the program name.
+     */
+    public Inliner(SymtabEntry programId)
+    {
+        calls         = new HashMap<SymtabEntry, ArrayList<SymtabEntry>>();
+        recursive     = new HashSet<SymtabEntry>();
+        sizes         = new HashMap<SymtabEntry, Integer>();
+        inlinedCounts = new TreeMap<String, Integer>();
+
+        ArrayList<SymtabEntry> routineIds = programId.getSubroutines();
+        if (routineIds == null) return;
+
+        // Build the call graph.
+        for (SymtabEntry routineId : routineIds)
+        {
+            ArrayList<SymtabEntry> callees = new ArrayList<SymtabEntry>();
+            Definition definition = (Definition) routineId.getExecutable();
+
+            if (definition != null) collectCalls(definition.body, callees);
+            calls.put(routineId, callees);
+        }
+
+        for (SymtabEntry routineId : routineIds)
+        {
+            if (reaches(routineId, routineId, new HashSet<SymtabEntry>()))
+            {
+                recursive.add(routineId);
+            }
+        }
+
+        // Size the bodies now, since definitions compiled
+        // in parallel share the inliner.
+        for (SymtabEntry routineId : routineIds)
+        {
+            if (hasBody(routineId) && !recursive.contains(routineId))
+            {
+                expandedSize(routineId);
+            }
+        }
+    }
+
+    /**
+     * Determine whether or not calls to a definition should be inlined.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return true if inlined, else false.
+     */
+    public boolean isInlined(SymtabEntry routineId)
+    {
+        return    calls.containsKey(routineId)
+               && hasBody(routineId)
+               && !recursive.contains(routineId)
+               && (expandedSize(routineId) <= SIZE_LIMIT);
+    }
+
+    /**
+     * Determine whether or not a call site should be inlined, given the
+     * counts of a training run. A site that never ran is not inlined,
+     * and a hot site inlines a larger body.
+     * @param routineId the symbol table entry of the definition's name.
+     * @param callCtx the call.
+     * @param profile the profile data.
+     * @return true if inlined, else false.
+     */
+    public boolean isInlined(SymtabEntry routineId, DefCall callCtx,
+                             ProfileData profile)
+    {
+        long count = profile.executionsOf(callCtx);
+        boolean inlined = isInlined(routineId);
+        
+        if (count < 0) return inlined;
+        
+        if (count == 0)
+        {
+            if (inlined) profile.countDecision("cold call site not inlined");
+            return false;
+        }
+        
+        if (   !inlined && profile.isHot(count)
+            && calls.containsKey(routineId)
+            && hasBody(routineId)
+            && !recursive.contains(routineId)
+            && (expandedSize(routineId) <= HOT_SIZE_LIMIT))
+        {
+            profile.countDecision("hot call site inlined");
+            return true;
+        }
+        
+        return inlined;
+    }
+
+    /**
+     * Record that a call site was inlined. Definitions compiled
+     * in parallel share the inliner.
+     * @param routineId the symbol table entry of the called definition.
+     */
+    public synchronized void countInlined(SymtabEntry routineId)
+    {
+        String name = routineId.getName();
+        Integer count = inlinedCounts.get(name);
+
+        inlinedCounts.put(name, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Print the inlined call sites of each definition.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== INLINED CALLS =====\n");
+        System.out.printf("%-40s %s\n", "Definition", "Sites");
+        System.out.printf("%-40s %s\n", "----------", "-----");
+
+        for (String name : inlinedCounts.keySet())
+        {
+            System.out.printf("%-40s %5d\n", name, inlinedCounts.get(name));
+        }
+    }
+
+    /**
+     * Collect the definitions called within a subtree.
+     * @param tree the subtree.
+     * @param callees the list to append to.
+     */
+    private void collectCalls(Node tree, ArrayList<SymtabEntry> callees)
+    {
+        if (tree instanceof DefCall)
+        {
+            SymtabEntry calleeId = ((DefCall) tree).routineId;
+            if (calleeId != null) callees.add(calleeId);
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            collectCalls(tree.getChild(i), callees);
+        }
+    }
+
+    /**
+     * Determine whether or not a definition has a body to inline.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return true if it has statements that are still in memory.
+     */
+    private boolean hasBody(SymtabEntry routineId)
+    {
+        Definition definition = (Definition) routineId.getExecutable();
+        return (definition != null) && !definition.body.isEmpty();
+    }
+
+    /**
+     * Determine whether or not a definition can reach a target
+     * through the call graph.
+     * @param routineId the definition to search from.
+     * @param targetId the target definition.
+     * @param visited the definitions already searched.
+     * @return true if it can, else false.
+     */
+    private boolean reaches(SymtabEntry routineId, SymtabEntry targetId,
+                            HashSet<SymtabEntry> visited)
+    {
+        ArrayList<SymtabEntry> callees = calls.get(routineId);
+        if ((callees == null) || !visited.add(routineId)) return false;
+
+        for (SymtabEntry calleeId : callees)
+        {
+            if (   (calleeId == targetId)
+                || reaches(calleeId, targetId, visited)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Compute the size of a non-recursive definition's body after
+     * the calls that it makes are inlined.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return the size in source tokens.
+     */
+    private int expandedSize(SymtabEntry routineId)
+    {
+        Integer size = sizes.get(routineId);
+        if (size != null) return size;
+
+        int total = ((Definition) routineId.getExecutable()).body.tokenCount;
+
+        for (SymtabEntry calleeId : calls.get(routineId))
+        {
+            if (isInlined(calleeId)) total += expandedSize(calleeId);
+        }
+
+        sizes.put(routineId, total);
+        return total;
+    }
+}
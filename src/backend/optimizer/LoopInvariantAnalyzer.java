@@ -0,0 +1,467 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import intermediate.ast.*;
+import intermediate.symtab.*;
+import intermediate.type.*;
+
+/**
+ * <h1>LoopInvariantAnalyzer</h1>
+ *
+ * <p>Find the subexpressions of a WHILE loop whose values do not change
+ * while the loop runs. The loop's write set is the variables assigned
+ * anywhere in its body. A subexpression is invariant if it reads none
+ * of them and calls only pure definitions. The analyzer picks the
+ * largest invariant subexpressions that do real work: whole expressions,
+ * leading terms of a simple expression, leading factors of a term,
+ * calls, and NOTs. A call on a conditional path of the body is not
+ * picked, since evaluating it early could change what the program
+ * does if it never terminates. Neither is the right-hand side of a
+ * dead store, since its variables may never have been assigned, nor
+ * anything within the body of a BENCH statement.</p>
+ */
+public class LoopInvariantAnalyzer
+{
+    /**
+     * A hoisted subexpression.
+     */
+    public static class Invariant
+    {
+        public Node ctx;               // expression, simple expression,
+                                       // term, or factor
+        public int length;             // count of leading terms or factors
+        public Typespec type;          // value type
+        public boolean inCondition;    // true if in the loop condition
+        public int slot;               // local variable holding the value
+
+        Invariant(Node ctx, int length, Typespec type,
+                  boolean inCondition)
+        {
+            this.ctx         = ctx;
+            this.length      = length;
+            this.type        = type;
+            this.inCondition = inCondition;
+        }
+    }
+
+    private PurityAnalyzer purity;             // which definitions are pure
+    private DeadCodeEliminator eliminator;     // which stores are dead
+    private HashMap<Node, Invariant> hoisted;  // already hoisted
+    private int hoistedCount;                  // total hoisted
+
+    private HashSet<SymtabEntry> writes;       // the current loop's write set
+    private ArrayList<Invariant> found;        // the current loop's invariants
+
+    /**
+     * Constructor.
+     * @param purity the purity analysis of the program's definitions.
+     * @param eliminator the dead code eliminator.
+     */
+    public LoopInvariantAnalyzer(PurityAnalyzer purity,
+                                 DeadCodeEliminator eliminator)
+    {
+        this.purity     = purity;
+        this.eliminator = eliminator;
+        this.hoisted    = new HashMap<Node, Invariant>();
+    }
+
+    /**
+     * Find the invariant subexpressions of a loop.
+     * @param ctx the WHILE statement.
+     * @return the list of invariants, without slots.
+     */
+    public ArrayList<Invariant> findInvariants(WhileStatement ctx)
+    {
+        writes = new HashSet<SymtabEntry>();
+        found  = new ArrayList<Invariant>();
+
+        collectWrites(ctx);
+
+        searchExpression(ctx.condition, false, true);
+        search(ctx.body, false, false);
+
+        return found;
+    }
+
+    /**
+     * Make the generated code use an invariant's local variable.
+     * @param invariant the invariant with its slot.
+     */
+    public void hoist(Invariant invariant)
+    {
+        hoisted.put(invariant.ctx, invariant);
+        hoistedCount++;
+    }
+
+    /**
+     * Stop using an invariant's local variable after its loop.
+     * @param invariant the invariant.
+     */
+    public void unhoist(Invariant invariant) { hoisted.remove(invariant.ctx); }
+
+    /**
+     * Get the hoisted invariant of a node.
+     * @param ctx the node.
+     * @return the invariant, or null if the node is not hoisted.
+     */
+    public Invariant getHoisted(Node ctx) { return hoisted.get(ctx); }
+
+    /**
+     * Forget the subexpressions hoisted from the code compiled so far.
+     */
+    public void forget() { hoisted.clear(); }
+
+    /**
+     * Add the count of an analyzer of code that was compiled apart.
+     * @param other the other analyzer.
+     */
+    public void merge(LoopInvariantAnalyzer other)
+    {
+        hoistedCount += other.hoistedCount;
+    }
+
+    /**
+     * Print the count of hoisted subexpressions.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== LOOP-INVARIANT CODE MOTION =====\n");
+        System.out.printf("Hoisted subexpressions: %d\n", hoistedCount);
+    }
+
+    /**
+     * Collect the variables assigned within a subtree.
+     * @param tree the subtree.
+     */
+    private void collectWrites(Node tree)
+    {
+        if (tree instanceof Assignment)
+        {
+            writes.add(((Assignment) tree).target);
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            collectWrites(tree.getChild(i));
+        }
+    }
+
+    /**
+     * Search the statements of a subtree for invariants.
+     * @param tree the subtree.
+     * @param conditional true if the tree is on a conditional path.
+     * @param inCondition true if the tree is in the loop condition.
+     */
+    private void search(Node tree, boolean conditional, boolean inCondition)
+    {
+        if (   (tree instanceof Assignment)
+            && eliminator.isDeadStore((Assignment) tree))
+        {
+            return;
+        }
+        else if (tree instanceof Expression)
+        {
+            searchExpression((Expression) tree, conditional, inCondition);
+        }
+        else if (tree instanceof IfStatement)
+        {
+            IfStatement ifCtx = (IfStatement) tree;
+            Branch ifBranch = ifCtx.branches[0];
+
+            search(ifBranch.condition, conditional, false);
+            search(ifBranch.body, true, false);
+            for (int i = 1; i < ifCtx.branches.length; i++)
+            {
+                search(ifCtx.branches[i], true, false);
+            }
+            if (ifCtx.elseBlock != null) search(ifCtx.elseBlock, true, false);
+        }
+        else if (tree instanceof WhileStatement)
+        {
+            WhileStatement whileCtx = (WhileStatement) tree;
+
+            search(whileCtx.condition, conditional, false);
+            search(whileCtx.body, true, false);
+        }
+        else if (tree instanceof Bench)
+        {
+            // The body's work is what the statement measures,
+            // so none of it moves out.
+            search(((Bench) tree).iterations, conditional, false);
+        }
+        else if (tree instanceof Guard)
+        {
+            Guard guardCtx = (Guard) tree;
+
+            for (Expression condition : guardCtx.conditions)
+            {
+                search(condition, conditional, false);
+            }
+            search(guardCtx.body, true, false);
+        }
+        else
+        {
+            for (int i = 0; i < tree.getChildCount(); i++)
+            {
+                search(tree.getChild(i), conditional, inCondition);
+            }
+        }
+    }
+
+    /**
+     * Search an expression for its largest invariant subexpressions.
+     */
+    private void searchExpression(Expression ctx,
+                                  boolean conditional, boolean inCondition)
+    {
+        if (hoisted.containsKey(ctx)) return;
+
+        Typespec type = valueType(ctx);
+        if (   (type != null) && isInvariant(ctx, conditional)
+            && isNontrivial(ctx))
+        {
+            found.add(new Invariant(ctx, 0, type, inCondition));
+            return;
+        }
+
+        searchSimpleExpression(ctx.left, conditional, inCondition);
+        if (ctx.right != null)
+        {
+            searchSimpleExpression(ctx.right, conditional, inCondition);
+        }
+    }
+
+    private void searchSimpleExpression(SimpleExpression ctx,
+                                        boolean conditional, boolean inCondition)
+    {
+        if (hoisted.containsKey(ctx)) return;
+
+        int count = ctx.terms.length;
+        int length = 0;
+
+        while (   (length < count)
+               && isInvariant(ctx.terms[length], conditional)) length++;
+
+        // Hoist the invariant leading terms.
+        Typespec type = length >= 2 ? prefixType(ctx, length) : null;
+        int first = 0;
+
+        if (type != null)
+        {
+            found.add(new Invariant(ctx, length, type, inCondition));
+            first = length;
+        }
+
+        for (int i = first; i < count; i++)
+        {
+            searchTerm(ctx.terms[i], conditional, inCondition);
+        }
+    }
+
+    private void searchTerm(Term ctx, boolean conditional, boolean inCondition)
+    {
+        if (hoisted.containsKey(ctx)) return;
+
+        int count = ctx.factors.length;
+        int length = 0;
+
+        while (   (length < count)
+               && isInvariant(ctx.factors[length], conditional)) length++;
+
+        // Hoist the invariant leading factors.
+        Typespec type = length >= 2 ? prefixType(ctx, length) : null;
+        int first = 0;
+
+        if (type != null)
+        {
+            found.add(new Invariant(ctx, length, type, inCondition));
+            first = length;
+        }
+
+        for (int i = first; i < count; i++)
+        {
+            searchFactor(ctx.factors[i], conditional, inCondition);
+        }
+    }
+
+    private void searchFactor(Factor ctx, boolean conditional, boolean inCondition)
+    {
+        if (hoisted.containsKey(ctx)) return;
+
+        if ((ctx instanceof DefCall) || (ctx instanceof NotFactor))
+        {
+            Typespec type = valueType(ctx);
+
+            if ((type != null) && isInvariant(ctx, conditional))
+            {
+                found.add(new Invariant(ctx, 0, type, inCondition));
+                return;
+            }
+        }
+
+        if (ctx instanceof NotFactor)
+        {
+            searchFactor(((NotFactor) ctx).factor, conditional, inCondition);
+        }
+        else
+        {
+            for (int i = 0; i < ctx.getChildCount(); i++)
+            {
+                search(ctx.getChild(i), conditional, inCondition);
+            }
+        }
+    }
+
+    /**
+     * Determine whether or not a subtree's value is loop invariant.
+     * @param tree the subtree.
+     * @param conditional true if the tree is on a conditional path.
+     * @return true if invariant, else false.
+     */
+    private boolean isInvariant(Node tree, boolean conditional)
+    {
+        if (tree instanceof VariableFactor)
+        {
+            SymtabEntry id = ((VariableFactor) tree).entry;
+            if ((id == null) || writes.contains(id)) return false;
+        }
+
+        if (tree instanceof DefCall)
+        {
+            SymtabEntry routineId = ((DefCall) tree).routineId;
+            if (   conditional || (routineId == null)
+                || !purity.isPure(routineId)) return false;
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            if (!isInvariant(tree.getChild(i), conditional)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Determine whether or not an expression does more than
+     * load a single value.
+     */
+    private boolean isNontrivial(Expression ctx)
+    {
+        if (ctx.op != null) return true;
+
+        SimpleExpression simpleCtx = ctx.left;
+        if ((simpleCtx.sign != null) || (simpleCtx.terms.length > 1)) return true;
+
+        Term termCtx = simpleCtx.terms[0];
+        if (termCtx.factors.length > 1) return true;
+
+        Factor factorCtx = termCtx.factors[0];
+        if (factorCtx instanceof ParenthesizedFactor)
+        {
+            return isNontrivial(((ParenthesizedFactor) factorCtx).expression);
+        }
+
+        return (factorCtx instanceof DefCall) || (factorCtx instanceof NotFactor);
+    }
+
+    /**
+     * Return the type of the value that the generated code leaves on
+     * the operand stack for an expression.
+     * @return the type, or null if not a single number, bool, or string.
+     */
+    private Typespec valueType(Expression ctx)
+    {
+        Typespec type1 = valueType(ctx.left);
+        if (ctx.op == null) return type1;
+
+        Typespec type2 = valueType(ctx.right);
+        boolean comparable =
+               (type1 == type2)
+            && ((type1 == Predefined.numberType) || (type1 == Predefined.stringType));
+
+        return comparable ? Predefined.booleanType : null;
+    }
+
+    private Typespec valueType(SimpleExpression ctx)
+    {
+        return prefixType(ctx, ctx.terms.length);
+    }
+
+    private Typespec valueType(Term ctx)
+    {
+        return prefixType(ctx, ctx.factors.length);
+    }
+
+    private Typespec valueType(Factor ctx)
+    {
+        if (ctx instanceof ParenthesizedFactor)
+        {
+            return valueType(((ParenthesizedFactor) ctx).expression);
+        }
+        if (ctx instanceof NotFactor)
+        {
+            Typespec type = valueType(((NotFactor) ctx).factor);
+            return type == Predefined.booleanType ? type : null;
+        }
+        if (ctx instanceof DefCall)
+        {
+            SymtabEntry routineId = ((DefCall) ctx).routineId;
+            return scalarType(routineId != null ? routineId.getType() : null);
+        }
+
+        return scalarType(ctx.type);
+    }
+
+    /**
+     * Return the type of the leading terms of a simple expression:
+     * numbers added, strings and numbers concatenated, or bools ORed.
+     */
+    private Typespec prefixType(SimpleExpression ctx, int length)
+    {
+        int numbers = 0;
+        int bools   = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            Typespec type = valueType(ctx.terms[i]);
+
+            if      (type == Predefined.numberType)  numbers++;
+            else if (type == Predefined.booleanType) bools++;
+            else if (type != Predefined.stringType)  return null;
+        }
+
+        if (numbers == length) return Predefined.numberType;
+        if (ctx.sign != null) return null;
+
+        return   bools == length ? Predefined.booleanType
+               : bools == 0      ? Predefined.stringType
+               :                   null;
+    }
+
+    /**
+     * Return the type of the leading factors of a term:
+     * numbers multiplied or divided, or bools ANDed.
+     */
+    private Typespec prefixType(Term ctx, int length)
+    {
+        Typespec type1 = valueType(ctx.factors[0]);
+
+        for (int i = 1; i < length; i++)
+        {
+            if (valueType(ctx.factors[i]) != type1) return null;
+        }
+
+        return (   (length == 1) || (type1 == Predefined.numberType)
+                || (type1 == Predefined.booleanType)) ? type1 : null;
+    }
+
+    private static Typespec scalarType(Typespec type)
+    {
+        return (   (type == Predefined.numberType)
+                || (type == Predefined.booleanType)
+                || (type == Predefined.stringType)) ? type : null;
+    }
+}
@@ -0,0 +1,392 @@
+package backend.optimizer;
+
+import java.util.HashMap;
+
+import intermediate.ast.*;
+import intermediate.symtab.*;
+import intermediate.type.*;
+
+/**
+ * <h1>LoopUnroller</h1>
+ *
+ * <p>Compute the trip counts of counting WHILE loops. A loop counts if
+ * its condition compares a number variable against a constant, its body
+ * assigns the variable once at the top level by adding or subtracting a
+ * constant, and the nearest preceding assignment of the variable in the
+ * same statement list sets it to a constant. The trip count is found by
+ * running the loop's arithmetic in float, as the JVM does. Small bodies
+ * of loops with few trips are unrolled fully, and those of loops with
+ * more trips are unrolled by a fixed factor.</p>
+ */
+public class LoopUnroller
+{
+    public static final int FULL_UNROLL_LIMIT = 8;   // max fully unrolled trips
+    public static final int UNROLL_FACTOR     = 4;   // body copies per test
+    public static final int BODY_SIZE_LIMIT   = 40;  // max source tokens
+
+    private static final int MAX_TRIPS = 1 << 16;    // give up counting here
+
+    private PurityAnalyzer purity;   // which definitions are pure
+    private HashMap<WhileStatement, Block> enclosing;  // each loop's block
+
+    private int rotatedCount;        // loops with only a rotated test
+    private int fullCount;           // fully unrolled loops
+    private int partialCount;        // partially unrolled loops
+
+    /**
+     * Constructor.
+     * @param purity the purity analysis of the program's definitions.
+     */
+    public LoopUnroller(PurityAnalyzer purity)
+    {
+        this.purity    = purity;
+        this.enclosing = new HashMap<WhileStatement, Block>();
+    }
+
+    /**
+     * Constructor for an unroller of code that is compiled apart. It
+     * shares the enclosing blocks recorded by the unroller that
+     * analyzed the code, and counts its own loops.
+     * @param analyses the unroller that analyzed the code.
+     */
+    public LoopUnroller(LoopUnroller analyses)
+    {
+        this.purity    = analyses.purity;
+        this.enclosing = analyses.enclosing;
+    }
+
+    /**
+     * Record the statement list that encloses each loop of a routine.
+     * @param ctx the routine's statement list.
+     */
+    public void analyze(Block ctx)
+    {
+        for (Statement stmt : ctx.statements)
+        {
+            if (stmt instanceof WhileStatement)
+            {
+                enclosing.put((WhileStatement) stmt, ctx);
+            }
+            for (int i = 0; i < stmt.getChildCount(); i++)
+            {
+                analyzeNested(stmt.getChild(i));
+            }
+        }
+    }
+
+    /**
+     * Forget the loops of the code analyzed so far, after it has been
+     * compiled.
+     */
+    public void forget() { enclosing.clear(); }
+
+    /**
+     * Compute the trip count of a loop whose body is small enough to unroll.
+     * @param ctx the WHILE statement.
+     * @return the trip count, or -1 if unknown or the body is too large.
+     */
+    public int tripCount(WhileStatement ctx)
+    {
+        Expression condCtx = ctx.condition;
+        Block bodyCtx = ctx.body;
+
+        if ((condCtx.op == null) || bodyCtx.isEmpty()) return -1;
+        if (bodyCtx.tokenCount > BODY_SIZE_LIMIT) return -1;
+
+        // The condition: counter relop limit, or limit relop counter.
+        String op = condCtx.op.text;
+        SimpleExpression leftCtx  = condCtx.left;
+        SimpleExpression rightCtx = condCtx.right;
+        SymtabEntry counterId = variableOf(leftCtx);
+        Float limit = constantOf(rightCtx);
+
+        if (counterId == null)
+        {
+            counterId = variableOf(rightCtx);
+            limit = constantOf(leftCtx);
+            op = reversed(op);
+        }
+        if (   (counterId == null) || (limit == null)
+            || (op == null) || (reversed(op) == null)
+            || (counterId.getType() != Predefined.numberType))
+        {
+            return -1;
+        }
+
+        // The body must step the counter once and not call impure
+        // definitions that could assign it.
+        if ((writeCount(bodyCtx, counterId) != 1) || !isSafe(bodyCtx, counterId))
+        {
+            return -1;
+        }
+
+        Float step = null;
+        for (Statement stmtCtx : bodyCtx.statements)
+        {
+            if (step == null) step = stepOf(stmtCtx, counterId);
+        }
+        if (step == null) return -1;
+
+        Float initial = initialValue(ctx, counterId);
+        if (initial == null) return -1;
+
+        // Run the loop's arithmetic.
+        float value = initial;
+        int trips = 0;
+        while (compare(value, op, limit))
+        {
+            value = value + step;
+            if (++trips > MAX_TRIPS) return -1;
+        }
+
+        return trips;
+    }
+
+    /**
+     * Record that a loop was rotated or unrolled.
+     * @param trips the trip count, or -1 if unknown.
+     */
+    public void countLoop(int trips)
+    {
+        if      (trips < 0)                  rotatedCount++;
+        else if (trips <= FULL_UNROLL_LIMIT) fullCount++;
+        else                                 partialCount++;
+    }
+
+    /**
+     * Add the counts of an unroller of code that was compiled apart.
+     * @param other the other unroller.
+     */
+    public void merge(LoopUnroller other)
+    {
+        rotatedCount += other.rotatedCount;
+        fullCount    += other.fullCount;
+        partialCount += other.partialCount;
+    }
+
+    /**
+     * Print the counts of rotated and unrolled loops.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== LOOP ROTATION AND UNROLLING =====\n");
+        System.out.printf("Rotated loops:            %d\n", rotatedCount);
+        System.out.printf("Fully unrolled loops:     %d\n", fullCount);
+        System.out.printf("Partially unrolled loops: %d\n", partialCount);
+    }
+
+    /**
+     * Find the constant value that a counter has when its loop starts.
+     * @param ctx the WHILE statement.
+     * @param counterId the counter's symbol table entry.
+     * @return the value, or null if not known.
+     */
+    private Float initialValue(WhileStatement ctx, SymtabEntry counterId)
+    {
+        Block block = enclosing.get(ctx);
+        if (block == null) return null;
+
+        Statement stmtCtxs[] = block.statements;
+        int index = 0;
+        while (stmtCtxs[index] != ctx) index++;
+
+        for (int i = index - 1; i >= 0; i--)
+        {
+            Statement prevCtx = stmtCtxs[i];
+
+            if (   (prevCtx instanceof Assignment)
+                && (((Assignment) prevCtx).target == counterId))
+            {
+                Expression exprCtx = ((Assignment) prevCtx).value;
+
+                return exprCtx.op == null ? constantOf(exprCtx.left) : null;
+            }
+
+            if ((writeCount(prevCtx, counterId) > 0) || !isSafe(prevCtx, counterId))
+            {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the constant step of a statement `v = v + c`, `v = v - c`,
+     * or `v = c + v`.
+     * @param ctx the statement.
+     * @param counterId the counter's symbol table entry.
+     * @return the signed step, or null if it is not a step of the counter.
+     */
+    private Float stepOf(Statement ctx, SymtabEntry counterId)
+    {
+        if (!(ctx instanceof Assignment)) return null;
+
+        Assignment assignCtx = (Assignment) ctx;
+        if (assignCtx.declares || (assignCtx.target != counterId)) return null;
+
+        Expression exprCtx = assignCtx.value;
+        if (exprCtx.op != null) return null;
+
+        SimpleExpression simpleCtx = exprCtx.left;
+        if ((simpleCtx.sign != null) || (simpleCtx.terms.length != 2)) return null;
+
+        String op = simpleCtx.ops[0].text;
+        SymtabEntry firstId   = variableOf(simpleCtx.terms[0]);
+        SymtabEntry secondId  = variableOf(simpleCtx.terms[1]);
+        Float firstConstant   = constantOf(simpleCtx.terms[0]);
+        Float secondConstant  = constantOf(simpleCtx.terms[1]);
+
+        if ((firstId == counterId) && (secondConstant != null))
+        {
+            if (op.equals("+")) return secondConstant;
+            if (op.equals("-")) return -secondConstant;
+        }
+        else if (   (secondId == counterId) && (firstConstant != null)
+                 && op.equals("+"))
+        {
+            return firstConstant;
+        }
+
+        return null;
+    }
+
+    /**
+     * Count the assignments of a variable within a subtree.
+     * @param tree the subtree.
+     * @param id the variable's symbol table entry.
+     * @return the count.
+     */
+    private int writeCount(Node tree, SymtabEntry id)
+    {
+        int count = 0;
+
+        if (   (tree instanceof Assignment)
+            && (((Assignment) tree).target == id))
+        {
+            count++;
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            count += writeCount(tree.getChild(i), id);
+        }
+
+        return count;
+    }
+
+    /**
+     * Determine whether or not the calls within a subtree leave a
+     * variable unchanged. Only a program variable can be changed by
+     * a call, and only by an impure definition.
+     * @param tree the subtree.
+     * @param id the variable's symbol table entry.
+     * @return true if unchanged, else false.
+     */
+    private boolean isSafe(Node tree, SymtabEntry id)
+    {
+        if (id.getSymtab().getNestingLevel() != 1) return true;
+
+        if (tree instanceof DefCall)
+        {
+            SymtabEntry calleeId = ((DefCall) tree).routineId;
+            if ((calleeId == null) || !purity.isPure(calleeId)) return false;
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            if (!isSafe(tree.getChild(i), id)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the variable of a simple expression or term that is
+     * only a variable.
+     */
+    private SymtabEntry variableOf(SimpleExpression ctx)
+    {
+        return    (ctx.sign == null) && (ctx.terms.length == 1)
+               ? variableOf(ctx.terms[0]) : null;
+    }
+
+    private SymtabEntry variableOf(Term ctx)
+    {
+        if (ctx.factors.length != 1) return null;
+
+        Factor factorCtx = ctx.factors[0];
+        return factorCtx instanceof VariableFactor
+                ? ((VariableFactor) factorCtx).entry : null;
+    }
+
+    /**
+     * Return the value of a simple expression or term that is
+     * only a number constant.
+     */
+    private Float constantOf(SimpleExpression ctx)
+    {
+        if (ctx.terms.length != 1) return null;
+
+        Float value = constantOf(ctx.terms[0]);
+        if ((value == null) || (ctx.sign == null)) return value;
+
+        return ctx.sign == Operator.MINUS ? -value : value;
+    }
+
+    private Float constantOf(Term ctx)
+    {
+        if (ctx.factors.length != 1) return null;
+
+        Factor factorCtx = ctx.factors[0];
+        return factorCtx instanceof NumberFactor
+                ? ((NumberFactor) factorCtx).value : null;
+    }
+
+    /**
+     * Record the statement lists within a subtree that enclose loops.
+     * @param node the subtree.
+     */
+    private void analyzeNested(Node node)
+    {
+        if (node instanceof Block) analyze((Block) node);
+        else if (node instanceof Statement || node instanceof Branch)
+        {
+            for (int i = 0; i < node.getChildCount(); i++)
+            {
+                analyzeNested(node.getChild(i));
+            }
+        }
+    }
+
+    /**
+     * Return the relational operator with its operands swapped.
+     * @param op the operator.
+     * @return the swapped operator, or null if not a supported one.
+     */
+    private String reversed(String op)
+    {
+        switch (op)
+        {
+            case "==" : return "==";
+            case "<"  : return ">";
+            case "<=" : return ">=";
+            case ">"  : return "<";
+            case ">=" : return "<=";
+            default   : return null;
+        }
+    }
+
+    private boolean compare(float value, String op, float limit)
+    {
+        switch (op)
+        {
+            case "==" : return value == limit;
+            case "<"  : return value <  limit;
+            case "<=" : return value <= limit;
+            case ">"  : return value >  limit;
+            case ">=" : return value >= limit;
+            default   : return false;
+        }
+    }
+}
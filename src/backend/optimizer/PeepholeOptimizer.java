@@ -0,0 +1,615 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import backend.compiler.Directive;
+import backend.compiler.Instruction;
+import backend.compiler.InstructionList.Item;
+import backend.compiler.Label;
+
+import static backend.compiler.Instruction.*;
+import static backend.compiler.InstructionList.Kind.*;
+
+/**
+ * <h1>PeepholeOptimizer</h1>
+ *
+ * <p>Rule-driven peephole optimization of a method's emitted
+ * instruction list. The rules are applied repeatedly until none fires,
+ * and the optimizer counts how often each rule fired.</p>
+ *
+ * <p>Each sweep over the list takes time linear in its length. The label
+ * reference counts and the label positions are computed once per sweep,
+ * and the rules keep the counts up to date as they rewrite items. An item
+ * that a rule deletes is replaced by a placeholder, so that the positions
+ * stay valid, and the placeholders are removed at the end of the sweep.</p>
+ */
+public class PeepholeOptimizer
+{
+    /**
+     * The peephole rules.
+     */
+    public enum Rule
+    {
+        STORE_LOAD_FORWARDING  ("Store/load forwarding"),
+        LOAD_STORE_ELIMINATION ("Load/store of same variable"),
+        DEAD_STORE_AT_RETURN   ("Dead store before return"),
+        CONSTANT_BRANCH        ("Constant branch folding"),
+        BOOLEAN_BRANCH         ("Boolean value branch folding"),
+        NEGATED_BRANCH         ("Negated condition branch folding"),
+        BRANCH_CHAINING        ("Branch chaining"),
+        BRANCH_TO_NEXT         ("Branch to next instruction"),
+        UNREACHABLE_CODE       ("Unreachable instruction removal"),
+        DEAD_LABEL             ("Dead label removal");
+
+        private String text;
+
+        Rule(String text) { this.text = text; }
+
+        public String toString() { return text; }
+    }
+
+    private HashMap<Rule, Integer> counts;  // how often each rule fired
+    private int instructionsBefore;         // instructions before optimizing
+    private int instructionsAfter;          // instructions after optimizing
+
+    // Stands for a deleted item until the end of the sweep.
+    private static final Item DELETED = new Item(BLANK);
+
+    private ArrayList<Item> items;              // the items being optimized
+    private HashMap<Label, Integer> references; // label reference counts
+    private HashMap<Label, Integer> positions;  // where the labels are defined
+
+    /**
+     * Constructor.
+     */
+    public PeepholeOptimizer()
+    {
+        counts = new HashMap<Rule, Integer>();
+        for (Rule rule : Rule.values()) counts.put(rule, 0);
+    }
+
+    /**
+     * Get how often a rule fired.
+     * @param rule the rule.
+     * @return the count.
+     */
+    public int getCount(Rule rule) { return counts.get(rule); }
+
+    /**
+     * Optimize a list of items in place.
+     * @param items the list of items.
+     */
+    public void optimize(ArrayList<Item> items)
+    {
+        this.items = items;
+        instructionsBefore += instructionCount();
+
+        boolean changed = true;
+        while (changed)
+        {
+            countReferences();
+            locateLabels();
+            changed = false;
+
+            for (int i = 0; i < items.size(); i++)
+            {
+                if (   storeLoadForwarding(i) || loadStoreElimination(i)
+                    || deadStoreAtReturn(i)   || constantBranch(i)
+                    || booleanBranch(i)       || negatedBranch(i)
+                    || branchChaining(i)      || branchToNext(i)
+                    || unreachableCode(i)     || deadLabel(i))
+                {
+                    changed = true;
+                }
+            }
+
+            items.removeIf(item -> item == DELETED);
+        }
+
+        instructionsAfter += instructionCount();
+        this.items = null;
+    }
+
+    /**
+     * Add the statistics of an optimizer of code that was compiled
+     * apart, such as a definition compiled in parallel with others.
+     * @param other the other optimizer.
+     */
+    public void merge(PeepholeOptimizer other)
+    {
+        for (Rule rule : Rule.values())
+        {
+            counts.put(rule, counts.get(rule) + other.counts.get(rule));
+        }
+
+        instructionsBefore += other.instructionsBefore;
+        instructionsAfter  += other.instructionsAfter;
+    }
+
+    /**
+     * Print the statistics of which rules fired.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== PEEPHOLE OPTIMIZATIONS =====\n");
+        System.out.printf("%-40s %s\n", "Rule", "Count");
+        System.out.printf("%-40s %s\n", "----", "-----");
+
+        for (Rule rule : Rule.values())
+        {
+            System.out.printf("%-40s %5d\n", rule, counts.get(rule));
+        }
+
+        System.out.printf("\nInstructions: %d before, %d after.\n",
+                          instructionsBefore, instructionsAfter);
+    }
+
+    // =====
+    // Rules
+    // =====
+
+    /**
+     * store x; load x  ==>  dup; store x
+     */
+    private boolean storeLoadForwarding(int i)
+    {
+        int j = next(i);
+        if (j < 0) return false;
+
+        Item store = items.get(i);
+        Item load  = items.get(j);
+        boolean match =
+               (   isLocalStore(store) && isLocalLoad(load)
+                && (typeOf(store) == typeOf(load))
+                && (slotOf(store) == slotOf(load)))
+            || (   store.is(PUTSTATIC) && load.is(GETSTATIC)
+                && store.operand.equals(load.operand));
+
+        if (!match) return false;
+
+        replacePair(i, j, new Item(DUP, null, null), store);
+        return fired(Rule.STORE_LOAD_FORWARDING);
+    }
+
+    /**
+     * load x; store x  ==>  (nothing)
+     */
+    private boolean loadStoreElimination(int i)
+    {
+        int j = next(i);
+        if (j < 0) return false;
+
+        Item load  = items.get(i);
+        Item store = items.get(j);
+        boolean match =
+               (   isLocalLoad(load) && isLocalStore(store)
+                && (typeOf(load) == typeOf(store))
+                && (slotOf(load) == slotOf(store)))
+            || (   load.is(GETSTATIC) && store.is(PUTSTATIC)
+                && load.operand.equals(store.operand));
+
+        if (!match) return false;
+
+        delete(j);
+        delete(i);
+        return fired(Rule.LOAD_STORE_ELIMINATION);
+    }
+
+    /**
+     * dup; store local; xreturn  ==>  xreturn
+     */
+    private boolean deadStoreAtReturn(int i)
+    {
+        int j = next(i);
+        int k = j < 0 ? -1 : next(j);
+        if (k < 0) return false;
+
+        Item ret = items.get(k);
+        boolean match =
+               items.get(i).is(DUP) && isLocalStore(items.get(j))
+            && (ret.is(IRETURN) || ret.is(FRETURN) || ret.is(ARETURN));
+
+        if (!match) return false;
+
+        delete(j);
+        delete(i);
+        return fired(Rule.DEAD_STORE_AT_RETURN);
+    }
+
+    /**
+     * iconst_0; ifeq L  ==>  goto L      iconst_1; ifeq L  ==>  (nothing)
+     * iconst_1; ifne L  ==>  goto L      iconst_0; ifne L  ==>  (nothing)
+     */
+    private boolean constantBranch(int i)
+    {
+        int j = next(i);
+        if (j < 0) return false;
+
+        Item constant = items.get(i);
+        Item branch   = items.get(j);
+        if (   !(constant.is(ICONST_0) || constant.is(ICONST_1))
+            || !(branch.is(IFEQ) || branch.is(IFNE)))
+        {
+            return false;
+        }
+
+        boolean zero = constant.is(ICONST_0);
+        boolean taken = branch.is(IFEQ) ? zero : !zero;
+
+        if (taken) replace(j, new Item(GOTO, null, branch.label));
+        else       delete(j);
+        delete(i);
+
+        return fired(Rule.CONSTANT_BRANCH);
+    }
+
+    /**
+     * A boolean value materialized by a comparison and immediately tested:
+     *
+     *     ifcc T; iconst_a; goto X; T: iconst_b; X: ifeq F
+     *
+     * becomes a single ifcc F or its inverse, when T and X are
+     * not referenced from anywhere else.
+     */
+    private boolean booleanBranch(int i)
+    {
+        int[] at = new int[7];
+        at[0] = i;
+        for (int n = 1; n < 7; n++)
+        {
+            at[n] = next(at[n-1]);
+            if (at[n] < 0) return false;
+        }
+
+        Item compare = items.get(at[0]);
+        Item value1  = items.get(at[1]);
+        Item jump    = items.get(at[2]);
+        Item trueLbl = items.get(at[3]);
+        Item value2  = items.get(at[4]);
+        Item exitLbl = items.get(at[5]);
+        Item test    = items.get(at[6]);
+
+        boolean match =
+               (compare.kind == INSTRUCTION) && (compare.label != null)
+            && (inverse(compare.instruction) != null)
+            && (value1.is(ICONST_0) || value1.is(ICONST_1))
+            && (value2.is(ICONST_0) || value2.is(ICONST_1))
+            && (value1.instruction != value2.instruction)
+            && jump.is(GOTO)
+            && (trueLbl.kind == LABEL) && (trueLbl.label == compare.label)
+            && (exitLbl.kind == LABEL) && (exitLbl.label == jump.label)
+            && (references(trueLbl.label) == 1)
+            && (references(exitLbl.label) == 1)
+            && (test.is(IFEQ) || test.is(IFNE));
+
+        if (!match) return false;
+
+        // Does the value on the taken path satisfy the final test?
+        boolean takenIsZero = value2.is(ICONST_0);
+        boolean takenJumps  = test.is(IFEQ) ? takenIsZero : !takenIsZero;
+
+        Instruction branch = takenJumps ? compare.instruction
+                                        : inverse(compare.instruction);
+        replace(at[0], new Item(branch, null, test.label));
+
+        for (int n = 1; n < 7; n++) delete(at[n]);
+
+        return fired(Rule.BOOLEAN_BRANCH);
+    }
+
+    /**
+     * iconst_1; ixor; ifeq L  ==>  ifne L   (and ifne ==> ifeq)
+     */
+    private boolean negatedBranch(int i)
+    {
+        int j = next(i);
+        int k = j < 0 ? -1 : next(j);
+        if (k < 0) return false;
+
+        Item branch = items.get(k);
+        boolean match =
+               items.get(i).is(ICONST_1) && items.get(j).is(IXOR)
+            && (branch.is(IFEQ) || branch.is(IFNE));
+
+        if (!match) return false;
+
+        replace(k, new Item(inverse(branch.instruction), null, branch.label));
+        delete(j);
+        delete(i);
+        return fired(Rule.NEGATED_BRANCH);
+    }
+
+    /**
+     * A branch to a label whose first instruction is goto M
+     * branches directly to M.
+     */
+    private boolean branchChaining(int i)
+    {
+        Item branch = items.get(i);
+        if (!isBranch(branch)) return false;
+
+        Integer target = positions.get(branch.label);
+        if (target == null) return false;
+
+        int j = target;
+        while ((j >= 0) && (items.get(j).kind == LABEL)) j = next(j);
+        if ((j < 0) || !items.get(j).is(GOTO)) return false;
+
+        Label finalLabel = items.get(j).label;
+        if (finalLabel == branch.label) return false;
+
+        replace(i, new Item(branch.instruction, null, finalLabel));
+        return fired(Rule.BRANCH_CHAINING);
+    }
+
+    /**
+     * goto L; L:  ==>  L:        ifeq L; L:  ==>  pop; L:
+     */
+    private boolean branchToNext(int i)
+    {
+        Item branch = items.get(i);
+        if (!isBranch(branch) || (branch.instruction.stackUse < -1)) return false;
+
+        boolean match = false;
+        for (int j = next(i); (j >= 0) && (items.get(j).kind == LABEL); j = next(j))
+        {
+            if (items.get(j).label == branch.label) match = true;
+        }
+
+        if (!match) return false;
+
+        if (branch.is(GOTO)) delete(i);
+        else                 replace(i, new Item(POP, null, null));
+
+        return fired(Rule.BRANCH_TO_NEXT);
+    }
+
+    /**
+     * Remove instructions after an unconditional transfer of control
+     * up to the next label. Each instruction removed counts as a firing.
+     */
+    private boolean unreachableCode(int i)
+    {
+        Item item = items.get(i);
+        if (!isUnconditionalTransfer(item)) return false;
+
+        boolean removed = false;
+        for (int j = next(i); (j >= 0) && (items.get(j).kind == INSTRUCTION); j = next(j))
+        {
+            delete(j);
+            removed = fired(Rule.UNREACHABLE_CODE);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Remove a label that nothing references.
+     */
+    private boolean deadLabel(int i)
+    {
+        Item item = items.get(i);
+        if ((item.kind != LABEL) || (references(item.label) > 0)) return false;
+
+        delete(i);
+        return fired(Rule.DEAD_LABEL);
+    }
+
+    // =========
+    // Utilities
+    // =========
+
+    /**
+     * Count a rule firing.
+     * @param rule the rule.
+     * @return true.
+     */
+    private boolean fired(Rule rule)
+    {
+        counts.put(rule, counts.get(rule) + 1);
+        return true;
+    }
+
+    /**
+     * Return the index of the next instruction or label item.
+     * @param i the current index.
+     * @return the index, or -1 if none.
+     */
+    private int next(int i)
+    {
+        for (int j = i + 1; j < items.size(); j++)
+        {
+            Item item = items.get(j);
+            if ((item.kind == INSTRUCTION) || (item.kind == LABEL)) return j;
+            if ((item.kind == DIRECTIVE) && !isInline(item.directive)) break;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Replace an item, and update the label reference counts.
+     * @param i the index of the item.
+     * @param item the new item.
+     */
+    private void replace(int i, Item item)
+    {
+        count(items.get(i), -1);
+        count(item, 1);
+        items.set(i, item);
+    }
+
+    /**
+     * Replace two items that only directives separate with two adjacent
+     * items, and move the directives after them. So the .line directive
+     * of the statement that the second item began still comes before
+     * that statement's code.
+     * @param i the index of the first item.
+     * @param j the index of the second item.
+     * @param first the new first item.
+     * @param second the new second item.
+     */
+    private void replacePair(int i, int j, Item first, Item second)
+    {
+        count(items.get(i), -1);
+        count(items.get(j), -1);
+        count(first, 1);
+        count(second, 1);
+
+        for (int k = j; k > i + 1; k--) items.set(k, items.get(k - 1));
+
+        items.set(i, first);
+        items.set(i + 1, second);
+    }
+
+    /**
+     * Delete an item, and update the label reference counts and positions.
+     * The item is removed from the list at the end of the sweep.
+     * @param i the index of the item.
+     */
+    private void delete(int i)
+    {
+        Item item = items.get(i);
+
+        count(item, -1);
+        if (item.kind == LABEL) positions.remove(item.label);
+
+        items.set(i, DELETED);
+    }
+
+    /**
+     * Find where each label is defined.
+     */
+    private void locateLabels()
+    {
+        positions = new HashMap<Label, Integer>();
+
+        for (int j = 0; j < items.size(); j++)
+        {
+            Item item = items.get(j);
+            if (item.kind == LABEL) positions.put(item.label, j);
+        }
+    }
+
+    /**
+     * Count the references to each label.
+     */
+    private void countReferences()
+    {
+        references = new HashMap<Label, Integer>();
+        for (Item item : items) count(item, 1);
+    }
+
+    /**
+     * Add to the reference counts of the labels that an item references.
+     * @param item the item.
+     * @param delta 1 for a new reference, -1 for a removed one.
+     */
+    private void count(Item item, int delta)
+    {
+        if ((item.kind != LABEL) && (item.label != null))
+        {
+            references.merge(item.label, delta, Integer::sum);
+        }
+        
+        // The range of a .var directive.
+        if (item.endLabel != null)
+        {
+            references.merge(item.endLabel, delta, Integer::sum);
+        }
+    }
+
+    private int references(Label label)
+    {
+        Integer count = references.get(label);
+        return count != null ? count : 0;
+    }
+
+    private int instructionCount()
+    {
+        int count = 0;
+        for (Item item : items) if (item.kind == INSTRUCTION) count++;
+        return count;
+    }
+
+    /**
+     * Return whether a directive can appear among a method's instructions.
+     */
+    private static boolean isInline(Directive directive)
+    {
+        return (directive == Directive.VAR) || (directive == Directive.LINE);
+    }
+
+    private static boolean isBranch(Item item)
+    {
+        return (item.kind == INSTRUCTION) && (item.label != null)
+            && ((inverse(item.instruction) != null) || item.is(GOTO));
+    }
+
+    private static boolean isUnconditionalTransfer(Item item)
+    {
+        return    item.is(GOTO)    || item.is(RETURN)
+               || item.is(IRETURN) || item.is(FRETURN) || item.is(ARETURN);
+    }
+
+    /**
+     * Return the conditional branch with the opposite condition.
+     * @param instruction the conditional branch.
+     * @return the inverse, or null if not a conditional branch.
+     */
+    static Instruction inverse(Instruction instruction)
+    {
+        switch (instruction)
+        {
+            case IFEQ:      return IFNE;
+            case IFNE:      return IFEQ;
+            case IFLT:      return IFGE;
+            case IFGE:      return IFLT;
+            case IFGT:      return IFLE;
+            case IFLE:      return IFGT;
+            case IF_ICMPEQ: return IF_ICMPNE;
+            case IF_ICMPNE: return IF_ICMPEQ;
+            case IF_ICMPLT: return IF_ICMPGE;
+            case IF_ICMPGE: return IF_ICMPLT;
+            case IF_ICMPGT: return IF_ICMPLE;
+            case IF_ICMPLE: return IF_ICMPGT;
+            default:        return null;
+        }
+    }
+
+    static boolean isLocalLoad(Item item)
+    {
+        if (item.kind != INSTRUCTION) return false;
+
+        String name = item.instruction.name();
+        return    name.startsWith("ILOAD") || name.startsWith("FLOAD")
+               || name.startsWith("ALOAD");
+    }
+
+    static boolean isLocalStore(Item item)
+    {
+        if (item.kind != INSTRUCTION) return false;
+
+        String name = item.instruction.name();
+        return    name.startsWith("ISTORE") || name.startsWith("FSTORE")
+               || name.startsWith("ASTORE");
+    }
+
+    /**
+     * Return the type letter of a local load or store: I, F or A.
+     */
+    static char typeOf(Item item) { return item.instruction.name().charAt(0); }
+
+    /**
+     * Return the slot number of a local load or store.
+     */
+    static int slotOf(Item item)
+    {
+        String name = item.instruction.name();
+        int underscore = name.indexOf('_');
+
+        return underscore >= 0 ? Integer.parseInt(name.substring(underscore + 1))
+                               : Integer.parseInt(item.operand.trim());
+    }
+}
@@ -0,0 +1,274 @@
+package backend.optimizer;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import intermediate.ast.*;
+import intermediate.symtab.SymtabEntry;
+
+/**
+ * <h1>ProfileData</h1>
+ *
+ * <p>The execution counts of a training run, which guide the layout of
+ * branches and the choice of the definitions to inline and memoize. The
+ * counts come from a build with coverage probes: each statement, IF,
+ * ELSEIF, and ELSE block, and WHILE body has the number of times that
+ * it ran. A call site ran as often as its statement, or as its loop's
+ * condition was tested.</p>
+ */
+public class ProfileData
+{
+    // A count is hot if it is at least this fraction of the largest count.
+    public static final int HOT_RATIO = 10;
+
+    // A branch is cold if it is taken at most this fraction of the times
+    // that its statement runs.
+    public static final int COLD_RATIO = 100;
+
+    private HashMap<Node, Long> counts;
+    private HashMap<DefCall, Long> executions;  // of the call sites
+    private long maxCount;                      // the largest count
+    private TreeMap<String, Integer> decisions; // for the report
+
+    /**
+     * Constructor.
+     * @param counts the counts of the statements and branch bodies.
+     * @param program the program that was run.
+     */
+    public ProfileData(HashMap<Node, Long> counts, Program program)
+    {
+        this.counts     = counts;
+        this.executions = new HashMap<DefCall, Long>();
+        this.decisions  = new TreeMap<String, Integer>();
+
+        for (long count : counts.values()) maxCount = Math.max(maxCount, count);
+
+        for (Definition definition : program.definitions) countCalls(definition.body);
+        countCalls(program.main.body);
+    }
+
+    /**
+     * Get the count of a statement or branch body.
+     * @param node the statement, IF or ELSEIF branch, ELSE block,
+     *             or WHILE body.
+     * @return the count, or -1 if none.
+     */
+    public long countOf(Node node)
+    {
+        Long count = counts.get(node);
+        return count != null ? count : -1;
+    }
+
+    /**
+     * Get the number of times that a call site ran.
+     * @param call the call.
+     * @return the count of its statement, plus the count of the loop body
+     *         if it is in a WHILE condition, or -1 if not known.
+     */
+    public long executionsOf(DefCall call)
+    {
+        Long count = executions.get(call);
+        return count != null ? count : -1;
+    }
+
+    /**
+     * Get the number of times that a definition was entered.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return the count of its first statement, or -1 if not known.
+     */
+    public long entriesOf(SymtabEntry routineId)
+    {
+        Definition definition = (Definition) routineId.getExecutable();
+
+        return (definition != null) && !definition.body.isEmpty()
+                   ? countOf(definition.body.statements[0]) : -1;
+    }
+
+    /**
+     * Determine whether or not a count is hot.
+     * @param count the count.
+     * @return true if it is at least a tenth of the largest count.
+     */
+    public boolean isHot(long count)
+    {
+        return (count > 0) && (count*HOT_RATIO >= maxCount);
+    }
+
+    /**
+     * Determine whether or not a branch is cold.
+     * @param taken the number of times that it was taken.
+     * @param entries the number of times that its statement ran.
+     * @return true if it was taken at most a hundredth of the times.
+     */
+    public boolean isCold(long taken, long entries)
+    {
+        return (taken >= 0) && (entries > 0) && (taken*COLD_RATIO <= entries);
+    }
+
+    /**
+     * Determine whether or not the arms of an IF statement with ELSEIF
+     * arms can be tested in any order: each condition compares the same
+     * variable for equality with a different constant, so at most one
+     * is true and none has a side effect.
+     * @param branches the IF and ELSEIF arms.
+     * @return true if they can, else false.
+     */
+    public static boolean areExclusive(Branch branches[])
+    {
+        SymtabEntry variableId = null;
+        HashMap<String, Boolean> constants = new HashMap<String, Boolean>();
+
+        for (Branch branch : branches)
+        {
+            Expression expr = branch.condition;
+
+            if (expr.op != Operator.EQ) return false;
+
+            Factor left  = singleFactor(expr.left);
+            Factor right = singleFactor(expr.right);
+            Factor constant;
+
+            if (left instanceof VariableFactor) constant = right;
+            else
+            {
+                constant = left;
+                left     = right;
+            }
+
+            if (!(left instanceof VariableFactor)) return false;
+
+            SymtabEntry id = ((VariableFactor) left).entry;
+            String key = constantKey(constant);
+
+            if (   (id == null) || (key == null)
+                || ((variableId != null) && (id != variableId))
+                || (constants.put(key, true) != null))
+            {
+                return false;
+            }
+
+            variableId = id;
+        }
+
+        return true;
+    }
+
+    /**
+     * Record a decision that the profile made. Definitions compiled
+     * in parallel share the profile.
+     * @param what a description of the decision.
+     */
+    public synchronized void countDecision(String what)
+    {
+        Integer count = decisions.get(what);
+        decisions.put(what, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * Print the counts of the decisions.
+     */
+    public void printStatistics()
+    {
+        System.out.println("\n===== PROFILE-GUIDED OPTIMIZATION =====\n");
+        System.out.printf("%-40s %s\n", "Decision", "Count");
+        System.out.printf("%-40s %s\n", "--------", "-----");
+
+        for (String what : decisions.keySet())
+        {
+            System.out.printf("%-40s %5d\n", what, decisions.get(what));
+        }
+    }
+
+    /**
+     * Record the number of times that each call site in a block ran.
+     * @param block the block.
+     */
+    private void countCalls(Block block)
+    {
+        for (Statement stmt : block.statements)
+        {
+            long count = countOf(stmt);
+
+            if (stmt instanceof WhileStatement)
+            {
+                WhileStatement loop = (WhileStatement) stmt;
+                long trips = countOf(loop.body);
+
+                countCalls(loop.condition, (count >= 0) && (trips >= 0) ? count + trips
+                                                                        : -1);
+                countCalls(loop.body);
+            }
+            else countCalls(stmt, count);
+        }
+    }
+
+    /**
+     * Record the number of times that each call site in a node ran,
+     * outside of the node's nested blocks.
+     * @param node the node.
+     * @param count the number of times that the node ran.
+     */
+    private void countCalls(Node node, long count)
+    {
+        if (node instanceof Block)
+        {
+            countCalls((Block) node);
+            return;
+        }
+
+        if (node instanceof DefCall) executions.put((DefCall) node, count);
+
+        for (int i = 0; i < node.getChildCount(); i++)
+        {
+            countCalls(node.getChild(i), count);
+        }
+    }
+
+    /**
+     * Get the only factor of a simple expression without a sign.
+     * @param simple the simple expression.
+     * @return the factor, or null if there are more.
+     */
+    private static Factor singleFactor(SimpleExpression simple)
+    {
+        if (   (simple.sign != null) || (simple.terms.length != 1)
+            || (simple.terms[0].factors.length != 1)) return null;
+
+        Factor factor = simple.terms[0].factors[0];
+
+        while (factor instanceof ParenthesizedFactor)
+        {
+            Expression expr = ((ParenthesizedFactor) factor).expression;
+            if (expr.isComparison()) return null;
+
+            factor = singleFactor(expr.left);
+            if (factor == null) return null;
+        }
+
+        return factor;
+    }
+
+    /**
+     * Get the key of a literal constant, so that equal values
+     * have equal keys.
+     * @param factor the factor.
+     * @return the key, or null if not a literal constant.
+     */
+    private static String constantKey(Factor factor)
+    {
+        if (factor instanceof NumberFactor)
+        {
+            return "N" + ((NumberFactor) factor).value;
+        }
+        else if (factor instanceof StringFactor)
+        {
+            return "S" + factor;
+        }
+        else if (factor instanceof BooleanFactor)
+        {
+            return "B" + ((BooleanFactor) factor).value;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+package backend.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import intermediate.ast.*;
+import intermediate.symtab.SymtabEntry;
+
+/**
+ * <h1>PurityAnalyzer</h1>
+ *
+ * <p>Find the definitions whose results depend only on their arguments.
+ * A definition is pure if its body has no display or bench statement,
+ * does not access the program variables, which are static fields, and
+ * calls only other pure definitions.</p>
+ */
+public class PurityAnalyzer
+{
+    private HashSet<SymtabEntry> pure;  // the pure definitions
+
+    /**
+     * Constructor for a program whose definitions are not all known
+     * at once. No definition is pure.
+     */
+    public PurityAnalyzer()
+    {
+        pure = new HashSet<SymtabEntry>();
+    }
+
+    /**
+     * Constructor.
+     * @param programId the symbol table entry of the program name.
+     */
+    public PurityAnalyzer(SymtabEntry programId)
+    {
+        pure = new HashSet<SymtabEntry>();
+
+        ArrayList<SymtabEntry> routineIds = programId.getSubroutines();
+        if (routineIds == null) return;
+
+        HashMap<SymtabEntry, ArrayList<SymtabEntry>> calls =
+                new HashMap<SymtabEntry, ArrayList<SymtabEntry>>();
+
+        // Start with the definitions whose own bodies are pure.
+        for (SymtabEntry routineId : routineIds)
+        {
+            ArrayList<SymtabEntry> callees = new ArrayList<SymtabEntry>();
+            Definition definition = (Definition) routineId.getExecutable();
+
+            if ((definition == null) || isLocallyPure(definition.body, callees))
+            {
+                pure.add(routineId);
+                calls.put(routineId, callees);
+            }
+        }
+
+        // Remove the definitions that call impure ones until none remain.
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+
+            for (SymtabEntry routineId : routineIds)
+            {
+                if (pure.contains(routineId) && !pure.containsAll(calls.get(routineId)))
+                {
+                    pure.remove(routineId);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine whether or not a definition is pure.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return true if pure, else false.
+     */
+    public boolean isPure(SymtabEntry routineId) { return pure.contains(routineId); }
+
+    /**
+     * Determine whether or not a subtree is pure apart from its calls.
+     * @param tree the subtree.
+     * @param callees the list to append the called definitions to.
+     * @return true if pure, else false.
+     */
+    private boolean isLocallyPure(Node tree, ArrayList<SymtabEntry> callees)
+    {
+        if ((tree instanceof Display) || (tree instanceof Bench)) return false;
+
+        if (tree instanceof Assignment)
+        {
+            if (isProgramVariable(((Assignment) tree).target)) return false;
+        }
+
+        if (tree instanceof VariableFactor)
+        {
+            if (isProgramVariable(((VariableFactor) tree).entry)) return false;
+        }
+
+        if (tree instanceof DefCall)
+        {
+            SymtabEntry calleeId = ((DefCall) tree).routineId;
+            if (calleeId == null) return false;
+
+            callees.add(calleeId);
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            if (!isLocallyPure(tree.getChild(i), callees)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Determine whether or not a variable is a program variable, or unknown.
+     * @param id the variable's symbol table entry, or null.
+     * @return true if so, else false.
+     */
+    private boolean isProgramVariable(SymtabEntry id)
+    {
+        return (id == null) || (id.getSymtab().getNestingLevel() == 1);
+    }
+}
@@ -0,0 +1,314 @@
+package frontend;
+
+import java.util.List;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import antlr4.AKAParser;
+
+import intermediate.ast.*;
+import intermediate.symtab.SymtabEntry;
+
+/**
+ * <h1>AstBuilder</h1>
+ *
+ * <p>Lower the parse tree of a definition or of the main block, after
+ * the semantic pass has checked it, to the typed abstract syntax tree
+ * that the backend compiles. The lowered tree keeps the symbol table
+ * entries and types that the semantic pass attached to the parse tree,
+ * and none of the parse tree itself, so the parse tree can be released.
+ * Identifiers are interned, since the same few names recur
+ * throughout a program.</p>
+ */
+public class AstBuilder
+{
+    /**
+     * Lower a definition that has a return variable.
+     * @param ctx the DefinitionContext.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return the lowered definition.
+     */
+    public Definition definition(AKAParser.DefinitionContext ctx, SymtabEntry routineId)
+    {
+        return new Definition(lineOf(ctx), ctx.getStop().getLine(), routineId,
+                              ctx.defName().getText().intern(),
+                              ctx.variable().entry,
+                              block(ctx.getStart().getLine(), ctx.statementList()));
+    }
+
+    /**
+     * Lower a definition that has no return variable.
+     * @param ctx the DefinitionnoreturnContext.
+     * @param routineId the symbol table entry of the definition's name.
+     * @return the lowered definition.
+     */
+    public Definition definition(AKAParser.DefinitionnoreturnContext ctx,
+                                 SymtabEntry routineId)
+    {
+        return new Definition(lineOf(ctx), ctx.getStop().getLine(), routineId,
+                              ctx.defName().getText().intern(), null,
+                              block(ctx.getStart().getLine(), ctx.statementList()));
+    }
+
+    /**
+     * Lower the main block.
+     * @param ctx the MainblockContext.
+     * @return the lowered main block.
+     */
+    public Main main(AKAParser.MainblockContext ctx)
+    {
+        return new Main(lineOf(ctx), ctx.getStop().getLine(),
+                        block(lineOf(ctx), ctx.statementList()));
+    }
+
+    /**
+     * Lower a statement list.
+     * @param line the source line of the token that opens the block.
+     * @param listCtx the StatementListContext, or null if none.
+     * @return the block, which is empty if there is no list.
+     */
+    private Block block(int line, AKAParser.StatementListContext listCtx)
+    {
+        if (listCtx == null) return new Block(line, new Statement[0], 0);
+
+        List<AKAParser.StatementContext> stmtCtxs = listCtx.statement();
+        Statement statements[] = new Statement[stmtCtxs.size()];
+
+        for (int i = 0; i < statements.length; i++)
+        {
+            statements[i] = statement(stmtCtxs.get(i));
+        }
+
+        int tokenCount =   listCtx.getStop().getTokenIndex()
+                         - listCtx.getStart().getTokenIndex() + 1;
+        return new Block(line, statements, tokenCount);
+    }
+
+    /**
+     * Lower a statement.
+     * @param ctx the StatementContext.
+     * @return the lowered statement.
+     */
+    private Statement statement(AKAParser.StatementContext ctx)
+    {
+        int line = lineOf(ctx);
+
+        if (ctx.assignment() != null)
+        {
+            AKAParser.AssignmentContext assignCtx = ctx.assignment();
+            AKAParser.VariableContext varCtx = assignCtx.lhs().variable();
+
+            return new Assignment(line, varCtx.entry, varCtx.type,
+                                  assignCtx.varType() != null,
+                                  expression(assignCtx.rhs().declaration().expression()));
+        }
+        else if (ctx.ifStatement() != null)
+        {
+            AKAParser.IfStatementContext ifCtx = ctx.ifStatement();
+            List<AKAParser.ElseifBlockContext> elseifCtxs = ifCtx.elseifBlock();
+            Branch branches[] = new Branch[elseifCtxs.size() + 1];
+
+            AKAParser.IfBlockContext ifBlockCtx = ifCtx.ifBlock();
+            branches[0] = new Branch(lineOf(ifBlockCtx),
+                                     expression(ifBlockCtx.condition().expression()),
+                                     block(lineOf(ifBlockCtx), ifBlockCtx.statementList()));
+
+            for (int i = 0; i < elseifCtxs.size(); i++)
+            {
+                AKAParser.ElseifBlockContext elseifCtx = elseifCtxs.get(i);
+                branches[i + 1] = new Branch(lineOf(elseifCtx),
+                                      expression(elseifCtx.condition().expression()),
+                                      block(lineOf(elseifCtx), elseifCtx.statementList()));
+            }
+
+            AKAParser.ElseBlockContext elseCtx = ifCtx.elseBlock();
+            Block elseBlock = elseCtx != null
+                                  ? block(lineOf(elseCtx), elseCtx.statementList())
+                                  : null;
+
+            return new IfStatement(line, branches, elseBlock);
+        }
+        else if (ctx.whileStatement() != null)
+        {
+            AKAParser.WhileStatementContext whileCtx = ctx.whileStatement();
+
+            return new WhileStatement(line, expression(whileCtx.condition().expression()),
+                                      block(lineOf(whileCtx), whileCtx.statementList()));
+        }
+        else if (ctx.guard() != null)
+        {
+            AKAParser.GuardContext guardCtx = ctx.guard();
+            List<AKAParser.ConditionContext> condCtxs = guardCtx.paramList().condition();
+            Expression conditions[] = new Expression[condCtxs.size()];
+
+            for (int i = 0; i < conditions.length; i++)
+            {
+                conditions[i] = expression(condCtxs.get(i).expression());
+            }
+
+            return new Guard(line, conditions,
+                             block(lineOf(guardCtx), guardCtx.statementList()));
+        }
+        else if (ctx.bench() != null)
+        {
+            AKAParser.BenchContext benchCtx = ctx.bench();
+            String quoted = benchCtx.stringConstant().getText();
+
+            return new Bench(line, quoted.substring(1, quoted.length() - 1),
+                             expression(benchCtx.expression()),
+                             block(lineOf(benchCtx), benchCtx.statementList()));
+        }
+        else if (ctx.display() != null)
+        {
+            AKAParser.ExpressionContext exprCtx = ctx.display().expression();
+
+            return new Display(line, exprCtx != null ? expression(exprCtx) : null);
+        }
+        else
+        {
+            return new DefCallStatement(line, defCall(ctx.defCall(), null));
+        }
+    }
+
+    /**
+     * Lower an expression.
+     * @param ctx the ExpressionContext.
+     * @return the lowered expression.
+     */
+    private Expression expression(AKAParser.ExpressionContext ctx)
+    {
+        SimpleExpression left = simpleExpression(ctx.simpleExpression(0));
+
+        if (ctx.relOperator() == null)
+        {
+            return new Expression(lineOf(ctx), ctx.type, left, null, null);
+        }
+
+        return new Expression(lineOf(ctx), ctx.type, left,
+                              Operator.of(ctx.relOperator().getText()),
+                              simpleExpression(ctx.simpleExpression(1)));
+    }
+
+    /**
+     * Lower a simple expression.
+     * @param ctx the SimpleExpressionContext.
+     * @return the lowered simple expression.
+     */
+    private SimpleExpression simpleExpression(AKAParser.SimpleExpressionContext ctx)
+    {
+        List<AKAParser.TermContext> termCtxs = ctx.term();
+        Term terms[] = new Term[termCtxs.size()];
+        Operator ops[] = new Operator[terms.length - 1];
+
+        for (int i = 0; i < terms.length; i++) terms[i] = term(termCtxs.get(i));
+        for (int i = 0; i < ops.length; i++)
+        {
+            ops[i] = Operator.of(ctx.addOperator(i).getText());
+        }
+
+        Operator sign = ctx.sign() != null ? Operator.of(ctx.sign().getText()) : null;
+        return new SimpleExpression(lineOf(ctx), ctx.type, sign, terms, ops);
+    }
+
+    /**
+     * Lower a term.
+     * @param ctx the TermContext.
+     * @return the lowered term.
+     */
+    private Term term(AKAParser.TermContext ctx)
+    {
+        List<AKAParser.FactorContext> factorCtxs = ctx.factor();
+        Factor factors[] = new Factor[factorCtxs.size()];
+        Operator ops[] = new Operator[factors.length - 1];
+
+        for (int i = 0; i < factors.length; i++) factors[i] = factor(factorCtxs.get(i));
+        for (int i = 0; i < ops.length; i++)
+        {
+            ops[i] = Operator.of(ctx.mulOperator(i).getText());
+        }
+
+        return new Term(lineOf(ctx), ctx.type, factors, ops);
+    }
+
+    /**
+     * Lower a factor.
+     * @param ctx the FactorContext.
+     * @return the lowered factor.
+     */
+    private Factor factor(AKAParser.FactorContext ctx)
+    {
+        int line = lineOf(ctx);
+
+        if (ctx instanceof AKAParser.VariableFactorContext)
+        {
+            AKAParser.VariableContext varCtx =
+                    ((AKAParser.VariableFactorContext) ctx).variable();
+
+            return new VariableFactor(line, ctx.type, varCtx.entry,
+                                      varCtx.getText().intern());
+        }
+        else if (ctx instanceof AKAParser.NumberFactorContext)
+        {
+            return new NumberFactor(line, ctx.type, Float.parseFloat(
+                    ((AKAParser.NumberFactorContext) ctx).numberConstant().getText()));
+        }
+        else if (ctx instanceof AKAParser.StringFactorContext)
+        {
+            String quoted = ctx.getText();
+
+            return new StringFactor(line, ctx.type,
+                                    quoted.substring(1, quoted.length() - 1));
+        }
+        else if (ctx instanceof AKAParser.BooleanFactorContext)
+        {
+            return new BooleanFactor(line, ctx.type,
+                    ((AKAParser.BooleanFactorContext) ctx).booleanConstant().TRUE() != null);
+        }
+        else if (ctx instanceof AKAParser.DefCallFactorContext)
+        {
+            return defCall(((AKAParser.DefCallFactorContext) ctx).defCall(), ctx);
+        }
+        else if (ctx instanceof AKAParser.NotFactorContext)
+        {
+            return new NotFactor(line, ctx.type,
+                                 factor(((AKAParser.NotFactorContext) ctx).factor()));
+        }
+        else
+        {
+            return new ParenthesizedFactor(line, ctx.type, expression(
+                    ((AKAParser.ParenthesizedFactorContext) ctx).expression()));
+        }
+    }
+
+    /**
+     * Lower a call.
+     * @param ctx the DefCallContext.
+     * @param factorCtx the DefCallFactorContext, or null for a call statement.
+     * @return the lowered call.
+     */
+    private DefCall defCall(AKAParser.DefCallContext ctx, AKAParser.FactorContext factorCtx)
+    {
+        AKAParser.ArgumentListContext listCtx = ctx.argumentList();
+        Expression arguments[] = new Expression[listCtx != null ? listCtx.argument().size()
+                                                                : 0];
+
+        for (int i = 0; i < arguments.length; i++)
+        {
+            arguments[i] = expression(listCtx.argument(i).expression());
+        }
+
+        AKAParser.DefNameContext nameCtx = ctx.defName();
+        return new DefCall(lineOf(ctx), factorCtx != null ? factorCtx.type : nameCtx.type,
+                           nameCtx.entry, nameCtx.getText().intern(), arguments);
+    }
+
+    /**
+     * Get the source line of a node's first token.
+     * @param ctx the node.
+     * @return the line.
+     */
+    private static int lineOf(ParserRuleContext ctx)
+    {
+        return ctx.getStart().getLine();
+    }
+}
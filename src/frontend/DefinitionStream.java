@@ -0,0 +1,374 @@
+package frontend;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import org.antlr.v4.runtime.*;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+
+import static frontend.DefinitionStream.Kind.*;
+
+/**
+ * <h1>DefinitionStream</h1>
+ *
+ * <p>Split an AKA source file into its top-level parts: the program
+ * name, each definition, the main block, and the program's closing
+ * brace. The file is lexed as it is read, and only the tokens of the
+ * current part are kept, so that a part can be parsed, checked, and
+ * compiled, and then released before the next one is read.</p>
+ *
+ * <p>A stream of signatures keeps only the head of each part, up to and
+ * including its first brace, and the brace that closes it. A definition
+ * then parses with an empty body. The stream of signatures reads the
+ * whole file first, so it alone reports the lexical errors and the
+ * errors in the order of the parts.</p>
+ *
+ * <p>A part can be hashed, so that an incremental compilation can tell
+ * which definitions changed since the last one.</p>
+ */
+public class DefinitionStream
+{
+    /**
+     * Kinds of top-level parts.
+     */
+    public enum Kind
+    {
+        PROGRAM, DEFINITION, MAIN, END
+    }
+
+    /**
+     * A top-level part of the program.
+     */
+    public static class Part
+    {
+        public Kind kind;
+        public ArrayList<Token> tokens;
+
+        /**
+         * Constructor.
+         * @param kind the kind of part.
+         */
+        private Part(Kind kind)
+        {
+            this.kind   = kind;
+            this.tokens = new ArrayList<Token>();
+        }
+
+        /**
+         * Get the name of a definition.
+         * @return the name, as spelled in the source.
+         */
+        public String getName() { return tokens.get(1).getText(); }
+
+        /**
+         * Get the source line of the part's first token.
+         * @return the line.
+         */
+        public int getLine() { return tokens.get(0).getLine(); }
+
+        /**
+         * Get the source line of the part's last token.
+         * @return the line.
+         */
+        public int getEndLine() { return tokens.get(tokens.size() - 1).getLine(); }
+
+        /**
+         * Get the identifiers of the part, such as the names of the
+         * definitions that a definition calls.
+         * @return the identifiers, in lower case.
+         */
+        public TreeSet<String> getIdentifiers()
+        {
+            TreeSet<String> identifiers = new TreeSet<String>();
+
+            for (Token token : tokens)
+            {
+                if (token.getType() == AKALexer.IDENTIFIER)
+                {
+                    identifiers.add(token.getText().toLowerCase());
+                }
+            }
+
+            return identifiers;
+        }
+
+        /**
+         * Hash the tokens of the part and their lines relative to the
+         * first line. The hash changes with the text of the part, but
+         * not with where the part is in the file.
+         * @return the hash, in hexadecimal.
+         */
+        public String hash() { return hash(tokens.size(), true); }
+
+        /**
+         * Hash the head of a definition, up to and including its first
+         * brace: its name, parameters, and return variable.
+         * @return the hash, in hexadecimal.
+         */
+        public String hashHead()
+        {
+            int count = 0;
+            while ((count < tokens.size()) && !tokens.get(count++).getText().equals("{")) {}
+
+            return hash(count, false);
+        }
+
+        /**
+         * Hash the first tokens of the part.
+         * @param count the number of tokens.
+         * @param withLines true to hash the relative lines too.
+         * @return the SHA-256 hash, in hexadecimal.
+         */
+        private String hash(int count, boolean withLines)
+        {
+            StringBuilder text = new StringBuilder();
+            int firstLine = tokens.get(0).getLine();
+
+            // The length of each token's text keeps the tokens apart.
+            for (int i = 0; i < count; i++)
+            {
+                Token token = tokens.get(i);
+
+                text.append(token.getType()).append(' ');
+                if (withLines) text.append(token.getLine() - firstLine).append(' ');
+                text.append(token.getText().length()).append(' ')
+                    .append(token.getText()).append('\n');
+            }
+
+            try
+            {
+                byte digest[] = MessageDigest.getInstance("SHA-256").digest(
+                                    text.toString().getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+
+                for (byte b : digest)
+                {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                       .append(Character.forDigit(b & 0xF, 16));
+                }
+
+                return hex.toString();
+            }
+            catch (NoSuchAlgorithmException ex)
+            {
+                // Every Java platform has SHA-256.
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private InputStream source;
+    private AKALexer lexer;
+    private SyntaxErrorHandler errorHandler;
+    private boolean signaturesOnly;  // keep only the heads of the parts
+    private Token pending;           // read but not yet in a part, or null
+    private boolean started;         // the program name was returned
+    private boolean ended;           // the program's closing brace was returned
+    private boolean sawMain;         // the main block was returned
+    private int tokenCount;          // tokens read so far
+
+    /**
+     * Constructor.
+     * @param sourceFileName the name of the source file.
+     * @param errorHandler the handler of the syntax errors.
+     * @param signaturesOnly true to keep only the heads of the parts.
+     * @throws IOException if the file cannot be opened.
+     */
+    public DefinitionStream(String sourceFileName, SyntaxErrorHandler errorHandler,
+                            boolean signaturesOnly)
+        throws IOException
+    {
+        this.source         = new FileInputStream(sourceFileName);
+        this.errorHandler   = errorHandler;
+        this.signaturesOnly = signaturesOnly;
+
+        // Tokens keep copies of their text because the characters
+        // are released as they are lexed.
+        lexer = new AKALexer(new UnbufferedCharStream(source, 4096,
+                                                      StandardCharsets.UTF_8));
+        lexer.setTokenFactory(new CommonTokenFactory(true));
+        lexer.removeErrorListeners();
+        if (signaturesOnly) lexer.addErrorListener(errorHandler);
+    }
+
+    /**
+     * Get the number of tokens read so far.
+     * @return the number.
+     */
+    public int getTokenCount() { return tokenCount; }
+
+    /**
+     * Read the next part.
+     * @return the part, or null after the closing brace.
+     * @throws IOException if the file cannot be closed.
+     */
+    public Part next() throws IOException
+    {
+        if (ended) return null;
+
+        // The program name, up to the program's opening brace.
+        if (!started)
+        {
+            started = true;
+            Part part = new Part(PROGRAM);
+            Token token = nextToken();
+
+            while ((token.getType() != Token.EOF) && !token.getText().equals("{"))
+            {
+                part.tokens.add(token);
+                token = nextToken();
+            }
+
+            if (token.getType() == Token.EOF) pending = token;
+            return part;
+        }
+
+        Token token = nextToken();
+
+        // The closing brace and whatever follows it.
+        if ((token.getType() == Token.EOF) || token.getText().equals("}"))
+        {
+            return end(token);
+        }
+
+        // A definition or the main block, through the brace
+        // that closes its body.
+        Part part = new Part(DEFINITION);
+        int depth = 0;
+        boolean opened = false;
+
+        while (true)
+        {
+            if ((token.getType() == Token.EOF) || (!opened && token.getText().equals("}")))
+            {
+                pending = token;
+                break;
+            }
+
+            if (!opened && (token.getType() == AKALexer.MAIN)) part.kind = MAIN;
+
+            if      (token.getText().equals("{")) depth++;
+            else if (token.getText().equals("}")) depth--;
+
+            if (!signaturesOnly || !opened || (depth == 0)) part.tokens.add(token);
+
+            if (token.getText().equals("{")) opened = true;
+            if (opened && (depth == 0)) break;
+
+            token = nextToken();
+        }
+
+        // Definitions come before the main block.
+        if (sawMain) report(part.tokens.get(0), "expecting '}'");
+        if (part.kind == MAIN) sawMain = true;
+
+        return part;
+    }
+
+    /**
+     * Parse a part that was read.
+     * @param part the part.
+     * @return the ProgramIdentifierContext, DefListContext, or
+     *         MainblockContext, or null for the closing brace.
+     */
+    public ParserRuleContext parse(Part part)
+    {
+        AKAParser parser = new AKAParser(new CommonTokenStream(
+                                                new ListTokenSource(part.tokens)));
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorHandler);
+
+        ParserRuleContext tree;
+        switch (part.kind)
+        {
+            case PROGRAM:    tree = parser.programIdentifier(); break;
+            case DEFINITION: tree = parser.defList();           break;
+            case MAIN:       tree = parser.mainblock();         break;
+            default:         return null;
+        }
+
+        Token extra = parser.getCurrentToken();
+        if (extra.getType() != Token.EOF)
+        {
+            parser.notifyErrorListeners(extra, "extraneous input '" + extra.getText() +
+                                               "' expecting <EOF>", null);
+        }
+
+        return tree;
+    }
+
+    /**
+     * Read the end of the file after the program's closing brace.
+     * @param token the closing brace, or the end of the file if missing.
+     * @return the END part.
+     * @throws IOException if the file cannot be closed.
+     */
+    private Part end(Token token) throws IOException
+    {
+        ended = true;
+        Part part = new Part(END);
+
+        if (!sawMain) report(token, "expecting MAIN");
+
+        if (token.getType() == Token.EOF)
+        {
+            report(token, "expecting '}'");
+        }
+        else
+        {
+            part.tokens.add(token);
+
+            Token extra = nextToken();
+            if (extra.getType() != Token.EOF)
+            {
+                report(extra, "expecting <EOF>");
+                while (nextToken().getType() != Token.EOF) {}
+            }
+        }
+
+        source.close();
+        return part;
+    }
+
+    /**
+     * Get the next token, which was read before if pending.
+     * @return the token.
+     */
+    private Token nextToken()
+    {
+        Token token = pending;
+
+        if (token != null) pending = null;
+        else
+        {
+            token = lexer.nextToken();
+            if (token.getType() != Token.EOF) tokenCount++;
+        }
+
+        return token;
+    }
+
+    /**
+     * Report an error in the order of the parts. Only the stream of
+     * signatures reports them, so that each is reported once.
+     * @param token the token where it was found.
+     * @param expected what was expected instead.
+     */
+    private void report(Token token, String expected)
+    {
+        if (!signaturesOnly) return;
+
+        String text = token.getType() == Token.EOF ? "<EOF>" : token.getText();
+        errorHandler.syntaxError(null, token, token.getLine(),
+                                 token.getCharPositionInLine(),
+                                 "mismatched input '" + text + "' " + expected, null);
+    }
+}
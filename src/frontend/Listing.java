@@ -6,6 +6,8 @@ import java.io.IOException;
 
 public class Listing
 {
+    private int lineCount;  // the number of source lines
+    
     public Listing(String sourceFileName) throws IOException
     {
         try
@@ -22,6 +24,7 @@ public class Listing
             }
             
             br.close();
+            lineCount = lineNumber;
         }
         catch(IOException ex)
         {
@@ -31,4 +34,6 @@ public class Listing
             System.exit(-1);
         }
     }
+    
+    public int getLineCount() { return lineCount; }
 }
@@ -0,0 +1,294 @@
+package frontend;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import org.antlr.v4.runtime.*;
+
+import antlr4.AKALexer;
+import antlr4.AKAParser;
+
+import intermediate.util.ParallelTasks;
+
+/**
+ * <h1>ParallelParser</h1>
+ *
+ * <p>Lex and parse the definitions of an AKA source file on all cores.
+ * A pre-scan finds where each top-level definition begins and ends by
+ * matching its braces, and skips the braces within comments and
+ * strings. Each definition is then lexed and parsed by a lexer and a
+ * parser of its own, and so is the rest of the program, with the
+ * definitions blanked out. The definitions' parse trees are stitched
+ * into the program's, which is then the tree of the whole file. Each
+ * lexer starts at the line and column where its text begins in the
+ * file, so the tokens keep their source lines.</p>
+ *
+ * <p>A source with syntax errors is not parsed here. It is left to the
+ * parser of the whole file, which reports them as usual.</p>
+ */
+public class ParallelParser
+{
+    /**
+     * A part of the source that is lexed and parsed on its own.
+     */
+    private static class Fragment
+    {
+        String text;
+        int line;                  // of the first character
+        int column;                // of the first character in its line
+        ParserRuleContext tree;    // the parse tree
+        int tokenCount;            // including the end of the fragment
+
+        /**
+         * Constructor.
+         * @param text the text.
+         * @param line the line of the first character.
+         * @param column the position of the first character in its line.
+         */
+        Fragment(String text, int line, int column)
+        {
+            this.text   = text;
+            this.line   = line;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Listener that only notes that an error was found.
+     */
+    private static class ErrorFlag extends BaseErrorListener
+    {
+        boolean raised = false;
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer,
+                                Object offendingSymbol,
+                                int line, int charPositionInLine,
+                                String msg,
+                                RecognitionException ex)
+        {
+            raised = true;
+        }
+    }
+
+    private String source;                    // the text of the file
+    private ArrayList<Fragment> definitions;  // in source order
+    private int tokenCount;                   // of the whole file
+
+    /**
+     * Constructor.
+     * @param source the text of the source file.
+     */
+    public ParallelParser(String source)
+    {
+        this.source      = source;
+        this.definitions = new ArrayList<Fragment>();
+    }
+
+    /**
+     * Get the number of tokens of the file, as the lexer of the whole
+     * file would have counted them.
+     * @return the number.
+     */
+    public int getTokenCount() { return tokenCount; }
+
+    /**
+     * Parse the file.
+     * @return the ProgramContext, or null if the file has syntax errors.
+     */
+    public AKAParser.ProgramContext parse()
+    {
+        Fragment program = new Fragment(split(), 1, 0);
+
+        ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        tasks.add(() -> parse(program, true));
+        for (Fragment definition : definitions) tasks.add(() -> parse(definition, false));
+
+        for (boolean parsed : ParallelTasks.invokeAll(tasks))
+        {
+            if (!parsed) return null;
+        }
+
+        AKAParser.ProgramContext tree = (AKAParser.ProgramContext) program.tree;
+        tokenCount = program.tokenCount;
+
+        if (!definitions.isEmpty()) stitch(tree);
+        return tree;
+    }
+
+    /**
+     * Find the top-level definitions that come before the main block.
+     * The scan stops wherever the source is not as expected, and the
+     * rest is left to the parse of the program, which then fails.
+     * @return the text of the rest of the program, in which each
+     *         definition is blanked out except for its line breaks.
+     */
+    private String split()
+    {
+        char rest[] = source.toCharArray();
+        int length = source.length();
+        int depth = 0;
+        int line = 1;
+        int lineStart = 0;       // index of the first character of the line
+        int start = -1;          // index of the current top-level part, if any
+        int startLine = 0;
+        int startColumn = 0;
+        boolean definitionsOnly = true;  // so far, all the top-level parts
+
+        for (int i = 0; i < length; i++)
+        {
+            char ch = source.charAt(i);
+
+            if (ch == '\n')
+            {
+                line++;
+                lineStart = i + 1;
+                continue;
+            }
+            if ((ch == ' ') || (ch == '\t') || (ch == '\r')) continue;
+
+            // A comment or a string is skipped. A string between the
+            // top-level parts is not part of a definition.
+            if ((ch == '$') || (ch == '"'))
+            {
+                int end = source.indexOf(ch, i + 1);
+                if (end < 0) break;
+
+                if ((ch == '"') && (depth == 1) && (start < 0)) definitionsOnly = false;
+
+                for (int j = i + 1; j < end; j++)
+                {
+                    if (source.charAt(j) == '\n')
+                    {
+                        line++;
+                        lineStart = j + 1;
+                    }
+                }
+
+                i = end;
+                continue;
+            }
+
+            if ((depth == 1) && (start < 0) && (ch != '}'))
+            {
+                start       = i;
+                startLine   = line;
+                startColumn = source.codePointCount(lineStart, i);
+            }
+
+            if (ch == '{') depth++;
+            else if (ch == '}')
+            {
+                if (--depth < 1) break;
+
+                // The end of a top-level part.
+                if ((depth == 1) && (start >= 0))
+                {
+                    definitionsOnly = definitionsOnly && isDefinition(start);
+
+                    if (definitionsOnly)
+                    {
+                        definitions.add(new Fragment(source.substring(start, i + 1),
+                                                     startLine, startColumn));
+                        for (int j = start; j <= i; j++)
+                        {
+                            if ((rest[j] != '\n') && (rest[j] != '\r')) rest[j] = ' ';
+                        }
+                    }
+
+                    start = -1;
+                }
+            }
+        }
+
+        return new String(rest);
+    }
+
+    /**
+     * Determine whether or not a top-level part begins with DEF.
+     * @param start the index of the part's first character.
+     * @return true if it does, else false.
+     */
+    private boolean isDefinition(int start)
+    {
+        int end = start + 3;
+
+        return    source.regionMatches(true, start, "def", 0, 3)
+               && (   (end == source.length())
+                   || !Character.isLetterOrDigit(source.charAt(end)));
+    }
+
+    /**
+     * Lex and parse a fragment on the current thread: the program with
+     * its definitions blanked out, or a definition.
+     * @param fragment the fragment.
+     * @param isProgram true for the program, false for a definition.
+     * @return true if it has no syntax errors, else false.
+     */
+    private boolean parse(Fragment fragment, boolean isProgram)
+    {
+        ErrorFlag errors = new ErrorFlag();
+
+        AKALexer lexer = new AKALexer(CharStreams.fromString(fragment.text));
+        lexer.setLine(fragment.line);
+        lexer.setCharPositionInLine(fragment.column);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        tokens.fill();
+        fragment.tokenCount = tokens.size();
+
+        AKAParser parser = new AKAParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errors);
+
+        // As with the parser of the whole file, the program may be
+        // followed by anything. A definition is followed by nothing.
+        if (isProgram)
+        {
+            fragment.tree = parser.program();
+        }
+        else
+        {
+            fragment.tree = parser.defList();
+            if (parser.getCurrentToken().getType() != Token.EOF) errors.raised = true;
+        }
+
+        return !errors.raised;
+    }
+
+    /**
+     * Stitch the trees of the definitions into the tree of the program,
+     * as its function block, after the program's opening brace.
+     * @param tree the tree of the program.
+     */
+    private void stitch(AKAParser.ProgramContext tree)
+    {
+        AKAParser.FuncblockContext funcblock = new AKAParser.FuncblockContext(tree, -1);
+        AKAParser.DefListContext defList = new AKAParser.DefListContext(funcblock, -1);
+
+        for (Fragment definition : definitions)
+        {
+            for (int i = 0; i < definition.tree.getChildCount(); i++)
+            {
+                ParserRuleContext child = (ParserRuleContext) definition.tree.getChild(i);
+
+                child.setParent(defList);
+                defList.addAnyChild(child);
+            }
+
+            // Less the end of the definition.
+            tokenCount += definition.tokenCount - 1;
+        }
+
+        defList.start = definitions.get(0).tree.start;
+        defList.stop  = definitions.get(definitions.size() - 1).tree.stop;
+        funcblock.start = defList.start;
+        funcblock.stop  = defList.stop;
+        funcblock.addAnyChild(defList);
+
+        // After the program identifier and the opening brace.
+        tree.children.add(2, funcblock);
+    }
+}
@@ -1,5 +1,7 @@
 package frontend;
 
+import java.util.ArrayList;
+
 import org.antlr.v4.runtime.ParserRuleContext;
 
 public class SemanticErrorHandler
@@ -36,7 +38,35 @@ public class SemanticErrorHandler
         Code(String message) { this.message = message; }
     }
     
+    /**
+     * An error that is printed later.
+     */
+    private static class Flagged
+    {
+        private Code code;
+        private int lineNumber;
+        private String text;
+    }
+    
     private int count = 0;
+    private ArrayList<Flagged> deferred;  // errors not yet printed, or null
+                                          //   if they are printed at once
+    
+    /**
+     * Constructor for errors that are printed as they are flagged.
+     */
+    public SemanticErrorHandler() {}
+    
+    /**
+     * Constructor for errors that are printed later by another handler,
+     * such as those of a definition body that is checked on a thread
+     * of its own.
+     * @param deferred true if the errors are printed later.
+     */
+    public SemanticErrorHandler(boolean deferred)
+    {
+        this.deferred = deferred ? new ArrayList<Flagged>() : null;
+    }
     
     /**
      * Get the count of semantic errors.
@@ -44,6 +74,21 @@ public class SemanticErrorHandler
      */
     public int getCount() { return count; };
     
+    /**
+     * Flag the deferred errors again with another handler, 
+     * which prints them in the order that they were flagged.
+     * @param handler the other handler.
+     */
+    public void replay(SemanticErrorHandler handler)
+    {
+        for (Flagged flagged : deferred)
+        {
+            handler.flag(flagged.code, flagged.lineNumber, flagged.text);
+        }
+        
+        deferred.clear();
+    }
+    
     /**
      * Flag a semantic error.
      * @param code the error code.
@@ -52,6 +97,18 @@ public class SemanticErrorHandler
      */
     public void flag(Code code, int lineNumber, String text)
     {
+        if (deferred != null)
+        {
+            Flagged flagged = new Flagged();
+            flagged.code       = code;
+            flagged.lineNumber = lineNumber;
+            flagged.text       = text;
+            deferred.add(flagged);
+            count++;
+            
+            return;
+        }
+        
         if (count == 0)
         {
             System.out.println("\n===== SEMANTIC ERRORS =====\n");
@@ -2,9 +2,15 @@ package frontend;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+
+import org.antlr.v4.runtime.tree.ParseTree;
 
 import antlr4.*;
 
+import intermediate.ast.Definition;
+import intermediate.ast.Main;
+import intermediate.ast.Program;
 import intermediate.symtab.*;
 import intermediate.symtab.SymtabEntry.Kind;
 import intermediate.type.*;
@@ -27,6 +33,16 @@ public class Semantics extends AKABaseVisitor<Object>
     private SymtabStack symtabStack;
     private SymtabEntry programId;
     private SemanticErrorHandler error;
+    private HashSet<SymtabEntry> declared;  // definitions whose bodies
+                                            //   are not yet checked
+    private AstBuilder astBuilder;
+    private ArrayList<Definition> definitions;  // lowered and not yet taken
+    private Main main;                          // lowered main block
+    private Program program;                    // lowered program
+    private boolean parallel;                   // check the bodies in parallel
+    private ArrayList<SymtabEntry> referencedIds;  // of a body checked in parallel,
+    private ArrayList<Integer> referenceLines;     //   the references to entries
+                                                   //   that other bodies share
     
     public Semantics(BackendMode mode)
     {
@@ -36,11 +52,70 @@ public class Semantics extends AKABaseVisitor<Object>
         
         this.mode = mode;
         this.error = new SemanticErrorHandler();
+        this.declared = new HashSet<SymtabEntry>();
+        this.astBuilder = new AstBuilder();
+        this.definitions = new ArrayList<Definition>();
+    }
+    
+    /**
+     * Constructor for checking one definition body on a thread of its
+     * own, after the signatures were declared. Its errors and its
+     * references to the program's entries are kept until all the
+     * bodies are checked, and then added in source order.
+     * @param parent the semantic pass of the whole program.
+     * @param routineId the symbol table entry of the definition's name.
+     */
+    private Semantics(Semantics parent, SymtabEntry routineId)
+    {
+        this.symtabStack = new SymtabStack(parent.symtabStack);
+        this.programId   = parent.programId;
+        this.mode        = parent.mode;
+        this.error       = new SemanticErrorHandler(true);
+        this.declared    = new HashSet<SymtabEntry>();
+        this.astBuilder  = parent.astBuilder;
+        this.definitions = new ArrayList<Definition>();
+        this.referencedIds  = new ArrayList<SymtabEntry>();
+        this.referenceLines = new ArrayList<Integer>();
+        
+        declared.add(routineId);
     }
     
     public SymtabEntry getProgramId() { return programId; }
+    public SymtabStack getSymtabStack() { return symtabStack; }
     public int getErrorCount() { return error.getCount(); };
     
+    /**
+     * Get the lowered program after a whole program was visited.
+     * @return the program's abstract syntax tree.
+     */
+    public Program getProgram() { return program; }
+    
+    /**
+     * Get the lowered main block after it was visited.
+     * @return the main block's abstract syntax tree.
+     */
+    public Main getMain() { return main; }
+    
+    /**
+     * Take the definitions that were lowered since the last call,
+     * for compiling a program one part at a time.
+     * @return the definitions in source order.
+     */
+    public ArrayList<Definition> takeDefinitions()
+    {
+        ArrayList<Definition> taken = definitions;
+        definitions = new ArrayList<Definition>();
+        
+        return taken;
+    }
+    
+    /**
+     * Set whether the definition bodies of a whole program are checked
+     * in parallel once their signatures are declared.
+     * @param parallel true if they are.
+     */
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
+    
     /**
      * Return the default value for a data type.
      * @param type the data type.
@@ -63,7 +138,84 @@ public class Semantics extends AKABaseVisitor<Object>
     
     @Override 
     public Object visitProgram(AKAParser.ProgramContext ctx) {
-    	AKAParser.ProgramIdentifierContext idCtx = ctx.programIdentifier();
+    	declareProgram(ctx.programIdentifier());
+    	
+        if (ctx.funcblock() != null) {
+        	declareDefinitions(ctx.funcblock().defList());
+        	
+        	if (parallel) checkDefinitions(ctx.funcblock().defList());
+        	else          visit(ctx.funcblock());
+        }
+    	visit(ctx.mainblock());
+    	
+    	ArrayList<Definition> defs = takeDefinitions();
+    	program = new Program(ctx.getStart().getLine(), programId,
+    	                      defs.toArray(new Definition[defs.size()]), main);
+    	
+    	return null; 
+    }
+    
+    /**
+     * Check the bodies of definitions whose signatures were declared,
+     * each on a thread of its own. A body sees only its own variables
+     * and the signatures, which no body changes, so the bodies are
+     * independent. Their errors and cross-references are added in
+     * source order, as if they were checked one after another.
+     * @param ctx the DefListContext.
+     */
+    private void checkDefinitions(AKAParser.DefListContext ctx)
+    {
+        ArrayList<Callable<Semantics>> tasks = new ArrayList<Callable<Semantics>>();
+        
+        for (int i = 0; i < ctx.getChildCount(); i++)
+        {
+            ParseTree child = ctx.getChild(i);
+            AKAParser.DefNameContext defNameCtx;
+            
+            if      (child instanceof AKAParser.DefinitionContext)
+            {
+                defNameCtx = ((AKAParser.DefinitionContext) child).defName();
+            }
+            else if (child instanceof AKAParser.DefinitionnoreturnContext)
+            {
+                defNameCtx = ((AKAParser.DefinitionnoreturnContext) child).defName();
+            }
+            else continue;
+            
+            SymtabEntry routineId = declaredRoutine(defNameCtx);
+            if (routineId == null) continue;
+            
+            Semantics body = new Semantics(this, routineId);
+            tasks.add(() -> { body.visit(child); return body; });
+        }
+        
+        for (Semantics body : ParallelTasks.invokeAll(tasks))
+        {
+            body.error.replay(error);
+            
+            for (int i = 0; i < body.referencedIds.size(); i++)
+            {
+                body.referencedIds.get(i).appendLineNumber(body.referenceLines.get(i));
+            }
+            
+            definitions.addAll(body.definitions);
+        }
+    }
+    
+    @Override 
+    public Object visitMainblock(AKAParser.MainblockContext ctx) {
+        visitChildren(ctx);
+        main = astBuilder.main(ctx);
+        
+        return null;
+    }
+    
+    /**
+     * Enter the program name and push the program's symbol table.
+     * @param idCtx the ProgramIdentifierContext.
+     */
+    public void declareProgram(AKAParser.ProgramIdentifierContext idCtx)
+    {
     	String programName = idCtx.IDENTIFIER().getText();
     	
     	programId = symtabStack.enterLocal(programName, PROGRAM);
@@ -72,15 +224,29 @@ public class Semantics extends AKABaseVisitor<Object>
         symtabStack.setProgramId(programId);
         symtabStack.getLocalSymtab().setOwner(programId);
         idCtx.entry = programId;
-    	
-        if (ctx.funcblock() != null) {
-        	visit(ctx.funcblock());
+    }
+    
+    /**
+     * Enter the signatures of definitions: their names, parameters,
+     * and return variables. All the signatures are entered before any
+     * body is checked, so a call can come before the definition it calls.
+     * @param ctx the DefListContext. The bodies are not visited.
+     */
+    public void declareDefinitions(AKAParser.DefListContext ctx)
+    {
+        for (int i = 0; i < ctx.getChildCount(); i++)
+        {
+            ParseTree child = ctx.getChild(i);
+            
+            if (child instanceof AKAParser.DefinitionContext)
+            {
+                declareDefinition((AKAParser.DefinitionContext) child);
+            }
+            else if (child instanceof AKAParser.DefinitionnoreturnContext)
+            {
+                declareDefinitionNoReturn((AKAParser.DefinitionnoreturnContext) child);
+            }
         }
-    	visit(ctx.mainblock());
-    	
-    	CrossReferencer crossReferencer = new CrossReferencer();
-        crossReferencer.print(symtabStack);
-    	return null; 
     }
 	
 	@Override 
@@ -123,6 +289,8 @@ public class Semantics extends AKABaseVisitor<Object>
         		varSE.setType(lhsType);
         		visitChildren(ctx);
         		rhsType = rhsCtx.declaration().expression().type;
+        		Symtab symtab = symtabStack.getLocalSymtab();
+        		varSE.setSlotNumber(symtab.nextSlotNumber());
         	} else {
         		
         		SymtabEntry dup =symtabStack.lookupLocal(lhsCtx.getText());
@@ -272,12 +440,28 @@ public class Semantics extends AKABaseVisitor<Object>
 	}
 	
 	
+	@Override 
+	public Object visitBench(AKAParser.BenchContext ctx) {
+		AKAParser.ExpressionContext exprCtx = ctx.expression();
+		visit(ctx.stringConstant());
+		visit(exprCtx);
+		
+		if (!TypeChecker.isNumber(exprCtx.type))
+		{
+			error.flag(TYPE_MUST_BE_NUMERIC, exprCtx);
+		}
+		
+		if (ctx.statementList() != null) visit(ctx.statementList());
+		return null;
+	}
+	
+	
 	@Override 
 	public Object visitDefCall(AKAParser.DefCallContext ctx) { 
 		AKAParser.DefNameContext nameCtx = ctx.defName();
 		AKAParser.ArgumentListContext listCtx = ctx.argumentList();
         String name = ctx.defName().getText().toLowerCase();
-        SymtabEntry procedureId = symtabStack.lookup(name);
+        SymtabEntry procedureId = lookupDefinition(name);
         boolean badName = false;
         
         if (procedureId == null)
@@ -355,10 +539,13 @@ public class Semantics extends AKABaseVisitor<Object>
 	}
 	
 	
-	@Override 
+	/**
+	 * Enter the signature of a definition that returns a value.
+	 * @param ctx the DefinitionContext.
+	 */
 	@SuppressWarnings("unchecked")
-	public Object visitDefinition(AKAParser.DefinitionContext ctx) { 
-	
+	private void declareDefinition(AKAParser.DefinitionContext ctx)
+	{
         AKAParser.DefNameContext defNameCtx = ctx.defName();
         AKAParser.VarListContext params = null;
         Typespec returnType = null;
@@ -374,7 +561,7 @@ public class Semantics extends AKABaseVisitor<Object>
         {
             error.flag(REDECLARED_IDENTIFIER, 
                        ctx.getStart().getLine(), routineName);
-            return null;
+            return;
         }
 
         routineId = symtabStack.enterLocal(routineName, DEFINITION);
@@ -477,6 +664,25 @@ public class Semantics extends AKABaseVisitor<Object>
         assocVarId.setSlotNumber(symtab.nextSlotNumber());
         assocVarId.setType(returnType);
         
+        symtabStack.pop();
+        declared.add(routineId);
+	}
+	
+	
+	@Override 
+	public Object visitDefinition(AKAParser.DefinitionContext ctx) { 
+        SymtabEntry routineId = declaredRoutine(ctx.defName());
+        if (routineId == null) return null;
+        
+        Symtab symtab = symtabStack.push(routineId.getRoutineSymtab());
+        attachSignature(ctx.defName(), ctx.varList(), routineId);
+        
+        AKAParser.VariableContext returnValueCtx = ctx.variable();
+        SymtabEntry returnId = 
+                symtab.lookup(returnValueCtx.getText().toLowerCase());
+        returnValueCtx.entry = returnId;
+        returnValueCtx.type  = returnId.getType();
+        
         if (ctx.statementList() != null) {
         	visit(ctx.statementList());
         	
@@ -500,18 +706,21 @@ public class Semantics extends AKABaseVisitor<Object>
         }
         
         
-        routineId.setExecutable(ctx.statementList());
+        lower(astBuilder.definition(ctx, routineId));
         
         symtabStack.pop();
         
         return null;
-		
 	}
 	
 	
-	@Override 
+	/**
+	 * Enter the signature of a definition that does not return a value.
+	 * @param ctx the DefinitionnoreturnContext.
+	 */
 	@SuppressWarnings("unchecked")
-	public Object visitDefinitionnoreturn(AKAParser.DefinitionnoreturnContext ctx) { 
+	private void declareDefinitionNoReturn(AKAParser.DefinitionnoreturnContext ctx)
+	{
 		 	AKAParser.DefNameContext defNameCtx = ctx.defName();
 	        AKAParser.VarListContext params = ctx.varList();
 	        String routineName;
@@ -524,7 +733,7 @@ public class Semantics extends AKABaseVisitor<Object>
 	        {
 	            error.flag(REDECLARED_IDENTIFIER, 
 	                       ctx.getStart().getLine(), routineName);
-	            return null;
+	            return;
 	        }
 
 	        routineId = symtabStack.enterLocal(routineName, DEFINITIONNORETURN);
@@ -553,16 +762,85 @@ public class Semantics extends AKABaseVisitor<Object>
 	            }
 	        }
 	        
+	        symtabStack.pop();
+	        declared.add(routineId);
+	}
+	
+	
+	@Override 
+	public Object visitDefinitionnoreturn(AKAParser.DefinitionnoreturnContext ctx) { 
+	        SymtabEntry routineId = declaredRoutine(ctx.defName());
+	        if (routineId == null) return null;
+	        
+	        symtabStack.push(routineId.getRoutineSymtab());
+	        attachSignature(ctx.defName(), ctx.varList(), routineId);
+	        
 	        if (ctx.statementList() != null) {
 	        	visit(ctx.statementList());
 	        }    
-	        routineId.setExecutable(ctx.statementList());
+	        lower(astBuilder.definition(ctx, routineId));
 
 	        symtabStack.pop();
 	        return null;
 	}
 	
 	
+	/**
+	 * Keep a lowered definition, which is its routine's executable code.
+	 * @param definition the lowered definition.
+	 */
+	private void lower(Definition definition)
+	{
+	    definition.routineId.setExecutable(definition);
+	    definitions.add(definition);
+	}
+	
+	
+	/**
+	 * Get the entry of a definition whose signature was declared and
+	 * whose body is about to be checked.
+	 * @param defNameCtx the DefNameContext.
+	 * @return the entry, or null if the definition was a redeclaration
+	 *         or its signature was not declared.
+	 */
+	private SymtabEntry declaredRoutine(AKAParser.DefNameContext defNameCtx)
+	{
+	    String routineName = defNameCtx.IDENTIFIER().getText().toLowerCase();
+	    SymtabEntry routineId = symtabStack.lookupLocal(routineName);
+	    
+	    return (routineId != null) && declared.remove(routineId) ? routineId : null;
+	}
+	
+	/**
+	 * Attach the entries of a declared definition to the nodes of its
+	 * signature. The body may have been parsed apart from the signature
+	 * that was declared.
+	 * @param defNameCtx the DefNameContext.
+	 * @param params the VarListContext of the parameters, or null.
+	 * @param routineId the definition's entry, whose symbol table
+	 *                  is on top of the stack.
+	 */
+	private void attachSignature(AKAParser.DefNameContext defNameCtx,
+	                             AKAParser.VarListContext params,
+	                             SymtabEntry routineId)
+	{
+	    defNameCtx.entry = routineId;
+	    defNameCtx.type  = routineId.getType();
+	    
+	    if (params == null) return;
+	    
+	    for (AKAParser.VariableContext varCtx : params.variable())
+	    {
+	        String varName = varCtx.variableIdentifier().IDENTIFIER().getText()
+	                                                    .toLowerCase();
+	        SymtabEntry varId = symtabStack.lookupLocal(varName);
+	        
+	        varCtx.entry = varId;
+	        varCtx.type  = varId.getType();
+	    }
+	}
+	
+	
 	@Override 
 	public Object visitExpression(AKAParser.ExpressionContext ctx) { 
 		AKAParser.SimpleExpressionContext simpleCtx1 =
@@ -583,9 +861,11 @@ public class Semantics extends AKABaseVisitor<Object>
                 ctx.simpleExpression().get(1);
 			visit(simpleCtx2);
 			Typespec simpleType2 = simpleCtx2.type;
+			
+			// A number compared to a boolean is coerced to boolean
+			// by the code generator, so keep its own type.
 			if (simpleType2 == Predefined.booleanType && simpleType1 != Predefined.stringType) {
-				simpleCtx1.type = Predefined.booleanType;
-				simpleType1 = simpleCtx1.type;
+				simpleType1 = Predefined.booleanType;
 			}
 			if (!TypeChecker.areComparisonCompatible(simpleType1, simpleType2))
 			{
@@ -897,7 +1177,7 @@ public class Semantics extends AKABaseVisitor<Object>
 		AKAParser.DefNameContext nameCtx = callCtx.defName();
 		AKAParser.ArgumentListContext listCtx = callCtx.argumentList();
         String name = callCtx.defName().getText().toLowerCase();
-        SymtabEntry functionId = symtabStack.lookup(name);
+        SymtabEntry functionId = lookupDefinition(name);
         boolean badName = false;
         
         ctx.type = Predefined.numberType;
@@ -973,7 +1253,7 @@ public class Semantics extends AKABaseVisitor<Object>
             int lineNumber = ctx.getStart().getLine();
             ctx.type = variableId.getType();
             ctx.entry = variableId;
-            variableId.appendLineNumber(lineNumber);
+            appendLineNumber(variableId, lineNumber);
             
             Kind kind = variableId.getKind();
             switch (kind)
@@ -1071,6 +1351,49 @@ public class Semantics extends AKABaseVisitor<Object>
 
     
     
+    /**
+     * Append the line number of a reference to an entry. A body that is
+     * checked in parallel with others keeps its references to entries
+     * outside its own symbol table until all the bodies are checked.
+     * @param id the entry.
+     * @param lineNumber the line number.
+     */
+    private void appendLineNumber(SymtabEntry id, int lineNumber)
+    {
+        if (   (referencedIds != null) 
+            && (id.getSymtab() != symtabStack.getLocalSymtab()))
+        {
+            referencedIds.add(id);
+            referenceLines.add(lineNumber);
+        }
+        else id.appendLineNumber(lineNumber);
+    }
+    
+    /**
+     * Look up the name of a called definition. Within a definition's
+     * own body, its name also names its associated variable, which
+     * must not hide the definition from a recursive call.
+     * @param name the name.
+     * @return the symbol table entry, or null if not found.
+     */
+    private SymtabEntry lookupDefinition(String name)
+    {
+        SymtabEntry id = symtabStack.lookup(name);
+        
+        if ((id != null) && (id.getKind() == VARIABLE))
+        {
+            SymtabEntry ownerId = id.getSymtab().getOwner();
+            
+            if (   (ownerId != null) && (ownerId.getKind() == DEFINITION)
+                && ownerId.getName().equals(name))
+            {
+                id = ownerId;
+            }
+        }
+        
+        return id;
+    }
+    
     /**
      * Perform semantic operations on procedure and function call arguments.
      * @param listCtx the ArgumentListContext.
@@ -0,0 +1,45 @@
+package intermediate.ast;
+
+import intermediate.symtab.SymtabEntry;
+import intermediate.type.Typespec;
+
+/**
+ * <h1>Assignment</h1>
+ *
+ * <p>An assignment statement, which also declares its variable
+ * if it starts with a type.</p>
+ */
+public class Assignment extends Statement
+{
+    public final SymtabEntry target;
+    public final Typespec targetType;
+    public final boolean declares;   // starts with a type
+    public final Expression value;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param target the symbol table entry of the assigned variable.
+     * @param targetType the variable's type.
+     * @param declares true if the assignment starts with a type.
+     * @param value the assigned expression.
+     */
+    public Assignment(int line, SymtabEntry target, Typespec targetType,
+                      boolean declares, Expression value)
+    {
+        super(line);
+        this.target     = target;
+        this.targetType = targetType;
+        this.declares   = declares;
+        this.value      = value;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitAssignment(this); }
+
+    public int getChildCount() { return 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? value : super.getChild(i);
+    }
+}
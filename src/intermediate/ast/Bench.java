@@ -0,0 +1,37 @@
+package intermediate.ast;
+
+/**
+ * <h1>Bench</h1>
+ *
+ * <p>A BENCH statement, which times the iterations of its body.</p>
+ */
+public class Bench extends Statement
+{
+    public final String name;            // without the quotes
+    public final Expression iterations;
+    public final Block body;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param name the block's name, without the quotes.
+     * @param iterations the count of warmup and of measured iterations.
+     * @param body the body.
+     */
+    public Bench(int line, String name, Expression iterations, Block body)
+    {
+        super(line);
+        this.name       = name;
+        this.iterations = iterations;
+        this.body       = body;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitBench(this); }
+
+    public int getChildCount() { return 2; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? iterations : i == 1 ? body : super.getChild(i);
+    }
+}
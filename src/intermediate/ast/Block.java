@@ -0,0 +1,37 @@
+package intermediate.ast;
+
+/**
+ * <h1>Block</h1>
+ *
+ * <p>The statements between a pair of braces, which may be none.</p>
+ */
+public class Block extends Node
+{
+    public final Statement statements[];
+    public final int tokenCount;  // source tokens of the statements
+
+    /**
+     * Constructor.
+     * @param line the source line of the token that opens the block.
+     * @param statements the statements.
+     * @param tokenCount the number of source tokens of the statements.
+     */
+    public Block(int line, Statement statements[], int tokenCount)
+    {
+        super(line);
+        this.statements = statements;
+        this.tokenCount = tokenCount;
+    }
+
+    /**
+     * Check whether the block has no statements.
+     * @return true if it has none.
+     */
+    public boolean isEmpty() { return statements.length == 0; }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitBlock(this); }
+
+    public int getChildCount() { return statements.length; }
+
+    public Node getChild(int i) { return statements[i]; }
+}
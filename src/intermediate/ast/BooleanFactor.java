@@ -0,0 +1,29 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>BooleanFactor</h1>
+ *
+ * <p>A TRUE or FALSE constant.</p>
+ */
+public class BooleanFactor extends Factor
+{
+    public final boolean value;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the boolean type.
+     * @param value the value.
+     */
+    public BooleanFactor(int line, Typespec type, boolean value)
+    {
+        super(line, type);
+        this.value = value;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitBooleanFactor(this); }
+
+    public String toString() { return Boolean.toString(value); }
+}
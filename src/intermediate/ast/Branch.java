@@ -0,0 +1,34 @@
+package intermediate.ast;
+
+/**
+ * <h1>Branch</h1>
+ *
+ * <p>The IF or an ELSEIF branch of an IF statement.</p>
+ */
+public class Branch extends Node
+{
+    public final Expression condition;
+    public final Block body;
+
+    /**
+     * Constructor.
+     * @param line the source line of IF or ELSEIF.
+     * @param condition the condition.
+     * @param body the body.
+     */
+    public Branch(int line, Expression condition, Block body)
+    {
+        super(line);
+        this.condition = condition;
+        this.body      = body;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitBranch(this); }
+
+    public int getChildCount() { return 2; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? condition : i == 1 ? body : super.getChild(i);
+    }
+}
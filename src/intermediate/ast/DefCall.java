@@ -0,0 +1,46 @@
+package intermediate.ast;
+
+import intermediate.symtab.SymtabEntry;
+import intermediate.type.Typespec;
+
+/**
+ * <h1>DefCall</h1>
+ *
+ * <p>A call of a definition, as a factor or as the call of a
+ * DefCallStatement.</p>
+ */
+public class DefCall extends Factor
+{
+    public final SymtabEntry routineId;
+    public final String name;              // as spelled in the source
+    public final Expression arguments[];
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the type of the returned value.
+     * @param routineId the symbol table entry of the definition's name.
+     * @param name the name as spelled in the source.
+     * @param arguments the arguments.
+     */
+    public DefCall(int line, Typespec type, SymtabEntry routineId, String name,
+                   Expression arguments[])
+    {
+        super(line, type);
+        this.routineId = routineId;
+        this.name      = name;
+        this.arguments = arguments;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitDefCall(this); }
+
+    public int getChildCount() { return arguments.length; }
+
+    public Node getChild(int i) { return arguments[i]; }
+
+    public String toString()
+    {
+        return join(new StringBuilder(name).append('('), arguments, ",")
+                   .append(')').toString();
+    }
+}
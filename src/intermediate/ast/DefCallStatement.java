@@ -0,0 +1,31 @@
+package intermediate.ast;
+
+/**
+ * <h1>DefCallStatement</h1>
+ *
+ * <p>A call of a definition as a statement.</p>
+ */
+public class DefCallStatement extends Statement
+{
+    public final DefCall call;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param call the call.
+     */
+    public DefCallStatement(int line, DefCall call)
+    {
+        super(line);
+        this.call = call;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitDefCallStatement(this); }
+
+    public int getChildCount() { return 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? call : super.getChild(i);
+    }
+}
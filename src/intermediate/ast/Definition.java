@@ -0,0 +1,53 @@
+package intermediate.ast;
+
+import intermediate.symtab.SymtabEntry;
+
+/**
+ * <h1>Definition</h1>
+ *
+ * <p>A definition, with or without a return variable. It is the
+ * executable code of its name's symbol table entry.</p>
+ */
+public class Definition extends Node
+{
+    public final SymtabEntry routineId;
+    public final String name;          // as spelled in the source
+    public final SymtabEntry returnId; // null for no return variable
+    public final Block body;
+    public final int endLine;          // source line of the closing brace
+
+    /**
+     * Constructor.
+     * @param line the source line of DEF.
+     * @param endLine the source line of the closing brace.
+     * @param routineId the symbol table entry of the definition's name.
+     * @param name the name as spelled in the source.
+     * @param returnId the entry of the return variable, or null if none.
+     * @param body the body.
+     */
+    public Definition(int line, int endLine, SymtabEntry routineId, String name,
+                      SymtabEntry returnId, Block body)
+    {
+        super(line);
+        this.endLine   = endLine;
+        this.routineId = routineId;
+        this.name      = name;
+        this.returnId  = returnId;
+        this.body      = body;
+    }
+
+    /**
+     * Check whether the definition has a return variable.
+     * @return true if it does.
+     */
+    public boolean hasReturn() { return returnId != null; }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitDefinition(this); }
+
+    public int getChildCount() { return 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? body : super.getChild(i);
+    }
+}
@@ -0,0 +1,31 @@
+package intermediate.ast;
+
+/**
+ * <h1>Display</h1>
+ *
+ * <p>A DISPLAY statement.</p>
+ */
+public class Display extends Statement
+{
+    public final Expression value;  // null to display an empty line
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param value the displayed expression, or null if none.
+     */
+    public Display(int line, Expression value)
+    {
+        super(line);
+        this.value = value;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitDisplay(this); }
+
+    public int getChildCount() { return value != null ? 1 : 0; }
+
+    public Node getChild(int i)
+    {
+        return (i == 0) && (value != null) ? value : super.getChild(i);
+    }
+}
@@ -0,0 +1,54 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>Expression</h1>
+ *
+ * <p>A simple expression, or a comparison of two.</p>
+ */
+public class Expression extends Node
+{
+    public final Typespec type;
+    public final SimpleExpression left;
+    public final Operator op;              // null if no comparison
+    public final SimpleExpression right;   // null if no comparison
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the expression's type.
+     * @param left the first simple expression.
+     * @param op the relational operator, or null if none.
+     * @param right the second simple expression, or null if none.
+     */
+    public Expression(int line, Typespec type, SimpleExpression left,
+                      Operator op, SimpleExpression right)
+    {
+        super(line);
+        this.type  = type;
+        this.left  = left;
+        this.op    = op;
+        this.right = right;
+    }
+
+    /**
+     * Check whether the expression is a comparison.
+     * @return true if it is.
+     */
+    public boolean isComparison() { return op != null; }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitExpression(this); }
+
+    public int getChildCount() { return op != null ? 2 : 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? left : (i == 1) && (op != null) ? right : super.getChild(i);
+    }
+
+    public String toString()
+    {
+        return op != null ? left.toString() + op + right : left.toString();
+    }
+}
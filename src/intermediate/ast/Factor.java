@@ -0,0 +1,24 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>Factor</h1>
+ *
+ * <p>A factor of a term.</p>
+ */
+public abstract class Factor extends Node
+{
+    public final Typespec type;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the factor's type.
+     */
+    protected Factor(int line, Typespec type)
+    {
+        super(line);
+        this.type = type;
+    }
+}
@@ -0,0 +1,35 @@
+package intermediate.ast;
+
+/**
+ * <h1>Guard</h1>
+ *
+ * <p>A GUARD statement, whose conditions are tested before each
+ * statement of its body.</p>
+ */
+public class Guard extends Statement
+{
+    public final Expression conditions[];
+    public final Block body;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param conditions the conditions.
+     * @param body the body.
+     */
+    public Guard(int line, Expression conditions[], Block body)
+    {
+        super(line);
+        this.conditions = conditions;
+        this.body       = body;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitGuard(this); }
+
+    public int getChildCount() { return conditions.length + 1; }
+
+    public Node getChild(int i)
+    {
+        return i < conditions.length ? conditions[i] : body;
+    }
+}
@@ -0,0 +1,38 @@
+package intermediate.ast;
+
+/**
+ * <h1>IfStatement</h1>
+ *
+ * <p>An IF statement: its IF branch, its ELSEIF branches, and its
+ * optional ELSE block.</p>
+ */
+public class IfStatement extends Statement
+{
+    public final Branch branches[];  // the IF branch, then the ELSEIF branches
+    public final Block elseBlock;    // null if none
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param branches the IF branch and then the ELSEIF branches.
+     * @param elseBlock the ELSE block, or null if none.
+     */
+    public IfStatement(int line, Branch branches[], Block elseBlock)
+    {
+        super(line);
+        this.branches  = branches;
+        this.elseBlock = elseBlock;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitIfStatement(this); }
+
+    public int getChildCount()
+    {
+        return branches.length + (elseBlock != null ? 1 : 0);
+    }
+
+    public Node getChild(int i)
+    {
+        return i < branches.length ? branches[i] : elseBlock;
+    }
+}
@@ -0,0 +1,34 @@
+package intermediate.ast;
+
+/**
+ * <h1>Main</h1>
+ *
+ * <p>The main block of a program.</p>
+ */
+public class Main extends Node
+{
+    public final Block body;
+    public final int endLine;  // source line of the closing brace
+
+    /**
+     * Constructor.
+     * @param line the source line of MAIN.
+     * @param endLine the source line of the closing brace.
+     * @param body the body.
+     */
+    public Main(int line, int endLine, Block body)
+    {
+        super(line);
+        this.endLine = endLine;
+        this.body    = body;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitMain(this); }
+
+    public int getChildCount() { return 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? body : super.getChild(i);
+    }
+}
@@ -0,0 +1,66 @@
+package intermediate.ast;
+
+/**
+ * <h1>Node</h1>
+ *
+ * <p>A node of the typed abstract syntax tree that the semantic pass
+ * lowers the parse tree to. The nodes are immutable, keep their
+ * children in arrays, and refer to the symbol table entries and types
+ * that the semantic pass resolved, so the backend needs no parse tree.
+ * Nodes are compared by identity, and the optimizers use them as the
+ * keys of their analyses.</p>
+ */
+public abstract class Node
+{
+    public final int line;  // source line of the node's first token
+
+    /**
+     * Constructor.
+     * @param line the source line of the node's first token.
+     */
+    protected Node(int line)
+    {
+        this.line = line;
+    }
+
+    /**
+     * Accept a visitor.
+     * @param visitor the visitor.
+     * @return the visitor's result.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+
+    /**
+     * Get the number of child nodes.
+     * @return the number.
+     */
+    public int getChildCount() { return 0; }
+
+    /**
+     * Get a child node.
+     * @param i the child's index, in source order.
+     * @return the child.
+     */
+    public Node getChild(int i)
+    {
+        throw new IndexOutOfBoundsException(Integer.toString(i));
+    }
+
+    /**
+     * Append a list of nodes to a string.
+     * @param text the string.
+     * @param nodes the nodes.
+     * @param separator the text between each pair of nodes.
+     * @return the string.
+     */
+    static StringBuilder join(StringBuilder text, Node nodes[], String separator)
+    {
+        for (int i = 0; i < nodes.length; i++)
+        {
+            if (i > 0) text.append(separator);
+            text.append(nodes[i]);
+        }
+
+        return text;
+    }
+}
@@ -0,0 +1,36 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>NotFactor</h1>
+ *
+ * <p>The NOT of a factor.</p>
+ */
+public class NotFactor extends Factor
+{
+    public final Factor factor;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the boolean type.
+     * @param factor the negated factor.
+     */
+    public NotFactor(int line, Typespec type, Factor factor)
+    {
+        super(line, type);
+        this.factor = factor;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitNotFactor(this); }
+
+    public int getChildCount() { return 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? factor : super.getChild(i);
+    }
+
+    public String toString() { return "not" + factor; }
+}
@@ -0,0 +1,33 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>NumberFactor</h1>
+ *
+ * <p>A number constant, with its sign.</p>
+ */
+public class NumberFactor extends Factor
+{
+    public final float value;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the number type.
+     * @param value the value.
+     */
+    public NumberFactor(int line, Typespec type, float value)
+    {
+        super(line, type);
+        this.value = value;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitNumberFactor(this); }
+
+    public String toString()
+    {
+        return value == (int) value ? Integer.toString((int) value)
+                                    : Float.toString(value);
+    }
+}
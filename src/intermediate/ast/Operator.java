@@ -0,0 +1,43 @@
+package intermediate.ast;
+
+/**
+ * <h1>Operator</h1>
+ *
+ * <p>The relational, adding, and multiplying operators, and the signs.</p>
+ */
+public enum Operator
+{
+    EQ("=="), NE("~"), LT("<"), LE("<="), GT(">"), GE(">="),
+    PLUS("+"), MINUS("-"), OR("or"),
+    MULTIPLY("*"), DIVIDE("/"), AND("and");
+
+    public final String text;  // lower case
+
+    /**
+     * Constructor.
+     * @param text the operator's text.
+     */
+    Operator(String text)
+    {
+        this.text = text;
+    }
+
+    /**
+     * Get the operator of a source token.
+     * @param text the token's text, in any case.
+     * @return the operator.
+     */
+    public static Operator of(String text)
+    {
+        String lower = text.toLowerCase();
+
+        for (Operator op : values())
+        {
+            if (op.text.equals(lower)) return op;
+        }
+
+        throw new IllegalArgumentException("Invalid operator " + text);
+    }
+
+    public String toString() { return text; }
+}
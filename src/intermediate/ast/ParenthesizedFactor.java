@@ -0,0 +1,36 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>ParenthesizedFactor</h1>
+ *
+ * <p>An expression in parentheses.</p>
+ */
+public class ParenthesizedFactor extends Factor
+{
+    public final Expression expression;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the expression's type.
+     * @param expression the expression.
+     */
+    public ParenthesizedFactor(int line, Typespec type, Expression expression)
+    {
+        super(line, type);
+        this.expression = expression;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitParenthesizedFactor(this); }
+
+    public int getChildCount() { return 1; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? expression : super.getChild(i);
+    }
+
+    public String toString() { return "(" + expression + ")"; }
+}
@@ -0,0 +1,40 @@
+package intermediate.ast;
+
+import intermediate.symtab.SymtabEntry;
+
+/**
+ * <h1>Program</h1>
+ *
+ * <p>A whole program: its definitions in source order and its main
+ * block.</p>
+ */
+public class Program extends Node
+{
+    public final SymtabEntry programId;
+    public final Definition definitions[];
+    public final Main main;
+
+    /**
+     * Constructor.
+     * @param line the source line of the program's name.
+     * @param programId the symbol table entry of the program's name.
+     * @param definitions the definitions, in source order.
+     * @param main the main block.
+     */
+    public Program(int line, SymtabEntry programId, Definition definitions[], Main main)
+    {
+        super(line);
+        this.programId   = programId;
+        this.definitions = definitions;
+        this.main        = main;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitProgram(this); }
+
+    public int getChildCount() { return definitions.length + 1; }
+
+    public Node getChild(int i)
+    {
+        return i < definitions.length ? definitions[i] : main;
+    }
+}
@@ -0,0 +1,52 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>SimpleExpression</h1>
+ *
+ * <p>A sequence of terms joined by adding operators, with an
+ * optional sign.</p>
+ */
+public class SimpleExpression extends Node
+{
+    public final Typespec type;
+    public final Operator sign;   // PLUS, MINUS, or null if none
+    public final Term terms[];
+    public final Operator ops[];  // ops[i] is between terms[i] and terms[i+1]
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the simple expression's type.
+     * @param sign the sign, or null if none.
+     * @param terms the terms.
+     * @param ops the adding operators.
+     */
+    public SimpleExpression(int line, Typespec type, Operator sign,
+                            Term terms[], Operator ops[])
+    {
+        super(line);
+        this.type  = type;
+        this.sign  = sign;
+        this.terms = terms;
+        this.ops   = ops;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitSimpleExpression(this); }
+
+    public int getChildCount() { return terms.length; }
+
+    public Node getChild(int i) { return terms[i]; }
+
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+
+        if (sign != null) text.append(sign);
+        text.append(terms[0]);
+        for (int i = 0; i < ops.length; i++) text.append(ops[i]).append(terms[i + 1]);
+
+        return text.toString();
+    }
+}
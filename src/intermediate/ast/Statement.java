@@ -0,0 +1,18 @@
+package intermediate.ast;
+
+/**
+ * <h1>Statement</h1>
+ *
+ * <p>A statement of a block.</p>
+ */
+public abstract class Statement extends Node
+{
+    /**
+     * Constructor.
+     * @param line the source line of the statement's first token.
+     */
+    protected Statement(int line)
+    {
+        super(line);
+    }
+}
@@ -0,0 +1,29 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>StringFactor</h1>
+ *
+ * <p>A string constant.</p>
+ */
+public class StringFactor extends Factor
+{
+    public final String value;  // without the quotes
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the string type.
+     * @param value the value, without the quotes.
+     */
+    public StringFactor(int line, Typespec type, String value)
+    {
+        super(line, type);
+        this.value = value;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitStringFactor(this); }
+
+    public String toString() { return "\"" + value + "\""; }
+}
@@ -0,0 +1,44 @@
+package intermediate.ast;
+
+import intermediate.type.Typespec;
+
+/**
+ * <h1>Term</h1>
+ *
+ * <p>A sequence of factors joined by multiplying operators.</p>
+ */
+public class Term extends Node
+{
+    public final Typespec type;
+    public final Factor factors[];
+    public final Operator ops[];  // ops[i] is between factors[i] and factors[i+1]
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the term's type.
+     * @param factors the factors.
+     * @param ops the multiplying operators.
+     */
+    public Term(int line, Typespec type, Factor factors[], Operator ops[])
+    {
+        super(line);
+        this.type    = type;
+        this.factors = factors;
+        this.ops     = ops;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitTerm(this); }
+
+    public int getChildCount() { return factors.length; }
+
+    public Node getChild(int i) { return factors[i]; }
+
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder().append(factors[0]);
+        for (int i = 0; i < ops.length; i++) text.append(ops[i]).append(factors[i + 1]);
+
+        return text.toString();
+    }
+}
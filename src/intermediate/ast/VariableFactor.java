@@ -0,0 +1,33 @@
+package intermediate.ast;
+
+import intermediate.symtab.SymtabEntry;
+import intermediate.type.Typespec;
+
+/**
+ * <h1>VariableFactor</h1>
+ *
+ * <p>A read of a variable.</p>
+ */
+public class VariableFactor extends Factor
+{
+    public final SymtabEntry entry;
+    public final String name;  // as spelled in the source
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param type the variable's type.
+     * @param entry the variable's symbol table entry.
+     * @param name the name as spelled in the source.
+     */
+    public VariableFactor(int line, Typespec type, SymtabEntry entry, String name)
+    {
+        super(line, type);
+        this.entry = entry;
+        this.name  = name;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitVariableFactor(this); }
+
+    public String toString() { return name; }
+}
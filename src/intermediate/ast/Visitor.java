@@ -0,0 +1,34 @@
+package intermediate.ast;
+
+/**
+ * <h1>Visitor</h1>
+ *
+ * <p>A visitor of the nodes of the abstract syntax tree.</p>
+ */
+public interface Visitor<T>
+{
+    T visitProgram(Program node);
+    T visitDefinition(Definition node);
+    T visitMain(Main node);
+    T visitBlock(Block node);
+
+    T visitAssignment(Assignment node);
+    T visitIfStatement(IfStatement node);
+    T visitBranch(Branch node);
+    T visitWhileStatement(WhileStatement node);
+    T visitGuard(Guard node);
+    T visitBench(Bench node);
+    T visitDisplay(Display node);
+    T visitDefCallStatement(DefCallStatement node);
+
+    T visitExpression(Expression node);
+    T visitSimpleExpression(SimpleExpression node);
+    T visitTerm(Term node);
+    T visitVariableFactor(VariableFactor node);
+    T visitNumberFactor(NumberFactor node);
+    T visitStringFactor(StringFactor node);
+    T visitBooleanFactor(BooleanFactor node);
+    T visitDefCall(DefCall node);
+    T visitNotFactor(NotFactor node);
+    T visitParenthesizedFactor(ParenthesizedFactor node);
+}
@@ -0,0 +1,34 @@
+package intermediate.ast;
+
+/**
+ * <h1>WhileStatement</h1>
+ *
+ * <p>A WHILE loop.</p>
+ */
+public class WhileStatement extends Statement
+{
+    public final Expression condition;
+    public final Block body;
+
+    /**
+     * Constructor.
+     * @param line the source line.
+     * @param condition the condition.
+     * @param body the body.
+     */
+    public WhileStatement(int line, Expression condition, Block body)
+    {
+        super(line);
+        this.condition = condition;
+        this.body      = body;
+    }
+
+    public <T> T accept(Visitor<T> visitor) { return visitor.visitWhileStatement(this); }
+
+    public int getChildCount() { return 2; }
+
+    public Node getChild(int i)
+    {
+        return i == 0 ? condition : i == 1 ? body : super.getChild(i);
+    }
+}
@@ -29,6 +29,19 @@ public class SymtabStack
         add(new Symtab(currentNestingLevel));
     }
 
+    /**
+     * Constructor for a stack that starts with the symbol tables of
+     * another stack, so that a definition body can be checked on a
+     * thread of its own while the other stack is left as it was.
+     * @param stack the other stack.
+     */
+    public SymtabStack(SymtabStack stack)
+    {
+        super(stack);
+        this.currentNestingLevel = stack.currentNestingLevel;
+        this.programId = stack.programId;
+    }
+
     /**
      * Getter.
      * @return the current nesting level.
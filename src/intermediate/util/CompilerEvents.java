@@ -0,0 +1,129 @@
+package intermediate.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <h1>CompilerEvents</h1>
+ *
+ * <p>The Java Flight Recorder events of the compiler's phases. Each event
+ * spans one phase and carries the sizes that the phase's time depends on,
+ * so that a recording of a compilation shows which phase grows with which
+ * measure of the source. An event costs nothing unless a recording that
+ * enables it is running, such as one that is started with</p>
+ *
+ * <pre>    java -XX:StartFlightRecording=filename=aka.jfr AKA -compile prog.aka</pre>
+ */
+public class CompilerEvents
+{
+    private static final String CATEGORY = "AKA Compiler";
+
+    /**
+     * The printing of the source listing.
+     */
+    @Name("aka.Listing")
+    @Label("Listing")
+    @Category(CATEGORY)
+    @Description("Print the numbered lines of the source file")
+    public static class ListingEvent extends Event
+    {
+        @Label("Source File")
+        public String sourceFile;
+
+        @Label("Lines")
+        public int lineCount;
+    }
+
+    /**
+     * The scanning of the source into tokens.
+     */
+    @Name("aka.Lexing")
+    @Label("Lexing")
+    @Category(CATEGORY)
+    @Description("Scan the source into tokens")
+    public static class LexingEvent extends Event
+    {
+        @Label("Source Size")
+        @DataAmount
+        public long sourceSize;
+
+        @Label("Tokens")
+        public int tokenCount;
+    }
+
+    /**
+     * The parsing of the tokens into a parse tree.
+     */
+    @Name("aka.Parsing")
+    @Label("Parsing")
+    @Category(CATEGORY)
+    @Description("Parse the tokens into a parse tree")
+    public static class ParsingEvent extends Event
+    {
+        @Label("Tokens")
+        public int tokenCount;
+
+        @Label("Parse Tree Nodes")
+        public int nodeCount;
+
+        @Label("Syntax Errors")
+        public int errorCount;
+    }
+
+    /**
+     * The type checking and symbol table building of pass 2.
+     */
+    @Name("aka.Semantics")
+    @Label("Semantic Analysis")
+    @Category(CATEGORY)
+    @Description("Check types and create the symbol tables")
+    public static class SemanticsEvent extends Event
+    {
+        @Label("Parse Tree Nodes")
+        public int nodeCount;
+
+        @Label("Symbols")
+        public int symbolCount;
+
+        @Label("Semantic Errors")
+        public int errorCount;
+    }
+
+    /**
+     * The printing of the cross-reference table.
+     */
+    @Name("aka.CrossReference")
+    @Label("Cross-Reference")
+    @Category(CATEGORY)
+    @Description("Print the cross-reference table of the symbol tables")
+    public static class CrossReferenceEvent extends Event
+    {
+        @Label("Symbols")
+        public int symbolCount;
+    }
+
+    /**
+     * The code generation of the program or of one of its definitions.
+     */
+    @Name("aka.CodeGeneration")
+    @Label("Code Generation")
+    @Category(CATEGORY)
+    @Description("Generate the object code of the program or of a definition")
+    public static class CodeGenerationEvent extends Event
+    {
+        @Label("Definition")
+        @Description("The definition, \"main\", or empty for the whole program")
+        public String definition;
+
+        @Label("Parse Tree Nodes")
+        public int nodeCount;
+
+        @Label("Instructions Emitted")
+        @Description("Instructions and directives before peephole optimization")
+        public int instructionCount;
+    }
+}
@@ -0,0 +1,236 @@
+package intermediate.util;
+
+import java.io.File;
+
+/**
+ * <h1>CompilerOptions</h1>
+ *
+ * <p>The command-line flags that control the compiler's passes.</p>
+ */
+public class CompilerOptions
+{
+    private boolean optimize  = true;   // run the optimization passes
+    private boolean report    = false;  // print optimization reports
+    private boolean heapStack = false;  // run self-recursion on a heap stack
+    private boolean memo      = false;  // cache the results of pure definitions
+    private boolean fastMath  = false;  // allow inexact algebraic identities
+    private boolean profile   = false;  // sample the running program's stack
+    private boolean coverage  = false;  // count statement and branch executions
+    private boolean stats     = false;  // print the time and memory of each phase
+    private boolean stream    = false;  // compile one definition at a time
+    private boolean parallel  = false;  // parse, check, and compile definitions in parallel
+    private boolean incremental = false;  // reuse the unchanged definitions' code
+    private String profileDataFileName = null;  // counts of a training run
+    private String objectDirectory     = null;  // of the object file, or null
+                                                //   for the current directory
+
+    /**
+     * Set an option from a command-line flag.
+     * @param flag the flag.
+     * @return true if the flag is valid, else false.
+     */
+    public boolean parse(String flag)
+    {
+        if      (flag.equalsIgnoreCase("-noopt"))     optimize  = false;
+        else if (flag.equalsIgnoreCase("-report"))    report    = true;
+        else if (flag.equalsIgnoreCase("-heapstack")) heapStack = true;
+        else if (flag.equalsIgnoreCase("-memo"))      memo      = true;
+        else if (flag.equalsIgnoreCase("-fastmath"))  fastMath  = true;
+        else if (flag.equalsIgnoreCase("-profile"))   profile   = true;
+        else if (flag.equalsIgnoreCase("-coverage"))  coverage  = true;
+        else if (flag.equalsIgnoreCase("-stats"))     stats     = true;
+        else if (flag.equalsIgnoreCase("-stream"))    stream    = true;
+        else if (flag.equalsIgnoreCase("-parallel"))  parallel  = true;
+        else if (flag.equalsIgnoreCase("-incremental")) incremental = true;
+        else return false;
+
+        return true;
+    }
+
+    /**
+     * Set an option from a command-line flag that has a value.
+     * @param flag the flag.
+     * @param value the value that follows the flag.
+     * @return true if the flag is valid, else false.
+     */
+    public boolean parse(String flag, String value)
+    {
+        if      (flag.equalsIgnoreCase("-profile-data")) profileDataFileName = value;
+        else if (flag.equalsIgnoreCase("-d"))            objectDirectory     = value;
+        else return false;
+
+        return true;
+    }
+
+    /**
+     * Determine whether or not a command-line flag has a value.
+     * @param flag the flag.
+     * @return true if the next argument is its value, else false.
+     */
+    public static boolean hasValue(String flag)
+    {
+        return flag.equalsIgnoreCase("-profile-data") || flag.equalsIgnoreCase("-d");
+    }
+
+    /**
+     * Print the valid flags.
+     */
+    public static void printUsage()
+    {
+        System.out.println("   flags:  -noopt      disable the optimization passes");
+        System.out.println("           -report     print optimization reports");
+        System.out.println("           -heapstack  run non-tail self-recursion on a heap stack");
+        System.out.println("           -memo       cache the results of pure definitions");
+        System.out.println("           -fastmath   simplify arithmetic even where float results change");
+        System.out.println("           -profile    sample the program as it runs and report its hot lines");
+        System.out.println("           -coverage   count statement and branch executions into a .cov file");
+        System.out.println("           -stats      print the time and allocated memory of each compiler phase");
+        System.out.println("           -stream     parse, check, and compile one definition at a time");
+        System.out.println("           -parallel   parse, check, and compile the definitions on all cores");
+        System.out.println("           -incremental");
+        System.out.println("                       as -stream, but reuse the code of unchanged definitions");
+        System.out.println("           -profile-data file");
+        System.out.println("                       optimize for the counts in a -coverage run's .cov file");
+        System.out.println("           -d directory");
+        System.out.println("                       write the object file into the directory");
+    }
+
+    /**
+     * Getter.
+     * @return true if the optimization passes run, else false.
+     */
+    public boolean isOptimizing() { return optimize; }
+
+    /**
+     * Getter.
+     * @return true if optimization reports are printed, else false.
+     */
+    public boolean isReporting() { return report; }
+
+    /**
+     * Getter.
+     * @return true if non-tail self-recursive calls use a heap stack.
+     */
+    public boolean isHeapStack() { return heapStack; }
+
+    /**
+     * Getter.
+     * @return true if the results of pure definitions are cached.
+     */
+    public boolean isMemoizing() { return memo; }
+
+    /**
+     * Getter.
+     * @return true if algebraic identities that are inexact 
+     *         in float arithmetic are applied.
+     */
+    public boolean isFastMath() { return fastMath; }
+
+    /**
+     * Getter.
+     * @return true if the compiled program runs the sampling profiler.
+     */
+    public boolean isProfiling() { return profile; }
+
+    /**
+     * Getter.
+     * @return true if the compiled program counts the executions
+     *         of its statements and branches.
+     */
+    public boolean isCoverage() { return coverage; }
+
+    /**
+     * Getter.
+     * @return true if the time and allocated memory of each compiler
+     *         phase are printed.
+     */
+    public boolean isStats() { return stats; }
+
+    /**
+     * Getter.
+     * @return true if each definition is parsed, checked, and compiled
+     *         before the next one is read, else false.
+     */
+    public boolean isStreaming() { return stream || incremental; }
+
+    /**
+     * Getter.
+     * @return true if the code of the definitions that have not changed
+     *         since the last compilation is reused, else false.
+     *         Incremental compilation streams the definitions.
+     */
+    public boolean isIncremental() { return incremental; }
+
+    /**
+     * Get the flags that change the code compiled for a definition.
+     * Code compiled with other flags cannot be reused.
+     * @return the flags, separated by blanks.
+     */
+    public String getCodeFlags()
+    {
+        StringBuilder flags = new StringBuilder();
+
+        if (!optimize) flags.append(" -noopt");
+        if (heapStack) flags.append(" -heapstack");
+        if (fastMath)  flags.append(" -fastmath");
+        if (profile)   flags.append(" -profile");
+
+        return flags.toString().trim();
+    }
+
+    /**
+     * Getter.
+     * @return true if the definitions are parsed, checked, and compiled
+     *         in parallel once their signatures are known, else false.
+     */
+    public boolean isParallel() { return parallel; }
+
+    /**
+     * Find a flag that cannot be combined with the others.
+     * @return the flag, or null if none.
+     */
+    public String conflictingFlag()
+    {
+        // These need the whole program's parse tree at once.
+        if (stream || incremental)
+        {
+            if (memo)                         return "-memo";
+            if (coverage)                     return "-coverage";
+            if (profileDataFileName != null)  return "-profile-data";
+            
+            // Each definition is already compiled as soon as it is read.
+            if (parallel)                     return "-parallel";
+        }
+
+        return null;
+    }
+
+    /**
+     * Check that the object directory, if any, exists.
+     * @return what is wrong with it, or null if nothing.
+     */
+    public String objectDirectoryProblem()
+    {
+        if (objectDirectory == null) return null;
+
+        File directory = new File(objectDirectory);
+        if (!directory.exists())      return "does not exist";
+        if (!directory.isDirectory()) return "is not a directory";
+
+        return null;
+    }
+
+    /**
+     * Getter.
+     * @return the name of the file of the training run's counts,
+     *         or null if none.
+     */
+    public String getProfileDataFileName() { return profileDataFileName; }
+
+    /**
+     * Getter.
+     * @return the directory of the object file, or null if it is
+     *         the current directory.
+     */
+    public String getObjectDirectory() { return objectDirectory; }
+}
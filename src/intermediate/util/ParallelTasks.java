@@ -0,0 +1,54 @@
+package intermediate.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <h1>ParallelTasks</h1>
+ *
+ * <p>Run independent tasks, such as checking or compiling the bodies of
+ * definitions, on the common fork/join pool. The results come back in
+ * the order of the tasks, whatever order the tasks finish in, so that
+ * whatever is made of them is the same from run to run.</p>
+ */
+public class ParallelTasks
+{
+    /**
+     * Run tasks and wait for all of them.
+     * @param tasks the tasks.
+     * @return their results, in the order of the tasks.
+     */
+    public static <T> ArrayList<T> invokeAll(List<Callable<T>> tasks)
+    {
+        ArrayList<T> results = new ArrayList<T>(tasks.size());
+
+        for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks))
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+            catch (ExecutionException ex)
+            {
+                // A failed task fails the whole compilation, as it would
+                // have had it run on the compiler's own thread.
+                Throwable cause = ex.getCause();
+
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error)            throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        return results;
+    }
+}
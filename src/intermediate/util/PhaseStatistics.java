@@ -0,0 +1,315 @@
+package intermediate.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import jdk.jfr.Event;
+
+import intermediate.ast.Node;
+import intermediate.symtab.*;
+
+/**
+ * <h1>PhaseStatistics</h1>
+ *
+ * <p>The elapsed time and the memory allocated by each phase of a
+ * compilation. A phase that begins while another is running, such as the
+ * code generation of a definition, is nested within it and printed as one
+ * of its parts. Each phase also spans a flight recorder event.</p>
+ *
+ * <p>The allocated bytes are those of the compiler's thread, as counted
+ * by the JVM's thread management bean, or -1 where that is not
+ * supported. When the compilation runs in parallel, a top-level phase
+ * counts the bytes of all the threads instead, since the pool's threads
+ * do much of its work; a nested phase still counts only the thread that
+ * runs it. The bytes of a pool thread that ends during a phase are
+ * lost, but the pool keeps its idle threads for a minute.</p>
+ */
+public class PhaseStatistics
+{
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN;
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        THREAD_BEAN =    (bean instanceof com.sun.management.ThreadMXBean)
+                      && ((com.sun.management.ThreadMXBean) bean)
+                                            .isThreadAllocatedMemorySupported()
+                    ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    /**
+     * A running or finished phase.
+     */
+    public static class Phase
+    {
+        private String name;
+        private Event event;
+        private int depth;           // the number of enclosing phases
+        private long startTime;      // nanoseconds
+        private long startBytes;
+        private HashMap<Long, Long> startThreadBytes;  // of all the threads, or null
+        private long elapsedTime;    // nanoseconds
+        private long allocatedBytes; // -1 if unknown
+
+        /**
+         * Constructor.
+         * @param name the name of the phase.
+         * @param event the phase's flight recorder event.
+         * @param depth the number of enclosing phases.
+         */
+        private Phase(String name, Event event, int depth)
+        {
+            this.name  = name;
+            this.event = event;
+            this.depth = depth;
+        }
+    }
+
+    private ArrayList<Phase> phases;  // in the order that they began
+    private int depth;                // the number of running phases
+    private boolean allThreads;       // true if top-level phases count all threads
+
+    /**
+     * Constructor.
+     */
+    public PhaseStatistics()
+    {
+        this(false);
+    }
+
+    /**
+     * Constructor.
+     * @param allThreads true if the top-level phases count the memory
+     *                   allocated by all the threads, as they should when
+     *                   the compilation runs in parallel.
+     */
+    public PhaseStatistics(boolean allThreads)
+    {
+        this.phases     = new ArrayList<Phase>();
+        this.allThreads = allThreads;
+    }
+
+    /**
+     * Begin a phase.
+     * @param name the name of the phase.
+     * @param event the phase's flight recorder event.
+     * @return the phase, to pass to end().
+     */
+    public Phase begin(String name, Event event)
+    {
+        Phase phase = new Phase(name, event, depth++);
+        phases.add(phase);
+
+        event.begin();
+        if (allThreads && (phase.depth == 0)) phase.startThreadBytes = threadBytes();
+        else                                  phase.startBytes = allocatedBytes();
+        phase.startTime  = System.nanoTime();
+
+        return phase;
+    }
+
+    /**
+     * End a phase and commit its event, whose fields must be set.
+     * @param phase the phase returned by begin().
+     */
+    public void end(Phase phase)
+    {
+        phase.elapsedTime = System.nanoTime() - phase.startTime;
+
+        if (phase.startThreadBytes != null)
+        {
+            phase.allocatedBytes = allocatedSince(phase.startThreadBytes);
+            phase.startThreadBytes = null;
+        }
+        else
+        {
+            long bytes = allocatedBytes();
+            phase.allocatedBytes = bytes >= 0 ? bytes - phase.startBytes : -1;
+        }
+
+        phase.event.commit();
+        --depth;
+    }
+
+    /**
+     * Add the phases of another thread, such as those of a definition
+     * compiled in parallel with others, as parts of the running phases.
+     * Their memory is counted in the running phases only if those count
+     * all the threads, since it was allocated by the other thread.
+     * @param parts the statistics of the other thread's phases.
+     */
+    public void add(PhaseStatistics parts)
+    {
+        for (Phase phase : parts.phases)
+        {
+            phase.depth += depth;
+            phases.add(phase);
+        }
+    }
+
+    /**
+     * Print the time and allocated memory of each phase.
+     */
+    public void print()
+    {
+        long totalTime  = 0;
+        long totalBytes = 0;
+
+        System.out.println("\n===== COMPILER PHASES =====\n");
+        System.out.printf("%-32s %12s %16s\n", "Phase", "Time (ms)", "Allocated (KB)");
+        System.out.printf("%-32s %12s %16s\n", "-----", "---------", "--------------");
+
+        for (Phase phase : phases)
+        {
+            printRow(indentation(phase.depth) + phase.name,
+                     phase.elapsedTime, phase.allocatedBytes);
+
+            if (phase.depth == 0)
+            {
+                totalTime  += phase.elapsedTime;
+                totalBytes  =    (totalBytes >= 0) && (phase.allocatedBytes >= 0)
+                              ? totalBytes + phase.allocatedBytes : -1;
+            }
+        }
+
+        System.out.printf("%-32s %12s %16s\n", "", "---------", "--------------");
+        printRow("Total", totalTime, totalBytes);
+    }
+
+    /**
+     * Count the nodes of a parse tree.
+     * @param tree the parse tree.
+     * @return the number of rule and token nodes.
+     */
+    public static int countNodes(ParseTree tree)
+    {
+        int count = 1;
+
+        for (int i = 0; i < tree.getChildCount(); i++)
+        {
+            count += countNodes(tree.getChild(i));
+        }
+
+        return count;
+    }
+
+    /**
+     * Count the nodes of an abstract syntax tree.
+     * @param node the tree's root.
+     * @return the number of nodes.
+     */
+    public static int countNodes(Node node)
+    {
+        int count = 1;
+
+        for (int i = 0; i < node.getChildCount(); i++)
+        {
+            count += countNodes(node.getChild(i));
+        }
+
+        return count;
+    }
+
+    /**
+     * Count the symbols of a routine and of its subroutines.
+     * @param routineId the symbol table entry of the routine's name.
+     * @return the number of symbol table entries.
+     */
+    public static int countSymbols(SymtabEntry routineId)
+    {
+        if ((routineId == null) || (routineId.getRoutineSymtab() == null)) return 0;
+
+        int count = routineId.getRoutineSymtab().size();
+        ArrayList<SymtabEntry> routineIds = routineId.getSubroutines();
+
+        if (routineIds != null)
+        {
+            for (SymtabEntry subroutineId : routineIds)
+            {
+                count += countSymbols(subroutineId);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Print a row of the phase table.
+     * @param name the name of the phase.
+     * @param time the elapsed time in nanoseconds.
+     * @param bytes the allocated bytes, or -1 if unknown.
+     */
+    private void printRow(String name, long time, long bytes)
+    {
+        String allocated = bytes >= 0 ? String.format("%,d", bytes/1024) : "?";
+        System.out.printf("%-32s %12.3f %16s\n", name, time/1.0e6, allocated);
+    }
+
+    /**
+     * Get the indentation of a nested phase.
+     * @param depth the number of enclosing phases.
+     * @return the indentation.
+     */
+    private String indentation(int depth)
+    {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < depth; i++) buffer.append("  ");
+
+        return buffer.toString();
+    }
+
+    /**
+     * Get the number of bytes that the current thread has allocated.
+     * @return the number, or -1 if unknown.
+     */
+    private static long allocatedBytes()
+    {
+        return THREAD_BEAN != null
+                ? THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId())
+                : -1;
+    }
+
+    /**
+     * Get the number of bytes that each live thread has allocated.
+     * @return the numbers by thread ID, or null if unknown.
+     */
+    private static HashMap<Long, Long> threadBytes()
+    {
+        if (THREAD_BEAN == null) return null;
+
+        long ids[]   = THREAD_BEAN.getAllThreadIds();
+        long bytes[] = THREAD_BEAN.getThreadAllocatedBytes(ids);
+        HashMap<Long, Long> counts = new HashMap<Long, Long>();
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            if (bytes[i] >= 0) counts.put(ids[i], bytes[i]);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Get the number of bytes that the live threads have allocated since
+     * their counts were taken. A thread that started since then counts
+     * all of its bytes.
+     * @param startCounts the counts by thread ID, or null if unknown.
+     * @return the number, or -1 if unknown.
+     */
+    private static long allocatedSince(HashMap<Long, Long> startCounts)
+    {
+        HashMap<Long, Long> counts = threadBytes();
+        if ((startCounts == null) || (counts == null)) return -1;
+
+        long total = 0;
+        for (Long id : counts.keySet())
+        {
+            Long start = startCounts.get(id);
+            total += counts.get(id) - (start != null ? start : 0);
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,161 @@
+package runtime;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * <h1>Bench</h1>
+ *
+ * <p>The runtime of the BENCH statement. Each time a block runs, it
+ * runs its body for the warmup iterations and then for as many
+ * measured iterations, and System.nanoTime() times each measured one.
+ * The times go into an array that is allocated before the first
+ * iteration, so the measured path does not allocate. Blocks with the
+ * same name share their times. The minimum, mean, and 99th percentile
+ * of each block are printed when the JVM exits.</p>
+ *
+ * <p>Each run has a Bench object of its own, which the generated code
+ * keeps in a local variable, so a block that runs again before its
+ * last run ends, from within its body or from a recursive call, does
+ * not disturb the iterations of the outer run.</p>
+ */
+public class Bench
+{
+    /**
+     * The times of all the blocks with a name.
+     */
+    private static class Block
+    {
+        String name;
+        long times[];          // nanoseconds of the measured iterations
+        int count;             // times recorded
+        int reserved;          // times that started runs can record
+
+        Block(String name)
+        {
+            this.name  = name;
+            this.times = new long[0];
+        }
+    }
+
+    private Block block;       // shared by the runs of the block
+    private int warmup;        // warmup iterations left in this run
+    private int measured;      // measured iterations left in this run
+    private long startTime;    // of the current iteration
+
+    private static LinkedHashMap<String, Block> blocks = null;
+
+    /**
+     * Start a run of a block.
+     * @param name the block's name.
+     * @param iterations the count of warmup and of measured iterations.
+     * @return the timer of this run.
+     */
+    public static synchronized Bench start(String name, int iterations)
+    {
+        if (blocks == null)
+        {
+            blocks = new LinkedHashMap<String, Block>();
+            Runtime.getRuntime().addShutdownHook(new Thread(Bench::printAll));
+        }
+
+        Block block = blocks.get(name);
+        if (block == null)
+        {
+            block = new Block(name);
+            blocks.put(name, block);
+        }
+
+        // Make room for the measured iterations of this run and of the
+        // runs that have not ended.
+        iterations = Math.max(0, iterations);
+        block.reserved += iterations;
+        if (block.reserved > block.times.length)
+        {
+            block.times = Arrays.copyOf(block.times, block.reserved);
+        }
+
+        return new Bench(block, iterations);
+    }
+
+    /**
+     * Constructor.
+     * @param block the times of the block.
+     * @param iterations the count of warmup and of measured iterations.
+     */
+    private Bench(Block block, int iterations)
+    {
+        this.block    = block;
+        this.warmup   = iterations;
+        this.measured = iterations;
+    }
+
+    /**
+     * Start the next iteration.
+     * @return true if there is one, else false.
+     */
+    public boolean next()
+    {
+        if (warmup + measured == 0) return false;
+
+        startTime = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * End the current iteration, and record its time if it is measured.
+     */
+    public void stop()
+    {
+        long elapsed = System.nanoTime() - startTime;
+
+        if (warmup > 0) warmup--;
+        else
+        {
+            block.times[block.count++] = elapsed;
+            measured--;
+        }
+    }
+
+    /**
+     * Print the times of all the blocks.
+     */
+    private static synchronized void printAll()
+    {
+        System.out.println("\n===== BENCHMARKS =====\n");
+        System.out.printf("%-24s %10s %12s %12s %12s\n",
+                          "Block", "Iterations", "Min (us)", "Mean (us)", "P99 (us)");
+        System.out.printf("%-24s %10s %12s %12s %12s\n",
+                          "-----", "----------", "--------", "---------", "--------");
+
+        for (Block block : blocks.values()) print(block);
+    }
+
+    /**
+     * Print the times of a block.
+     * @param block the block.
+     */
+    private static void print(Block block)
+    {
+        String name  = block.name;
+        long times[] = block.times;
+        int count    = block.count;
+
+        if (count == 0)
+        {
+            System.out.printf("%-24s %10d\n", name, 0);
+            return;
+        }
+
+        long sorted[] = Arrays.copyOf(times, count);
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long time : sorted) total += time;
+
+        int p99 = (int) Math.ceil(0.99*count) - 1;
+
+        System.out.printf("%-24s %,10d %12.3f %12.3f %12.3f\n", name, count,
+                          sorted[0]/1.0e3, total/1.0e3/count, sorted[p99]/1.0e3);
+    }
+}
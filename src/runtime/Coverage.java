@@ -0,0 +1,376 @@
+package runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+/**
+ * <h1>Coverage</h1>
+ *
+ * <p>The coverage runtime and report tool. A program compiled with
+ * -coverage registers its probe count array when its class is
+ * initialized, and the counts are added into the file
+ * &lt;program&gt;.cov when the JVM exits, so that the file accumulates
+ * the runs. Run as a program, it merges the .cov files of many runs,
+ * such as from different machines, and prints the hit count and the
+ * covered branch outcomes of each source line.</p>
+ *
+ * <p>The file is binary: a magic number, a version, the class name, the
+ * source file name, the probe table, the probe count, and the counts.</p>
+ */
+public class Coverage
+{
+    private static final int MAGIC   = 0x414B4143;  // "AKAC"
+    private static final int VERSION = 1;
+
+    private String className;
+    private String sourceFileName;
+    private String table;      // "kind line parent" entries
+    private long counts[];
+
+    private static ArrayList<Coverage> registered = null;
+
+    /**
+     * Register a class's counts to be written at exit.
+     * @param className the program's class name.
+     * @param sourceFileName the source file's name, or "" if not known.
+     * @param table the probe table.
+     * @param counts the probe count array that the probes increment.
+     */
+    public static synchronized void register(String className,
+                                             String sourceFileName,
+                                             String table, long counts[])
+    {
+        if (registered == null)
+        {
+            registered = new ArrayList<Coverage>();
+            Runtime.getRuntime().addShutdownHook(new Thread(Coverage::dumpAll));
+        }
+
+        registered.add(new Coverage(className, sourceFileName, table, counts));
+    }
+
+    /**
+     * Add the counts of each registered class into its file.
+     */
+    private static synchronized void dumpAll()
+    {
+        for (Coverage coverage : registered)
+        {
+            String fileName = coverage.className + ".cov";
+
+            try
+            {
+                if (new File(fileName).exists())
+                {
+                    Coverage previous = read(fileName);
+                    if (coverage.matches(previous)) coverage.add(previous);
+                }
+
+                coverage.write(fileName);
+            }
+            catch (IOException ex)
+            {
+                System.err.printf("*** Coverage file \"%s\" not written: %s\n",
+                                  fileName, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Merge coverage files and print the per-line report.
+     * @param args [-o mergedFileName] fileName ...
+     */
+    public static void main(String args[]) throws IOException
+    {
+        String outputFileName = null;
+        Coverage merged = null;
+        int first = 0;
+
+        if ((args.length >= 2) && args[0].equals("-o"))
+        {
+            outputFileName = args[1];
+            first = 2;
+        }
+
+        if (first >= args.length)
+        {
+            System.out.println("USAGE: Coverage [-o mergedFile] coverageFile ...");
+            return;
+        }
+
+        for (int i = first; i < args.length; i++)
+        {
+            Coverage coverage = read(args[i]);
+
+            if (merged == null) merged = coverage;
+            else if (merged.matches(coverage)) merged.add(coverage);
+            else
+            {
+                System.out.printf("ERROR: %s is not from the same program as %s.\n",
+                                  args[i], args[first]);
+                return;
+            }
+        }
+
+        if (outputFileName != null) merged.write(outputFileName);
+        merged.printReport(new File(args[first]).getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Constructor.
+     * @param className the program's class name.
+     * @param sourceFileName the source file's name.
+     * @param table the probe table.
+     * @param counts the probe counts.
+     */
+    private Coverage(String className, String sourceFileName,
+                     String table, long counts[])
+    {
+        this.className      = className;
+        this.sourceFileName = sourceFileName;
+        this.table          = table;
+        this.counts         = counts;
+    }
+
+    /**
+     * Read a coverage file.
+     * @param fileName the file's name.
+     * @return the coverage.
+     * @throws IOException if not a readable coverage file.
+     */
+    public static Coverage read(String fileName) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(fileName))))
+        {
+            if ((in.readInt() != MAGIC) || (in.readShort() != VERSION))
+            {
+                throw new IOException(fileName + " is not a coverage file");
+            }
+
+            String className      = in.readUTF();
+            String sourceFileName = in.readUTF();
+            String table          = in.readUTF();
+            long counts[] = new long[in.readInt()];
+
+            for (int i = 0; i < counts.length; i++) counts[i] = in.readLong();
+
+            return new Coverage(className, sourceFileName, table, counts);
+        }
+    }
+
+    /**
+     * Getter.
+     * @return the probe table.
+     */
+    public String getTable() { return table; }
+
+    /**
+     * Getter.
+     * @return the probe counts.
+     */
+    public long[] getCounts() { return counts; }
+
+    /**
+     * Write the coverage file.
+     * @param fileName the file's name.
+     * @throws IOException if not written.
+     */
+    private void write(String fileName) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(fileName))))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(className);
+            out.writeUTF(sourceFileName);
+            out.writeUTF(table);
+            out.writeInt(counts.length);
+
+            for (long count : counts) out.writeLong(count);
+        }
+    }
+
+    /**
+     * Determine whether or not other counts are from the same program.
+     * @param other the other coverage.
+     * @return true if they have the same class and probes, else false.
+     */
+    private boolean matches(Coverage other)
+    {
+        return    className.equals(other.className)
+               && table.equals(other.table)
+               && (counts.length == other.counts.length);
+    }
+
+    /**
+     * Add other counts to these.
+     * @param other the other coverage.
+     */
+    private void add(Coverage other)
+    {
+        for (int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+    }
+
+    /**
+     * Print the hit count and the covered branch outcomes of each line.
+     * The source lines are printed too if the source file is found.
+     * @param directory the directory to look for the source file in,
+     *                  after the current directory.
+     */
+    private void printReport(File directory) throws IOException
+    {
+        String entries[] = table.isEmpty() ? new String[0] : table.split(";");
+        int probeCount = entries.length;
+        char kinds[]   = new char[probeCount];
+        int lines[]    = new int[probeCount];
+        int parents[]  = new int[probeCount];
+
+        for (int i = 0; i < probeCount; i++)
+        {
+            String fields[] = entries[i].split(" ");
+
+            kinds[i]   = fields[0].charAt(0);
+            lines[i]   = Integer.parseInt(fields[1]);
+            parents[i] = Integer.parseInt(fields[2]);
+        }
+
+        TreeMap<Integer, Long> hits = new TreeMap<Integer, Long>();
+        TreeMap<Integer, int[]> branches = new TreeMap<Integer, int[]>();
+        long reach[] = new long[probeCount];  // entries that reach the next test
+        int coveredStatements = 0, statementCount = 0;
+
+        for (int i = 0; i < probeCount; i++)
+        {
+            reach[i] = counts[i];
+        }
+
+        for (int i = 0; i < probeCount; i++)
+        {
+            int parent = parents[i];
+
+            switch (kinds[i])
+            {
+                case 'S':
+                case 'G':
+                {
+                    Long previous = hits.get(lines[i]);
+                    hits.put(lines[i], Math.max(counts[i],
+                                                previous != null ? previous : 0));
+
+                    statementCount++;
+                    if (counts[i] > 0) coveredStatements++;
+
+                    // The guard check before this statement.
+                    if (kinds[i] == 'G')
+                    {
+                        addOutcome(branches, lines[parent], counts[i] > 0);
+                        addOutcome(branches, lines[parent], reach[parent] > counts[i]);
+                        reach[parent] = counts[i];
+                    }
+                    break;
+                }
+
+                // The true and false outcomes of an IF or ELSEIF condition.
+                case 'B':
+                {
+                    addOutcome(branches, lines[i], counts[i] > 0);
+                    addOutcome(branches, lines[i], reach[parent] > counts[i]);
+                    reach[parent] -= counts[i];
+                    break;
+                }
+
+                // The body and exit outcomes of a WHILE condition.
+                case 'L':
+                {
+                    addOutcome(branches, lines[i], counts[i] > 0);
+                    addOutcome(branches, lines[i], counts[parent] > 0);
+                    break;
+                }
+
+                default: break;  // an ELSE is the last condition's false outcome
+            }
+        }
+
+        int coveredBranches = 0, branchCount = 0;
+        for (int outcomes[] : branches.values())
+        {
+            coveredBranches += outcomes[0];
+            branchCount     += outcomes[1];
+        }
+
+        System.out.printf("\n===== COVERAGE OF %s =====\n\n", className);
+        System.out.printf("Statements: %d of %d covered.\n",
+                          coveredStatements, statementCount);
+        System.out.printf("Branches:   %d of %d covered.\n\n",
+                          coveredBranches, branchCount);
+        System.out.println("Line        Hits  Branches  Source");
+        System.out.println("----        ----  --------  ------");
+
+        ArrayList<String> source = readSource(directory);
+        int lastLine = source != null ? source.size()
+                     : hits.isEmpty()  ? 0 : hits.lastKey();
+
+        for (int line = 1; line <= lastLine; line++)
+        {
+            Long count = hits.get(line);
+            int outcomes[] = branches.get(line);
+            if ((source == null) && (count == null) && (outcomes == null)) continue;
+
+            System.out.printf("%03d  %11s  %8s  %s\n", line,
+                              count != null ? Long.toString(count) : "",
+                              outcomes != null ? outcomes[0] + "/" + outcomes[1] : "",
+                              source != null ? source.get(line - 1) : "");
+        }
+    }
+
+    private static void addOutcome(TreeMap<Integer, int[]> branches, int line,
+                                   boolean covered)
+    {
+        int outcomes[] = branches.get(line);
+
+        if (outcomes == null)
+        {
+            outcomes = new int[2];
+            branches.put(line, outcomes);
+        }
+
+        if (covered) outcomes[0]++;
+        outcomes[1]++;
+    }
+
+    /**
+     * Read the source file from the current directory or another.
+     * @param directory the other directory.
+     * @return the list of lines, or null if not found.
+     */
+    private ArrayList<String> readSource(File directory) throws IOException
+    {
+        if (sourceFileName.isEmpty()) return null;
+
+        File file = new File(sourceFileName);
+        if (!file.exists()) file = new File(directory, sourceFileName);
+        if (!file.exists()) return null;
+
+        ArrayList<String> lines = new ArrayList<String>();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(file)))
+        {
+            String line;
+            while ((line = in.readLine()) != null) lines.add(line);
+        }
+
+        return lines;
+    }
+}
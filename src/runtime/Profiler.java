@@ -0,0 +1,327 @@
+package runtime;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>Profiler</h1>
+ *
+ * <p>The sampling profiler that a program compiled with -profile runs.
+ * A daemon thread samples the main thread's stack every millisecond.
+ * Each frame of the program's class is mapped back to an AKA definition
+ * and source line: the line comes from the line number table, and the
+ * definition is the one whose source lines contain it, which also
+ * attributes inlined code to the definition it came from. When main
+ * finishes, the samples are written as collapsed stacks, one line per
+ * distinct stack with its count, for flame graph tools, and the top
+ * definitions and lines are printed, with a warning if there are too
+ * few samples for their percentages to mean much.</p>
+ */
+public class Profiler
+{
+    private static final int INTERVAL    = 1;    // milliseconds between samples
+    private static final int TOP_COUNT   = 10;   // lines in each report table
+    private static final int MIN_SAMPLES = 100;  // for reliable percentages
+
+    /**
+     * The source lines of a definition or of main.
+     */
+    private static class Range
+    {
+        String name;
+        int first;
+        int last;
+
+        Range(String name, int first, int last)
+        {
+            this.name  = name;
+            this.first = first;
+            this.last  = last;
+        }
+    }
+
+    private static Profiler profiler;  // of the running program
+
+    private String className;          // the program's class
+    private ArrayList<Range> ranges;   // the side table
+    private Thread target;             // the sampled thread
+    private Thread sampler;
+    private volatile boolean running;
+    private long startTime;            // nanoseconds
+
+    private LinkedHashMap<String, Integer> stacks;  // collapsed stack counts
+    private int sampleCount;
+
+    /**
+     * Start sampling the calling thread.
+     * @param className the program's class name.
+     * @param table the side table of source lines: one "name first last"
+     *              entry for each definition and for main, separated
+     *              by semicolons.
+     */
+    public static void start(String className, String table)
+    {
+        profiler = new Profiler(className, table, Thread.currentThread());
+        profiler.sampler.start();
+    }
+
+    /**
+     * Stop sampling, write the collapsed stacks, and print the report.
+     */
+    public static void stop()
+    {
+        if (profiler == null) return;
+
+        profiler.finish();
+        profiler = null;
+    }
+
+    /**
+     * Constructor.
+     * @param className the program's class name.
+     * @param table the side table of source lines.
+     * @param target the thread to sample.
+     */
+    private Profiler(String className, String table, Thread target)
+    {
+        this.className = className;
+        this.ranges    = new ArrayList<Range>();
+        this.target    = target;
+        this.stacks    = new LinkedHashMap<String, Integer>();
+        this.running   = true;
+        this.startTime = System.nanoTime();
+
+        for (String entry : table.split(";"))
+        {
+            String fields[] = entry.trim().split(" ");
+
+            if (fields.length == 3)
+            {
+                ranges.add(new Range(fields[0], Integer.parseInt(fields[1]),
+                                                Integer.parseInt(fields[2])));
+            }
+        }
+
+        sampler = new Thread(this::sample, "AKA profiler");
+        sampler.setDaemon(true);
+    }
+
+    /**
+     * The sampler thread's loop.
+     */
+    private void sample()
+    {
+        while (running)
+        {
+            String stack = collapse(target.getStackTrace());
+
+            if (stack != null)
+            {
+                synchronized (stacks)
+                {
+                    Integer count = stacks.get(stack);
+                    stacks.put(stack, count != null ? count + 1 : 1);
+                    sampleCount++;
+                }
+            }
+
+            try
+            {
+                Thread.sleep(INTERVAL);
+            }
+            catch (InterruptedException ex)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Collapse a stack trace into its program frames, outermost first.
+     * @param trace the stack trace, innermost first.
+     * @return the frames separated by semicolons, or null if none.
+     */
+    private String collapse(StackTraceElement trace[])
+    {
+        StringBuilder buffer = new StringBuilder();
+
+        for (int i = trace.length - 1; i >= 0; i--)
+        {
+            StackTraceElement frame = trace[i];
+            if (!frame.getClassName().equals(className)) continue;
+
+            if (buffer.length() > 0) buffer.append(';');
+            appendFrameName(buffer, frame);
+        }
+
+        return buffer.length() > 0 ? buffer.toString() : null;
+    }
+
+    /**
+     * Append the name of a frame: its AKA definition and line. It is appended
+     * rather than concatenated, since the first string concatenation of
+     * the sampler would link the JVM's concatenation code, which takes
+     * longer than a short program runs.
+     * @param buffer the buffer to append to.
+     * @param frame the frame.
+     */
+    private void appendFrameName(StringBuilder buffer, StackTraceElement frame)
+    {
+        int line = frame.getLineNumber();
+        String name = frame.getMethodName();
+
+        for (Range range : ranges)
+        {
+            if ((range.first <= line) && (line <= range.last))
+            {
+                name = range.name;
+                break;
+            }
+        }
+
+        buffer.append(name);
+        if (line > 0) buffer.append(':').append(line);
+    }
+
+    /**
+     * Stop the sampler, then write and print the results.
+     */
+    private void finish()
+    {
+        running = false;
+        sampler.interrupt();
+
+        try
+        {
+            sampler.join();
+        }
+        catch (InterruptedException ignored) {}
+
+        long elapsed = (System.nanoTime() - startTime)/1_000_000;
+        String fileName = className + ".collapsed";
+
+        writeCollapsed(fileName);
+        printReport(elapsed, fileName);
+    }
+
+    /**
+     * Write the collapsed stacks file.
+     * @param fileName the file's name.
+     */
+    private void writeCollapsed(String fileName)
+    {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName)))
+        {
+            for (Map.Entry<String, Integer> entry : stacks.entrySet())
+            {
+                out.printf("%s %d\n", entry.getKey(), entry.getValue());
+            }
+        }
+        catch (IOException ex)
+        {
+            System.out.printf("\n*** Profile file \"%s\" not written: %s\n",
+                              fileName, ex.getMessage());
+        }
+    }
+
+    /**
+     * Print the top definitions by total and self samples, and the top lines.
+     * @param elapsed the execution time in milliseconds.
+     * @param fileName the collapsed stacks file's name.
+     */
+    private void printReport(long elapsed, String fileName)
+    {
+        LinkedHashMap<String, Integer> selfCounts  = new LinkedHashMap<String, Integer>();
+        LinkedHashMap<String, Integer> totalCounts = new LinkedHashMap<String, Integer>();
+        LinkedHashMap<String, Integer> lineCounts  = new LinkedHashMap<String, Integer>();
+
+        for (Map.Entry<String, Integer> entry : stacks.entrySet())
+        {
+            String frames[] = entry.getKey().split(";");
+            int count = entry.getValue();
+            String innermost = frames[frames.length - 1];
+            HashSet<String> seen = new HashSet<String>();
+
+            add(selfCounts, definitionOf(innermost), count);
+            add(lineCounts, innermost, count);
+
+            // Count each definition once per stack, even if recursive.
+            for (String frame : frames)
+            {
+                if (seen.add(definitionOf(frame)))
+                {
+                    add(totalCounts, definitionOf(frame), count);
+                }
+            }
+        }
+
+        System.out.println("\n===== PROFILE =====\n");
+        System.out.printf("[%,d milliseconds execution time, %,d samples.]\n",
+                          elapsed, sampleCount);
+
+        // A short run spends much of its time warming up the JVM, and
+        // on a single core each sample waits for the sampled thread.
+        if (sampleCount < MIN_SAMPLES)
+        {
+            System.out.printf("*** Only %d samples, too few for reliable " +
+                              "percentages: make the program run longer.\n",
+                              sampleCount);
+        }
+        System.out.printf("[Collapsed stacks written to \"%s\".]\n", fileName);
+
+        System.out.println("\n  Total   Self  Definition");
+        System.out.println("  -----   ----  ----------");
+
+        for (String name : top(totalCounts))
+        {
+            System.out.printf("%6.1f%% %5.1f%%  %s\n",
+                              percent(totalCounts.get(name)),
+                              percent(selfCounts.containsKey(name)
+                                          ? selfCounts.get(name) : 0),
+                              name);
+        }
+
+        System.out.println("\n   Self  Samples  Line");
+        System.out.println("   ----  -------  ----");
+
+        for (String frame : top(lineCounts))
+        {
+            System.out.printf("%6.1f%%  %7d  %s\n", percent(lineCounts.get(frame)),
+                              lineCounts.get(frame), frame);
+        }
+    }
+
+    private static String definitionOf(String frame)
+    {
+        int colon = frame.indexOf(':');
+        return colon >= 0 ? frame.substring(0, colon) : frame;
+    }
+
+    private static void add(Map<String, Integer> counts, String key, int count)
+    {
+        Integer sum = counts.get(key);
+        counts.put(key, sum != null ? sum + count : count);
+    }
+
+    /**
+     * Return the keys with the largest counts, largest first.
+     */
+    private static ArrayList<String> top(Map<String, Integer> counts)
+    {
+        ArrayList<String> keys = new ArrayList<String>(counts.keySet());
+
+        Collections.sort(keys, (a, b) -> counts.get(b) - counts.get(a));
+        return new ArrayList<String>(keys.subList(0, Math.min(TOP_COUNT, keys.size())));
+    }
+
+    private double percent(int count)
+    {
+        return sampleCount > 0 ? 100.0*count/sampleCount : 0;
+    }
+}